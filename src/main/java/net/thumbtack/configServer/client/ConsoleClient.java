@@ -6,6 +6,7 @@ import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -109,9 +110,11 @@ public class ConsoleClient {
     private static TTransport configureTransport(XMLConfiguration config) {
         final String url = config.getString("client.url");
         final int port = config.getInt("client.port");
+        final boolean framed = config.getBoolean("client.framed", false);
 
-        LOG.info("Configured transport to listen {} port {}", url, port);
+        LOG.info("Configured {} transport to listen {} port {}", framed ? "framed" : "buffered", url, port);
 
-        return new TSocket(url, port);
+        TTransport socket = new TSocket(url, port);
+        return framed ? new TFramedTransport(socket) : socket;
     }
 }
\ No newline at end of file
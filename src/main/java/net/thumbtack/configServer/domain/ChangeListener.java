@@ -0,0 +1,31 @@
+package net.thumbtack.configServer.domain;
+
+/**
+ * ChangeListener is notified by {@link ConfigTree} after every change of the tree.
+ * Notifications are sent from the thread which made the change, so they should not block.
+ * Every change has its own version, versions grow in the order of changes of the same node,
+ * but notifications about changes of different nodes can come out of order.
+ */
+public interface ChangeListener {
+    /**
+     * Called after the node was created or its value was changed.
+     * Parents created together with the node are reported separately.
+     * @param path path to the node
+     * @param value new value of the node
+     * @param version version of the change
+     */
+    void nodeChanged(NodePath path, String value, long version);
+
+    /**
+     * Called after the node was removed together with all its descendants.
+     * @param path path to the removed node
+     * @param version version of the change
+     */
+    void nodeRemoved(NodePath path, long version);
+
+    /**
+     * Called after the entire tree was replaced.
+     * @param version version of the change, all nodes of the new tree have this version
+     */
+    void treeRestored(long version);
+}
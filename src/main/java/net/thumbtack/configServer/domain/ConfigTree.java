@@ -0,0 +1,134 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ConfigTree is a storage engine of the configuration tree.
+ * All implementations should be completely thread-safe.
+ */
+public interface ConfigTree {
+    /**
+     * Creates a node with the given path and value.
+     * If parent nodes in the hierarchy does not exist, it will create them with the empty value.
+     * @param path path to the created node
+     * @param value value of the created node
+     * @throws DuplicateKeyException if tree already has a node with the same path
+     */
+    void create(NodePath path, String value) throws DuplicateKeyException;
+
+    /**
+     * Removes the node with the given path and all its children.
+     * @param path path to removing node
+     * @return a dump of the removed subtree
+     * @throws UnknownKeyException if there is no node with given path
+     * @throws InvalidKeyException if you are trying to remove the root
+     */
+    NodeDump remove(NodePath path) throws UnknownKeyException, InvalidKeyException;
+
+    /**
+     * @param path path to node
+     * @return true if node exists
+     */
+    boolean exists(NodePath path);
+
+    /**
+     * @param path path to node
+     * @return value of the node
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    String getValue(NodePath path) throws UnknownKeyException;
+
+    /**
+     * Reads values of many nodes at once. Paths sharing a prefix are resolved with a single walk of this prefix.
+     * @param paths paths to nodes
+     * @return values in the order of the given paths, null for nodes which do not exist
+     */
+    List<String> getValues(List<NodePath> paths);
+
+    /**
+     * @param path path to node
+     * @param value new value of the node
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    void setValue(NodePath path, String value) throws UnknownKeyException;
+
+    /**
+     * @param path path to node
+     * @return list of children names sorted by name
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    List<String> getChildrenNames(NodePath path) throws UnknownKeyException;
+
+    /**
+     * @param path path to node
+     * @param afterName name after which the page starts, null to start from the first child
+     * @param limit maximal count of names in the page
+     * @return list of at most limit children names following afterName sorted by name
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    List<String> getChildrenNames(NodePath path, String afterName, int limit) throws UnknownKeyException;
+
+    /**
+     * @param path path to node
+     * @param maxDepth maximal depth of the dumped descendants, 0 to dump only the node, negative to dump all of them
+     * @return a dump of the subtree with the given root
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    NodeDump getSubtree(NodePath path, int maxDepth) throws UnknownKeyException;
+
+    /**
+     * @return version of the last change of the tree
+     */
+    long getVersion();
+
+    /**
+     * @param path path to node
+     * @param recursive whether changes of descendants should be taken into account
+     * @return version of the last change of the node (or its subtree if recursive).
+     * For a missing node it is the version of the last change of the subtree of its nearest existing ancestor,
+     * which is not less than the version of the node removal.
+     */
+    long getVersion(NodePath path, boolean recursive);
+
+    /**
+     * Adds the listener notified after every change of the tree.
+     */
+    void addChangeListener(ChangeListener listener);
+
+    /**
+     * Counts the nodes of the tree, it walks the entire tree and doesn't mark the nodes as accessed.
+     * @return count of nodes and an estimate of their heap size
+     */
+    TreeStats getStats();
+
+    /**
+     * @return a dump of the entire tree
+     */
+    NodeDump createDump();
+
+    /**
+     * Creates a delta of the entire tree from its state at the given version.
+     * Subtrees are compared by their subtree versions, so the delta contains all changes made before the call
+     * and may contain some of the later ones.
+     * @param baseVersion version of the tree to which the delta is applied
+     * @return a delta of the root
+     */
+    NodeDelta createDelta(long baseVersion);
+
+    /**
+     * Replaces the entire tree with the tree from dump.
+     * @param dump a dump of the root state
+     */
+    void restore(NodeDump dump);
+
+    /**
+     * Replaces the entire tree with the tree read from the source.
+     * The tree is replaced only after the source is read completely, so it is not changed if reading fails.
+     */
+    void restore(DumpSource source) throws IOException;
+}
@@ -0,0 +1,13 @@
+package net.thumbtack.configServer.domain;
+
+import java.io.IOException;
+
+/**
+ * DumpHandler receives the nodes of a dump one by one in pre-order: a node is started,
+ * then its children are reported and then the node is ended.
+ */
+public interface DumpHandler {
+    void startNode(String name, String value) throws IOException;
+
+    void endNode() throws IOException;
+}
@@ -0,0 +1,14 @@
+package net.thumbtack.configServer.domain;
+
+import java.io.IOException;
+
+/**
+ * DumpSource is a dump which is read node by node, e.g. from a file,
+ * so it doesn't have to be kept in memory as a whole.
+ */
+public interface DumpSource {
+    /**
+     * Reports all nodes of the dump to the handler.
+     */
+    void readTo(DumpHandler handler) throws IOException;
+}
@@ -0,0 +1,464 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IndexedNodeTree is a tree of mutable nodes with a flat full-path index, so a node can be found with a single hash lookup.
+ * The tree stays the source of truth: nodes that are not indexed yet are looked up in the tree,
+ * and nodes detached from the tree are never returned from the index.
+ * This class is completely thread-safe.
+ */
+public class IndexedNodeTree implements ConfigTree {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(IndexedNodeTree.class);
+
+    private final Node root;
+    private final ConcurrentHashMap<NodePath, Node> nodes;
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final ForkJoinPool restorePool;
+    private final Executor warmUpExecutor;
+
+    /**
+     * @param restorePool a pool restoring and reindexing top-level subtrees concurrently, null to process them one by one
+     * @param warmUpExecutor an executor reading top-level subtrees of a partitioned source in the background,
+     * so the tree is restored before the source is read and subtrees reached earlier are read by the requests;
+     * null to read the source during the restore
+     */
+    public IndexedNodeTree(Node root, ForkJoinPool restorePool, Executor warmUpExecutor) {
+        this.root = root;
+        this.nodes = new ConcurrentHashMap<>();
+        this.restorePool = restorePool;
+        this.warmUpExecutor = warmUpExecutor;
+        addSubtree(NodePath.empty(), root);
+    }
+
+    /**
+     * @param restorePool a pool restoring and reindexing top-level subtrees concurrently, null to process them one by one
+     */
+    public IndexedNodeTree(Node root, ForkJoinPool restorePool) {
+        this(root, restorePool, null);
+    }
+
+    public IndexedNodeTree(Node root) {
+        this(root, null);
+    }
+
+    public Node getRoot() { return root; }
+
+    /**
+     * Finds the node in tree.
+     * @param path path to the required node
+     * @return the required node if found
+     * @throws UnknownKeyException if there is no node with given path
+     */
+    public Node findNode(NodePath path) throws UnknownKeyException {
+        Node found = findIndexed(path);
+        if (found == null) {
+            found = root.findNode(path);
+            nodes.putIfAbsent(path, found);
+        }
+
+        return found;
+    }
+
+    @Override
+    public boolean exists(NodePath path) {
+        return findIndexed(path) != null || root.exists(path);
+    }
+
+    /**
+     * Inserts the given node to the tree using the given path, see {@link Node#insert(NodePath, Node)}.
+     * @param relativePath path where to insert the given node.
+     * @param node node to insert
+     * @throws DuplicateKeyException if tree already has a node with the same path and name
+     */
+    public void insert(NodePath relativePath, Node node) throws DuplicateKeyException {
+        root.insert(relativePath, node, this);
+    }
+
+    @Override
+    public void create(NodePath path, String value) throws DuplicateKeyException {
+        Node created = new Node(path.getLastLevel(), value);
+        created.setVersion(lastVersion.incrementAndGet());
+        insert(path.getPathExceptLastLevel(), created);
+        propagateVersion(path, created.getVersion());
+    }
+
+    @Override
+    public NodeDump remove(NodePath path) throws UnknownKeyException, InvalidKeyException {
+        Node removed = root.remove(path);
+        removeSubtree(path, removed);
+        final long version = lastVersion.incrementAndGet();
+        propagateVersion(path.getPathExceptLastLevel(), version);
+        for (ChangeListener listener : changeListeners) {
+            listener.nodeRemoved(path, version);
+        }
+
+        return removed.createDump();
+    }
+
+    @Override
+    public String getValue(NodePath path) throws UnknownKeyException {
+        return findNode(path).getValue();
+    }
+
+    /**
+     * Indexed nodes are taken from the index, the rest of them are resolved in the tree with shared prefix walks.
+     */
+    @Override
+    public List<String> getValues(List<NodePath> paths) {
+        List<String> values = new ArrayList<>(paths.size());
+        List<NodePath> notIndexedPaths = new ArrayList<>();
+        List<Integer> notIndexedPositions = new ArrayList<>();
+        for (NodePath path : paths) {
+            Node found = findIndexed(path);
+            if (found == null) {
+                notIndexedPaths.add(path);
+                notIndexedPositions.add(values.size());
+            }
+            values.add(found == null ? null : found.getValue());
+        }
+        if (!notIndexedPaths.isEmpty()) {
+            List<Node> found = PathResolver.findAll(root, notIndexedPaths);
+            for (int i = 0; i < found.size(); ++i) {
+                Node node = found.get(i);
+                if (node != null) {
+                    values.set(notIndexedPositions.get(i), node.getValue());
+                    nodes.putIfAbsent(notIndexedPaths.get(i), node);
+                }
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void setValue(NodePath path, String value) throws UnknownKeyException {
+        final long version = findNode(path).setValue(value, lastVersion);
+        propagateVersion(path, version);
+    }
+
+    @Override
+    public List<String> getChildrenNames(NodePath path) throws UnknownKeyException {
+        return findNode(path).getChildrenNames();
+    }
+
+    @Override
+    public List<String> getChildrenNames(NodePath path, String afterName, int limit) throws UnknownKeyException {
+        return findNode(path).getChildrenNames(afterName, limit);
+    }
+
+    @Override
+    public NodeDump getSubtree(NodePath path, int maxDepth) throws UnknownKeyException {
+        return findNode(path).createDump(maxDepth);
+    }
+
+    @Override
+    public long getVersion() {
+        return lastVersion.get();
+    }
+
+    @Override
+    public long getVersion(NodePath path, boolean recursive) {
+        Node current = root;
+        for (int level = 0; level < path.size(); ++level) {
+            Node next = current.getChild(path.getLevel(level));
+            if (next == null) {
+                return current.getSubtreeVersion();
+            }
+            current = next;
+        }
+
+        return recursive ? current.getSubtreeVersion() : current.getVersion();
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public TreeStats getStats() {
+        TreeStats stats = new TreeStats();
+        root.addTo(stats);
+        return stats;
+    }
+
+    @Override
+    public NodeDump createDump() {
+        return root.createDump();
+    }
+
+    @Override
+    public NodeDelta createDelta(long baseVersion) {
+        return root.createDelta(baseVersion);
+    }
+
+    /**
+     * Restores the tree using parameters from dump and reindexes it.
+     * @param dump a dump of the root state
+     */
+    @Override
+    public void restore(NodeDump dump) {
+        replaceRoot(new Node(dump));
+    }
+
+    /**
+     * Reads the tree from the source without holding the tree and then replaces the root state and reindexes it.
+     * Top-level subtrees of a partitioned source are read concurrently. With the warm-up executor they are replaced
+     * with pending subtrees at once, so a failure of their reading is reported by the requests reaching them.
+     */
+    @Override
+    public void restore(DumpSource source) throws IOException {
+        if (warmUpExecutor != null && source instanceof PartitionedDumpSource) {
+            replaceRoot(Node.lazyFrom((PartitionedDumpSource) source));
+            warmUp();
+            return;
+        }
+        replaceRoot(restorePool != null && source instanceof PartitionedDumpSource
+                ? Node.readFrom((PartitionedDumpSource) source, restorePool)
+                : Node.readFrom(source));
+    }
+
+    /**
+     * @return count of top-level subtrees which are not read yet
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (Node child : root.getChildren()) {
+            if (child.isPending()) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the subtrees rooted at the given depth and clears the access marks of their nodes.
+     * Pending subtrees are skipped, nodes above the depth are not counted.
+     * @return subtrees in the order of their names
+     */
+    public List<SubtreeUsage> sweep(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Depth of swept subtrees should be greater than 0");
+        }
+        List<SubtreeUsage> usages = new ArrayList<>();
+        sweep(NodePath.empty(), root, depth, usages);
+        return usages;
+    }
+
+    /**
+     * Replaces the children and the value of the node with the source of its subtree, so they are read again
+     * when the node is reached. The previous nodes of the subtree are removed from the tree and the index.
+     * The caller should exclude changes of the tree while the node is unloaded.
+     * @param subtreeVersion subtree version of the node when its source was written
+     * @return false if the node doesn't exist, is already unloaded or its subtree was changed after the given version
+     */
+    public boolean unload(NodePath path, long subtreeVersion, DumpSource source) {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("The root can't be unloaded");
+        }
+        final Node node = findLoaded(path);
+        if (node == null || node.isPending() || node.getSubtreeVersion() != subtreeVersion) {
+            return false;
+        }
+        for (Node child : node.unload(source)) {
+            removeSubtree(path.getChildPath(child.getName()), child);
+        }
+        node.clearReferenced();
+        return true;
+    }
+
+    /**
+     * Finds the node without reading pending subtrees and marking the nodes as accessed.
+     */
+    private Node findLoaded(NodePath path) {
+        final Node found = findIndexed(path);
+        if (found != null) {
+            return found;
+        }
+        Node current = root;
+        for (int level = 0; current != null && level < path.size(); ++level) {
+            current = current.getLoadedChild(path.getLevel(level));
+        }
+        return current;
+    }
+
+    private static void sweep(NodePath path, Node node, int depth, List<SubtreeUsage> usages) {
+        for (Node child : node.getLoadedChildren()) {
+            if (child.isPending()) {
+                continue;
+            }
+            final NodePath childPath = path.getChildPath(child.getName());
+            if (childPath.size() < depth) {
+                sweep(childPath, child, depth, usages);
+                continue;
+            }
+            final boolean[] referenced = {false};
+            final long nodes = sweepSubtree(child, referenced);
+            usages.add(new SubtreeUsage(childPath, nodes, referenced[0]));
+        }
+    }
+
+    /**
+     * @return count of the loaded nodes of the subtree
+     */
+    private static long sweepSubtree(Node node, boolean[] referenced) {
+        if (node.clearReferenced()) {
+            referenced[0] = true;
+        }
+        long count = 1;
+        for (Node child : node.getLoadedChildren()) {
+            count += sweepSubtree(child, referenced);
+        }
+        return count;
+    }
+
+    /**
+     * Reads pending top-level subtrees in the background. A subtree reached by a request is read by it,
+     * the warm-up waits for such a reading instead of repeating it.
+     */
+    private void warmUp() {
+        for (final Node child : root.getChildren()) {
+            if (child.isPending()) {
+                warmUpExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        hydrate(child);
+                    }
+                });
+            }
+        }
+    }
+
+    private static void hydrate(Node node) {
+        if (node.isDetached()) {
+            return;
+        }
+        try {
+            node.hydrate();
+        } catch (RuntimeException ex) {
+            LOG.error(String.format("Failed to read subtree %s in the background", node.getName()), ex);
+        }
+    }
+
+    /**
+     * Top-level subtrees are versioned and reindexed concurrently. A previous subtree is removed from the index
+     * only if it is still indexed by its node, so it never removes the restored one with the same path.
+     */
+    private synchronized void replaceRoot(Node restored) {
+        final long version = lastVersion.incrementAndGet();
+        List<Node> previousChildren = new ArrayList<>(root.getChildren());
+        root.restoreFrom(restored);
+        root.setVersion(version);
+        List<SubtreeTask<Void>> tasks = new ArrayList<>();
+        for (final Node child : previousChildren) {
+            tasks.add(new SubtreeTask<Void>() {
+                @Override
+                protected Void call() {
+                    removeSubtree(NodePath.empty().getChildPath(child.getName()), child);
+                    return null;
+                }
+            });
+        }
+        for (final Node child : root.getChildren()) {
+            tasks.add(new SubtreeTask<Void>() {
+                @Override
+                protected Void call() {
+                    child.setSubtreeVersion(version);
+                    addSubtree(NodePath.empty().getChildPath(child.getName()), child);
+                    return null;
+                }
+            });
+        }
+        try {
+            SubtreeTask.invokeAll(restorePool, tasks);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Reindexing doesn't read anything", ex);
+        }
+        for (ChangeListener listener : changeListeners) {
+            listener.treeRestored(version);
+        }
+    }
+
+    /**
+     * Called by the tree when the node was attached to the given parent.
+     * If the parent was concurrently removed from the tree, the attached subtree is removed from the index too.
+     */
+    void attached(Node parent, NodePath path, Node node) {
+        addSubtree(path, node);
+        if (parent.isDetached()) {
+            removeSubtree(path, node);
+        }
+    }
+
+    /**
+     * Raises subtree versions of the nodes on the given path and reports the nodes changed with the given version.
+     */
+    private void propagateVersion(NodePath path, long version) {
+        Node current = root;
+        current.raiseSubtreeVersion(version);
+        for (int level = 0; level < path.size(); ++level) {
+            current = current.getChild(path.getLevel(level));
+            if (current == null) {
+                // the path was removed concurrently
+                return;
+            }
+            current.raiseSubtreeVersion(version);
+            if (current.getVersion() == version) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.nodeChanged(path.getPrefix(level + 1), current.getValue(), version);
+                }
+            }
+        }
+    }
+
+    private Node findIndexed(NodePath path) {
+        Node found = nodes.get(path);
+        if (found != null && found.isDetached()) {
+            nodes.remove(path, found);
+            return null;
+        }
+
+        return found;
+    }
+
+    /**
+     * Nodes of a pending subtree are indexed when they are found.
+     */
+    private void addSubtree(NodePath path, Node node) {
+        nodes.put(path, node);
+        if (node.isPending()) {
+            return;
+        }
+        for (Node child : node.getChildren()) {
+            addSubtree(path.getChildPath(child.getName()), child);
+        }
+    }
+
+    private void removeSubtree(NodePath path, Node node) {
+        // the node should be marked before the traversal, so concurrent insertions into it will clean themselves up
+        node.detach();
+        nodes.remove(path, node);
+        if (node.isPending()) {
+            // nodes read into the detached subtree later are detached by the reading
+            return;
+        }
+        for (Node child : node.getChildren()) {
+            removeSubtree(path.getChildPath(child.getName()), child);
+        }
+    }
+}
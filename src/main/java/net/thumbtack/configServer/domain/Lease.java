@@ -0,0 +1,56 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lease is a renewable timeout shared by many nodes.
+ * Nodes are attached to the lease while it is alive, and all of them are taken at once when it expires.
+ */
+public class Lease {
+    private final long id;
+    private final long msTtl;
+    private final Set<NodePath> paths = new HashSet<>();
+    private boolean expired = false;
+
+    public Lease(long id, long msTtl) {
+        this.id = id;
+        this.msTtl = msTtl;
+    }
+
+    public long getId() { return id; }
+
+    public long getMsTtl() { return msTtl; }
+
+    /**
+     * @return false if the lease has already expired
+     */
+    public synchronized boolean attach(NodePath path) {
+        if (expired) {
+            return false;
+        }
+        paths.add(path);
+        return true;
+    }
+
+    public synchronized void detach(NodePath path) {
+        paths.remove(path);
+    }
+
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Mark the lease as expired, so no more nodes can be attached.
+     * @return paths of the attached nodes
+     */
+    public synchronized List<NodePath> expire() {
+        expired = true;
+        List<NodePath> attached = new ArrayList<>(paths);
+        paths.clear();
+        return attached;
+    }
+}
@@ -1,13 +1,18 @@
 package net.thumbtack.configServer.domain;
 
 import com.google.common.base.Function;
-import com.google.common.base.Strings;
+import net.thumbtack.configServer.events.NodeRetryEvent;
 import net.thumbtack.configServer.thrift.DuplicateKeyException;
 import net.thumbtack.configServer.thrift.InvalidKeyException;
 import net.thumbtack.configServer.thrift.UnknownKeyException;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static com.google.common.collect.Collections2.transform;
 
@@ -16,20 +21,38 @@ import static com.google.common.collect.Collections2.transform;
  * Every tree node can have name and value. The default value is "".
  * This class is completely thread-safe, see method documentation for more details.
  */
-public class Node {
+public class Node implements TreeNode<Node> {
+    private static final AtomicReferenceFieldUpdater<Node, Object> CHILDREN_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "children");
+    private static final AtomicLongFieldUpdater<Node> SUBTREE_VERSION_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Node.class, "subtreeVersion");
+
+    /**
+     * Heap size of a node with a few children, see NodeMemoryBenchmark.
+     */
+    private static final int NODE_BYTES = 64;
+
     private String name;
-    private ConcurrentHashMap<String, Node> children;
+    /**
+     * Either a sorted array of children or a concurrent sorted map from name to child, see {@link NodeChildren},
+     * or a {@link PendingSubtree} until the subtree is read. This field is changed only by CAS or by the reading.
+     */
+    private volatile Object children;
     private String value;
+    private volatile boolean detached = false;
+    /**
+     * Whether the node was accessed since the last sweep of the tree, it is set without synchronization.
+     */
+    private boolean referenced = false;
+    private volatile long version = 0;
+    private volatile long subtreeVersion = 0;
 
     public Node(final String name, final String value) {
-        initializeWith(name, value, new ConcurrentHashMap<String, Node>());
+        initializeWith(name, value, NodeChildren.EMPTY);
     }
 
     public Node(final String name, final String value, Node... children) {
-        this(name, value);
-        for (Node child : children) {
-            this.children.put(child.name, child);
-        }
+        initializeWith(name, value, NodeChildren.of(Arrays.asList(children)));
     }
 
     public Node(final String name, Node... children) {
@@ -47,8 +70,41 @@ public class Node {
     public Node(final String name) { this(name, ""); }
 
     public String getName() { return name; }
-    public void setValue(String value) { this.value = value; }
-    public String getValue() { return value; }
+    public void setValue(String value) {
+        reference();
+        this.value = value;
+    }
+
+    public String getValue() {
+        reference();
+        return value;
+    }
+
+    /**
+     * @return version of the last change of the node
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return version of the last change of the node or any of its descendants
+     */
+    public long getSubtreeVersion() { return subtreeVersion; }
+
+    /**
+     * Sets the value with a version taken from the given counter.
+     * The version is taken under the lock of the node, so versions of the node grow in the order of its changes.
+     * @param value new value
+     * @param versions counter of versions of the tree
+     * @return version of the change
+     */
+    public synchronized long setValue(String value, AtomicLong versions) {
+        reference();
+        final long newVersion = versions.incrementAndGet();
+        this.value = value;
+        this.version = newVersion;
+        raiseSubtreeVersion(newVersion);
+        return newVersion;
+    }
 
     /**
      * Finds the node in tree.
@@ -63,15 +119,16 @@ public class Node {
     /**
      * Removes the node with the given path.
      * @param path path to removing node
+     * @return the removed node
      * @throws UnknownKeyException if there is no node with given path
      * @throws InvalidKeyException if you are trying to remove the root
      */
-    public void remove(NodePath path) throws UnknownKeyException, InvalidKeyException {
+    public Node remove(NodePath path) throws UnknownKeyException, InvalidKeyException {
         if (path.isEmpty()) {
             throw new InvalidKeyException("Can't delete root");
         } else {
             Node parent = findNode(path.getPathExceptLastLevel());
-            parent.removeChild(path.getLastLevel());
+            return parent.removeChild(path.getLastLevel(), path.size());
         }
     }
 
@@ -99,14 +156,40 @@ public class Node {
      * @throws DuplicateKeyException if tree already has a node with the same path and name
      */
     public void insert(final NodePath relativePath, final Node node) throws DuplicateKeyException {
-        insert(relativePath.getLevelsIterator(), node);
+        insert(relativePath, node, null);
     }
 
     /**
-     * @return set of children names. There is no order guaranteed.
+     * Inserts the given node to the tree using the given path and registers all attached nodes in the given index.
+     * @param relativePath path where to insert the given node.
+     * @param node node to insert
+     * @param index index of the tree with the current node as a root, may be null
+     * @throws DuplicateKeyException if tree already has a node with the same path and name
+     */
+    public void insert(final NodePath relativePath, final Node node, final IndexedNodeTree index) throws DuplicateKeyException {
+        insert(relativePath, 0, node, index);
+    }
+
+    @Override
+    public Node getChild(String name) {
+        return NodeChildren.get(reference(), name);
+    }
+
+    /**
+     * @return list of children names sorted by name.
      */
     public List<String> getChildrenNames() {
-        return Collections.list(children.keys());
+        return NodeChildren.names(reference());
+    }
+
+    /**
+     * Returns a page of children names. The page is consistent only if children are not changed concurrently.
+     * @param afterName name after which the page starts, null to start from the first child
+     * @param limit maximal count of names in the page
+     * @return list of at most limit children names following afterName sorted by name.
+     */
+    public List<String> getChildrenNames(String afterName, int limit) {
+        return NodeChildren.names(reference(), afterName, limit);
     }
 
     /**
@@ -115,15 +198,39 @@ public class Node {
      * traverse all elements, but child elements values can be changed while iterating.
      * @return a dump of state of the given node
      */
-    public synchronized NodeDump createDump() {
-        Collection<NodeDump> childrenDumps = transform(children.values(), new Function<Node, NodeDump>() {
+    public NodeDump createDump() {
+        return createDump(-1);
+    }
+
+    /**
+     * Saves the state of the given node and its descendants up to the given depth.
+     * @param maxDepth maximal depth of the dumped descendants, 0 to dump only the node, negative to dump all of them
+     * @return a dump of state of the given node
+     */
+    public NodeDump createDump(final int maxDepth) {
+        referenced = true;
+        return dump(maxDepth);
+    }
+
+    /**
+     * Saves the changes of the subtree made after the given version, the children are compared lazily like in
+     * {@link #createDump()}. Versions only grow, so an unchanged subtree is still unchanged when it is reached.
+     * @param baseVersion version of the tree to which the delta is applied
+     * @return a delta of the given node
+     */
+    public synchronized NodeDelta createDelta(final long baseVersion) {
+        if (subtreeVersion <= baseVersion) {
+            return NodeDelta.unchanged(name);
+        }
+        children();
+        Collection<NodeDelta> childrenDeltas = transform(getChildren(), new Function<Node, NodeDelta>() {
             @Override
-            public NodeDump apply(Node node) {
-                return node.createDump();
+            public NodeDelta apply(Node node) {
+                return node.createDelta(baseVersion);
             }
         });
 
-        return new NodeDump(name, value, childrenDumps);
+        return new NodeDelta(name, value, childrenDeltas);
     }
 
     /**
@@ -132,83 +239,401 @@ public class Node {
      */
     public synchronized void restoreFromDump(NodeDump dump) {
         Collection<NodeDump> childrenDumps = dump.getChildren();
-        ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>(childrenDumps.size());
+        List<Node> children = new ArrayList<>(childrenDumps.size());
         for (NodeDump childDump : childrenDumps) {
-            Node child = new Node(childDump);
-            children.put(child.name, child);
+            children.add(new Node(childDump));
+        }
+        initializeWith(dump.getName(), dump.getValue(), NodeChildren.of(children));
+    }
+
+    /**
+     * Constructs the entire tree from the source, a node is constructed as soon as its children are read.
+     * @return the root of the constructed tree
+     */
+    public static Node readFrom(DumpSource source) throws IOException {
+        NodeStackBuilder<Node> builder = new NodeStackBuilder<Node>() {
+            @Override
+            protected Node createNode(String name, String value, List<Node> children) {
+                return new Node(name, value, children.toArray(new Node[children.size()]));
+            }
+        };
+        source.readTo(builder);
+        if (builder.getRoot() == null) {
+            throw new IOException("The dump ended before its root");
+        }
+
+        return builder.getRoot();
+    }
+
+    /**
+     * Constructs the top-level subtrees of the tree concurrently.
+     * @param pool a pool reading the subtrees, null to read them one by one
+     * @return the root of the constructed tree
+     */
+    public static Node readFrom(PartitionedDumpSource source, ForkJoinPool pool) throws IOException {
+        List<SubtreeTask<Node>> tasks = new ArrayList<>();
+        for (final DumpSource partition : source.getPartitions().values()) {
+            tasks.add(new SubtreeTask<Node>() {
+                @Override
+                protected Node call() throws IOException {
+                    return readFrom(partition);
+                }
+            });
+        }
+        List<Node> children = SubtreeTask.invokeAll(pool, tasks);
+
+        return new Node(source.getName(), source.getValue(), children.toArray(new Node[children.size()]));
+    }
+
+    /**
+     * Constructs the root of the tree whose top-level subtrees are read only when they are reached for the first time,
+     * so the tree is available before the source is read. A pending subtree gets the subtree version of its root.
+     * @return the root of the constructed tree
+     */
+    public static Node lazyFrom(PartitionedDumpSource source) {
+        List<Node> children = new ArrayList<>();
+        for (Map.Entry<String, DumpSource> partition : source.getPartitions().entrySet()) {
+            Node child = new Node(partition.getKey());
+            child.children = new PendingSubtree(partition.getValue());
+            children.add(child);
+        }
+
+        return new Node(source.getName(), source.getValue(), children.toArray(new Node[children.size()]));
+    }
+
+    /**
+     * Restores the current node state from the given node, its children are moved to the current node.
+     * @param node a node which is not attached to any tree
+     */
+    synchronized void restoreFrom(Node node) {
+        initializeWith(node.name, node.value, node.children);
+    }
+
+    /**
+     * @return children of the node. The returned collection is weakly-consistent.
+     */
+    Collection<Node> getChildren() {
+        return NodeChildren.values(children());
+    }
+
+    /**
+     * @return true if the subtree is not read yet, see {@link #lazyFrom(PartitionedDumpSource)} and {@link #unload(DumpSource)}
+     */
+    boolean isPending() {
+        return children instanceof PendingSubtree;
+    }
+
+    /**
+     * Reads the subtree if it is pending.
+     * @throws IllegalStateException if the subtree can't be read, it stays pending then
+     */
+    void hydrate() {
+        children();
+    }
+
+    /**
+     * Replaces the children and the value of the node with the source of the subtree, they are read from it
+     * when the node is reached again. The caller should exclude changes of the subtree while the source is written
+     * and the node is unloaded.
+     * @return the previous children
+     */
+    Collection<Node> unload(DumpSource source) {
+        final Collection<Node> previous = getLoadedChildren();
+        children = new PendingSubtree(source);
+        return previous;
+    }
+
+    /**
+     * @return children of the node which are in memory, none if the subtree is pending
+     */
+    Collection<Node> getLoadedChildren() {
+        final Object current = children;
+        return current instanceof PendingSubtree ? Collections.<Node>emptyList() : NodeChildren.values(current);
+    }
+
+    /**
+     * @return the child with the given name if it is in memory, null otherwise
+     */
+    Node getLoadedChild(String name) {
+        final Object current = children;
+        return current instanceof PendingSubtree ? null : NodeChildren.get(current, name);
+    }
+
+    /**
+     * Counts the nodes of the subtree which are in memory, a pending subtree is counted as a single node.
+     */
+    void addTo(TreeStats stats) {
+        stats.add(NODE_BYTES, value);
+        for (Node child : getLoadedChildren()) {
+            child.addTo(stats);
+        }
+    }
+
+    /**
+     * @return true if the node was accessed since the previous call
+     */
+    boolean clearReferenced() {
+        final boolean wasReferenced = referenced;
+        if (wasReferenced) {
+            referenced = false;
+        }
+        return wasReferenced;
+    }
+
+    /**
+     * Sets the version of the subtree which is not published in the tree yet, a pending subtree gets it when it is read.
+     */
+    void setSubtreeVersion(long version) {
+        setVersion(version);
+        final Object current = children;
+        if (current instanceof PendingSubtree) {
+            return;
+        }
+        for (Node child : NodeChildren.values(current)) {
+            child.setSubtreeVersion(version);
+        }
+    }
+
+    /**
+     * @return true if the node was removed from the tree.
+     */
+    boolean isDetached() { return detached; }
+
+    void detach() { detached = true; }
+
+    /**
+     * Sets the version of a node which is not published in the tree yet.
+     */
+    void setVersion(long version) {
+        this.version = version;
+        this.subtreeVersion = version;
+    }
+
+    void raiseSubtreeVersion(long version) {
+        while (true) {
+            final long current = subtreeVersion;
+            if (current >= version || SUBTREE_VERSION_UPDATER.compareAndSet(this, current, version)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A pending subtree is dumped from its source without reading it into the tree, so dumps of the entire tree
+     * don't load unloaded subtrees back, see {@link PendingDump}.
+     */
+    private synchronized NodeDump dump(final int maxDepth) {
+        final Object current = children;
+        if (current instanceof PendingSubtree && maxDepth < 0) {
+            return new PendingDump(name, ((PendingSubtree) current).source);
+        }
+        children();
+        Collection<Node> dumpedChildren = maxDepth == 0 ? Collections.<Node>emptyList() : getChildren();
+        Collection<NodeDump> childrenDumps = transform(dumpedChildren, new Function<Node, NodeDump>() {
+            @Override
+            public NodeDump apply(Node node) {
+                return node.dump(maxDepth - 1);
+            }
+        });
+
+        return new NodeDump(name, value, childrenDumps);
+    }
+
+    /**
+     * Marks the node as accessed, see {@link #clearReferenced()}.
+     * @return children of the node, a pending subtree is read first
+     */
+    private Object reference() {
+        if (!referenced) {
+            referenced = true;
+        }
+        return children();
+    }
+
+    /**
+     * @return children of the node, a pending subtree is read first
+     */
+    private Object children() {
+        final Object current = children;
+        return current instanceof PendingSubtree ? hydrate((PendingSubtree) current) : current;
+    }
+
+    /**
+     * Reads the value and the children of the node. Other threads reaching the node wait for the reading,
+     * a failed reading is repeated by the next one. Nodes read into a removed subtree are removed too.
+     * The read nodes get the subtree version of the node, so their versions may grow but never go back.
+     */
+    private Object hydrate(PendingSubtree pending) {
+        synchronized (pending) {
+            if (children != pending) {
+                return children;
+            }
+            final Node read;
+            try {
+                read = readFrom(pending.source);
+            } catch (IOException ex) {
+                throw new IllegalStateException(String.format("Subtree %s can't be read", name), ex);
+            }
+            if (!read.name.equals(name)) {
+                throw new IllegalStateException(String.format("Subtree %s was read as %s", name, read.name));
+            }
+            for (Node child : read.getChildren()) {
+                child.setSubtreeVersion(subtreeVersion);
+            }
+            value = read.value;
+            children = read.children;
+            if (detached) {
+                for (Node child : read.getChildren()) {
+                    child.detachSubtree();
+                }
+            }
+            return read.children;
         }
-        initializeWith(dump.getName(), dump.getValue(), children);
     }
 
-    private void initializeWith(String name, String value, ConcurrentHashMap<String, Node> children) {
+    private void detachSubtree() {
+        detach();
+        for (Node child : getChildren()) {
+            child.detachSubtree();
+        }
+    }
+
+    private void initializeWith(String name, String value, Object children) {
         this.name = name;
         this.value = value == null ? "" : value;
         this.children = children;
     }
 
-    private Node getChild(String name) throws UnknownKeyException {
-        Node child = children.get(name);
+    /**
+     * @param keyDepth depth of the key of the child, it is only recorded by the retry event
+     */
+    private Node putChildIfAbsent(Node child, int keyDepth) {
+        NodeRetryEvent retry = null;
+        int retries = 0;
+        try {
+            while (true) {
+                final Object current = children();
+                if (current instanceof ConcurrentSkipListMap) {
+                    return NodeChildren.asMap(current).putIfAbsent(child.name, child);
+                }
+                final Node[] array = (Node[]) current;
+                final int index = NodeChildren.indexOf(array, child.name);
+                if (index >= 0) {
+                    return array[index];
+                }
+                if (CHILDREN_UPDATER.compareAndSet(this, current, NodeChildren.withChild(array, -(index + 1), child))) {
+                    return null;
+                }
+                if (retry == null) {
+                    retry = new NodeRetryEvent();
+                    retry.begin();
+                }
+                ++retries;
+            }
+        } finally {
+            commitRetry(retry, "insert", child.name, keyDepth, child.value, retries);
+        }
+    }
+
+    private Node removeChild(String name, int keyDepth) throws UnknownKeyException {
+        Node child = removeChildIfPresent(name, keyDepth);
         ensureExisting(child, name);
 
         return child;
     }
 
-    private void removeChild(String name) throws UnknownKeyException {
-        Node child = children.remove(name);
-        ensureExisting(child, name);
+    private Node removeChildIfPresent(String name, int keyDepth) {
+        NodeRetryEvent retry = null;
+        int retries = 0;
+        try {
+            while (true) {
+                final Object current = children();
+                if (current instanceof ConcurrentSkipListMap) {
+                    return NodeChildren.asMap(current).remove(name);
+                }
+                final Node[] array = (Node[]) current;
+                final int index = NodeChildren.indexOf(array, name);
+                if (index < 0) {
+                    return null;
+                }
+                if (CHILDREN_UPDATER.compareAndSet(this, current, NodeChildren.withoutChild(array, index))) {
+                    return array[index];
+                }
+                if (retry == null) {
+                    retry = new NodeRetryEvent();
+                    retry.begin();
+                }
+                ++retries;
+            }
+        } finally {
+            commitRetry(retry, "remove", name, keyDepth, null, retries);
+        }
     }
 
-    private Node find(NodePath path, boolean validateExistence) throws UnknownKeyException {
-        if (path.isEmpty()) {
-            return this;
-        } else {
-            return find(path.getLevelsIterator(), validateExistence);
+    /**
+     * Events are created only when an attempt is lost, so uncontended changes don't touch the recorder.
+     */
+    private static void commitRetry(NodeRetryEvent retry, String operation, String name, int keyDepth, String value, int retries) {
+        if (retry == null) {
+            return;
+        }
+        retry.end();
+        if (retry.shouldCommit()) {
+            retry.setChange(operation, name, keyDepth, value == null ? 0 : value.length(), retries);
+            retry.commit();
         }
     }
 
-    private Node find(ListIterator<String> levels, boolean validateExistence) throws UnknownKeyException {
-        if (levels.hasNext()) {
-            final String currentLevel = levels.next();
-            Node next = getChild(currentLevel);
+    private Node find(NodePath path, boolean validateExistence) throws UnknownKeyException {
+        Node current = this;
+        for (int level = 0; level < path.size() && current != null; ++level) {
+            final String currentLevel = path.getLevel(level);
+            Node next = current.getChild(currentLevel);
 
             if (validateExistence) {
                 ensureExisting(next, currentLevel);
             }
 
-            return next == null ? next : next.find(levels, validateExistence);
-        } else {
-            return this;
+            current = next;
         }
+
+        return current;
     }
 
-    private void insert(ListIterator<String> levels, final Node inserted) throws DuplicateKeyException {
-        if (levels.hasNext()) {
-            final String currentLevel = levels.next();
-            Node next = children.get(currentLevel);
+    private void insert(final NodePath path, int level, final Node inserted, final IndexedNodeTree index) throws DuplicateKeyException {
+        Node current = this;
+        while (level < path.size()) {
+            Node next = current.getChild(path.getLevel(level));
             if (next == null) {
-                insertIntoCurrentPosition(currentLevel, levels, inserted);
-            } else {
-                next.insert(levels, inserted);
+                break;
             }
-        } else {
-            insertIntoCurrentPosition("", levels, inserted);
+            current = next;
+            ++level;
         }
+        current.insertIntoCurrentPosition(path, level, inserted, index);
     }
 
-    private void insertIntoCurrentPosition(String currentLevel, ListIterator<String> levels, Node inserted) throws DuplicateKeyException {
-        final int nextIteratorPosition = levels.nextIndex();
-        Node newNode = createNotExistingNodes(currentLevel, levels, inserted);
-        Node previousNodeOnLevel = children.putIfAbsent(newNode.name, newNode);
+    private void insertIntoCurrentPosition(NodePath path, int level, Node inserted, IndexedNodeTree index) throws DuplicateKeyException {
+        Node newNode = createNotExistingNodes(path, level, inserted);
+        Node previousNodeOnLevel = putChildIfAbsent(newNode, level + 1);
         if (previousNodeOnLevel != null) {
             // other thread may already insert some nodes in hierarchy
-            ensureCurrentNodeIsNotInsertedOne(levels);
-            moveBack(levels, nextIteratorPosition);
-            previousNodeOnLevel.insert(levels, inserted);
+            ensureCurrentNodeIsNotInsertedOne(path, level);
+            NodeRetryEvent retry = new NodeRetryEvent();
+            retry.begin();
+            try {
+                previousNodeOnLevel.insert(path, level + 1, inserted, index);
+            } finally {
+                commitRetry(retry, "reinsert", inserted.name, path.size() + 1, inserted.value, 1);
+            }
+        } else if (index != null) {
+            NodePath newNodePath = level < path.size() ? path.getPrefix(level + 1) : path.getChildPath(newNode.name);
+            index.attached(this, newNodePath, newNode);
         }
     }
 
-    private void ensureCurrentNodeIsNotInsertedOne(ListIterator<String> levels) throws DuplicateKeyException {
-        if (!levels.hasNext()) {
+    private void ensureCurrentNodeIsNotInsertedOne(NodePath path, int level) throws DuplicateKeyException {
+        if (level >= path.size()) {
             throw new DuplicateKeyException("Node with given path already exists.");
         }
     }
@@ -219,23 +644,69 @@ public class Node {
         }
     }
 
-    private void moveBack(ListIterator<String> iterator, final int position) {
-        while (iterator.nextIndex() != position + 1 || iterator.previousIndex() != position - 1) {
-            iterator.previous();
+    private Node createNotExistingNodes(final NodePath path, final int firstNotPresentedLevel, final Node inserted) {
+        Node created = inserted;
+        for (int level = path.size() - 1; level >= firstNotPresentedLevel; --level) {
+            created = new Node(path.getLevel(level), created);
+            created.setVersion(inserted.version);
         }
+
+        return created;
     }
 
-    private Node createNotExistingNodes(final String currentLevel, ListIterator<String> notPresentedLevels, final Node inserted) {
-        if (notPresentedLevels.hasNext()) {
-            final Node child = createNotExistingNodes(notPresentedLevels.next(), notPresentedLevels, inserted);
+    /**
+     * PendingDump is a dump of a pending subtree. It is passed to a handler straight from the source,
+     * so writing or walking it doesn't keep the subtree in memory. The value and the children are read
+     * only when they are requested.
+     */
+    private static final class PendingDump extends NodeDump {
+        private final DumpSource source;
+        private volatile NodeDump read = null;
+
+        public PendingDump(String name, DumpSource source) {
+            super(name, null, Collections.<NodeDump>emptyList());
+            this.source = source;
+        }
 
-            return new Node(currentLevel, child);
-        } else {
-            if (Strings.isNullOrEmpty(currentLevel)) {
-                return inserted;
-            } else {
-                return new Node(currentLevel, inserted);
+        @Override
+        public String getValue() {
+            return read().getValue();
+        }
+
+        @Override
+        public Collection<NodeDump> getChildren() {
+            return read().getChildren();
+        }
+
+        @Override
+        public void readTo(DumpHandler handler) throws IOException {
+            source.readTo(handler);
+        }
+
+        private NodeDump read() {
+            NodeDump dump = read;
+            if (dump == null) {
+                NodeDumpBuilder builder = new NodeDumpBuilder();
+                try {
+                    source.readTo(builder);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(String.format("Subtree %s can't be read", getName()), ex);
+                }
+                dump = builder.getRoot();
+                read = dump;
             }
+            return dump;
+        }
+    }
+
+    /**
+     * PendingSubtree is the source of the children and the value of a node which is not read yet.
+     */
+    private static final class PendingSubtree {
+        private final DumpSource source;
+
+        public PendingSubtree(DumpSource source) {
+            this.source = source;
         }
     }
 }
@@ -0,0 +1,172 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * NodeChildren contains operations over the compact representation of node children.
+ * Children are stored either in an immutable array sorted by name (a shared empty array for leaves)
+ * or, when there are more than {@link #MAX_CHILDREN_IN_ARRAY} of them, in a concurrent sorted map.
+ * Both representations keep children sorted by name, so listings never need sorting.
+ * Arrays are never modified, every change creates a new one, so they can be published with a single CAS.
+ */
+final class NodeChildren {
+    static final int MAX_CHILDREN_IN_ARRAY = 8;
+    static final Node[] EMPTY = new Node[0];
+
+    private NodeChildren() { }
+
+    /**
+     * @return child with the given name or null if there is no such child
+     */
+    static Node get(Object children, String name) {
+        if (children instanceof Node[]) {
+            Node[] array = (Node[]) children;
+            int index = indexOf(array, name);
+            return index >= 0 ? array[index] : null;
+        } else {
+            return asMap(children).get(name);
+        }
+    }
+
+    /**
+     * @return index of the child with given name if it is present, (-(insertion point) - 1) otherwise
+     */
+    static int indexOf(Node[] children, String name) {
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = children[middle].getName().compareTo(name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    /**
+     * @return new children containing the given child at the insertion point.
+     * It will be a map, if there are too many children to store them in array.
+     */
+    static Object withChild(Node[] children, int insertionPoint, Node child) {
+        if (children.length >= MAX_CHILDREN_IN_ARRAY) {
+            ConcurrentSkipListMap<String, Node> map = toMap(Arrays.asList(children));
+            map.put(child.getName(), child);
+            return map;
+        } else {
+            Node[] result = new Node[children.length + 1];
+            System.arraycopy(children, 0, result, 0, insertionPoint);
+            result[insertionPoint] = child;
+            System.arraycopy(children, insertionPoint, result, insertionPoint + 1, children.length - insertionPoint);
+            return result;
+        }
+    }
+
+    /**
+     * @return new array without the child with the given index
+     */
+    static Node[] withoutChild(Node[] children, int index) {
+        if (children.length == 1) {
+            return EMPTY;
+        }
+        Node[] result = new Node[children.length - 1];
+        System.arraycopy(children, 0, result, 0, index);
+        System.arraycopy(children, index + 1, result, index, children.length - index - 1);
+        return result;
+    }
+
+    /**
+     * @return the most compact children representation containing given nodes
+     */
+    static Object of(Collection<Node> nodes) {
+        if (nodes.isEmpty()) {
+            return EMPTY;
+        } else if (nodes.size() > MAX_CHILDREN_IN_ARRAY) {
+            return toMap(nodes);
+        } else {
+            TreeMap<String, Node> sorted = new TreeMap<>();
+            for (Node node : nodes) {
+                sorted.put(node.getName(), node);
+            }
+            return sorted.values().toArray(new Node[sorted.size()]);
+        }
+    }
+
+    /**
+     * @return children nodes. The returned collection is weakly-consistent.
+     */
+    static Collection<Node> values(Object children) {
+        if (children instanceof Node[]) {
+            return Collections.unmodifiableList(Arrays.asList((Node[]) children));
+        } else {
+            return asMap(children).values();
+        }
+    }
+
+    /**
+     * @return new list of children names sorted by name
+     */
+    static List<String> names(Object children) {
+        if (children instanceof Node[]) {
+            return names((Node[]) children, 0, Integer.MAX_VALUE);
+        } else {
+            return new ArrayList<>(asMap(children).keySet());
+        }
+    }
+
+    /**
+     * @param afterName name after which names are taken, null to take names from the first one
+     * @param limit maximal count of names
+     * @return new list of at most limit children names following afterName sorted by name
+     */
+    static List<String> names(Object children, String afterName, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        } else if (children instanceof Node[]) {
+            Node[] array = (Node[]) children;
+            int from = 0;
+            if (afterName != null) {
+                int index = indexOf(array, afterName);
+                from = index >= 0 ? index + 1 : -(index + 1);
+            }
+            return names(array, from, limit);
+        } else {
+            ConcurrentSkipListMap<String, Node> map = asMap(children);
+            Collection<String> following = afterName == null ? map.keySet() : map.tailMap(afterName, false).keySet();
+            List<String> names = new ArrayList<>(Math.min(limit, MAX_CHILDREN_IN_ARRAY * 2));
+            Iterator<String> iterator = following.iterator();
+            while (names.size() < limit && iterator.hasNext()) {
+                names.add(iterator.next());
+            }
+            return names;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static ConcurrentSkipListMap<String, Node> asMap(Object children) {
+        return (ConcurrentSkipListMap<String, Node>) children;
+    }
+
+    private static List<String> names(Node[] children, int from, int limit) {
+        final int to = (int) Math.min(children.length, (long) from + limit);
+        List<String> names = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; ++i) {
+            names.add(children[i].getName());
+        }
+        return names;
+    }
+
+    private static ConcurrentSkipListMap<String, Node> toMap(Collection<Node> nodes) {
+        ConcurrentSkipListMap<String, Node> map = new ConcurrentSkipListMap<>();
+        for (Node node : nodes) {
+            map.put(node.getName(), node);
+        }
+        return map;
+    }
+}
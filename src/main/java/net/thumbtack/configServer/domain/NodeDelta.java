@@ -0,0 +1,203 @@
+package net.thumbtack.configServer.domain;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * NodeDelta describes a subtree relative to its state at some earlier version of the tree.
+ * A subtree without changes since that version is represented by its name only. A changed subtree
+ * keeps the value of its root and deltas of all its current children, children missing in the delta were removed.
+ * So the size of a delta depends on the count of changed nodes and their children rather than on the size of the tree.
+ */
+public class NodeDelta {
+    private final String name;
+    private final String value;
+    private final Collection<NodeDelta> children;
+
+    /**
+     * @param value value of the node
+     * @param children deltas of all children of the node
+     */
+    public NodeDelta(final String name, final String value, final Collection<NodeDelta> children) {
+        this.name = name;
+        this.value = value;
+        this.children = children;
+    }
+
+    /**
+     * @return a delta of the subtree without changes
+     */
+    public static NodeDelta unchanged(final String name) {
+        return new NodeDelta(name, null, null);
+    }
+
+    public String getName() { return name; }
+    public String getValue() { return value; }
+    public Collection<NodeDelta> getChildren() { return children; }
+
+    /**
+     * @return false if the subtree has not changed since the base version
+     */
+    public boolean isChanged() { return children != null; }
+
+    /**
+     * @param base a dump of the subtree at the base version, null if the subtree did not exist
+     * @return a dump of the subtree with the delta applied
+     * @throws IllegalArgumentException if an unchanged subtree is missing in the base
+     */
+    public NodeDump applyTo(NodeDump base) {
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        try {
+            if (base == null) {
+                writeTo(builder);
+            } else {
+                base.readTo(applyingTo(builder));
+            }
+        } catch (IOException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+
+        return builder.getRoot();
+    }
+
+    /**
+     * Applies the delta to the nodes of the base while they are read, so the base is never kept in memory.
+     * @param handler a handler receiving the nodes with the delta applied
+     * @return a handler receiving the nodes of the base
+     */
+    public DumpHandler applyingTo(DumpHandler handler) {
+        return new ApplyingHandler(this, handler);
+    }
+
+    /**
+     * Applies the delta to the partitions of the base, so the subtrees can still be read independently.
+     * @return the base with the delta applied
+     * @throws IOException if an unchanged subtree is missing in the base
+     */
+    public PartitionedDumpSource applyToPartitions(PartitionedDumpSource base) throws IOException {
+        if (!isChanged()) {
+            return base;
+        }
+        final Map<String, DumpSource> basePartitions = base.getPartitions();
+        Map<String, DumpSource> partitions = new LinkedHashMap<>();
+        for (final NodeDelta child : children) {
+            final DumpSource basePartition = basePartitions.get(child.name);
+            if (!child.isChanged()) {
+                if (basePartition == null) {
+                    throw new IOException(String.format("Unchanged node %s is missing in the base", child.name));
+                }
+                partitions.put(child.name, basePartition);
+            } else {
+                partitions.put(child.name, new DumpSource() {
+                    @Override
+                    public void readTo(DumpHandler handler) throws IOException {
+                        if (basePartition == null) {
+                            child.writeTo(handler);
+                        } else {
+                            basePartition.readTo(child.applyingTo(handler));
+                        }
+                    }
+                });
+            }
+        }
+
+        return new PartitionedDump(name, value, partitions);
+    }
+
+    /**
+     * Reports the changed subtree which doesn't exist in the base.
+     */
+    private void writeTo(DumpHandler handler) throws IOException {
+        if (!isChanged()) {
+            throw new IOException(String.format("Unchanged node %s is missing in the base", name));
+        }
+        handler.startNode(name, value);
+        for (NodeDelta child : children) {
+            child.writeTo(handler);
+        }
+        handler.endNode();
+    }
+
+    /**
+     * ApplyingHandler passes unchanged subtrees of the base through, skips removed ones
+     * and reports children added by the delta at the end of their parent.
+     */
+    private static class ApplyingHandler implements DumpHandler {
+        private final NodeDelta root;
+        private final DumpHandler handler;
+        private final Deque<Level> levels = new ArrayDeque<>();
+        /**
+         * Depth of the current node in the skipped subtree, 0 if no subtree is skipped.
+         */
+        private int skippedDepth = 0;
+
+        public ApplyingHandler(NodeDelta root, DumpHandler handler) {
+            this.root = root;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startNode(String name, String value) throws IOException {
+            if (skippedDepth > 0) {
+                ++skippedDepth;
+                return;
+            }
+            NodeDelta delta;
+            if (levels.isEmpty()) {
+                delta = root;
+            } else if (levels.peek().pendingChildren == null) {
+                delta = null;
+            } else {
+                delta = levels.peek().pendingChildren.remove(name);
+                if (delta == null) {
+                    skippedDepth = 1;
+                    return;
+                }
+            }
+            if (delta == null || !delta.isChanged()) {
+                handler.startNode(name, value);
+                levels.push(new Level(null));
+            } else {
+                handler.startNode(delta.name, delta.value);
+                levels.push(new Level(delta));
+            }
+        }
+
+        @Override
+        public void endNode() throws IOException {
+            if (skippedDepth > 0) {
+                --skippedDepth;
+                return;
+            }
+            final Level level = levels.pop();
+            if (level.pendingChildren != null) {
+                for (NodeDelta added : level.pendingChildren.values()) {
+                    added.writeTo(handler);
+                }
+            }
+            handler.endNode();
+        }
+    }
+
+    private static class Level {
+        /**
+         * Children of the changed node which have not been found in the base yet, null if the subtree is unchanged.
+         */
+        private final Map<String, NodeDelta> pendingChildren;
+
+        public Level(NodeDelta delta) {
+            if (delta == null) {
+                pendingChildren = null;
+                return;
+            }
+            pendingChildren = new LinkedHashMap<>();
+            for (NodeDelta child : delta.children) {
+                pendingChildren.put(child.name, child);
+            }
+        }
+    }
+}
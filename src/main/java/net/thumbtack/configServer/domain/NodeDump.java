@@ -3,16 +3,20 @@ package net.thumbtack.configServer.domain;
 import net.thumbtack.configServer.serialization.SerializationException;
 import org.apache.commons.collections.CollectionUtils;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * NodeDump is a structure that allows a node to be restored.
+ * Subclasses may read the value and the children lazily, so they are accessed only by the getters.
  */
-public class NodeDump {
+public class NodeDump implements PartitionedDumpSource {
     private final String name;
     private final String value;
     private final Collection<NodeDump> children;
@@ -31,27 +35,49 @@ public class NodeDump {
         this(name, value, Arrays.asList(dumps));
     }
 
+    @Override
     public String getName() { return name; }
+    @Override
     public String getValue() { return value; }
     public Collection<NodeDump> getChildren() { return children; }
 
+    @Override
+    public Map<String, DumpSource> getPartitions() {
+        Map<String, DumpSource> partitions = new LinkedHashMap<>();
+        for (NodeDump child : getChildren()) {
+            partitions.put(child.getName(), child);
+        }
+        return partitions;
+    }
+
+    @Override
+    public void readTo(DumpHandler handler) throws IOException {
+        handler.startNode(getName(), getValue());
+        for (NodeDump child : getChildren()) {
+            child.readTo(handler);
+        }
+        handler.endNode();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof NodeDump)) return false;
 
         NodeDump nodeDump = (NodeDump) o;
+        final String value = getValue();
 
-        return CollectionUtils.isEqualCollection(children, nodeDump.children) &&
-               name.equals(nodeDump.name) &&
-               value.equals(nodeDump.value);
+        return CollectionUtils.isEqualCollection(getChildren(), nodeDump.getChildren()) &&
+               getName().equals(nodeDump.getName()) &&
+               (value == null ? nodeDump.getValue() == null : value.equals(nodeDump.getValue()));
     }
 
     @Override
     public int hashCode() {
-        int result = name.hashCode();
-        result = 31 * result + value.hashCode();
-        result = 31 * result + children.hashCode();
+        final String value = getValue();
+        int result = getName().hashCode();
+        result = 31 * result + (value == null ? 0 : value.hashCode());
+        result = 31 * result + getChildren().hashCode();
 
         return result;
     }
@@ -0,0 +1,13 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.List;
+
+/**
+ * NodeDumpBuilder keeps the nodes reported by a dump source as a NodeDump.
+ */
+public class NodeDumpBuilder extends NodeStackBuilder<NodeDump> {
+    @Override
+    protected NodeDump createNode(String name, String value, List<NodeDump> children) {
+        return new NodeDump(name, value, children);
+    }
+}
@@ -1,84 +1,207 @@
 package net.thumbtack.configServer.domain;
 
-import com.google.common.base.Strings;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import net.thumbtack.configServer.thrift.InvalidKeyException;
 import org.apache.http.annotation.Immutable;
 
-import java.nio.file.InvalidPathException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
  * NodePath is a path to some node in tree.
+ * The raw path is split once into interned levels, so the path can be walked by index
+ * and the parent path shares the levels of its child.
  */
 @Immutable
-public class NodePath {
-    private final Path path;
+public class NodePath implements Comparable<NodePath> {
+    public static final char SEPARATOR = '/';
+
+    private static final Interner<String> LEVELS_INTERNER = Interners.newWeakInterner();
+    private static final String[] NO_LEVELS = new String[0];
+    private static final NodePath EMPTY = new NodePath(NO_LEVELS, 0);
+
+    private final String[] levels;
+    private final int size;
+    private int hash;
 
     /**
      * Constructs a path to some node.
+     * Levels are separated by '/', empty levels (e.g. leading, trailing or doubled separators) are skipped.
      * @param path raw path to some node
      * @throws InvalidKeyException it the given string is not a valid path
      */
     public NodePath(final String path) throws InvalidKeyException {
-        try {
-            this.path = Paths.get(path);
-        } catch (InvalidPathException ex) {
+        if (path == null || path.indexOf('\u0000') >= 0) {
             throw new InvalidKeyException(String.format("Given string %s is not a valid path.", path));
         }
+        this.levels = split(path);
+        this.size = levels.length;
     }
 
-    private NodePath(Path path) { this.path = path; }
+    private NodePath(String[] levels, int size) {
+        this.levels = levels;
+        this.size = size;
+    }
 
     /**
-     * @return last level of the path.
+     * @return the path pointing to the root.
+     */
+    public static NodePath empty() { return EMPTY; }
+
+    /**
+     * @return last level of the path or "" if the path is empty.
      */
     public String getLastLevel() {
-        return path.getName(path.getNameCount() - 1).toString();
+        return size == 0 ? "" : levels[size - 1];
     }
 
     /**
-     * @return all levels of the path
+     * @param index zero-based index of the level
+     * @return level with the given index
      */
-    public List<String> getLevels() {
-        final int capacity = path.getNameCount();
-        ArrayList<String> levels = new ArrayList<String>(capacity);
-        for (int i = 0; i < capacity; ++i) {
-            levels.add(path.getName(i).toString());
+    public String getLevel(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Level %d is out of path with %d levels", index, size));
         }
-
-        return levels;
+        return levels[index];
     }
 
     /**
-     * @return new bidirectional iterator through levels.
+     * @return count of levels in the path
      */
-    public ListIterator<String> getLevelsIterator() {
-        return getLevels().listIterator();
+    public int size() { return size; }
+
+    /**
+     * @return all levels of the path
+     */
+    public List<String> getLevels() {
+        return Collections.unmodifiableList(Arrays.asList(levels).subList(0, size));
     }
 
     /**
      * @return path of the parent or the same path if there is no parent.
+     * The returned path shares levels with the current one.
      */
     public NodePath getPathExceptLastLevel() {
-        final Path parent = path.getParent();
-        if (parent == null) {
-            return new NodePath(Paths.get(""));
-        } else {
-            return new NodePath(parent);
+        return size <= 1 ? EMPTY : getPrefix(size - 1);
+    }
+
+    /**
+     * @param size count of the first levels to take
+     * @return path consisting of the first levels of the current path, it shares levels with the current one.
+     */
+    public NodePath getPrefix(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException(String.format("Can't take %d levels of path with %d levels", size, this.size));
         }
+        return size == 0 ? EMPTY : new NodePath(levels, size);
+    }
+
+    /**
+     * @param name name of the child level
+     * @return path to the child with the given name
+     */
+    public NodePath getChildPath(String name) {
+        String[] childLevels = Arrays.copyOf(levels, size + 1);
+        childLevels[size] = LEVELS_INTERNER.intern(name);
+
+        return new NodePath(childLevels, childLevels.length);
     }
 
     public boolean isEmpty() {
-        return Strings.isNullOrEmpty(path.toString());
+        return size == 0;
+    }
+
+    /**
+     * @return true if the given path is a prefix of the current one or equals it
+     */
+    public boolean startsWith(NodePath prefix) {
+        if (prefix.size > size) {
+            return false;
+        }
+        for (int i = prefix.size - 1; i >= 0; --i) {
+            if (!levels[i].equals(prefix.levels[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NodePath other = (NodePath) o;
+        if (size != other.size || hashCode() != other.hashCode()) {
+            return false;
+        }
+        for (int i = size - 1; i >= 0; --i) {
+            if (!levels[i].equals(other.levels[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0 && size > 0) {
+            result = 1;
+            for (int i = 0; i < size; ++i) {
+                result = 31 * result + levels[i].hashCode();
+            }
+            hash = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Paths are compared level by level and a prefix precedes the paths starting with it,
+     * so the paths of a subtree follow its root without gaps.
+     */
+    @Override
+    public int compareTo(NodePath other) {
+        final int common = Math.min(size, other.size);
+        for (int i = 0; i < common; ++i) {
+            final int result = levels[i].compareTo(other.levels[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return Integer.compare(size, other.size);
     }
 
     @Override
     public String toString() {
-        return path.toString();
+        return Joiner.on(SEPARATOR).join(getLevels());
+    }
+
+    private static String[] split(String path) {
+        final int length = path.length();
+        ArrayList<String> levels = null;
+        int levelStart = 0;
+        for (int i = 0; i <= length; ++i) {
+            if (i == length || path.charAt(i) == SEPARATOR) {
+                if (i > levelStart) {
+                    if (levels == null) {
+                        levels = new ArrayList<>();
+                    }
+                    levels.add(LEVELS_INTERNER.intern(path.substring(levelStart, i)));
+                }
+                levelStart = i + 1;
+            }
+        }
+
+        return levels == null ? NO_LEVELS : levels.toArray(new String[levels.size()]);
     }
 }
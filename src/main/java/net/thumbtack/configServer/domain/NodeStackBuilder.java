@@ -0,0 +1,58 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * NodeStackBuilder constructs a tree from the nodes reported by a dump source. A node is constructed
+ * when it ends, so besides the tree itself only the nodes on the current path are kept.
+ * @param <T> type of the constructed nodes
+ */
+public abstract class NodeStackBuilder<T> implements DumpHandler {
+    private final Deque<Level<T>> levels = new ArrayDeque<>();
+    private T root = null;
+
+    @Override
+    public void startNode(String name, String value) {
+        if (root != null) {
+            throw new IllegalStateException("The dump has more than one root");
+        }
+        levels.push(new Level<T>(name, value));
+    }
+
+    @Override
+    public void endNode() {
+        if (levels.isEmpty()) {
+            throw new IllegalStateException("The node ended before it was started");
+        }
+        final Level<T> level = levels.pop();
+        final T node = createNode(level.name, level.value, level.children);
+        if (levels.isEmpty()) {
+            root = node;
+        } else {
+            levels.peek().children.add(node);
+        }
+    }
+
+    /**
+     * @return the root node, null if the dump has not ended yet
+     */
+    public T getRoot() {
+        return levels.isEmpty() ? root : null;
+    }
+
+    protected abstract T createNode(String name, String value, List<T> children);
+
+    private static class Level<T> {
+        private final String name;
+        private final String value;
+        private final List<T> children = new ArrayList<>();
+
+        public Level(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
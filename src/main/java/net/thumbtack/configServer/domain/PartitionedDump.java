@@ -0,0 +1,35 @@
+package net.thumbtack.configServer.domain;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * PartitionedDump is a root with the sources of its subtrees, it is read sequentially subtree by subtree.
+ */
+public class PartitionedDump implements PartitionedDumpSource {
+    private final String name;
+    private final String value;
+    private final Map<String, DumpSource> partitions;
+
+    public PartitionedDump(String name, String value, Map<String, DumpSource> partitions) {
+        this.name = name;
+        this.value = value;
+        this.partitions = partitions;
+    }
+
+    @Override
+    public String getName() { return name; }
+    @Override
+    public String getValue() { return value; }
+    @Override
+    public Map<String, DumpSource> getPartitions() { return partitions; }
+
+    @Override
+    public void readTo(DumpHandler handler) throws IOException {
+        handler.startNode(name, value);
+        for (DumpSource partition : partitions.values()) {
+            partition.readTo(handler);
+        }
+        handler.endNode();
+    }
+}
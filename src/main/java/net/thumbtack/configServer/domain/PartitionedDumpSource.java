@@ -0,0 +1,18 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.Map;
+
+/**
+ * PartitionedDumpSource is a dump source whose top-level subtrees can be read independently of each other,
+ * so a tree can be restored from them concurrently.
+ */
+public interface PartitionedDumpSource extends DumpSource {
+    String getName();
+
+    String getValue();
+
+    /**
+     * @return sources of the children of the root by their names, each of them reports a single subtree
+     */
+    Map<String, DumpSource> getPartitions();
+}
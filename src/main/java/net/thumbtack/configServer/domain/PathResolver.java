@@ -0,0 +1,77 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.*;
+
+/**
+ * PathResolver finds many nodes at once.
+ * Paths are resolved in sorted order, so every path continues the walk from the deepest node
+ * it shares with the previous path instead of walking from the root.
+ */
+final class PathResolver {
+    private static final Comparator<NodePath> PATH_ORDER = new Comparator<NodePath>() {
+        @Override
+        public int compare(NodePath first, NodePath second) {
+            final int commonSize = Math.min(first.size(), second.size());
+            for (int level = 0; level < commonSize; ++level) {
+                int comparison = first.getLevel(level).compareTo(second.getLevel(level));
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return Integer.compare(first.size(), second.size());
+        }
+    };
+
+    private PathResolver() { }
+
+    /**
+     * @param root node from which paths are resolved
+     * @param paths paths to find
+     * @return found nodes in the order of the given paths, null for paths which do not exist
+     */
+    static <T extends TreeNode<T>> List<T> findAll(T root, final List<NodePath> paths) {
+        Integer[] order = new Integer[paths.size()];
+        int maxSize = 0;
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+            maxSize = Math.max(maxSize, paths.get(i).size());
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return PATH_ORDER.compare(paths.get(first), paths.get(second));
+            }
+        });
+
+        List<T> found = new ArrayList<>(Collections.<T>nCopies(paths.size(), null));
+        // trail[i] is the node on level i of the previous path, trail[0] is the root
+        List<T> trail = new ArrayList<>(maxSize + 1);
+        trail.add(root);
+        NodePath previous = NodePath.empty();
+        for (Integer index : order) {
+            final NodePath path = paths.get(index);
+            int level = Math.min(commonPrefixSize(previous, path), trail.size() - 1);
+            trail.subList(level + 1, trail.size()).clear();
+            T current = trail.get(level);
+            while (level < path.size() && current != null) {
+                current = current.getChild(path.getLevel(level++));
+                if (current != null) {
+                    trail.add(current);
+                }
+            }
+            found.set(index, current);
+            previous = path;
+        }
+
+        return found;
+    }
+
+    private static int commonPrefixSize(NodePath first, NodePath second) {
+        final int commonSize = Math.min(first.size(), second.size());
+        int level = 0;
+        while (level < commonSize && first.getLevel(level).equals(second.getLevel(level))) {
+            ++level;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,365 @@
+package net.thumbtack.configServer.domain;
+
+import org.apache.http.annotation.Immutable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PersistentHashMap is an immutable hash array mapped trie.
+ * Every modification returns a new map which shares all untouched branches with the previous one,
+ * so a modification costs O(log32 n) allocations and the previous version stays valid.
+ * @param <K> type of keys
+ * @param <V> type of values
+ */
+@Immutable
+public final class PersistentHashMap<K, V> {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    @SuppressWarnings("unchecked")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(BitmapNode.EMPTY, 0);
+
+    private final TrieNode<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(TrieNode<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * @return value mapped to the given key or null if there is no such key
+     */
+    public V get(K key) {
+        return root.get(key, key.hashCode(), 0);
+    }
+
+    /**
+     * @return map which contains all mappings of the current one and the given mapping
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        boolean[] added = new boolean[1];
+        TrieNode<K, V> newRoot = root.put(new Leaf<>(key, value), 0, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return map which contains all mappings of the current one except the mapping for the given key
+     */
+    public PersistentHashMap<K, V> minus(K key) {
+        TrieNode<K, V> newRoot = root.remove(key, key.hashCode(), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * @return new list of keys in no particular order
+     */
+    public List<K> keys() {
+        List<K> keys = new ArrayList<>(size);
+        List<Leaf<K, V>> leaves = leaves();
+        for (Leaf<K, V> leaf : leaves) {
+            keys.add(leaf.key);
+        }
+        return keys;
+    }
+
+    /**
+     * @return new list of values in no particular order
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        List<Leaf<K, V>> leaves = leaves();
+        for (Leaf<K, V> leaf : leaves) {
+            values.add(leaf.value);
+        }
+        return values;
+    }
+
+    private List<Leaf<K, V>> leaves() {
+        List<Leaf<K, V>> leaves = new ArrayList<>(size);
+        root.collect(leaves);
+        return leaves;
+    }
+
+    private static int levelIndex(int hash, int shift) {
+        return (hash >>> shift) & LEVEL_MASK;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << levelIndex(hash, shift);
+    }
+
+    /**
+     * Creates the smallest subtree containing both given entries. Entries should have different keys.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> TrieNode<K, V> merge(Object first, int firstHash, Object second, int secondHash, int shift) {
+        if (firstHash == secondHash) {
+            if (first instanceof CollisionNode) {
+                return ((CollisionNode<K, V>) first).put((Leaf<K, V>) second, shift, new boolean[1]);
+            }
+            return new CollisionNode<>(firstHash, new Leaf[] { (Leaf<K, V>) first, (Leaf<K, V>) second });
+        }
+        final int firstBit = bit(firstHash, shift);
+        final int secondBit = bit(secondHash, shift);
+        if (firstBit == secondBit) {
+            return new BitmapNode<>(firstBit, new Object[] { merge(first, firstHash, second, secondHash, shift + BITS_PER_LEVEL) });
+        }
+        Object[] slots = levelIndex(firstHash, shift) < levelIndex(secondHash, shift)
+                ? new Object[] { first, second }
+                : new Object[] { second, first };
+        return new BitmapNode<>(firstBit | secondBit, slots);
+    }
+
+    private interface TrieNode<K, V> {
+        V get(K key, int hash, int shift);
+
+        /**
+         * @return the same node if it already contains the given mapping
+         */
+        TrieNode<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added);
+
+        /**
+         * @return the same node if there is no given key, null if the node becomes empty
+         */
+        TrieNode<K, V> remove(K key, int hash, int shift);
+
+        /**
+         * @return the only leaf of the node or null if there is more than one entry
+         */
+        Leaf<K, V> singleLeaf();
+
+        void collect(List<Leaf<K, V>> leaves);
+    }
+
+    private static final class Leaf<K, V> {
+        private final K key;
+        private final int hash;
+        private final V value;
+
+        Leaf(K key, V value) {
+            this.key = key;
+            this.hash = key.hashCode();
+            this.value = value;
+        }
+    }
+
+    /**
+     * Node with up to 32 slots, each slot is either a leaf or a subtree.
+     */
+    private static final class BitmapNode<K, V> implements TrieNode<K, V> {
+        @SuppressWarnings("unchecked")
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(K key, int hash, int shift) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final Object slot = slots[index(bit)];
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                return leaf.key.equals(key) ? leaf.value : null;
+            }
+            return ((TrieNode<K, V>) slot).get(key, hash, shift + BITS_PER_LEVEL);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public TrieNode<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added) {
+            final int bit = bit(leaf.hash, shift);
+            final int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new BitmapNode<>(bitmap | bit, newSlots);
+            }
+            final Object slot = slots[index];
+            final Object newSlot;
+            if (slot instanceof Leaf) {
+                Leaf<K, V> existing = (Leaf<K, V>) slot;
+                if (existing.key.equals(leaf.key)) {
+                    if (existing.value == leaf.value) {
+                        return this;
+                    }
+                    newSlot = leaf;
+                } else {
+                    added[0] = true;
+                    newSlot = merge(existing, existing.hash, leaf, leaf.hash, shift + BITS_PER_LEVEL);
+                }
+            } else {
+                TrieNode<K, V> subtree = (TrieNode<K, V>) slot;
+                newSlot = subtree.put(leaf, shift + BITS_PER_LEVEL, added);
+                if (newSlot == subtree) {
+                    return this;
+                }
+            }
+            return withSlot(index, newSlot);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public TrieNode<K, V> remove(K key, int hash, int shift) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = index(bit);
+            final Object slot = slots[index];
+            if (slot instanceof Leaf) {
+                return ((Leaf<K, V>) slot).key.equals(key) ? withoutSlot(bit, index) : this;
+            }
+            TrieNode<K, V> subtree = (TrieNode<K, V>) slot;
+            TrieNode<K, V> newSubtree = subtree.remove(key, hash, shift + BITS_PER_LEVEL);
+            if (newSubtree == subtree) {
+                return this;
+            } else if (newSubtree == null) {
+                return withoutSlot(bit, index);
+            }
+            Leaf<K, V> single = newSubtree.singleLeaf();
+            return withSlot(index, single != null ? single : newSubtree);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> singleLeaf() {
+            return slots.length == 1 && slots[0] instanceof Leaf ? (Leaf<K, V>) slots[0] : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void collect(List<Leaf<K, V>> leaves) {
+            for (Object slot : slots) {
+                if (slot instanceof Leaf) {
+                    leaves.add((Leaf<K, V>) slot);
+                } else {
+                    ((TrieNode<K, V>) slot).collect(leaves);
+                }
+            }
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode<K, V> withSlot(int index, Object slot) {
+            Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new BitmapNode<>(bitmap, newSlots);
+        }
+
+        private BitmapNode<K, V> withoutSlot(int bit, int index) {
+            if (slots.length == 1) {
+                return null;
+            }
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode<>(bitmap & ~bit, newSlots);
+        }
+    }
+
+    /**
+     * Node containing leaves with equal hashes.
+     */
+    private static final class CollisionNode<K, V> implements TrieNode<K, V> {
+        private final int hash;
+        private final Leaf<K, V>[] leaves;
+
+        CollisionNode(int hash, Leaf<K, V>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        public V get(K key, int hash, int shift) {
+            final int index = indexOf(key);
+            return index >= 0 ? leaves[index].value : null;
+        }
+
+        @Override
+        public TrieNode<K, V> put(Leaf<K, V> leaf, int shift, boolean[] added) {
+            if (leaf.hash != hash) {
+                added[0] = true;
+                return merge(this, hash, leaf, leaf.hash, shift);
+            }
+            final int index = indexOf(leaf.key);
+            if (index >= 0) {
+                if (leaves[index].value == leaf.value) {
+                    return this;
+                }
+                Leaf<K, V>[] newLeaves = leaves.clone();
+                newLeaves[index] = leaf;
+                return new CollisionNode<>(hash, newLeaves);
+            }
+            added[0] = true;
+            Leaf<K, V>[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = leaf;
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public TrieNode<K, V> remove(K key, int hash, int shift) {
+            final int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            } else if (leaves.length == 1) {
+                return null;
+            }
+            Leaf<K, V>[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, index);
+            System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        public Leaf<K, V> singleLeaf() {
+            return leaves.length == 1 ? leaves[0] : null;
+        }
+
+        @Override
+        public void collect(List<Leaf<K, V>> leaves) {
+            Collections.addAll(leaves, this.leaves);
+        }
+
+        private int indexOf(K key) {
+            for (int i = 0; i < leaves.length; ++i) {
+                if (leaves[i].key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
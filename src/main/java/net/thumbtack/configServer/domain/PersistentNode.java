@@ -0,0 +1,277 @@
+package net.thumbtack.configServer.domain;
+
+import com.google.common.base.Function;
+import org.apache.http.annotation.Immutable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.collect.Collections2.transform;
+
+/**
+ * PersistentNode is an immutable tree node.
+ * Every change creates a new node which shares all untouched children with the previous one.
+ */
+@Immutable
+public final class PersistentNode implements TreeNode<PersistentNode> {
+    /**
+     * Heap size of a node with a few children including its share of the hash trie, see NodeMemoryBenchmark.
+     */
+    private static final int NODE_BYTES = 96;
+
+    private final String name;
+    private final String value;
+    private final PersistentHashMap<String, PersistentNode> children;
+    private final long version;
+    private final long subtreeVersion;
+    /**
+     * Sorted children names are computed on the first listing, it is safe to cache them since the node is immutable.
+     * A changed copy of the node takes them over, so they are not sorted again after every change.
+     */
+    private volatile String[] sortedChildrenNames;
+
+    public PersistentNode(String name, String value, PersistentHashMap<String, PersistentNode> children, long version, long subtreeVersion) {
+        this(name, value, children, version, subtreeVersion, null);
+    }
+
+    private PersistentNode(String name, String value, PersistentHashMap<String, PersistentNode> children, long version,
+                           long subtreeVersion, String[] sortedChildrenNames) {
+        this.name = name;
+        this.value = value == null ? "" : value;
+        this.children = children;
+        this.version = version;
+        this.subtreeVersion = subtreeVersion;
+        this.sortedChildrenNames = sortedChildrenNames;
+    }
+
+    public PersistentNode(String name, String value, PersistentHashMap<String, PersistentNode> children) {
+        this(name, value, children, 0, 0);
+    }
+
+    public PersistentNode(String name, String value, long version) {
+        this(name, value, PersistentHashMap.<String, PersistentNode>empty(), version, version);
+    }
+
+    public PersistentNode(String name, String value) {
+        this(name, value, 0);
+    }
+
+    /**
+     * Constructs the entire tree from dump.
+     * @param dump a dump of some node state
+     * @param version version of all constructed nodes
+     */
+    public static PersistentNode fromDump(NodeDump dump, long version) {
+        PersistentHashMap<String, PersistentNode> children = PersistentHashMap.empty();
+        for (NodeDump childDump : dump.getChildren()) {
+            PersistentNode child = fromDump(childDump, version);
+            children = children.plus(child.name, child);
+        }
+        return new PersistentNode(dump.getName(), dump.getValue(), children, version, version);
+    }
+
+    /**
+     * Constructs the entire tree from the source, a node is constructed as soon as its children are read.
+     * @param version version of all constructed nodes
+     */
+    public static PersistentNode readFrom(DumpSource source, final long version) throws IOException {
+        NodeStackBuilder<PersistentNode> builder = new NodeStackBuilder<PersistentNode>() {
+            @Override
+            protected PersistentNode createNode(String name, String value, List<PersistentNode> children) {
+                PersistentHashMap<String, PersistentNode> map = PersistentHashMap.empty();
+                for (PersistentNode child : children) {
+                    map = map.plus(child.name, child);
+                }
+                return new PersistentNode(name, value, map, version, version);
+            }
+        };
+        source.readTo(builder);
+        if (builder.getRoot() == null) {
+            throw new IOException("The dump ended before its root");
+        }
+
+        return builder.getRoot();
+    }
+
+    /**
+     * Constructs the top-level subtrees of the tree concurrently.
+     * @param version version of all constructed nodes
+     * @param pool a pool reading the subtrees, null to read them one by one
+     */
+    public static PersistentNode readFrom(PartitionedDumpSource source, final long version, ForkJoinPool pool) throws IOException {
+        List<SubtreeTask<PersistentNode>> tasks = new ArrayList<>();
+        for (final DumpSource partition : source.getPartitions().values()) {
+            tasks.add(new SubtreeTask<PersistentNode>() {
+                @Override
+                protected PersistentNode call() throws IOException {
+                    return readFrom(partition, version);
+                }
+            });
+        }
+        PersistentHashMap<String, PersistentNode> children = PersistentHashMap.empty();
+        for (PersistentNode child : SubtreeTask.invokeAll(pool, tasks)) {
+            children = children.plus(child.name, child);
+        }
+
+        return new PersistentNode(source.getName(), source.getValue(), children, version, version);
+    }
+
+    public String getName() { return name; }
+    public String getValue() { return value; }
+    public PersistentHashMap<String, PersistentNode> getChildren() { return children; }
+
+    /**
+     * @return version of the last change of the node
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return version of the last change of the node or any of its descendants
+     */
+    public long getSubtreeVersion() { return subtreeVersion; }
+
+    @Override
+    public PersistentNode getChild(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * @param path path relative to the current node
+     * @return node with the given path or null if there is no such node
+     */
+    public PersistentNode find(NodePath path) {
+        PersistentNode current = this;
+        for (int level = 0; level < path.size() && current != null; ++level) {
+            current = current.getChild(path.getLevel(level));
+        }
+        return current;
+    }
+
+    /**
+     * @return list of children names sorted by name.
+     */
+    public List<String> getChildrenNames() {
+        return new ArrayList<>(Arrays.asList(getSortedChildrenNames()));
+    }
+
+    /**
+     * @param afterName name after which the page starts, null to start from the first child
+     * @param limit maximal count of names in the page
+     * @return list of at most limit children names following afterName sorted by name.
+     */
+    public List<String> getChildrenNames(String afterName, int limit) {
+        final String[] names = getSortedChildrenNames();
+        int from = 0;
+        if (afterName != null) {
+            int index = Arrays.binarySearch(names, afterName);
+            from = index >= 0 ? index + 1 : -(index + 1);
+        }
+        final int to = limit <= 0 ? from : (int) Math.min(names.length, (long) from + limit);
+        return new ArrayList<>(Arrays.asList(names).subList(from, Math.max(from, to)));
+    }
+
+    public PersistentNode withValue(String value, long version) {
+        return new PersistentNode(name, value, children, version, version, sortedChildrenNames);
+    }
+
+    /**
+     * @param version version of the change in the subtree
+     */
+    public PersistentNode withChild(PersistentNode child, long version) {
+        String[] names = sortedChildrenNames;
+        if (names != null && children.get(child.name) == null) {
+            final int index = -(Arrays.binarySearch(names, child.name) + 1);
+            final String[] added = new String[names.length + 1];
+            System.arraycopy(names, 0, added, 0, index);
+            added[index] = child.name;
+            System.arraycopy(names, index, added, index + 1, names.length - index);
+            names = added;
+        }
+        return new PersistentNode(name, value, children.plus(child.name, child), this.version, version, names);
+    }
+
+    /**
+     * @param version version of the change in the subtree
+     */
+    public PersistentNode withoutChild(String name, long version) {
+        String[] names = sortedChildrenNames;
+        if (names != null && children.get(name) != null) {
+            final int index = Arrays.binarySearch(names, name);
+            final String[] removed = new String[names.length - 1];
+            System.arraycopy(names, 0, removed, 0, index);
+            System.arraycopy(names, index + 1, removed, index, removed.length - index);
+            names = removed;
+        }
+        return new PersistentNode(this.name, value, children.minus(name), this.version, version, names);
+    }
+
+    private String[] getSortedChildrenNames() {
+        String[] names = sortedChildrenNames;
+        if (names == null) {
+            List<String> keys = children.keys();
+            Collections.sort(keys);
+            names = keys.toArray(new String[keys.size()]);
+            sortedChildrenNames = names;
+        }
+        return names;
+    }
+
+    /**
+     * Counts the nodes of the subtree.
+     */
+    void addTo(TreeStats stats) {
+        stats.add(NODE_BYTES, value);
+        for (PersistentNode child : children.values()) {
+            child.addTo(stats);
+        }
+    }
+
+    /**
+     * The dump is built lazily, it is safe because the node is immutable.
+     * @return a dump of state of the given node
+     */
+    public NodeDump createDump() {
+        return createDump(-1);
+    }
+
+    /**
+     * Saves the state of the given node and its descendants up to the given depth.
+     * @param maxDepth maximal depth of the dumped descendants, 0 to dump only the node, negative to dump all of them
+     * @return a dump of state of the given node
+     */
+    public NodeDump createDump(final int maxDepth) {
+        Collection<PersistentNode> dumpedChildren = maxDepth == 0 ? Collections.<PersistentNode>emptyList() : children.values();
+        Collection<NodeDump> childrenDumps = transform(dumpedChildren, new Function<PersistentNode, NodeDump>() {
+            @Override
+            public NodeDump apply(PersistentNode node) {
+                return node.createDump(maxDepth - 1);
+            }
+        });
+
+        return new NodeDump(name, value, childrenDumps);
+    }
+
+    /**
+     * Saves the changes of the subtree made after the given version, it is built lazily like the dump.
+     * @param baseVersion version of the tree to which the delta is applied
+     * @return a delta of the given node
+     */
+    public NodeDelta createDelta(final long baseVersion) {
+        if (subtreeVersion <= baseVersion) {
+            return NodeDelta.unchanged(name);
+        }
+        Collection<NodeDelta> childrenDeltas = transform(children.values(), new Function<PersistentNode, NodeDelta>() {
+            @Override
+            public NodeDelta apply(PersistentNode node) {
+                return node.createDelta(baseVersion);
+            }
+        });
+
+        return new NodeDelta(name, value, childrenDeltas);
+    }
+}
@@ -0,0 +1,285 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PersistentTree is a tree of immutable nodes with a single atomic reference to the root.
+ * Every change copies the path from the root to the changed node and publishes the new root by CAS,
+ * so readers never take locks and always see a consistent snapshot of the entire tree.
+ * This class is completely thread-safe.
+ */
+public class PersistentTree implements ConfigTree {
+    private final AtomicReference<PersistentNode> root;
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final ForkJoinPool restorePool;
+
+    /**
+     * @param restorePool a pool reading top-level subtrees of partitioned dumps concurrently, null to read them one by one
+     */
+    public PersistentTree(PersistentNode root, ForkJoinPool restorePool) {
+        this.root = new AtomicReference<>(root);
+        this.restorePool = restorePool;
+    }
+
+    public PersistentTree(PersistentNode root) {
+        this(root, null);
+    }
+
+    public PersistentTree(ForkJoinPool restorePool) { this(new PersistentNode("", ""), restorePool); }
+
+    public PersistentTree() { this(new PersistentNode("", "")); }
+
+    /**
+     * @return the current version of the tree. It will never change.
+     */
+    public PersistentNode getSnapshot() {
+        return root.get();
+    }
+
+    @Override
+    public void create(NodePath path, String value) throws DuplicateKeyException {
+        if (path.isEmpty()) {
+            throw new DuplicateKeyException("Node with given path already exists.");
+        }
+        while (true) {
+            final PersistentNode current = root.get();
+            final long version = current.getSubtreeVersion() + 1;
+            final PersistentNode updated = insert(current, path, 0, value, version);
+            if (root.compareAndSet(current, updated)) {
+                notifyChanged(updated, path, version);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public NodeDump remove(NodePath path) throws UnknownKeyException, InvalidKeyException {
+        if (path.isEmpty()) {
+            throw new InvalidKeyException("Can't delete root");
+        }
+        while (true) {
+            final PersistentNode current = root.get();
+            final PersistentNode removed = findNode(current, path);
+            final long version = current.getSubtreeVersion() + 1;
+            final PersistentNode updated = remove(current, path, 0, version);
+            if (root.compareAndSet(current, updated)) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.nodeRemoved(path, version);
+                }
+                return removed.createDump();
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(NodePath path) {
+        return root.get().find(path) != null;
+    }
+
+    @Override
+    public String getValue(NodePath path) throws UnknownKeyException {
+        return findNode(root.get(), path).getValue();
+    }
+
+    /**
+     * All values are read from the same snapshot of the tree.
+     */
+    @Override
+    public List<String> getValues(List<NodePath> paths) {
+        List<PersistentNode> found = PathResolver.findAll(root.get(), paths);
+        List<String> values = new ArrayList<>(found.size());
+        for (PersistentNode node : found) {
+            values.add(node == null ? null : node.getValue());
+        }
+
+        return values;
+    }
+
+    @Override
+    public void setValue(NodePath path, String value) throws UnknownKeyException {
+        while (true) {
+            final PersistentNode current = root.get();
+            final long version = current.getSubtreeVersion() + 1;
+            final PersistentNode updated = setValue(current, path, 0, value, version);
+            if (root.compareAndSet(current, updated)) {
+                notifyChanged(updated, path, version);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<String> getChildrenNames(NodePath path) throws UnknownKeyException {
+        return findNode(root.get(), path).getChildrenNames();
+    }
+
+    @Override
+    public List<String> getChildrenNames(NodePath path, String afterName, int limit) throws UnknownKeyException {
+        return findNode(root.get(), path).getChildrenNames(afterName, limit);
+    }
+
+    @Override
+    public NodeDump getSubtree(NodePath path, int maxDepth) throws UnknownKeyException {
+        return findNode(root.get(), path).createDump(maxDepth);
+    }
+
+    /**
+     * The version of the tree is the subtree version of its root, so every change takes the next one in the CAS loop.
+     */
+    @Override
+    public long getVersion() {
+        return root.get().getSubtreeVersion();
+    }
+
+    @Override
+    public long getVersion(NodePath path, boolean recursive) {
+        PersistentNode current = root.get();
+        for (int level = 0; level < path.size(); ++level) {
+            PersistentNode next = current.getChild(path.getLevel(level));
+            if (next == null) {
+                return current.getSubtreeVersion();
+            }
+            current = next;
+        }
+
+        return recursive ? current.getSubtreeVersion() : current.getVersion();
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public TreeStats getStats() {
+        TreeStats stats = new TreeStats();
+        getSnapshot().addTo(stats);
+        return stats;
+    }
+
+    @Override
+    public NodeDump createDump() {
+        return root.get().createDump();
+    }
+
+    @Override
+    public NodeDelta createDelta(long baseVersion) {
+        return root.get().createDelta(baseVersion);
+    }
+
+    @Override
+    public void restore(NodeDump dump) {
+        while (true) {
+            final PersistentNode current = root.get();
+            final long version = current.getSubtreeVersion() + 1;
+            if (root.compareAndSet(current, PersistentNode.fromDump(dump, version))) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.treeRestored(version);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the tree from the source with the next version of the tree, top-level subtrees of a partitioned source
+     * are read concurrently. If the tree changes while the source is read, the versions are assigned again
+     * from the constructed tree.
+     */
+    @Override
+    public void restore(DumpSource source) throws IOException {
+        final long nextVersion = root.get().getSubtreeVersion() + 1;
+        PersistentNode restored = restorePool != null && source instanceof PartitionedDumpSource
+                ? PersistentNode.readFrom((PartitionedDumpSource) source, nextVersion, restorePool)
+                : PersistentNode.readFrom(source, nextVersion);
+        while (true) {
+            final PersistentNode current = root.get();
+            final long version = current.getSubtreeVersion() + 1;
+            if (restored.getSubtreeVersion() != version) {
+                restored = PersistentNode.fromDump(restored.createDump(), version);
+            }
+            if (root.compareAndSet(current, restored)) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.treeRestored(version);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reports the nodes on the given path which were changed with the given version.
+     */
+    private void notifyChanged(PersistentNode updatedRoot, NodePath path, long version) {
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+        PersistentNode current = updatedRoot;
+        for (int level = 0; level < path.size(); ++level) {
+            current = current.getChild(path.getLevel(level));
+            if (current.getVersion() == version) {
+                for (ChangeListener listener : changeListeners) {
+                    listener.nodeChanged(path.getPrefix(level + 1), current.getValue(), version);
+                }
+            }
+        }
+    }
+
+    private PersistentNode findNode(PersistentNode root, NodePath path) throws UnknownKeyException {
+        PersistentNode found = root.find(path);
+        if (found == null) {
+            throw new UnknownKeyException(String.format("There is no node with key %s", path));
+        }
+        return found;
+    }
+
+    private PersistentNode insert(PersistentNode node, NodePath path, int level, String value, long version) throws DuplicateKeyException {
+        final String name = path.getLevel(level);
+        PersistentNode child = node.getChild(name);
+        if (level == path.size() - 1) {
+            if (child != null) {
+                throw new DuplicateKeyException("Node with given path already exists.");
+            }
+            return node.withChild(new PersistentNode(name, value, version), version);
+        }
+        if (child == null) {
+            child = new PersistentNode(name, "", version);
+        }
+        return node.withChild(insert(child, path, level + 1, value, version), version);
+    }
+
+    private PersistentNode remove(PersistentNode node, NodePath path, int level, long version) throws UnknownKeyException {
+        final String name = path.getLevel(level);
+        final PersistentNode child = node.getChild(name);
+        ensureExisting(child, name);
+        if (level == path.size() - 1) {
+            return node.withoutChild(name, version);
+        }
+        return node.withChild(remove(child, path, level + 1, version), version);
+    }
+
+    private PersistentNode setValue(PersistentNode node, NodePath path, int level, String value, long version) throws UnknownKeyException {
+        if (level == path.size()) {
+            return node.withValue(value, version);
+        }
+        final String name = path.getLevel(level);
+        final PersistentNode child = node.getChild(name);
+        ensureExisting(child, name);
+        return node.withChild(setValue(child, path, level + 1, value, version), version);
+    }
+
+    private void ensureExisting(PersistentNode child, String name) throws UnknownKeyException {
+        if (child == null) {
+            throw new UnknownKeyException(String.format("There is no child with key %s", name));
+        }
+    }
+}
@@ -1,20 +1,72 @@
 package net.thumbtack.configServer.domain;
 
+import com.google.common.base.Ticker;
+import net.thumbtack.configServer.events.ExpiryBatchEvent;
+import net.thumbtack.configServer.events.FlightEvents;
+import net.thumbtack.configServer.metrics.LatencyHistogram;
 import net.thumbtack.configServer.thrift.InvalidTimeoutException;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.*;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Scheduler is a class that can run some task at the given time.
+ * Tasks are kept in a {@link TimingWheel} with quarter-millisecond ticks, owned by a single worker thread,
+ * so scheduling, rescheduling and cancelling cost O(1) and tasks of a tick are expired in a batch.
+ * Time is read from a {@link Ticker}, a scheduler without the worker is driven by {@link #runDueTasks()},
+ * so tests can pass time with a fake ticker instead of sleeping.
+ * @param <K> type of the keys identifying tasks
  */
-public class Scheduler {
-    private ScheduledExecutorService executorService;
-    private ConcurrentHashMap<String, ScheduledTask> queuedSchedules;
+public class Scheduler<K> {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(Scheduler.class);
+    private static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+    private static final int BITS_PER_LEVEL = 8;
+    private static final int LEVELS_COUNT = 4;
+
+    private final ConcurrentHashMap<K, ScheduledTask<K>> queuedSchedules = new ConcurrentHashMap<>();
+    private final Queue<ScheduledTask<K>> addedSchedules = new ConcurrentLinkedQueue<>();
+    private final Ticker ticker;
+    private final TimingWheel wheel;
+    private final Thread worker;
+    private volatile long wakeUpTime = Long.MAX_VALUE;
+    private final LatencyHistogram expiryBatches = new LatencyHistogram();
+    /**
+     * Count of executed tasks, it is changed only by the thread running due tasks.
+     */
+    private volatile long executedCount = 0;
 
     public Scheduler() {
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        queuedSchedules = new ConcurrentHashMap<>();
+        this(Ticker.systemTicker(), true);
+    }
+
+    /**
+     * @param ticker source of the time in nanoseconds
+     * @param startWorker false to execute due tasks only when {@link #runDueTasks()} is called
+     */
+    public Scheduler(Ticker ticker, boolean startWorker) {
+        FlightEvents.register();
+        this.ticker = ticker;
+        wheel = new TimingWheel(ticker.read(), TICK_NANOS, BITS_PER_LEVEL, LEVELS_COUNT);
+        if (startWorker) {
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "scheduler");
+            worker.setDaemon(true);
+            worker.start();
+        } else {
+            worker = null;
+        }
     }
 
     /**
@@ -26,15 +78,8 @@ public class Scheduler {
      * @param whenExecute time when the task should be executed
      * @throws InvalidTimeoutException when date is expired
      */
-    public void schedule(String taskKey, Runnable task, Date whenExecute) throws InvalidTimeoutException {
-        final long delay = getDelayFromNowInMilliseconds(whenExecute);
-        final Runnable wrappedAction = wrapWithQueuedSchedulesCleaning(taskKey, task);
-        final ScheduledFuture<?> token = executorService.schedule(wrappedAction, delay, TimeUnit.MILLISECONDS);
-        ScheduledTask scheduledTask = new ScheduledTask(token, delay, task);
-        ScheduledTask previous = queuedSchedules.put(taskKey, scheduledTask);
-        if (previous != null) {
-            previous.cancel();
-        }
+    public void schedule(K taskKey, Runnable task, Date whenExecute) throws InvalidTimeoutException {
+        schedule(taskKey, task, whenExecute.getTime() - System.currentTimeMillis());
     }
 
     /**
@@ -46,66 +91,181 @@ public class Scheduler {
      * @param msTimeout delay from now when to execute the task
      * @throws InvalidTimeoutException when msTimeout is not positive
      */
-    public void schedule(String taskKey, Runnable task, long msTimeout) throws InvalidTimeoutException {
-        schedule(taskKey, task, new Date(System.currentTimeMillis() + msTimeout));
+    public void schedule(K taskKey, Runnable task, long msTimeout) throws InvalidTimeoutException {
+        if (msTimeout <= 0) {
+            throw new InvalidTimeoutException("Timeout for schedule should be greater than 0");
+        }
+        ScheduledTask<K> scheduledTask = new ScheduledTask<>(taskKey, task, TimeUnit.MILLISECONDS.toNanos(msTimeout), ticker.read());
+        ScheduledTask<K> previous = queuedSchedules.put(taskKey, scheduledTask);
+        if (previous != null) {
+            previous.cancel();
+        }
+        addedSchedules.offer(scheduledTask);
+        if (worker != null && scheduledTask.deadline < wakeUpTime) {
+            LockSupport.unpark(worker);
+        }
     }
 
     /**
      * Reschedule task with the given key, if a task with the same key is already scheduled.
-     * This operation is not atomic, it is possible to schedule a new task when the previous was executed.
+     * The task is postponed in place without allocations.
+     * This operation is not atomic, it is possible that the task is executed concurrently with the rescheduling.
+     * @param taskKey the unique key that identifies the task
+     */
+    public void reschedule(K taskKey) {
+        ScheduledTask<K> task = queuedSchedules.get(taskKey);
+        if (task != null) {
+            task.postpone(ticker.read());
+        }
+    }
+
+    /**
+     * Cancel task with the given key, if it is scheduled.
      * @param taskKey the unique key that identifies the task
      */
-    public void reschedule(String taskKey) {
-        if (queuedSchedules.containsKey(taskKey)) {
-            ScheduledTask task = queuedSchedules.get(taskKey);
-            if (task != null) {
-                // other thread can already delete the task between the "contains" check and the actual getting.
-                // we can't use atomic replace because we need some parameters of the queued task.
-                try {
-                    schedule(taskKey, task.action, task.msTimeout);
-                } catch (InvalidTimeoutException e) {
-                    // this is not possible since we've already added the schedule
+    public void cancel(K taskKey) {
+        ScheduledTask<K> task = queuedSchedules.remove(taskKey);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * @return count of scheduled tasks which are neither executed nor cancelled
+     */
+    public int getPendingCount() {
+        return queuedSchedules.size();
+    }
+
+    /**
+     * @return count of tasks executed since the scheduler was created
+     */
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     * @return durations of the execution of all tasks expired at the same tick
+     */
+    public LatencyHistogram getExpiryBatches() {
+        return expiryBatches;
+    }
+
+    /**
+     * Executes the tasks which are due by the time of the ticker on the calling thread.
+     * @throws IllegalStateException if the scheduler has a worker, which owns the wheel
+     */
+    public void runDueTasks() {
+        if (worker != null) {
+            throw new IllegalStateException("Tasks of the scheduler are executed by its worker");
+        }
+        synchronized (wheel) {
+            runDueTasks(new ArrayList<TimingWheel.Timeout>());
+        }
+    }
+
+    private void work() {
+        List<TimingWheel.Timeout> expired = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            runDueTasks(expired);
+
+            // a task added after the wake up time is published unparks the worker if it is due earlier
+            final long nextEventTime = wheel.size() == 0 ? Long.MAX_VALUE : wheel.getNextEventTime();
+            wakeUpTime = nextEventTime;
+            if (addedSchedules.isEmpty()) {
+                if (nextEventTime == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, nextEventTime - ticker.read());
                 }
             }
+            wakeUpTime = Long.MIN_VALUE;
         }
     }
 
-    private long getDelayFromNowInMilliseconds(Date whenExecute) throws InvalidTimeoutException {
-        Date now = new Date();
-        long delay = (whenExecute.getTime() - now.getTime());
-        if (delay > 0) {
-            return delay;
-        } else {
-            throw new InvalidTimeoutException("Timeout for schedule should be greater than 0");
+    @SuppressWarnings("unchecked")
+    private void runDueTasks(List<TimingWheel.Timeout> expired) {
+        ScheduledTask<K> added;
+        while ((added = addedSchedules.poll()) != null) {
+            wheel.add(added);
+        }
+        wheel.advance(ticker.read(), expired);
+        if (!expired.isEmpty()) {
+            final ExpiryBatchEvent event = new ExpiryBatchEvent();
+            event.begin();
+            final long start = System.nanoTime();
+            long executed = 0;
+            for (TimingWheel.Timeout timeout : expired) {
+                if (execute((ScheduledTask<K>) timeout)) {
+                    ++executed;
+                }
+            }
+            executedCount += executed;
+            expiryBatches.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.setBatch(expired.size(), executed, queuedSchedules.size());
+                event.commit();
+            }
+            expired.clear();
         }
     }
 
-    private Runnable wrapWithQueuedSchedulesCleaning(final String taskKey, final Runnable action) {
-        return new Runnable() {
-            @Override
-            public void run() {
-                action.run();
-                queuedSchedules.remove(taskKey);
-            }
-        };
+    /**
+     * @return true if the task was executed
+     */
+    private boolean execute(ScheduledTask<K> task) {
+        task.expired = true;
+        if (!wheel.isDue(task)) {
+            // the task was postponed after the wheel had checked its deadline
+            task.expired = false;
+            wheel.add(task);
+            return false;
+        }
+        queuedSchedules.remove(task.key, task);
+        if (task.cancelled) {
+            return false;
+        }
+        try {
+            task.action.run();
+        } catch (RuntimeException ex) {
+            LOG.catching(ex);
+        }
+        return true;
     }
 
     /**
      * This class is used to store parameters of task for rescheduling.
      */
-    private static class ScheduledTask {
-        private ScheduledFuture<?> token = null;
-        private long msTimeout;
-        private Runnable action;
+    private static class ScheduledTask<K> extends TimingWheel.Timeout {
+        private final K key;
+        private final Runnable action;
+        private final long timeout;
+        private volatile long deadline;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        public ScheduledTask(K key, Runnable action, long timeout, long now) {
+            this.key = key;
+            this.action = action;
+            this.timeout = timeout;
+            this.deadline = now + timeout;
+        }
+
+        @Override
+        long getDeadline() { return deadline; }
 
-        public ScheduledTask(ScheduledFuture<?> token, long msTimeout, Runnable task) {
-            this.token = token;
-            this.msTimeout = msTimeout;
-            this.action = task;
+        @Override
+        boolean isCancelled() { return cancelled; }
+
+        public void postpone(long now) {
+            if (!expired) {
+                deadline = now + timeout;
+            }
         }
 
         public void cancel() {
-            token.cancel(true);
+            cancelled = true;
         }
     }
 }
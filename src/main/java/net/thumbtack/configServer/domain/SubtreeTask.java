@@ -0,0 +1,54 @@
+package net.thumbtack.configServer.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SubtreeTask processes a single top-level subtree, so independent subtrees of a tree are processed concurrently.
+ * @param <T> type of the result
+ */
+abstract class SubtreeTask<T> extends RecursiveTask<T> {
+    private IOException failure = null;
+
+    @Override
+    protected final T compute() {
+        try {
+            return call();
+        } catch (IOException ex) {
+            failure = ex;
+            return null;
+        }
+    }
+
+    protected abstract T call() throws IOException;
+
+    /**
+     * Runs the tasks on the pool and waits for all of them.
+     * @param pool a pool of the tasks, null to run them one by one in the current thread
+     * @return results of the tasks in the same order
+     * @throws IOException the first failure of the tasks
+     */
+    static <T> List<T> invokeAll(ForkJoinPool pool, List<? extends SubtreeTask<T>> tasks) throws IOException {
+        if (pool != null) {
+            for (SubtreeTask<T> task : tasks) {
+                pool.execute(task);
+            }
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        IOException failure = null;
+        for (SubtreeTask<T> task : tasks) {
+            results.add(pool != null ? task.join() : task.invoke());
+            if (failure == null) {
+                failure = task.failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        return results;
+    }
+}
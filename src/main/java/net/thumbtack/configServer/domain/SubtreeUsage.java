@@ -0,0 +1,28 @@
+package net.thumbtack.configServer.domain;
+
+/**
+ * SubtreeUsage describes a subtree found by a sweep of the tree, see {@link IndexedNodeTree#sweep(int)}.
+ */
+public class SubtreeUsage {
+    private final NodePath path;
+    private final long nodes;
+    private final boolean referenced;
+
+    public SubtreeUsage(NodePath path, long nodes, boolean referenced) {
+        this.path = path;
+        this.nodes = nodes;
+        this.referenced = referenced;
+    }
+
+    public NodePath getPath() { return path; }
+
+    /**
+     * @return count of the nodes of the subtree which are in memory
+     */
+    public long getNodes() { return nodes; }
+
+    /**
+     * @return true if any node of the subtree was accessed since the previous sweep
+     */
+    public boolean isReferenced() { return referenced; }
+}
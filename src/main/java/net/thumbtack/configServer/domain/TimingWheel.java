@@ -0,0 +1,168 @@
+package net.thumbtack.configServer.domain;
+
+import java.util.List;
+
+/**
+ * TimingWheel is a hashed hierarchical timing wheel.
+ * Every level is a ring of slots: a slot of the lowest level covers a single tick
+ * and a slot of every next level covers a whole turn of the previous ring.
+ * A timeout is put into the lowest level which can hold its deadline and is moved down
+ * when the lower ring completes a turn, so adding and expiring a timeout cost O(1).
+ * Deadlines of added timeouts may be moved later without touching the wheel:
+ * such timeouts are put back when their slot comes.
+ * The wheel is not thread-safe, it should be used by a single thread.
+ */
+final class TimingWheel {
+    private final long startTime;
+    private final long tickDuration;
+    private final int bitsPerLevel;
+    private final int slotMask;
+    private final long maxTicks;
+    private final Timeout[][] levels;
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * @param startTime time of the tick 0
+     * @param tickDuration duration of a single tick in the same units as startTime
+     * @param bitsPerLevel binary logarithm of the count of slots in a level
+     * @param levelsCount count of levels
+     */
+    TimingWheel(long startTime, long tickDuration, int bitsPerLevel, int levelsCount) {
+        if (bitsPerLevel * levelsCount >= Long.SIZE - 1) {
+            throw new IllegalArgumentException(String.format("Wheel with %d levels of %d bits is too large", levelsCount, bitsPerLevel));
+        }
+        this.startTime = startTime;
+        this.tickDuration = tickDuration;
+        this.bitsPerLevel = bitsPerLevel;
+        this.slotMask = (1 << bitsPerLevel) - 1;
+        this.maxTicks = 1L << (bitsPerLevel * levelsCount);
+        this.levels = new Timeout[levelsCount][1 << bitsPerLevel];
+    }
+
+    /**
+     * @return count of timeouts in the wheel including cancelled ones which are not dropped yet
+     */
+    int size() { return size; }
+
+    /**
+     * Add the timeout to the slot of its deadline. Timeouts with passed deadlines expire on the next tick.
+     */
+    void add(Timeout timeout) {
+        place(timeout, Math.max(tickOf(timeout.getDeadline()), currentTick + 1));
+        ++size;
+    }
+
+    /**
+     * @return true if the deadline of the timeout is within passed ticks
+     */
+    boolean isDue(Timeout timeout) {
+        return tickOf(timeout.getDeadline()) <= currentTick;
+    }
+
+    /**
+     * @return the earliest time when {@link #advance} can expire timeouts or move them down
+     */
+    long getNextEventTime() {
+        final long turnEnd = ((currentTick >>> bitsPerLevel) + 1) << bitsPerLevel;
+        long tick = currentTick + 1;
+        while (tick < turnEnd && levels[0][(int) tick & slotMask] == null) {
+            ++tick;
+        }
+
+        return startTime + tick * tickDuration;
+    }
+
+    /**
+     * Pass all ticks up to the given time.
+     * Cancelled timeouts are dropped, timeouts with moved deadlines are put back.
+     * @param now current time
+     * @param expired list to which expired timeouts are added
+     */
+    void advance(long now, List<Timeout> expired) {
+        final long nowTick = (now - startTime) / tickDuration;
+        while (currentTick < nowTick) {
+            if (size == 0) {
+                currentTick = nowTick;
+                return;
+            }
+            ++currentTick;
+            cascade();
+            expireSlot(expired);
+        }
+    }
+
+    private long tickOf(long time) {
+        return (time - startTime + tickDuration - 1) / tickDuration;
+    }
+
+    private void place(Timeout timeout, long tick) {
+        long delta = tick - currentTick;
+        if (delta >= maxTicks) {
+            // it will be placed again with the actual deadline when the highest level moves it down
+            delta = maxTicks - 1;
+            tick = currentTick + delta;
+        }
+        int level = 0;
+        while (delta >= 1L << (bitsPerLevel * (level + 1))) {
+            ++level;
+        }
+        final int slot = (int) (tick >>> (bitsPerLevel * level)) & slotMask;
+        timeout.next = levels[level][slot];
+        levels[level][slot] = timeout;
+    }
+
+    /**
+     * Move timeouts down from the slots of the higher levels whose turn begins on the current tick.
+     */
+    private void cascade() {
+        for (int level = 1; level < levels.length; ++level) {
+            final int shift = bitsPerLevel * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            final int slot = (int) (currentTick >>> shift) & slotMask;
+            Timeout timeout = levels[level][slot];
+            levels[level][slot] = null;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                place(timeout, Math.max(tickOf(timeout.getDeadline()), currentTick));
+                timeout = next;
+            }
+        }
+    }
+
+    private void expireSlot(List<Timeout> expired) {
+        final int slot = (int) currentTick & slotMask;
+        Timeout timeout = levels[0][slot];
+        levels[0][slot] = null;
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.isCancelled()) {
+                --size;
+            } else if (!isDue(timeout)) {
+                place(timeout, tickOf(timeout.getDeadline()));
+            } else {
+                --size;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Timeout is an entry of the wheel. Entries are linked into lists of their slots, so the wheel
+     * does not allocate anything on add.
+     */
+    abstract static class Timeout {
+        private Timeout next;
+
+        /**
+         * @return time of the deadline, it can only be moved later
+         */
+        abstract long getDeadline();
+
+        abstract boolean isCancelled();
+    }
+}
@@ -0,0 +1,12 @@
+package net.thumbtack.configServer.domain;
+
+/**
+ * TreeNode is a node which can be navigated to its children by name.
+ * @param <T> type of children
+ */
+public interface TreeNode<T extends TreeNode<T>> {
+    /**
+     * @return child with the given name or null if there is no such child
+     */
+    T getChild(String name);
+}
@@ -0,0 +1,28 @@
+package net.thumbtack.configServer.domain;
+
+/**
+ * TreeStats is the count of nodes of a tree and an estimate of the heap they take.
+ * The estimate is the size of a node measured by NodeMemoryBenchmark for every node plus the size of its value,
+ * names are not counted, since they are interned and shared between nodes.
+ */
+public class TreeStats {
+    private static final int STRING_BYTES = 40;
+
+    private long nodes = 0;
+    private long approximateBytes = 0;
+
+    public long getNodes() { return nodes; }
+
+    public long getApproximateBytes() { return approximateBytes; }
+
+    /**
+     * @param nodeBytes size of a node of the tree without its value
+     */
+    void add(int nodeBytes, String value) {
+        ++nodes;
+        approximateBytes += nodeBytes;
+        if (value != null && !value.isEmpty()) {
+            approximateBytes += STRING_BYTES + value.length();
+        }
+    }
+}
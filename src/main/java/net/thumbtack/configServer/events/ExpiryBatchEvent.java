@@ -0,0 +1,38 @@
+package net.thumbtack.configServer.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * ExpiryBatchEvent is the execution of the timers which expired at the same tick of a scheduler.
+ */
+@Name("net.thumbtack.configServer.ExpiryBatch")
+@Label("Expiry Batch")
+@Category({"Config Server", "Scheduler"})
+@Description("Execution of the timers of temporary nodes or leases which expired together")
+@Enabled(false)
+@StackTrace(false)
+public class ExpiryBatchEvent extends Event {
+    @Label("Expired")
+    @Description("Count of timers taken from the wheel")
+    private int expired;
+
+    @Label("Executed")
+    @Description("Count of executed tasks, postponed and cancelled ones are skipped")
+    private long executed;
+
+    @Label("Pending")
+    @Description("Count of timers left in the scheduler")
+    private int pending;
+
+    public void setBatch(int expired, long executed, int pending) {
+        this.expired = expired;
+        this.executed = executed;
+        this.pending = pending;
+    }
+}
@@ -0,0 +1,26 @@
+package net.thumbtack.configServer.events;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * FlightEvents registers the events of the server in JDK Flight Recorder. Registration of the first event
+ * initializes the recorder, which takes hundreds of milliseconds, so the events are registered when the server
+ * is created instead of by the first call, expiry batch or snapshot which uses them.
+ */
+public final class FlightEvents {
+    private static boolean registered = false;
+
+    private FlightEvents() {
+    }
+
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        FlightRecorder.register(RpcEvent.class);
+        FlightRecorder.register(NodeRetryEvent.class);
+        FlightRecorder.register(ExpiryBatchEvent.class);
+        FlightRecorder.register(SnapshotEvent.class);
+        registered = true;
+    }
+}
@@ -0,0 +1,47 @@
+package net.thumbtack.configServer.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * NodeRetryEvent is a change of the children of a node which had to be repeated because of a concurrent change,
+ * it lasts from the first lost attempt to the successful one.
+ */
+@Name("net.thumbtack.configServer.NodeRetry")
+@Label("Node Change Retry")
+@Category({"Config Server", "Tree"})
+@Description("Insertion or removal of a child which lost to a concurrent change and was repeated")
+@Enabled(false)
+@StackTrace(false)
+public class NodeRetryEvent extends Event {
+    @Label("Operation")
+    private String operation;
+
+    @Label("Name")
+    @Description("Name of the inserted or removed child")
+    private String name;
+
+    @Label("Key Depth")
+    @Description("Count of levels of the key of the child")
+    private int keyDepth;
+
+    @Label("Value Size")
+    @Description("Count of characters of the value of the inserted node")
+    private int valueSize;
+
+    @Label("Retries")
+    private int retries;
+
+    public void setChange(String operation, String name, int keyDepth, int valueSize, int retries) {
+        this.operation = operation;
+        this.name = name;
+        this.keyDepth = keyDepth;
+        this.valueSize = valueSize;
+        this.retries = retries;
+    }
+}
@@ -0,0 +1,55 @@
+package net.thumbtack.configServer.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * RpcEvent is a call of the config service recorded by JDK Flight Recorder.
+ * Events are disabled unless a recording enables them, e.g. by the config_server.jfc profile.
+ */
+@Name("net.thumbtack.configServer.Rpc")
+@Label("Config Service Call")
+@Category({"Config Server", "Service"})
+@Description("Call of the config service with the depth of its key and the size of its values")
+@Enabled(false)
+@StackTrace(false)
+public class RpcEvent extends Event {
+    @Label("Method")
+    private String method;
+
+    @Label("Key")
+    private String key;
+
+    @Label("Key Depth")
+    @Description("Count of levels of the key, the deepest one for calls with several keys")
+    private int keyDepth;
+
+    @Label("Value Size")
+    @Description("Count of characters of the written or read values")
+    private int valueSize;
+
+    @Label("Items")
+    @Description("Count of keys, operations, children or subtree entries of the call")
+    private int items;
+
+    @Label("Error")
+    @Description("Simple name of the thrown exception")
+    private String error;
+
+    public void setCall(String method, String key, int keyDepth, int valueSize, int items) {
+        this.method = method;
+        this.key = key;
+        this.keyDepth = keyDepth;
+        this.valueSize = valueSize;
+        this.items = items;
+    }
+
+    public void setError(Throwable error) {
+        this.error = error.getClass().getSimpleName();
+    }
+}
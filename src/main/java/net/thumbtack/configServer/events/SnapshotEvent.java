@@ -0,0 +1,33 @@
+package net.thumbtack.configServer.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * SnapshotEvent is saving of a snapshot or a delta, merging of deltas or restoring of the tree from a snapshot.
+ */
+@Name("net.thumbtack.configServer.Snapshot")
+@Label("Snapshot")
+@Category({"Config Server", "Persistence"})
+@Description("Saving, merging or restoring of a snapshot of the tree")
+@Enabled(false)
+@StackTrace(false)
+public class SnapshotEvent extends Event {
+    @Label("Operation")
+    @Description("save, saveDelta, compact or restore")
+    private String operation;
+
+    @Label("Changes")
+    @Description("Count of changes since the previous snapshot")
+    private long changes;
+
+    public void setSnapshot(String operation, long changes) {
+        this.operation = operation;
+        this.changes = changes;
+    }
+}
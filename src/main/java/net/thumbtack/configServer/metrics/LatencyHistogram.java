@@ -0,0 +1,133 @@
+package net.thumbtack.configServer.metrics;
+
+import net.thumbtack.configServer.thrift.LatencyStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in buckets of a fixed log-linear layout like HdrHistogram:
+ * durations below 32 ns get a bucket per nanosecond, every following power of two is split into 16 buckets,
+ * so a bucket is at most 1/16 of its values wide. Recording is lock-free and doesn't allocate,
+ * percentiles are computed from a weakly-consistent view of the buckets.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int BUCKETS_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos duration in nanoseconds, negative durations are counted as 0
+     */
+    public void record(long nanos) {
+        final long duration = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(duration));
+        count.incrementAndGet();
+        totalNanos.addAndGet(duration);
+        long max = maxNanos.get();
+        while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time passed since the given value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds the durations recorded by the other histogram, e.g. to report several histograms as one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS_COUNT; ++i) {
+            final long bucketCount = other.counts.get(i);
+            if (bucketCount > 0) {
+                counts.addAndGet(i, bucketCount);
+            }
+        }
+        count.addAndGet(other.count.get());
+        totalNanos.addAndGet(other.totalNanos.get());
+        final long otherMax = other.maxNanos.get();
+        long max = maxNanos.get();
+        while (otherMax > max && !maxNanos.compareAndSet(max, otherMax)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        final long recorded = count.get();
+        return recorded == 0 ? 0 : totalNanos.get() / recorded;
+    }
+
+    /**
+     * @param quantile quantile from 0 to 1, e.g. 0.99 for the 99th percentile
+     * @return the upper bound of the bucket containing the quantile, not greater than the maximum
+     */
+    public long getPercentileNanos(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS_COUNT; ++i) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS_COUNT; ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public LatencyStats toStats() {
+        return new LatencyStats(getCount(), toMicros(getMeanNanos()), toMicros(getPercentileNanos(0.5)),
+                toMicros(getPercentileNanos(0.9)), toMicros(getPercentileNanos(0.99)),
+                toMicros(getPercentileNanos(0.999)), toMicros(getMaxNanos()));
+    }
+
+    /**
+     * A value of [2^k, 2^(k+1)) with k >= 5 is shifted right by k - 4, so its 5 leading bits give
+     * one of the 16 buckets of its power of two.
+     */
+    static int indexOf(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int) nanos;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (nanos >>> shift);
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BUCKET_BITS) - 1;
+        final long subBucket = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        final long upper = ((subBucket + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,59 @@
+package net.thumbtack.configServer.metrics;
+
+import net.thumbtack.configServer.thrift.OperationStats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OperationMetrics keeps the latency of the calls of a single operation and counts its errors by exception type.
+ * A counter of an exception type is created when it is thrown for the first time, following errors of the type
+ * are counted without allocations.
+ */
+public class OperationMetrics {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    private final ConcurrentHashMap<Class<?>, AtomicLong> errorsByType = new ConcurrentHashMap<>();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() { return name; }
+
+    public LatencyHistogram getLatency() { return latency; }
+
+    public long getErrors() { return errors.get(); }
+
+    /**
+     * @param startNanos value of {@link System#nanoTime()} when the call started
+     */
+    public void recordSuccess(long startNanos) {
+        latency.recordSince(startNanos);
+    }
+
+    public void recordError(long startNanos, Throwable error) {
+        latency.recordSince(startNanos);
+        errors.incrementAndGet();
+        AtomicLong counter = errorsByType.get(error.getClass());
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = errorsByType.putIfAbsent(error.getClass(), created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public OperationStats toStats() {
+        Map<String, Long> errorCounts = new HashMap<>();
+        for (Map.Entry<Class<?>, AtomicLong> entry : errorsByType.entrySet()) {
+            errorCounts.put(entry.getKey().getSimpleName(), entry.getValue().get());
+        }
+        return new OperationStats(name, latency.toStats(), errors.get(), errorCounts);
+    }
+}
@@ -0,0 +1,50 @@
+package net.thumbtack.configServer.metrics;
+
+import net.thumbtack.configServer.thrift.OperationStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ServiceMetrics holds the metrics of the operations of the service and the durations of its snapshots.
+ * Metrics of an operation are created once and kept by the recording code, so recording never looks them up.
+ */
+public class ServiceMetrics {
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentSkipListMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram snapshots = new LatencyHistogram();
+
+    /**
+     * @return metrics of the operation with the given name, they are created on the first call
+     */
+    public OperationMetrics getOperation(String name) {
+        OperationMetrics operation = operations.get(name);
+        if (operation == null) {
+            final OperationMetrics created = new OperationMetrics(name);
+            operation = operations.putIfAbsent(name, created);
+            if (operation == null) {
+                operation = created;
+            }
+        }
+        return operation;
+    }
+
+    /**
+     * @return statistics of the operations in the order of their names
+     */
+    public List<OperationStats> getOperationStats() {
+        List<OperationStats> stats = new ArrayList<>(operations.size());
+        for (OperationMetrics operation : operations.values()) {
+            stats.add(operation.toStats());
+        }
+        return stats;
+    }
+
+    public LatencyHistogram getSnapshots() { return snapshots; }
+
+    public long getUptimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
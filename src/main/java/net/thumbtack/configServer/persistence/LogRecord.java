@@ -0,0 +1,101 @@
+package net.thumbtack.configServer.persistence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LogRecord is a record of the operation log. Records describe the resulting state of a node
+ * rather than the requested operation: SET creates the node with missing ancestors or changes its value,
+ * REMOVE removes the node if it exists. So replaying records from some point on top of a later state
+ * of the tree brings it to the same state as replaying them on the state at that point.
+ */
+public class LogRecord {
+    public enum Type {
+        SET, SET_TEMPORARY, REMOVE
+    }
+
+    private final Type type;
+    private final String key;
+    private final String value;
+    private final long msTimeout;
+
+    private LogRecord(Type type, String key, String value, long msTimeout) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+        this.msTimeout = msTimeout;
+    }
+
+    public static LogRecord set(String key, String value) {
+        return new LogRecord(Type.SET, key, value, 0);
+    }
+
+    /**
+     * @param msTimeout timeout after which the node is removed, it is counted again from the replay
+     */
+    public static LogRecord setTemporary(String key, String value, long msTimeout) {
+        return new LogRecord(Type.SET_TEMPORARY, key, value, msTimeout);
+    }
+
+    public static LogRecord remove(String key) {
+        return new LogRecord(Type.REMOVE, key, null, 0);
+    }
+
+    public Type getType() { return type; }
+
+    public String getKey() { return key; }
+
+    public String getValue() { return value; }
+
+    public long getMsTimeout() { return msTimeout; }
+
+    void write(DataOutput output) throws IOException {
+        output.writeByte(type.ordinal());
+        writeString(output, key);
+        writeString(output, value);
+        output.writeLong(msTimeout);
+    }
+
+    static LogRecord read(DataInput input) throws IOException {
+        final int type = input.readByte();
+        if (type < 0 || type >= Type.values().length) {
+            throw new IOException(String.format("Unknown type %d of log record", type));
+        }
+        final String key = readString(input);
+        final String value = readString(input);
+        final long msTimeout = input.readLong();
+
+        return new LogRecord(Type.values()[type], key, value, msTimeout);
+    }
+
+    /**
+     * Strings are written as their length in UTF-8 bytes followed by the bytes, -1 stands for null.
+     */
+    private static void writeString(DataOutput output, String string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s=%s", type, key, value);
+    }
+}
@@ -0,0 +1,347 @@
+package net.thumbtack.configServer.persistence;
+
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * OperationLog is an append-only log of changes of the tree split into segments.
+ * Every record gets the next sequence number and is framed by its length and CRC32,
+ * so a record torn by a crash is detected and cut off on recovery.
+ * Writers append records to the page cache and then wait in {@link #sync} for a commit:
+ * the first waiter forces the segment for all records appended so far, others wait for it,
+ * so concurrent writers share a single force. The commit window delays the force to gather more writers.
+ * A segment is named after the sequence number of its first record, segments preceding a saved snapshot
+ * are removed by {@link #truncateBefore}.
+ */
+public class OperationLog implements Closeable {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(OperationLog.class);
+    private static final String SEGMENT_PREFIX = "oplog-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final long commitWindowNanos;
+    private final ReadWriteLock channelLock = new ReentrantReadWriteLock();
+    private final Object syncMonitor = new Object();
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel = null;
+    private long segmentSize = 0;
+    private volatile long lastSequence = 0;
+    private volatile long durableSequence = 0;
+    private boolean syncing = false;
+
+    /**
+     * @param directory directory of the segments
+     * @param segmentBytes size after which the next segment is started
+     * @param commitWindowMs time for which a commit waits for other writers, 0 to commit at once
+     */
+    public OperationLog(File directory, long segmentBytes, long commitWindowMs) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.commitWindowNanos = TimeUnit.MILLISECONDS.toNanos(commitWindowMs);
+    }
+
+    /**
+     * Handler of the replayed records.
+     */
+    public interface RecordHandler {
+        void apply(LogRecord record);
+    }
+
+    /**
+     * Replay all records in the order of their sequence numbers and open the log for appending.
+     * It should be called once before any other method.
+     * @param handler handler of the records
+     * @return count of the replayed records
+     * @throws IOException if some segment except the last one is corrupted
+     */
+    public synchronized long recover(RecordHandler handler) throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("The operation log is already recovered");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Can't create directory %s", directory));
+        }
+        final List<File> segments = listSegments();
+        long count = 0;
+        for (int i = 0; i < segments.size(); ++i) {
+            count += replaySegment(segments.get(i), i == segments.size() - 1, handler);
+        }
+        durableSequence = lastSequence;
+        // the torn tail is already cut off, so appending continues the last segment
+        openSegment(segments.isEmpty() ? nextSegmentFile() : segments.get(segments.size() - 1));
+        LOG.info("Replayed {} records of operation log from {} segments", count, segments.size());
+
+        return count;
+    }
+
+    /**
+     * Append the record, it is not durable until {@link #sync} with its sequence number returns.
+     * Records are appended in the order of calls, so the callers should order them with the changes.
+     * @return sequence number of the record
+     */
+    public synchronized long append(LogRecord record) throws IOException {
+        if (channel == null) {
+            throw new IOException("The operation log is not open");
+        }
+        recordBuffer.reset();
+        DataOutputStream output = new DataOutputStream(recordBuffer);
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeLong(lastSequence + 1);
+        record.write(output);
+        output.flush();
+        final byte[] bytes = recordBuffer.toByteArray();
+        crc.reset();
+        crc.update(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(0, bytes.length - HEADER_BYTES).putInt(4, (int) crc.getValue());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        segmentSize += bytes.length;
+        ++lastSequence;
+        if (segmentSize >= segmentBytes) {
+            rollover();
+        }
+
+        return lastSequence;
+    }
+
+    /**
+     * Wait until the record with the given sequence number is forced to the disk.
+     */
+    public void sync(long sequence) throws IOException {
+        while (true) {
+            synchronized (syncMonitor) {
+                while (syncing && durableSequence < sequence) {
+                    try {
+                        syncMonitor.wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the operation log commit");
+                    }
+                }
+                if (durableSequence >= sequence) {
+                    return;
+                }
+                syncing = true;
+            }
+            try {
+                commit();
+            } finally {
+                synchronized (syncMonitor) {
+                    syncing = false;
+                    syncMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Start the next segment, the records appended before are forced to the disk.
+     * @return sequence number of the first record of the new segment
+     */
+    public synchronized long rollover() throws IOException {
+        if (channel == null) {
+            throw new IOException("The operation log is not open");
+        }
+        if (segmentSize > 0) {
+            channelLock.writeLock().lock();
+            try {
+                channel.force(false);
+                channel.close();
+                openSegment(nextSegmentFile());
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+            markDurable(lastSequence);
+        }
+
+        return lastSequence + 1;
+    }
+
+    /**
+     * Remove segments containing only records preceding the given sequence number.
+     */
+    public synchronized void truncateBefore(long sequence) throws IOException {
+        final List<File> segments = listSegments();
+        for (int i = 0; i + 1 < segments.size() && firstSequenceOf(segments.get(i + 1)) <= sequence; ++i) {
+            if (!segments.get(i).delete()) {
+                throw new IOException(String.format("Can't remove log segment %s", segments.get(i)));
+            }
+        }
+    }
+
+    /**
+     * @return sequence number of the last appended record
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        channelLock.writeLock().lock();
+        try {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        } finally {
+            channelLock.writeLock().unlock();
+        }
+        markDurable(lastSequence);
+    }
+
+    private void commit() throws IOException {
+        if (commitWindowNanos > 0) {
+            LockSupport.parkNanos(commitWindowNanos);
+        }
+        // records up to the target are written, the current segment holds them unless it was rolled over and forced
+        final long target = lastSequence;
+        channelLock.readLock().lock();
+        try {
+            if (durableSequence < target) {
+                if (channel == null) {
+                    throw new IOException("The operation log is closed");
+                }
+                channel.force(false);
+            }
+        } finally {
+            channelLock.readLock().unlock();
+        }
+        markDurable(target);
+    }
+
+    private void markDurable(long sequence) {
+        synchronized (syncMonitor) {
+            if (durableSequence < sequence) {
+                durableSequence = sequence;
+            }
+            syncMonitor.notifyAll();
+        }
+    }
+
+    private File nextSegmentFile() {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, lastSequence + 1, SEGMENT_SUFFIX));
+    }
+
+    private void openSegment(File segment) throws IOException {
+        channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segmentSize = channel.size();
+        channel.position(segmentSize);
+        forceDirectory(directory);
+    }
+
+    /**
+     * Makes the entries of created and renamed files durable, it is not supported on some platforms.
+     */
+    static void forceDirectory(File directory) {
+        try (FileChannel directoryChannel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException ex) {
+            LOG.debug("Can't force directory {}", directory);
+        }
+    }
+
+    /**
+     * Records are replayed until the end of the segment or the first torn record, which can only be in the last one.
+     */
+    private long replaySegment(File segment, boolean isLast, RecordHandler handler) throws IOException {
+        final long firstSequence = firstSequenceOf(segment);
+        if (lastSequence == 0) {
+            lastSequence = firstSequence - 1;
+        } else if (firstSequence != lastSequence + 1) {
+            throw new IOException(String.format("Log segment %s doesn't follow record %d", segment, lastSequence));
+        }
+        final long segmentLength = segment.length();
+        long count = 0;
+        long validBytes = 0;
+        String tornReason = null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            while (validBytes < segmentLength) {
+                if (segmentLength - validBytes < HEADER_BYTES) {
+                    tornReason = "incomplete header";
+                    break;
+                }
+                final int length = input.readInt();
+                final int checksum = input.readInt();
+                if (length < Long.SIZE / Byte.SIZE || length > segmentLength - validBytes - HEADER_BYTES) {
+                    tornReason = String.format("invalid length %d", length);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    tornReason = "checksum mismatch";
+                    break;
+                }
+                DataInputStream recordInput = new DataInputStream(new ByteArrayInputStream(payload));
+                final long sequence = recordInput.readLong();
+                if (sequence != lastSequence + 1) {
+                    throw new IOException(String.format("Record %d of log segment %s doesn't follow record %d", sequence, segment, lastSequence));
+                }
+                final LogRecord record = LogRecord.read(recordInput);
+                handler.apply(record);
+                lastSequence = sequence;
+                ++count;
+                validBytes += HEADER_BYTES + length;
+            }
+        }
+        if (tornReason != null) {
+            if (!isLast) {
+                throw new IOException(String.format("Log segment %s is corrupted after %d bytes: %s", segment, validBytes, tornReason));
+            }
+            LOG.warn("Log segment {} is torn after {} bytes ({}), the rest is dropped", segment, validBytes, tornReason);
+            try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+                file.setLength(validBytes);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return segments sorted by sequence numbers of their first records
+     */
+    private List<File> listSegments() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        // names contain zero-padded numbers, so they are sorted as the numbers
+        Arrays.sort(files);
+
+        return Arrays.asList(files);
+    }
+
+    private static long firstSequenceOf(File segment) {
+        final String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
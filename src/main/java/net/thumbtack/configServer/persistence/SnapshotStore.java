@@ -0,0 +1,373 @@
+package net.thumbtack.configServer.persistence;
+
+import net.thumbtack.configServer.domain.DumpHandler;
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.NodeDelta;
+import net.thumbtack.configServer.domain.PartitionedDumpSource;
+import net.thumbtack.configServer.serialization.ChecksummedDumpReader;
+import net.thumbtack.configServer.serialization.Deserializer;
+import net.thumbtack.configServer.serialization.DumpReader;
+import net.thumbtack.configServer.serialization.SerializationException;
+import net.thumbtack.configServer.serialization.StreamSerializer;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * SnapshotStore keeps the last snapshots of the tree in files.
+ * A snapshot is written to a temporary file, forced to the disk and only then renamed to the snapshot file,
+ * so the snapshot file always contains a complete snapshot. Previous snapshots are kept as generations
+ * with numeric suffixes, the newest one has suffix 1. If the server stops between moving the current snapshot
+ * to the first generation and renaming the new one, the first generation is loaded instead.
+ * <p>
+ * A full snapshot can be followed by a chain of deltas, each of them relative to the state saved by the previous one.
+ * Names of the deltas contain the checksum of the full snapshot they follow, so deltas of the previous snapshot
+ * left by a stop right after the next one is renamed are not applied to it.
+ * Snapshots are read node by node and the deltas are applied to the nodes while they are read,
+ * so the loaded state is never kept in memory apart from the tree it is restored into. Partitions of a partitioned
+ * snapshot are kept with the deltas applied to each of them, so its top-level subtrees can still be read concurrently.
+ */
+public class SnapshotStore {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(SnapshotStore.class);
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String DELTA_INFIX = ".delta-";
+
+    private final File file;
+    private final int generations;
+    private final long bytesPerSecond;
+    private final StreamSerializer<DumpSource> serializer;
+    private final DumpReader reader;
+    private final StreamSerializer<NodeDelta> deltaSerializer;
+    private final Deserializer<InputStream, NodeDelta> deltaDeserializer;
+    /**
+     * Checksum of the full snapshot followed by the saved deltas, null if the next delta has no valid base.
+     */
+    private Long baseChecksum = null;
+    private int deltasCount = 0;
+    /**
+     * The last loaded snapshot which has not been read yet, null if it was replaced by a save.
+     */
+    private LoadedSnapshot pendingLoad = null;
+
+    /**
+     * @param file file of the last snapshot
+     * @param generations count of kept snapshots including the last one
+     * @param bytesPerSecond maximal rate of writes of a snapshot, 0 for no limit
+     */
+    public SnapshotStore(File file, int generations, long bytesPerSecond,
+                         StreamSerializer<DumpSource> serializer, DumpReader reader,
+                         StreamSerializer<NodeDelta> deltaSerializer, Deserializer<InputStream, NodeDelta> deltaDeserializer) {
+        if (generations <= 0) {
+            throw new IllegalArgumentException("Count of snapshot generations should be greater than 0");
+        }
+        this.file = file.getAbsoluteFile();
+        this.generations = generations;
+        this.bytesPerSecond = bytesPerSecond;
+        this.serializer = serializer;
+        this.reader = reader;
+        this.deltaSerializer = deltaSerializer;
+        this.deltaDeserializer = deltaDeserializer;
+    }
+
+    /**
+     * Write the full snapshot and make it the last one, the oldest generation is removed.
+     */
+    public synchronized void save(DumpSource dump) throws IOException, SerializationException {
+        baseChecksum = null;
+        pendingLoad = null;
+        final File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        final CRC32 checksum = new CRC32();
+        try (OutputStream output = new BufferedOutputStream(new CheckedOutputStream(
+                new ThrottledOutputStream(new SyncingFileOutputStream(temporary), bytesPerSecond), checksum))) {
+            serializer.serialize(dump, output);
+        }
+        shiftGenerations();
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        OperationLog.forceDirectory(file.getParentFile());
+        // all deltas belong to the previous snapshot even if it has the same checksum
+        removeDeltasExcept(null);
+        baseChecksum = checksumOf(file, checksum.getValue());
+        deltasCount = 0;
+    }
+
+    /**
+     * Write the delta relative to the state saved by the last full snapshot and the deltas following it.
+     * If writing of a snapshot or a delta fails, the next delta has no base until the next full snapshot.
+     * @throws IllegalStateException if there is no base for the delta
+     */
+    public synchronized void saveDelta(NodeDelta delta) throws IOException, SerializationException {
+        if (baseChecksum == null) {
+            throw new IllegalStateException("There is no snapshot the delta could follow");
+        }
+        final long checksum = baseChecksum;
+        baseChecksum = null;
+        pendingLoad = null;
+        final File deltaFile = delta(checksum, deltasCount + 1);
+        final File temporary = new File(deltaFile.getPath() + TEMPORARY_SUFFIX);
+        try (OutputStream output = new BufferedOutputStream(
+                new ThrottledOutputStream(new SyncingFileOutputStream(temporary), bytesPerSecond))) {
+            deltaSerializer.serialize(delta, output);
+        }
+        Files.move(temporary.toPath(), deltaFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        OperationLog.forceDirectory(file.getParentFile());
+        baseChecksum = checksum;
+        ++deltasCount;
+    }
+
+    /**
+     * Replace the last full snapshot and its deltas with a single full snapshot of the same state.
+     * It only reads and writes files, so it doesn't hold the service, and the nodes are written as soon as they are read.
+     */
+    public synchronized void compact() throws IOException, SerializationException {
+        final DumpSource snapshot = load();
+        if (snapshot != null) {
+            save(snapshot);
+        }
+    }
+
+    /**
+     * Load the last full snapshot with its deltas applied. The snapshot is read when the returned source is read,
+     * once it is read completely, the following deltas are relative to the loaded state.
+     * @return the last snapshot or null if there is no one
+     */
+    public synchronized DumpSource load() throws IOException, SerializationException {
+        baseChecksum = null;
+        deltasCount = 0;
+        pendingLoad = null;
+        File source = file;
+        if (!source.exists()) {
+            source = generation(1);
+            if (!source.exists()) {
+                return null;
+            }
+            LOG.warn("There is no snapshot {}, the previous generation {} is loaded", file, source);
+        }
+        final long checksum = checksumOf(source, null);
+        removeDeltasExcept(checksum);
+        final List<NodeDelta> deltas = new ArrayList<>();
+        for (File deltaFile = delta(checksum, 1); deltaFile.exists(); deltaFile = delta(checksum, deltas.size() + 1)) {
+            try (InputStream input = new BufferedInputStream(new FileInputStream(deltaFile))) {
+                deltas.add(deltaDeserializer.deserialize(input));
+            }
+        }
+        final DumpSource snapshot = reader.open(source);
+        final LoadedSnapshot loaded = new LoadedSnapshot(source, checksum, deltas.size());
+        pendingLoad = loaded;
+        if (snapshot instanceof PartitionedDumpSource) {
+            PartitionedDumpSource partitioned = (PartitionedDumpSource) snapshot;
+            for (NodeDelta delta : deltas) {
+                partitioned = delta.applyToPartitions(partitioned);
+            }
+            return new LoadedPartitions(partitioned, loaded);
+        }
+
+        return new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                for (int i = deltas.size() - 1; i >= 0; --i) {
+                    handler = deltas.get(i).applyingTo(handler);
+                }
+                snapshot.readTo(handler);
+                loaded(loaded);
+            }
+        };
+    }
+
+    /**
+     * @return count of deltas following the last full snapshot
+     */
+    public synchronized int getDeltasCount() {
+        return deltasCount;
+    }
+
+    /**
+     * @return true if the state of the last saved or loaded snapshot is known, so a delta can follow it
+     */
+    public synchronized boolean hasBase() {
+        return baseChecksum != null;
+    }
+
+    /**
+     * @param number number of the generation, 1 for the newest previous snapshot
+     */
+    public File generation(int number) {
+        return new File(file.getPath() + "." + number);
+    }
+
+    private synchronized void loaded(LoadedSnapshot loaded) {
+        if (pendingLoad == loaded) {
+            pendingLoad = null;
+            baseChecksum = loaded.checksum;
+            deltasCount = loaded.deltasCount;
+            LOG.info("Loaded snapshot {} with {} deltas", loaded.file, loaded.deltasCount);
+        }
+    }
+
+    private File delta(long baseChecksum, int number) {
+        return new File(String.format("%s%s%08x-%05d", file.getPath(), DELTA_INFIX, baseChecksum, number));
+    }
+
+    /**
+     * @param checksum checksum of the snapshot whose deltas are kept, null to remove all of them
+     */
+    private void removeDeltasExcept(Long checksum) throws IOException {
+        final String prefix = file.getName() + DELTA_INFIX;
+        final String keptPrefix = checksum == null ? null : String.format("%s%08x-", prefix, checksum);
+        File[] deltas = file.getParentFile().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && (keptPrefix == null || !name.startsWith(keptPrefix));
+            }
+        });
+        if (deltas == null) {
+            return;
+        }
+        Arrays.sort(deltas);
+        for (File delta : deltas) {
+            Files.delete(delta.toPath());
+        }
+    }
+
+    private void shiftGenerations() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        if (generations == 1) {
+            Files.delete(file.toPath());
+            return;
+        }
+        for (int number = generations - 1; number > 1; --number) {
+            final File previous = generation(number - 1);
+            if (previous.exists()) {
+                Files.move(previous.toPath(), generation(number).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file.toPath(), generation(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * The checksum kept by the snapshot itself is read without reading the whole file, so loading a snapshot
+     * doesn't depend on its size. Otherwise it is the checksum of the written bytes if they are known,
+     * or the checksum of all bytes of the file.
+     * @param written checksum of the written bytes, null to read the file
+     */
+    private long checksumOf(File source, Long written) throws IOException {
+        if (reader instanceof ChecksummedDumpReader) {
+            final Long kept = ((ChecksummedDumpReader) reader).readChecksum(source);
+            if (kept != null) {
+                return kept;
+            }
+        }
+        if (written != null) {
+            return written;
+        }
+        final CRC32 checksum = new CRC32();
+        final byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new FileInputStream(source)) {
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                checksum.update(buffer, 0, read);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static class LoadedSnapshot {
+        private final File file;
+        private final long checksum;
+        private final int deltasCount;
+
+        public LoadedSnapshot(File file, long checksum, int deltasCount) {
+            this.file = file;
+            this.checksum = checksum;
+            this.deltasCount = deltasCount;
+        }
+    }
+
+    /**
+     * LoadedPartitions is loaded once all its nodes are read, either at once or partition by partition.
+     */
+    private class LoadedPartitions implements PartitionedDumpSource {
+        private final PartitionedDumpSource snapshot;
+        private final LoadedSnapshot loaded;
+        private final Map<String, DumpSource> partitions = new LinkedHashMap<>();
+        private final AtomicInteger unreadPartitions;
+
+        public LoadedPartitions(PartitionedDumpSource snapshot, LoadedSnapshot loaded) {
+            this.snapshot = snapshot;
+            this.loaded = loaded;
+            final Map<String, DumpSource> snapshotPartitions = snapshot.getPartitions();
+            unreadPartitions = new AtomicInteger(snapshotPartitions.size());
+            for (Map.Entry<String, DumpSource> entry : snapshotPartitions.entrySet()) {
+                final DumpSource partition = entry.getValue();
+                final AtomicBoolean read = new AtomicBoolean();
+                partitions.put(entry.getKey(), new DumpSource() {
+                    @Override
+                    public void readTo(DumpHandler handler) throws IOException {
+                        partition.readTo(handler);
+                        if (read.compareAndSet(false, true) && unreadPartitions.decrementAndGet() == 0) {
+                            loaded(loaded);
+                        }
+                    }
+                });
+            }
+        }
+
+        @Override
+        public String getName() { return snapshot.getName(); }
+        @Override
+        public String getValue() { return snapshot.getValue(); }
+
+        /**
+         * The root without children is read completely as soon as its partitions are known.
+         */
+        @Override
+        public Map<String, DumpSource> getPartitions() {
+            if (partitions.isEmpty()) {
+                loaded(loaded);
+            }
+            return partitions;
+        }
+
+        @Override
+        public void readTo(DumpHandler handler) throws IOException {
+            snapshot.readTo(handler);
+            loaded(loaded);
+        }
+    }
+
+    /**
+     * Serializers close the stream when they finish, so the file is forced to the disk on close.
+     */
+    private static class SyncingFileOutputStream extends FileOutputStream {
+        private boolean closed = false;
+
+        public SyncingFileOutputStream(File file) throws FileNotFoundException {
+            super(file);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                getFD().sync();
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.thumbtack.configServer.persistence;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ThrottledOutputStream limits the rate of writes to the underlying stream.
+ * Bytes are passed in chunks of a tenth of the rate at most, and the writer sleeps after a chunk
+ * if it is ahead of the rate counted from the first write, so bursts are bounded by a single chunk.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+    private static final int MIN_CHUNK_BYTES = 512;
+
+    private final long bytesPerSecond;
+    private final int chunkBytes;
+    private long startNanos = -1;
+    private long writtenBytes = 0;
+
+    /**
+     * @param out underlying stream
+     * @param bytesPerSecond maximal rate of writes, 0 for no limit
+     */
+    public ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+        super(out);
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate of writes should not be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.chunkBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_CHUNK_BYTES, bytesPerSecond / 10));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        throttle(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (bytesPerSecond == 0) {
+            out.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            final int chunk = Math.min(len, chunkBytes);
+            out.write(b, off, chunk);
+            throttle(chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void throttle(int bytes) throws IOException {
+        if (bytesPerSecond == 0) {
+            return;
+        }
+        if (startNanos < 0) {
+            startNanos = System.nanoTime();
+        }
+        writtenBytes += bytes;
+        final long aheadNanos = nanosToWrite(writtenBytes, bytesPerSecond) - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling writes");
+            }
+        }
+    }
+
+    /**
+     * Whole seconds and the remainder are converted separately, so the product doesn't overflow
+     * after about 9 GB are written.
+     * @return time in nanoseconds needed to write the given bytes at the given rate
+     */
+    static long nanosToWrite(long bytes, long bytesPerSecond) {
+        final long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        final long seconds = bytes / bytesPerSecond;
+        final long remainder = bytes % bytesPerSecond;
+        if (remainder > Long.MAX_VALUE / nanosPerSecond) {
+            return seconds * nanosPerSecond + (long) ((double) remainder * nanosPerSecond / bytesPerSecond);
+        }
+        return seconds * nanosPerSecond + remainder * nanosPerSecond / bytesPerSecond;
+    }
+}
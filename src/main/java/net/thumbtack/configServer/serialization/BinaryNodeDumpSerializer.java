@@ -0,0 +1,601 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpHandler;
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodeDumpBuilder;
+import net.thumbtack.configServer.domain.PartitionedDump;
+import net.thumbtack.configServer.domain.PartitionedDumpSource;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This is a serializer/deserializer for NodeDump which writes it in a compact binary format.
+ * <pre>
+ * header:     int magic, byte format version
+ * nodes:      in pre-order, every node is varint name index + 1, varint value length + 1 or 0 for a null value,
+ *             UTF-8 value bytes, its children and varint 0 after them
+ * names:      varint names count, every name is varint length and UTF-8 bytes
+ * partitions: varint count of children of the root, every child is varint name index, long offset of its node,
+ *             long length of its subtree and int CRC32 of the subtree bytes
+ * footer:     long offset of the names, long offset of the partitions, int CRC32 of all preceding bytes
+ *             except the subtrees of the children of the root
+ * </pre>
+ * Names are deduplicated, so repeated segments like "production" are written and loaded once.
+ * The table follows the nodes and children are not counted in advance, so the dump is written in a single pass
+ * over the tree. The file is read through memory-mapped windows, so it is not copied into the heap as a whole
+ * and its pages are loaded only when they are read.
+ * Children of the root are read independently through their offsets, so they can be read concurrently.
+ * Every child is checked against its own checksum when it is read for the first time, so opening the dump
+ * reads only the bytes out of the children and doesn't depend on the size of the dump.
+ * Dumps of the versions 2 and 3 are read too, they are checked as a whole when they are opened.
+ * Values of the version 2 are written without the length shift and can't be null.
+ */
+public class BinaryNodeDumpSerializer implements StreamSerializer<DumpSource>, Deserializer<File, NodeDump>,
+        ChecksummedDumpReader {
+    private static final int MAGIC = 0x434e4431;
+    private static final byte FORMAT_VERSION = 4;
+    private static final byte FILE_CHECKSUM_VERSION = 3;
+    private static final byte NOT_NULL_VALUES_VERSION = 2;
+    private static final int HEADER_BYTES = 5;
+    private static final int FOOTER_BYTES = 20;
+    private static final int DEFAULT_WINDOW_BYTES = 256 * 1024 * 1024;
+
+    private final int windowBytes;
+
+    public BinaryNodeDumpSerializer() {
+        this(DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * @param windowBytes size of the mapped windows, a single name or value should fit into it
+     */
+    BinaryNodeDumpSerializer(int windowBytes) {
+        this.windowBytes = windowBytes;
+    }
+
+    @Override
+    public void serialize(DumpSource dump, OutputStream stream) throws SerializationException {
+        try {
+            Writer writer = new Writer(stream);
+            writer.writeInt(MAGIC);
+            writer.writeByte(FORMAT_VERSION);
+            dump.readTo(writer);
+            final long namesOffset = writer.getPosition();
+            writer.writeNames();
+            final long partitionsOffset = writer.getPosition();
+            writer.writePartitions();
+            writer.writeLong(namesOffset);
+            writer.writeLong(partitionsOffset);
+            writer.writeChecksum();
+            writer.close();
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+
+    @Override
+    public NodeDump deserialize(File file) throws SerializationException {
+        try {
+            NodeDumpBuilder builder = new NodeDumpBuilder();
+            open(file).readTo(builder);
+
+            return builder.getRoot();
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+
+    /**
+     * Reads the root and the offsets of its children, the children are read independently when their sources are read.
+     * The whole file is mapped once here, only the bytes out of the children are checked against their checksum.
+     * Partitions are read from the same mapping, so they can be read even after the file is replaced or removed,
+     * e.g. by the next snapshot.
+     */
+    @Override
+    public PartitionedDumpSource open(final File file) throws IOException {
+        try {
+            final List<MappedByteBuffer> windows = map(file);
+            final long size = sizeOf(windows);
+            if (size < HEADER_BYTES + FOOTER_BYTES) {
+                throw new IOException(String.format("Binary dump %s is truncated", file));
+            }
+            Reader reader = new Reader(windows, size, null);
+            reader.seek(size - FOOTER_BYTES);
+            final long namesOffset = reader.readLong();
+            final long partitionsOffset = reader.readLong();
+            final int checksum = reader.readInt();
+            reader.seek(0);
+            final int magic = reader.readInt();
+            final byte version = reader.readByte();
+            if (magic != MAGIC || version < NOT_NULL_VALUES_VERSION || version > FORMAT_VERSION) {
+                throw new IOException(String.format("%s is not a binary dump of a supported version", file));
+            }
+            final boolean partitionChecksums = version == FORMAT_VERSION;
+            if (!partitionChecksums && checksum != reader.checksum(0, size - 4)) {
+                throw new IOException(String.format("Checksum of binary dump %s doesn't match", file));
+            }
+            final boolean nullableValues = version >= FILE_CHECKSUM_VERSION;
+            reader.setNullableValues(nullableValues);
+            if (namesOffset < HEADER_BYTES || partitionsOffset < namesOffset || partitionsOffset > size - FOOTER_BYTES) {
+                throw new IOException(String.format("Binary dump %s has invalid offsets %d and %d", file, namesOffset, partitionsOffset));
+            }
+            reader.seek(partitionsOffset);
+            final List<Partition> entries = reader.readPartitions(partitionChecksums);
+            if (partitionChecksums) {
+                checkOutOfPartitions(file, reader, entries, namesOffset, size, checksum);
+            }
+            reader.seek(namesOffset);
+            final String[] names = reader.readNames();
+            reader.seek(HEADER_BYTES);
+            final String rootName = reader.readName(reader.readCount() - 1);
+            final String rootValue = reader.readValue();
+            Map<String, DumpSource> partitions = new LinkedHashMap<>();
+            for (final Partition partition : entries) {
+                final String name = reader.readName(partition.nameIndex);
+                if (partition.offset < HEADER_BYTES || partition.offset >= namesOffset) {
+                    throw new IOException(String.format("Binary dump %s has invalid offset of %s %d", file, name, partition.offset));
+                }
+                partitions.put(name, new DumpSource() {
+                    @Override
+                    public void readTo(DumpHandler handler) throws IOException {
+                        readPartition(file, windows, size, names, nullableValues, partition, handler);
+                    }
+                });
+            }
+
+            return new PartitionedDump(rootName, rootValue, partitions);
+        } catch (RuntimeException ex) {
+            throw new IOException(String.format("Binary dump %s is invalid", file), ex);
+        }
+    }
+
+    /**
+     * The footer checksum of the version 4 covers the checksums of the children of the root, so it changes
+     * together with any byte of the dump. Only the version and the footer are read, the dump isn't validated.
+     */
+    @Override
+    public Long readChecksum(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            if (input.length() < HEADER_BYTES + FOOTER_BYTES) {
+                return null;
+            }
+            input.seek(HEADER_BYTES - 1);
+            if (input.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+            input.seek(input.length() - 4);
+            return input.readInt() & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * Children of the root follow each other without gaps, so the rest of the file is the bytes before the first one
+     * and after the last one.
+     */
+    private void checkOutOfPartitions(File file, Reader reader, List<Partition> partitions, long namesOffset,
+                                      long size, int checksum) throws IOException {
+        long end = partitions.isEmpty() ? HEADER_BYTES : partitions.get(0).offset;
+        final long start = end;
+        for (Partition partition : partitions) {
+            if (partition.offset != end || partition.length <= 0 || partition.length > namesOffset - end) {
+                throw new IOException(String.format("Binary dump %s has invalid partition at %d", file, partition.offset));
+            }
+            end += partition.length;
+        }
+        if (start < HEADER_BYTES || end >= namesOffset) {
+            throw new IOException(String.format("Binary dump %s has invalid partitions from %d to %d", file, start, end));
+        }
+        CRC32 crc = new CRC32();
+        reader.checksum(crc, 0, start);
+        reader.checksum(crc, end, size - 4);
+        if (checksum != (int) crc.getValue()) {
+            throw new IOException(String.format("Checksum of binary dump %s doesn't match", file));
+        }
+    }
+
+    private void readPartition(File file, List<MappedByteBuffer> windows, long size, String[] names,
+                               boolean nullableValues, Partition partition, DumpHandler handler) throws IOException {
+        try {
+            Reader reader = new Reader(windows, size, names);
+            reader.setNullableValues(nullableValues);
+            if (partition.length >= 0 && !partition.checked) {
+                if (partition.checksum != reader.checksum(partition.offset, partition.offset + partition.length)) {
+                    throw new IOException(String.format("Checksum of %s in binary dump %s doesn't match",
+                            reader.readName(partition.nameIndex), file));
+                }
+                partition.checked = true;
+            }
+            reader.seek(partition.offset);
+            if (reader.readCount() != partition.nameIndex + 1) {
+                throw new IOException(String.format("Binary dump %s has invalid offset %d", file, partition.offset));
+            }
+            reader.readNode(partition.nameIndex, handler);
+        } catch (RuntimeException ex) {
+            throw new IOException(String.format("Binary dump %s is invalid", file), ex);
+        }
+    }
+
+    /**
+     * Window i starts at i * windowBytes and is twice as long as the step, so a value shorter than the step
+     * always fits into the window in which it starts. The mapping stays valid after the channel is closed.
+     */
+    private List<MappedByteBuffer> map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            List<MappedByteBuffer> windows = new ArrayList<>();
+            for (long start = 0; start == 0 || start < size; start += windowBytes) {
+                windows.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(2L * windowBytes, size - start)));
+            }
+            return windows;
+        }
+    }
+
+    private long sizeOf(List<MappedByteBuffer> windows) {
+        return (long) (windows.size() - 1) * windowBytes + windows.get(windows.size() - 1).capacity();
+    }
+
+    private static class Writer implements DumpHandler {
+        private final OutputStream output;
+        private final CRC32 checksum = new CRC32();
+        private final CRC32 partitionChecksum = new CRC32();
+        private final byte[] buffer = new byte[64 * 1024];
+        private final Map<String, Integer> nameIndexes = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> partitionNames = new ArrayList<>();
+        private final List<Long> partitionOffsets = new ArrayList<>();
+        private final List<Long> partitionLengths = new ArrayList<>();
+        private final List<Integer> partitionChecksums = new ArrayList<>();
+        private int depth = 0;
+        private int bufferSize = 0;
+        private long position = 0;
+        /**
+         * Checksum receiving the written bytes, the bytes of the buffer before the mark are already added to it.
+         */
+        private CRC32 currentChecksum = checksum;
+        private int checksummedSize = 0;
+
+        public Writer(OutputStream output) {
+            this.output = output;
+        }
+
+        public long getPosition() {
+            return position + bufferSize;
+        }
+
+        @Override
+        public void startNode(String name, String value) throws IOException {
+            Integer index = nameIndexes.get(name);
+            if (index == null) {
+                index = names.size();
+                nameIndexes.put(name, index);
+                names.add(name);
+            }
+            if (depth == 1) {
+                switchChecksum(partitionChecksum);
+                partitionChecksum.reset();
+                partitionNames.add(index);
+                partitionOffsets.add(getPosition());
+            }
+            ++depth;
+            writeVarint(index + 1);
+            writeValue(value);
+        }
+
+        @Override
+        public void endNode() throws IOException {
+            --depth;
+            writeVarint(0);
+            if (depth == 1) {
+                switchChecksum(checksum);
+                partitionLengths.add(getPosition() - partitionOffsets.get(partitionOffsets.size() - 1));
+                partitionChecksums.add((int) partitionChecksum.getValue());
+            }
+        }
+
+        public void writeNames() throws IOException {
+            writeVarint(names.size());
+            for (String name : names) {
+                writeString(name);
+            }
+        }
+
+        public void writePartitions() throws IOException {
+            writeVarint(partitionNames.size());
+            for (int i = 0; i < partitionNames.size(); ++i) {
+                writeVarint(partitionNames.get(i));
+                writeLong(partitionOffsets.get(i));
+                writeLong(partitionLengths.get(i));
+                writeInt(partitionChecksums.get(i));
+            }
+        }
+
+        /**
+         * Lengths of values are shifted by one, so 0 marks a null value.
+         */
+        public void writeValue(String value) throws IOException {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1L);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        public void writeString(String string) throws IOException {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        public void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        public void writeInt(int value) throws IOException {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        public void writeByte(int value) throws IOException {
+            if (bufferSize == buffer.length) {
+                flush();
+            }
+            buffer[bufferSize++] = (byte) value;
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (bufferSize == buffer.length) {
+                    flush();
+                }
+                final int chunk = Math.min(length, buffer.length - bufferSize);
+                System.arraycopy(bytes, offset, buffer, bufferSize, chunk);
+                bufferSize += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        /**
+         * Writes the checksum of all bytes written before except the children of the root.
+         */
+        public void writeChecksum() throws IOException {
+            flush();
+            writeInt((int) checksum.getValue());
+        }
+
+        public void close() throws IOException {
+            flush();
+            output.close();
+        }
+
+        private void switchChecksum(CRC32 next) {
+            currentChecksum.update(buffer, checksummedSize, bufferSize - checksummedSize);
+            checksummedSize = bufferSize;
+            currentChecksum = next;
+        }
+
+        private void flush() throws IOException {
+            currentChecksum.update(buffer, checksummedSize, bufferSize - checksummedSize);
+            checksummedSize = 0;
+            output.write(buffer, 0, bufferSize);
+            position += bufferSize;
+            bufferSize = 0;
+        }
+    }
+
+    /**
+     * Reader reads the mapped windows of the file, it moves to the window of the current position
+     * when a value crosses the end of the current one. Every reader has its own view of the windows.
+     */
+    private class Reader {
+        private final List<MappedByteBuffer> windows;
+        private final long size;
+        private ByteBuffer window = null;
+        private long windowStart = 0;
+        private String[] names;
+        private boolean nullableValues = true;
+
+        /**
+         * @param names the name table if it is already read
+         */
+        public Reader(List<MappedByteBuffer> windows, long size, String[] names) {
+            this.windows = windows;
+            this.size = size;
+            this.names = names;
+        }
+
+        public long getPosition() {
+            return windowStart + window.position();
+        }
+
+        /**
+         * @param nullableValues false to read values of the version 2 whose lengths are not shifted
+         */
+        public void setNullableValues(boolean nullableValues) {
+            this.nullableValues = nullableValues;
+        }
+
+        public void seek(long position) {
+            final int index = (int) Math.min(position / windowBytes, windows.size() - 1);
+            windowStart = (long) index * windowBytes;
+            window = windows.get(index).duplicate();
+            window.position((int) (position - windowStart));
+        }
+
+        public int checksum(long from, long to) {
+            CRC32 checksum = new CRC32();
+            checksum(checksum, from, to);
+            return (int) checksum.getValue();
+        }
+
+        /**
+         * Adds the bytes from the given position up to the end one to the checksum, window by window.
+         */
+        public void checksum(CRC32 checksum, long from, long to) {
+            for (long start = from; start < to; ) {
+                final int index = (int) (start / windowBytes);
+                final long windowEnd = Math.min(to, (index + 1L) * windowBytes);
+                ByteBuffer buffer = windows.get(index).duplicate();
+                buffer.limit((int) (windowEnd - (long) index * windowBytes));
+                buffer.position((int) (start - (long) index * windowBytes));
+                checksum.update(buffer);
+                start = windowEnd;
+            }
+        }
+
+        /**
+         * @param withChecksums true if the partitions have their lengths and checksums
+         */
+        public List<Partition> readPartitions(boolean withChecksums) throws IOException {
+            final int count = readCount();
+            List<Partition> partitions = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                final int nameIndex = readCount();
+                final long offset = readLong();
+                partitions.add(withChecksums
+                        ? new Partition(nameIndex, offset, readLong(), readInt())
+                        : new Partition(nameIndex, offset, -1, 0));
+            }
+            return partitions;
+        }
+
+        public String[] readNames() throws IOException {
+            final int count = readCount();
+            names = new String[count];
+            for (int i = 0; i < count; ++i) {
+                names[i] = readString();
+            }
+            return names;
+        }
+
+        /**
+         * Reads the node whose name index is already read, and all its children.
+         */
+        public void readNode(int nameIndex, DumpHandler handler) throws IOException {
+            handler.startNode(readName(nameIndex), readValue());
+            for (int childIndex = readCount(); childIndex != 0; childIndex = readCount()) {
+                readNode(childIndex - 1, handler);
+            }
+            handler.endNode();
+        }
+
+        public String readName(int nameIndex) throws IOException {
+            if (nameIndex < 0 || nameIndex >= names.length) {
+                throw new IOException(String.format("Unknown name index %d", nameIndex));
+            }
+            return names[nameIndex];
+        }
+
+        public String readValue() throws IOException {
+            if (!nullableValues) {
+                return readString();
+            }
+            final int length = readCount();
+            return length == 0 ? null : readBytes(length - 1);
+        }
+
+        public String readString() throws IOException {
+            return readBytes(readCount());
+        }
+
+        private String readBytes(int length) throws IOException {
+            ensure(length);
+            final byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return a varint which should fit into the remaining bytes
+         */
+        public int readCount() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value > size) {
+                        throw new IOException(String.format("Invalid size %d", value));
+                    }
+                    return (int) value;
+                }
+            }
+            throw new IOException("Varint is too long");
+        }
+
+        public long readLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        public int readInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        public byte readByte() throws IOException {
+            ensure(1);
+            return window.get();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            if (bytes > windowBytes) {
+                throw new IOException(String.format("Value of %d bytes doesn't fit into the mapped window", bytes));
+            }
+            final long position = getPosition();
+            if (position + bytes > size) {
+                throw new EOFException("Binary dump ends unexpectedly");
+            }
+            seek(position);
+        }
+    }
+
+    /**
+     * Partition is an entry of the partitions table. It is checked once, the bytes of the mapping don't change.
+     */
+    private static class Partition {
+        private final int nameIndex;
+        private final long offset;
+        /**
+         * Length of the subtree, -1 if the dump doesn't have checksums of the partitions.
+         */
+        private final long length;
+        private final int checksum;
+        private volatile boolean checked = false;
+
+        public Partition(int nameIndex, long offset, long length, int checksum) {
+            this.nameIndex = nameIndex;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * BlockCompressedInputStream reads the blocks written by {@link BlockCompressedOutputStream}.
+ * The checksum of every block is verified before its data is returned, a corrupted block is reported
+ * with its number and its offset in the stream.
+ */
+public class BlockCompressedInputStream extends InputStream {
+    private static final int BLOCK_HEADER_BYTES = 13;
+    private static final int STREAM_HEADER_BYTES = 5;
+
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private byte[] block = new byte[0];
+    private int position = 0;
+    private int size = 0;
+    private long blockNumber = 0;
+    private long offset = STREAM_HEADER_BYTES;
+    private boolean ended = false;
+
+    /**
+     * @throws IOException if the stream doesn't start with the header of the compressed stream
+     */
+    public BlockCompressedInputStream(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+        try {
+            if (this.in.readInt() != BlockCompressedOutputStream.MAGIC) {
+                throw new IOException("The stream is not block compressed");
+            }
+            final byte version = this.in.readByte();
+            if (version != BlockCompressedOutputStream.VERSION) {
+                throw new IOException(String.format("Unsupported version %d of the compressed stream", version));
+            }
+        } catch (EOFException ex) {
+            throw new IOException("The stream is not block compressed", ex);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == size && !readBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == size && !readBlock()) {
+            return -1;
+        }
+        final int count = Math.min(length, size - position);
+        System.arraycopy(block, position, bytes, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return size - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * @return false if the stream has ended
+     */
+    private boolean readBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        final int dataSize;
+        final byte method;
+        final int storedSize;
+        final int checksum;
+        final byte[] stored;
+        try {
+            dataSize = in.readInt();
+            if (dataSize == 0) {
+                ended = true;
+                return false;
+            }
+            method = in.readByte();
+            storedSize = in.readInt();
+            checksum = in.readInt();
+            if (dataSize < 0 || storedSize < 0 || storedSize > dataSize) {
+                throw corrupted("its sizes are invalid", null);
+            }
+            stored = new byte[storedSize];
+            in.readFully(stored);
+        } catch (EOFException ex) {
+            throw new IOException(String.format("The compressed stream is truncated in block %d", blockNumber), ex);
+        }
+
+        if (block.length < dataSize) {
+            block = new byte[dataSize];
+        }
+        switch (method) {
+            case BlockCompressedOutputStream.STORED:
+                if (storedSize != dataSize) {
+                    throw corrupted("its sizes are invalid", null);
+                }
+                System.arraycopy(stored, 0, block, 0, dataSize);
+                break;
+            case BlockCompressedOutputStream.DEFLATED:
+                inflate(stored, dataSize);
+                break;
+            default:
+                throw corrupted(String.format("its method %d is unknown", method), null);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(block, 0, dataSize);
+        if ((int) crc.getValue() != checksum) {
+            throw corrupted("its checksum doesn't match", null);
+        }
+
+        position = 0;
+        size = dataSize;
+        offset += BLOCK_HEADER_BYTES + storedSize;
+        ++blockNumber;
+        return true;
+    }
+
+    private void inflate(byte[] stored, int dataSize) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored);
+        try {
+            int inflated = 0;
+            while (inflated < dataSize && !inflater.finished()) {
+                final int count = inflater.inflate(block, inflated, dataSize - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != dataSize || !inflater.finished()) {
+                throw corrupted("its data can't be inflated", null);
+            }
+        } catch (DataFormatException ex) {
+            throw corrupted("its data can't be inflated", ex);
+        }
+    }
+
+    private IOException corrupted(String reason, Throwable cause) {
+        return new IOException(String.format("Block %d at offset %d of the compressed stream is corrupted, %s",
+                blockNumber, offset, reason), cause);
+    }
+}
@@ -0,0 +1,196 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BlockCompressedOutputStream splits the data into blocks of the same size and deflates every block on its own,
+ * so the blocks are compressed concurrently and a corrupted block is found by its checksum.
+ * <pre>
+ * header  int magic, byte version
+ * block   int size of the data, byte method, int size of the stored data, int CRC32 of the data, stored data
+ * end     int 0
+ * </pre>
+ * A block that doesn't get smaller is stored as it is. Blocks are written in order, the count of blocks
+ * waiting for the compression is limited, so the memory doesn't depend on the size of the data.
+ * The last block is compressed when the stream is closed, flush doesn't end the current block.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+    public static final int MAGIC = 0x434e445a;
+    public static final byte VERSION = 1;
+    public static final byte STORED = 0;
+    public static final byte DEFLATED = 1;
+
+    private final DataOutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] block;
+    private int size = 0;
+    private boolean closed = false;
+
+    /**
+     * @param level level of the Deflater
+     * @param executor executor compressing the blocks, null to compress them by the writing thread
+     * @param maxPendingBlocks count of blocks after which the writing thread waits for the compression
+     */
+    public BlockCompressedOutputStream(OutputStream out, int blockBytes, int level, ExecutorService executor,
+                                       int maxPendingBlocks) throws IOException {
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("Size of the blocks should be greater than 0");
+        }
+        this.out = new DataOutputStream(out);
+        this.level = level;
+        this.executor = executor;
+        this.maxPendingBlocks = Math.max(maxPendingBlocks, 1);
+        block = new byte[blockBytes];
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[size++] = (byte) b;
+        if (size == block.length) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            final int count = Math.min(length, block.length - size);
+            System.arraycopy(bytes, offset, block, size, count);
+            size += count;
+            offset += count;
+            length -= count;
+            if (size == block.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks which have been compressed already.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pendingBlocks.isEmpty() && pendingBlocks.peek().isDone()) {
+            writeBlock(pendingBlocks.poll());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (size > 0) {
+                submitBlock();
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeBlock(pendingBlocks.poll());
+            }
+            out.writeInt(0);
+        } finally {
+            for (Future<byte[]> pending : pendingBlocks) {
+                pending.cancel(false);
+            }
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = size == block.length ? block : Arrays.copyOf(block, size);
+        block = new byte[block.length];
+        size = 0;
+        if (executor == null) {
+            out.write(compress(data, level));
+            return;
+        }
+        pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data, level);
+            }
+        }));
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeBlock(pendingBlocks.poll());
+        }
+    }
+
+    private void writeBlock(Future<byte[]> pending) throws IOException {
+        try {
+            out.write(pending.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing a block", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to compress a block", ex.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The stream is closed");
+        }
+    }
+
+    /**
+     * @return the block with its header
+     */
+    private static byte[] compress(byte[] data, int level) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        final Deflater deflater = new Deflater(level, true);
+        byte[] compressed = new byte[data.length];
+        int compressedSize = 0;
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished() && compressedSize < compressed.length) {
+                compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+            }
+            if (!deflater.finished()) {
+                compressed = null;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        final byte method = compressed != null ? DEFLATED : STORED;
+        final byte[] stored = compressed != null ? compressed : data;
+        final int storedSize = compressed != null ? compressedSize : data.length;
+        final byte[] result = new byte[13 + storedSize];
+        writeInt(result, 0, data.length);
+        result[4] = method;
+        writeInt(result, 5, storedSize);
+        writeInt(result, 9, (int) crc.getValue());
+        System.arraycopy(stored, 0, result, 13, storedSize);
+        return result;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
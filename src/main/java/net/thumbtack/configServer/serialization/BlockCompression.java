@@ -0,0 +1,60 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * BlockCompression creates the streams compressing the data by blocks, see {@link BlockCompressedOutputStream}.
+ * Streams written without the compression are read as they are, so it can be enabled for existing files.
+ */
+public class BlockCompression {
+    public static final int DEFAULT_BLOCK_BYTES = 1 << 20;
+
+    private final int blockBytes;
+    private final int level;
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param level level of the Deflater, from 1 for the fastest to 9 for the smallest output
+     * @param threads count of threads compressing the blocks, 1 to compress them by the writing thread
+     */
+    public BlockCompression(int blockBytes, int level, int threads) {
+        if (blockBytes <= 0) {
+            throw new IllegalArgumentException("Size of the blocks should be greater than 0");
+        }
+        this.blockBytes = blockBytes;
+        this.level = level;
+        this.threads = Math.max(threads, 1);
+        pool = this.threads > 1 ? new ForkJoinPool(this.threads) : null;
+    }
+
+    /**
+     * Every thread gets two blocks, so it has the next one when it completes the current one.
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new BlockCompressedOutputStream(out, blockBytes, level, pool, threads * 2);
+    }
+
+    /**
+     * @return a stream decompressing the input or the input itself if it isn't compressed
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        final InputStream input = in.markSupported() ? in : new BufferedInputStream(in);
+        input.mark(4);
+        int magic;
+        try {
+            magic = new DataInputStream(input).readInt();
+        } catch (EOFException ex) {
+            magic = 0;
+        }
+        input.reset();
+
+        return magic == BlockCompressedOutputStream.MAGIC ? new BlockCompressedInputStream(input) : input;
+    }
+}
@@ -0,0 +1,16 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ChecksummedDumpReader reads dumps which keep a checksum of their content, so the checksum of a dump
+ * is known without reading the whole file.
+ */
+public interface ChecksummedDumpReader extends DumpReader {
+    /**
+     * @return the checksum kept by the dump, null if the dump doesn't keep one, e.g. it is written by an older version
+     * @throws IOException if the file can't be read
+     */
+    Long readChecksum(File file) throws IOException;
+}
@@ -0,0 +1,34 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpHandler;
+import net.thumbtack.configServer.domain.DumpSource;
+
+import java.io.*;
+
+/**
+ * This is a reader of compressed dump files, they are decompressed while the nodes are read.
+ */
+public class CompressedDumpReader implements DumpReader {
+    private final StreamDumpReader reader;
+    private final BlockCompression compression;
+
+    public CompressedDumpReader(StreamDumpReader reader, BlockCompression compression) {
+        this.reader = reader;
+        this.compression = compression;
+    }
+
+    /**
+     * The file is read only when the source is read.
+     */
+    @Override
+    public DumpSource open(final File file) {
+        return new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                try (InputStream input = compression.decompress(new BufferedInputStream(new FileInputStream(file)))) {
+                    reader.read(input, handler);
+                }
+            }
+        };
+    }
+}
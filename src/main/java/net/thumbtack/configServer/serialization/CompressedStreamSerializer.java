@@ -0,0 +1,47 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This is a decorator compressing the output of a stream serializer and decompressing the input of a deserializer.
+ * @param <T> type of serialized object
+ */
+public class CompressedStreamSerializer<T> implements StreamSerializer<T>, Deserializer<InputStream, T> {
+    private final StreamSerializer<T> serializer;
+    private final Deserializer<InputStream, T> deserializer;
+    private final BlockCompression compression;
+
+    /**
+     * @param serializer serializer of the data, null if the decorator is used only to read it
+     * @param deserializer deserializer of the data, null if the decorator is used only to write it
+     */
+    public CompressedStreamSerializer(StreamSerializer<T> serializer, Deserializer<InputStream, T> deserializer,
+                                      BlockCompression compression) {
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.compression = compression;
+    }
+
+    /**
+     * The serializer has to close the stream, the last block is written when it is closed.
+     */
+    @Override
+    public void serialize(T input, OutputStream stream) throws SerializationException {
+        try {
+            serializer.serialize(input, compression.compress(stream));
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+
+    @Override
+    public T deserialize(InputStream input) throws SerializationException {
+        try {
+            return deserializer.deserialize(compression.decompress(input));
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpSource;
+
+import java.io.*;
+import java.util.zip.Deflater;
+
+/**
+ * DumpConverter converts a dump file from one format to another, e.g. to move a server to the binary format:
+ * java -cp ... net.thumbtack.configServer.serialization.DumpConverter json binary dump.json dump.bin
+ */
+public class DumpConverter {
+    private static final String DEFAULT_ENCODING = "UTF-8";
+
+    public static void main(String[] args) throws IOException, SerializationException {
+        if (args.length < 4) {
+            System.err.println("Usage: DumpConverter <json|binary> <json|binary> <input file> <output file> [encoding]");
+            System.exit(1);
+        }
+        final String encoding = args.length > 4 ? args[4] : DEFAULT_ENCODING;
+        convert(DumpFormat.of(args[0]), DumpFormat.of(args[1]), new File(args[2]), new File(args[3]), encoding);
+    }
+
+    /**
+     * Nodes are written as soon as they are read, so the dump is never kept in memory as a whole.
+     * Compressed JSON dumps are decompressed, the output is never compressed.
+     */
+    public static void convert(DumpFormat from, DumpFormat to, File input, File output, String encoding)
+            throws IOException, SerializationException {
+        final BlockCompression compression = from == DumpFormat.JSON
+                ? new BlockCompression(BlockCompression.DEFAULT_BLOCK_BYTES, Deflater.DEFAULT_COMPRESSION, 1) : null;
+        final DumpSource dump = from.createReader(encoding, compression).open(input);
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(output))) {
+            to.createSerializer(encoding).serialize(dump, stream);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.NodeDump;
+
+import java.io.File;
+
+/**
+ * Formats of the dump files.
+ */
+public enum DumpFormat {
+    /**
+     * JSON, it is readable but large and slow to parse, it can be compressed by blocks.
+     */
+    JSON,
+    /**
+     * Binary format with deduplicated names, see {@link BinaryNodeDumpSerializer}.
+     */
+    BINARY;
+
+    /**
+     * @param name name of the format in any case
+     */
+    public static DumpFormat of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     */
+    public StreamSerializer<DumpSource> createSerializer(String encoding) {
+        return createSerializer(encoding, null);
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     * @param compression compression of the files, null to write them as they are
+     * @throws IllegalArgumentException if the format can't be compressed
+     */
+    public StreamSerializer<DumpSource> createSerializer(String encoding, BlockCompression compression) {
+        switch (this) {
+            case BINARY:
+                checkUncompressed(compression);
+                return new BinaryNodeDumpSerializer();
+            default:
+                JsonNodeDumpStreamSerializer serializer = new JsonNodeDumpStreamSerializer(encoding);
+                return compression == null ? serializer
+                        : new CompressedStreamSerializer<DumpSource>(serializer, null, compression);
+        }
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     */
+    public Deserializer<File, NodeDump> createDeserializer(String encoding) {
+        return createDeserializer(encoding, null);
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     * @param compression compression of the files, null if they are written as they are
+     * @throws IllegalArgumentException if the format can't be compressed
+     */
+    public Deserializer<File, NodeDump> createDeserializer(String encoding, BlockCompression compression) {
+        switch (this) {
+            case BINARY:
+                checkUncompressed(compression);
+                return new BinaryNodeDumpSerializer();
+            default:
+                JsonNodeDumpStreamSerializer deserializer = new JsonNodeDumpStreamSerializer(encoding);
+                return new FileDeserializer<>(compression == null ? deserializer
+                        : new CompressedStreamSerializer<NodeDump>(null, deserializer, compression));
+        }
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     */
+    public DumpReader createReader(String encoding) {
+        return createReader(encoding, null);
+    }
+
+    /**
+     * @param encoding encoding of the text formats
+     * @param compression compression of the files, null if they are written as they are
+     * @throws IllegalArgumentException if the format can't be compressed
+     */
+    public DumpReader createReader(String encoding, BlockCompression compression) {
+        switch (this) {
+            case BINARY:
+                checkUncompressed(compression);
+                return new BinaryNodeDumpSerializer();
+            default:
+                JsonNodeDumpStreamSerializer reader = new JsonNodeDumpStreamSerializer(encoding);
+                return compression == null ? reader : new CompressedDumpReader(reader, compression);
+        }
+    }
+
+    /**
+     * Binary files are read through memory mapping and their subtrees are read by offsets, so they can't be compressed.
+     */
+    private void checkUncompressed(BlockCompression compression) {
+        if (compression != null) {
+            throw new IllegalArgumentException(String.format("The %s format can't be compressed", this));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpSource;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DumpReader reads a dump file node by node, so the dump is never kept in memory as a whole.
+ */
+public interface DumpReader {
+    /**
+     * @return a source reading the dump in the file, it can also be a partitioned source
+     * @throws IOException if the file can't be read or it isn't a valid dump
+     */
+    DumpSource open(File file) throws IOException;
+}
@@ -0,0 +1,24 @@
+package net.thumbtack.configServer.serialization;
+
+import java.io.*;
+
+/**
+ * This is an adapter reading a file with a stream deserializer.
+ * @param <TResult> type of deserialized object
+ */
+public class FileDeserializer<TResult> implements Deserializer<File, TResult> {
+    private final Deserializer<InputStream, TResult> deserializer;
+
+    public FileDeserializer(Deserializer<InputStream, TResult> deserializer) {
+        this.deserializer = deserializer;
+    }
+
+    @Override
+    public TResult deserialize(File file) throws SerializationException {
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            return deserializer.deserialize(input);
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+}
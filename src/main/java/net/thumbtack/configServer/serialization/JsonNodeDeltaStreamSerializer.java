@@ -0,0 +1,47 @@
+package net.thumbtack.configServer.serialization;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import net.thumbtack.configServer.domain.NodeDelta;
+
+import java.io.*;
+
+/**
+ * This is a stream serializer/deserializer for NodeDelta which converts the object to JSON.
+ * Nulls are omitted, so an unchanged subtree is written as its name only.
+ */
+public class JsonNodeDeltaStreamSerializer implements StreamSerializer<NodeDelta>, Deserializer<InputStream, NodeDelta> {
+    private final String encoding;
+    private final Gson gson;
+
+    public JsonNodeDeltaStreamSerializer(String encoding) {
+        this.encoding = encoding;
+        gson = new GsonBuilder().create();
+    }
+
+    @Override
+    public NodeDelta deserialize(InputStream in) throws SerializationException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, encoding));
+            NodeDelta delta = gson.fromJson(reader, NodeDelta.class);
+            reader.close();
+
+            return delta;
+        } catch (IOException ex) {
+            throw new SerializationException(ex);
+        }
+    }
+
+    @Override
+    public void serialize(NodeDelta delta, OutputStream out) throws SerializationException {
+        try {
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, encoding));
+            gson.toJson(delta, NodeDelta.class, writer);
+            writer.close();
+        } catch (IOException e) {
+            throw new SerializationException(e);
+        }
+    }
+}
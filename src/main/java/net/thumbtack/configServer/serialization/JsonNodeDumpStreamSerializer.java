@@ -1,49 +1,174 @@
 package net.thumbtack.configServer.serialization;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import net.thumbtack.configServer.domain.DumpHandler;
+import net.thumbtack.configServer.domain.DumpSource;
 import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodeDumpBuilder;
 
 import java.io.*;
 
 /**
  * This is a stream serializer/deserializer for NodeDump which converts the object to JSON.
  * It can read NodeDump from InputStream and write it into OutputStream.
+ * Nodes are written and read one by one, so only the nodes on the current path are kept in memory.
+ * The name and the value of a node are written before its children, children read before them
+ * are kept in memory until their parent ends.
  */
-public class JsonNodeDumpStreamSerializer implements StreamSerializer<NodeDump>, Deserializer<InputStream, NodeDump> {
+public class JsonNodeDumpStreamSerializer implements StreamSerializer<DumpSource>, Deserializer<InputStream, NodeDump>,
+        DumpReader, StreamDumpReader {
     private final String encoding;
-    private final Gson gson;
 
     public JsonNodeDumpStreamSerializer(String encoding) {
         this.encoding = encoding;
-        gson = new GsonBuilder()
-            .serializeNulls()
-        .create();
     }
 
     @Override
     public NodeDump deserialize(InputStream in) throws SerializationException {
         try {
-            JsonReader reader = new JsonReader(new InputStreamReader(in, encoding));
-            NodeDump dump = gson.fromJson(reader, NodeDump.class);
-            reader.close();
+            NodeDumpBuilder builder = new NodeDumpBuilder();
+            read(in, builder);
 
-            return dump;
+            return builder.getRoot();
         } catch (IOException ex) {
             throw new SerializationException(ex);
         }
     }
 
+    /**
+     * The file is read only when the source is read.
+     */
     @Override
-    public void serialize(NodeDump dump, OutputStream out) throws SerializationException {
+    public DumpSource open(final File file) {
+        return new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+                    read(input, handler);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void serialize(DumpSource dump, OutputStream out) throws SerializationException {
         try {
-            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, encoding));
-            gson.toJson(dump, NodeDump.class, writer);
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, encoding));
+            dump.readTo(new DumpHandler() {
+                @Override
+                public void startNode(String name, String value) throws IOException {
+                    writer.beginObject();
+                    writer.name("name").value(name);
+                    writer.name("value").value(value);
+                    writer.name("children").beginArray();
+                }
+
+                @Override
+                public void endNode() throws IOException {
+                    writer.endArray();
+                    writer.endObject();
+                }
+            });
             writer.close();
         } catch (IOException e) {
             throw new SerializationException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void read(InputStream in, DumpHandler handler) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, encoding));
+        readNode(reader, handler);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new IOException("The dump has more than one root");
+        }
+        reader.close();
+    }
+
+    /**
+     * Children following the name and the value are passed to the handler as they are read,
+     * children preceding any of them are kept in memory until the node ends.
+     */
+    private static void readNode(JsonReader reader, DumpHandler handler) throws IOException {
+        String name = null;
+        String value = null;
+        boolean hasName = false;
+        boolean hasValue = false;
+        boolean started = false;
+        NodeDumpBuilder buffered = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String field = reader.nextName();
+            if (started && (field.equals("name") || field.equals("value") || field.equals("children"))) {
+                throw new IOException(String.format("Field %s of node %s follows its children", field, name));
+            }
+            switch (field) {
+                case "name":
+                    name = nextString(reader);
+                    hasName = true;
+                    break;
+                case "value":
+                    value = nextString(reader);
+                    hasValue = true;
+                    break;
+                case "children":
+                    final DumpHandler target;
+                    if (hasName && hasValue && buffered == null) {
+                        started = startNode(handler, name, value);
+                        target = handler;
+                    } else {
+                        if (buffered == null) {
+                            buffered = new NodeDumpBuilder();
+                            buffered.startNode("", null);
+                        }
+                        target = buffered;
+                    }
+                    readChildren(reader, target);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!started) {
+            startNode(handler, name, value);
+            if (buffered != null) {
+                buffered.endNode();
+                for (NodeDump child : buffered.getRoot().getChildren()) {
+                    child.readTo(handler);
+                }
+            }
+        }
+        handler.endNode();
+    }
+
+    private static void readChildren(JsonReader reader, DumpHandler handler) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readNode(reader, handler);
+        }
+        reader.endArray();
+    }
+
+    private static boolean startNode(DumpHandler handler, String name, String value) throws IOException {
+        if (name == null) {
+            throw new IOException("The dump has a node without a name");
+        }
+        handler.startNode(name, value);
+        return true;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,16 @@
+package net.thumbtack.configServer.serialization;
+
+import net.thumbtack.configServer.domain.DumpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * StreamDumpReader reads a dump from a stream node by node, unlike {@link DumpReader} it doesn't need a file.
+ */
+public interface StreamDumpReader {
+    /**
+     * @throws IOException if the stream can't be read or it isn't a valid dump
+     */
+    void read(InputStream in, DumpHandler handler) throws IOException;
+}
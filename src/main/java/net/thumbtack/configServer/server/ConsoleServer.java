@@ -1,38 +1,82 @@
 package net.thumbtack.configServer.server;
 
-import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.ConfigTree;
+import net.thumbtack.configServer.domain.IndexedNodeTree;
+import net.thumbtack.configServer.domain.NodeDelta;
+import net.thumbtack.configServer.domain.Node;
+import net.thumbtack.configServer.domain.PersistentTree;
+import net.thumbtack.configServer.persistence.OperationLog;
+import net.thumbtack.configServer.persistence.SnapshotStore;
 import net.thumbtack.configServer.serialization.*;
+import net.thumbtack.configServer.services.AsyncConfigService;
+import net.thumbtack.configServer.services.FlightRecorderConfigService;
 import net.thumbtack.configServer.services.InMemoryConfigService;
 import net.thumbtack.configServer.services.LoggingConfigService;
-import net.thumbtack.configServer.services.LoggingInvocationHandler;
+import net.thumbtack.configServer.services.MetricsConfigService;
+import net.thumbtack.configServer.services.SnapshotScheduler;
+import net.thumbtack.configServer.services.SubtreeTiering;
+import net.thumbtack.configServer.services.WatchableConfigService;
 import net.thumbtack.configServer.thrift.ConfigService;
+import net.thumbtack.configServer.thrift.LatencyStats;
+import net.thumbtack.configServer.thrift.OperationStats;
+import net.thumbtack.configServer.thrift.ServerStats;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
 import java.io.*;
-import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class ConsoleServer {
     private static final XLogger LOG = XLoggerFactory.getXLogger(ConsoleServer.class);
-    private static String dumpFileName = null;
-    private static StreamSerializer<NodeDump> dumpSerializer = null;
-    private static Deserializer<InputStream, NodeDump> dumpDeserializer = null;
+    private static SnapshotScheduler snapshotScheduler = null;
+    private static OperationLog operationLog = null;
+    private static SubtreeTiering subtreeTiering = null;
+    private static Recording recording = null;
 
     public static void main(String[] args) {
         try {
             Properties config = initializeConfig();
+            startRecording(config);
 
-            final InMemoryConfigService configService = new InMemoryConfigService();
-            final TServer server = configureServer(config, wrapWithTracing(configService));
+            final long watchMsTimeout = Long.parseLong(config.getProperty("watch.timeoutMs",
+                    String.valueOf(InMemoryConfigService.DEFAULT_WATCH_MS_TIMEOUT)));
+            final int changesCapacity = Integer.parseInt(config.getProperty("changes.capacity",
+                    String.valueOf(InMemoryConfigService.DEFAULT_CHANGES_CAPACITY)));
+            final ConfigTree tree = createTree(config);
+            final InMemoryConfigService configService = new InMemoryConfigService(tree, watchMsTimeout, changesCapacity);
+            final WatchableConfigService recordedService = new FlightRecorderConfigService(configService);
+            final WatchableConfigService tracedService = wrapWithTracing(config, wrapWithMetrics(config, recordedService, configService));
 
-            startServerThread(server);
-            configureSerializers(config);
+            configureSnapshots(config, configService);
             restoreServerState(configService);
+            recoverOperationLog(config, configService);
+            snapshotScheduler.start();
+            startTiering(config, configService, tree);
+            // the port is bound only when the state is restored, so clients never reach a partially loaded tree
+            final TServer server = configureServer(config, tracedService, new AsyncConfigService(tracedService));
+            startServerThread(server);
             evaluateCommands(server, configService);
         } catch (TTransportException e) {
             LOG.error("Failed to setup transport", e);
@@ -40,6 +84,8 @@ public class ConsoleServer {
             LOG.catching(e);
         } catch (SerializationException e) {
             LOG.catching(e);
+        } catch (InterruptedException e) {
+            LOG.catching(e);
         }
     }
 
@@ -51,19 +97,196 @@ public class ConsoleServer {
         return config;
     }
 
-    private static ConfigService.Iface wrapWithTracing(InMemoryConfigService configService) {
-        return (ConfigService.Iface) Proxy.newProxyInstance(
-                ConfigService.Iface.class.getClassLoader(),
-                new Class[]{ ConfigService.Iface.class },
-                new LoggingInvocationHandler(configService));
+    /**
+     * Starts a flight recording with the default settings of the JDK and the events of the server enabled by
+     * the config_server.jfc profile, so calls, snapshots and expiry batches are recorded together with GC pauses.
+     * The recording is written to the destination when the server exits.
+     */
+    private static void startRecording(Properties config) throws IOException {
+        if (!Boolean.parseBoolean(config.getProperty("jfr.enabled", "false"))) {
+            return;
+        }
+        Map<String, String> settings = new HashMap<>();
+        try (Reader reader = new InputStreamReader(
+                ConsoleServer.class.getClassLoader().getResourceAsStream("config_server.jfc"), "UTF-8")) {
+            settings.putAll(Configuration.getConfiguration("default").getSettings());
+            settings.putAll(Configuration.create(reader).getSettings());
+        } catch (ParseException ex) {
+            throw new IOException("Flight recorder profile can't be parsed", ex);
+        }
+        final String destination = config.getProperty("jfr.destination", "config_server.jfr");
+        recording = new Recording(settings);
+        recording.setName("config-server");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMillis(Long.parseLong(config.getProperty("jfr.maxAgeMs", "3600000"))));
+        recording.setDestination(Paths.get(destination));
+        recording.start();
+        LOG.info("Recording flight events to {}", destination);
+    }
+
+    private static ConfigTree createTree(Properties config) {
+        final String engine = config.getProperty("tree.engine", "indexed");
+        LOG.info("Using {} tree engine", engine);
+        final ForkJoinPool restorePool = createRestorePool(config);
+        final boolean lazyRestore = Boolean.parseBoolean(config.getProperty("tree.lazyRestore", "false"));
+        switch (engine) {
+            case "indexed":
+                return new IndexedNodeTree(new Node(""), restorePool, lazyRestore ? createWarmUpExecutor(restorePool) : null);
+            case "persistent":
+                if (lazyRestore) {
+                    LOG.warn("Lazy restore is not supported by the persistent engine, the tree is restored at once");
+                }
+                return new PersistentTree(restorePool);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown tree engine %s", engine));
+        }
+    }
+
+    /**
+     * @return a pool restoring top-level subtrees concurrently, null if they are restored by a single thread
+     */
+    private static ForkJoinPool createRestorePool(Properties config) {
+        int parallelism = Integer.parseInt(config.getProperty("tree.restoreParallelism", "0"));
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelism == 1) {
+            return null;
+        }
+        LOG.info("Restoring top-level subtrees on {} threads", parallelism);
+        return new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @return the restore pool or a single thread if top-level subtrees are restored by a single thread
+     */
+    private static Executor createWarmUpExecutor(ForkJoinPool restorePool) {
+        if (restorePool != null) {
+            return restorePool;
+        }
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "subtree-warm-up");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the service tracing a sample of its calls or the service itself if tracing is disabled
+     */
+    private static WatchableConfigService wrapWithTracing(Properties config, WatchableConfigService configService) {
+        final double sampleRate = Double.parseDouble(config.getProperty("trace.sampleRate", "0"));
+        if (sampleRate <= 0) {
+            return configService;
+        }
+        final int maxValueLength = Integer.parseInt(config.getProperty("trace.maxValueLength",
+                String.valueOf(LoggingConfigService.DEFAULT_MAX_VALUE_LENGTH)));
+        LOG.info("Tracing {} of the calls", sampleRate);
+        return new LoggingConfigService(configService, sampleRate, maxValueLength);
+    }
+
+    /**
+     * @return the service recording latencies and errors of its calls into the metrics of the config service
+     * or the service itself if metrics are disabled
+     */
+    private static WatchableConfigService wrapWithMetrics(Properties config, WatchableConfigService service, InMemoryConfigService configService) {
+        if (!Boolean.parseBoolean(config.getProperty("metrics.enabled", "true"))) {
+            return service;
+        }
+        return new MetricsConfigService(service, configService.getMetrics());
     }
 
-    private static void configureSerializers(Properties config) {
+    private static void configureSnapshots(Properties config, InMemoryConfigService configService) {
         final String encoding = config.getProperty("serialization.encoding");
-        final JsonNodeDumpStreamSerializer serializer = new JsonNodeDumpStreamSerializer(encoding);
-        dumpSerializer = serializer;
-        dumpDeserializer = serializer;
-        dumpFileName = config.getProperty("serialization.dumpFileName");
+        final DumpFormat format = DumpFormat.of(config.getProperty("serialization.format", "json"));
+        final BlockCompression compression = createCompression(config);
+        final JsonNodeDeltaStreamSerializer jsonDeltaSerializer = new JsonNodeDeltaStreamSerializer(encoding);
+        final StreamSerializer<NodeDelta> deltaSerializer;
+        final Deserializer<InputStream, NodeDelta> deltaDeserializer;
+        if (compression == null) {
+            deltaSerializer = jsonDeltaSerializer;
+            deltaDeserializer = jsonDeltaSerializer;
+        } else {
+            CompressedStreamSerializer<NodeDelta> compressed =
+                    new CompressedStreamSerializer<>(jsonDeltaSerializer, jsonDeltaSerializer, compression);
+            deltaSerializer = compressed;
+            deltaDeserializer = compressed;
+        }
+        final File dumpFile = new File(config.getProperty("serialization.dumpFileName"));
+        final int generations = Integer.parseInt(config.getProperty("snapshot.generations", "3"));
+        final long maxBytesPerSecond = Long.parseLong(config.getProperty("snapshot.maxBytesPerSecond", "0"));
+        final SnapshotStore snapshotStore = new SnapshotStore(dumpFile, generations, maxBytesPerSecond,
+                format.createSerializer(encoding, compression), format.createReader(encoding, compression),
+                deltaSerializer, deltaDeserializer);
+
+        final long msInterval = Long.parseLong(config.getProperty("snapshot.intervalMs", "0"));
+        final long changesThreshold = Long.parseLong(config.getProperty("snapshot.changesThreshold", "0"));
+        final long msCheckInterval = Long.parseLong(config.getProperty("snapshot.checkIntervalMs", "1000"));
+        final int maxDeltas = Integer.parseInt(config.getProperty("snapshot.maxDeltas", "0"));
+        snapshotScheduler = new SnapshotScheduler(configService, snapshotStore, msInterval, changesThreshold, msCheckInterval, maxDeltas);
+    }
+
+    /**
+     * @return compression of snapshots and deltas, null if they are written as they are
+     */
+    private static BlockCompression createCompression(Properties config) {
+        final String codec = config.getProperty("snapshot.compression", "none");
+        switch (codec) {
+            case "none":
+                return null;
+            case "deflate":
+                final int blockBytes = Integer.parseInt(config.getProperty("snapshot.compressionBlockBytes",
+                        String.valueOf(BlockCompression.DEFAULT_BLOCK_BYTES)));
+                final int level = Integer.parseInt(config.getProperty("snapshot.compressionLevel", "1"));
+                int threads = Integer.parseInt(config.getProperty("snapshot.compressionThreads", "0"));
+                if (threads <= 0) {
+                    threads = Runtime.getRuntime().availableProcessors();
+                }
+                LOG.info("Compressing snapshots by blocks of {} bytes on {} threads", blockBytes, threads);
+                return new BlockCompression(blockBytes, level, threads);
+            default:
+                throw new IllegalArgumentException(String.format("Unknown snapshot compression %s", codec));
+        }
+    }
+
+    /**
+     * Changes following the restored dump are replayed from the operation log before the server starts.
+     */
+    private static void recoverOperationLog(Properties config, InMemoryConfigService configService) throws IOException {
+        if (!Boolean.parseBoolean(config.getProperty("log.enabled", "true"))) {
+            LOG.info("Operation log is disabled, changes after the last dump will be lost on crash");
+            return;
+        }
+        final File directory = new File(config.getProperty("log.directory", "oplog"));
+        final long segmentBytes = Long.parseLong(config.getProperty("log.segmentBytes", "67108864"));
+        final long commitWindowMs = Long.parseLong(config.getProperty("log.commitWindowMs", "1"));
+        LOG.info("Recovering operation log from {}", directory);
+        operationLog = new OperationLog(directory, segmentBytes, commitWindowMs);
+        configService.recover(operationLog);
+    }
+
+    /**
+     * Cold subtrees are unloaded only from the indexed tree and only with the operation log,
+     * which keeps the changes of the tree ordered with the unloading.
+     */
+    private static void startTiering(Properties config, InMemoryConfigService configService, ConfigTree tree) throws IOException {
+        if (!Boolean.parseBoolean(config.getProperty("tier.enabled", "false"))) {
+            return;
+        }
+        if (!(tree instanceof IndexedNodeTree) || operationLog == null) {
+            LOG.warn("Tiering is supported only by the indexed engine with the operation log, all subtrees stay in memory");
+            return;
+        }
+        final File directory = new File(config.getProperty("tier.directory", "tier"));
+        final int depth = Integer.parseInt(config.getProperty("tier.depth", "2"));
+        final long maxNodes = Long.parseLong(config.getProperty("tier.maxNodes", "1000000"));
+        final long msCheckInterval = Long.parseLong(config.getProperty("tier.checkIntervalMs", "60000"));
+        LOG.info("Unloading cold subtrees to {} above {} nodes", directory, maxNodes);
+        subtreeTiering = new SubtreeTiering(configService, (IndexedNodeTree) tree, directory, depth, maxNodes, msCheckInterval);
+        subtreeTiering.start();
     }
 
     private static void startServerThread(final TServer server) {
@@ -76,7 +299,7 @@ public class ConsoleServer {
         thread.start();
     }
 
-    private static void evaluateCommands(TServer server, InMemoryConfigService configService) throws IOException, SerializationException {
+    private static void evaluateCommands(TServer server, InMemoryConfigService configService) throws IOException, SerializationException, InterruptedException {
         LOG.info("Reading commands");
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
         boolean shouldReceiveCommands = true;
@@ -84,8 +307,19 @@ public class ConsoleServer {
             String command = reader.readLine();
             switch (command) {
                 case "exit": {
+                    if (subtreeTiering != null) {
+                        subtreeTiering.stop();
+                    }
+                    snapshotScheduler.stop();
                     saveServerState(configService);
                     stopServer(server);
+                    if (operationLog != null) {
+                        operationLog.close();
+                    }
+                    if (recording != null) {
+                        recording.stop();
+                        recording.close();
+                    }
                     shouldReceiveCommands = false;
                     break;
                 }
@@ -97,6 +331,10 @@ public class ConsoleServer {
                     restoreServerState(configService);
                     break;
                 }
+                case "stats": {
+                    logStats(configService.getStats());
+                    break;
+                }
                 default: {
                     LOG.info("Unknown command.");
                     break;
@@ -106,6 +344,29 @@ public class ConsoleServer {
         }
     }
 
+    private static void logStats(ServerStats stats) {
+        final double uptimeSeconds = Math.max(stats.getUptimeMs(), 1) / 1000.0;
+        LOG.info("Uptime {} s, {} nodes taking about {} KB", stats.getUptimeMs() / 1000, stats.getNodes(),
+                stats.getApproximateBytes() / 1024);
+        for (OperationStats operation : stats.getOperations()) {
+            final LatencyStats latency = operation.getLatency();
+            if (latency.getCount() > 0) {
+                LOG.info("{}: {} calls, {} per s, {} errors {}, latency {}", operation.getName(), latency.getCount(),
+                        String.format("%.1f", latency.getCount() / uptimeSeconds), operation.getErrors(),
+                        operation.getErrorsByType(), formatLatency(latency));
+            }
+        }
+        LOG.info("Timers: {} pending, {} expired, expiry batches {}", stats.getPendingTimers(),
+                stats.getExpiredTimers(), formatLatency(stats.getExpiryBatches()));
+        LOG.info("Snapshots: {} saved, {}", stats.getSnapshots().getCount(), formatLatency(stats.getSnapshots()));
+    }
+
+    private static String formatLatency(LatencyStats latency) {
+        return String.format("mean %d us, p50 %d us, p90 %d us, p99 %d us, p99.9 %d us, max %d us",
+                latency.getMeanMicros(), latency.getP50Micros(), latency.getP90Micros(), latency.getP99Micros(),
+                latency.getP999Micros(), latency.getMaxMicros());
+    }
+
     private static void stopServer(TServer server) {
         LOG.info("Stopping the server");
         server.stop();
@@ -113,50 +374,136 @@ public class ConsoleServer {
     }
 
     private static void saveServerState(InMemoryConfigService configService) throws SerializationException, IOException {
-        LOG.info("Saving service state to {}", dumpFileName);
-        FileOutputStream outputStream = null;
-        try {
-            NodeDump dump = configService.getDump();
-            outputStream = new FileOutputStream(dumpFileName);
-            dumpSerializer.serialize(dump, outputStream);
-            LOG.info("Successfully saved");
-        } finally {
-            if (outputStream != null) {
-                outputStream.close();
-            }
-        }
+        LOG.info("Saving service state");
+        snapshotScheduler.snapshot();
+        LOG.info("Successfully saved");
     }
 
     private static void restoreServerState(InMemoryConfigService configService) throws SerializationException, IOException {
-        LOG.info("Restoring service state from {}", dumpFileName);
-        FileInputStream inputStream = null;
-        try {
-            inputStream = new FileInputStream(dumpFileName);
-            NodeDump dump = dumpDeserializer.deserialize(inputStream);
-            configService.restore(dump);
-            LOG.info("Successfully restored");
-        } finally {
-            if (inputStream != null) {
-                inputStream.close();
-            }
+        LOG.info("Restoring service state");
+        final long start = System.nanoTime();
+        if (snapshotScheduler.restore()) {
+            LOG.info("Successfully restored in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } else {
+            LOG.info("There is no saved state");
         }
     }
 
-    private static TServer configureServer(Properties config, ConfigService.Iface configService) throws TTransportException {
+    public static TServer configureServer(Properties config, ConfigService.Iface configService) throws TTransportException {
+        return configureServer(config, configService, null);
+    }
+
+    /**
+     * @param asyncService service used by non-blocking servers, so that watches don't hold their workers.
+     * If it is null, they use the synchronous one. Blocking servers always use the synchronous service.
+     */
+    public static TServer configureServer(Properties config, ConfigService.Iface configService,
+                                          ConfigService.AsyncIface asyncService) throws TTransportException {
         final int port = Integer.parseInt(config.getProperty("server.port"));
+        final String mode = config.getProperty("server.mode", "threadPool");
+        ConfigService.Processor processor = new ConfigService.Processor(configService);
+        TProcessor nonblockingProcessor = asyncService == null ? processor : new ConfigService.AsyncProcessor(asyncService);
+
+        final TServer server;
+        switch (mode) {
+            case "threadPool":
+                server = configureThreadPoolServer(config, port, processor);
+                break;
+            case "virtual":
+                server = configureVirtualThreadServer(port, processor);
+                break;
+            case "hsha":
+                server = configureHsHaServer(config, port, nonblockingProcessor);
+                break;
+            case "selector":
+                server = configureSelectorServer(config, port, nonblockingProcessor);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown server mode %s", mode));
+        }
+        LOG.info("Starting {} server on port {}", mode, port);
+
+        return server;
+    }
+
+    private static TServer configureThreadPoolServer(Properties config, int port, ConfigService.Processor processor) throws TTransportException {
         final int maxThreads = Integer.parseInt(config.getProperty("server.maxThreadsCount", "50"));
         final int minThreads = Integer.parseInt(config.getProperty("server.minThreadsCount", "5"));
 
         TServerSocket serverTransport = new TServerSocket(port);
-        ConfigService.Processor processor = new ConfigService.Processor(configService);
-        TServer server = new TThreadPoolServer(
+        return new TThreadPoolServer(
                 new TThreadPoolServer.Args(serverTransport)
                         .maxWorkerThreads(maxThreads)
                         .minWorkerThreads(minThreads)
                         .processor(processor)
         );
-        LOG.info("Starting server on port {}", port);
+    }
 
-        return server;
+    /**
+     * Every connection is served by its own virtual thread, so the count of connections is not limited by a pool.
+     */
+    private static TServer configureVirtualThreadServer(int port, ConfigService.Processor processor) throws TTransportException {
+        TServerSocket serverTransport = new TServerSocket(port);
+        return new TThreadPoolServer(
+                new TThreadPoolServer.Args(serverTransport)
+                        .executorService(Executors.newVirtualThreadPerTaskExecutor())
+                        .processor(processor)
+        );
+    }
+
+    /**
+     * Single selector thread does all the network I/O, requests are processed by the pool of workers.
+     */
+    private static TServer configureHsHaServer(Properties config, int port, TProcessor processor) throws TTransportException {
+        final int workerThreads = Integer.parseInt(config.getProperty("server.workerThreadsCount", "16"));
+
+        THsHaServer.Args args = new THsHaServer.Args(new TNonblockingServerSocket(port))
+                .workerThreads(workerThreads)
+                .transportFactory(new TFramedTransport.Factory())
+                .processor(processor);
+        args.maxReadBufferBytes = getMaxReadBufferBytes(config);
+        ExecutorService virtualWorkers = createVirtualWorkers(config);
+        if (virtualWorkers != null) {
+            args.executorService(virtualWorkers);
+        }
+        return new THsHaServer(args);
+    }
+
+    /**
+     * Connections are spread over several selector threads, requests are processed by the pool of workers.
+     */
+    private static TServer configureSelectorServer(Properties config, int port, TProcessor processor) throws TTransportException {
+        final int selectorThreads = Integer.parseInt(config.getProperty("server.selectorThreadsCount", "2"));
+        final int workerThreads = Integer.parseInt(config.getProperty("server.workerThreadsCount", "16"));
+        final int acceptQueueSize = Integer.parseInt(config.getProperty("server.acceptQueueSizePerThread", "4"));
+
+        TThreadedSelectorServer.Args args = new TThreadedSelectorServer.Args(new TNonblockingServerSocket(port))
+                .selectorThreads(selectorThreads)
+                .workerThreads(workerThreads)
+                .acceptQueueSizePerThread(acceptQueueSize)
+                .transportFactory(new TFramedTransport.Factory())
+                .processor(processor);
+        args.maxReadBufferBytes = getMaxReadBufferBytes(config);
+        ExecutorService virtualWorkers = createVirtualWorkers(config);
+        if (virtualWorkers != null) {
+            args.executorService(virtualWorkers);
+        }
+        return new TThreadedSelectorServer(args);
+    }
+
+    /**
+     * @return executor running every request on a new virtual thread or null if the pool of workers should be used
+     */
+    private static ExecutorService createVirtualWorkers(Properties config) {
+        final boolean virtualWorkers = Boolean.parseBoolean(config.getProperty("server.virtualWorkers", "false"));
+        return virtualWorkers ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    /**
+     * Frames are read into buffers of the exact frame size, the limit bounds their total size over all connections,
+     * connections are not read until some of the buffers are released.
+     */
+    private static long getMaxReadBufferBytes(Properties config) {
+        return Long.parseLong(config.getProperty("server.maxReadBufferBytes", String.valueOf(Long.MAX_VALUE)));
     }
 }
@@ -0,0 +1,200 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.thrift.ConfigService;
+import net.thumbtack.configServer.thrift.Op;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import java.util.List;
+
+/**
+ * Adapts the service to the asynchronous interface used by non-blocking servers.
+ * All methods except watch are executed synchronously by the given service, so they complete before returning,
+ * watch only registers the handler and returns, so waiting watches don't hold worker threads.
+ */
+@SuppressWarnings("unchecked")
+public class AsyncConfigService implements ConfigService.AsyncIface {
+    private WatchableConfigService service;
+
+    public AsyncConfigService(WatchableConfigService service) {
+        this.service = service;
+    }
+
+    @Override
+    public void create(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.create(key);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void createWithValue(String key, String value, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.createWithValue(key, value);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void createTemporaryWithValue(String key, String value, long msTimeout, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.createTemporaryWithValue(key, value, msTimeout);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void grantLease(long msTtl, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.grantLease(msTtl));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void createWithLease(String key, String value, long leaseId, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.createWithLease(key, value, leaseId);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void keepAlive(long leaseId, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.keepAlive(leaseId);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void remove(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.remove(key);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void exists(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.exists(key));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getValue(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getValue(key));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void setValue(String key, String value, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.setValue(key, value);
+            resultHandler.onComplete(null);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getChildren(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getChildren(key));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getChildrenPage(String key, String afterName, int limit, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getChildrenPage(key, afterName, limit));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getSubtree(String key, int maxDepth, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getSubtree(key, maxDepth));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void removeRecursive(String key, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.removeRecursive(key));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getValues(List<String> keys, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getValues(keys));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void multi(List<Op> ops, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.multi(ops));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getChangesSince(long sequence, int maxEvents, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getChangesSince(sequence, maxEvents));
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void getStats(AsyncMethodCallback resultHandler) throws TException {
+        try {
+            resultHandler.onComplete(service.getStats());
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+
+    @Override
+    public void watch(String key, boolean recursive, long sinceVersion, AsyncMethodCallback resultHandler) throws TException {
+        try {
+            service.watch(key, recursive, sinceVersion, resultHandler);
+        } catch (TException ex) {
+            resultHandler.onError(ex);
+        }
+    }
+}
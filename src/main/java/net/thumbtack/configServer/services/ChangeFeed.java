@@ -0,0 +1,111 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.domain.ChangeListener;
+import net.thumbtack.configServer.domain.ConfigTree;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodePath;
+import net.thumbtack.configServer.thrift.Change;
+import net.thumbtack.configServer.thrift.ChangeBatch;
+import net.thumbtack.configServer.thrift.ChangeType;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ChangeFeed keeps the last changes of the tree in a ring, every change gets the next sequence number.
+ * Notifications about changes of different nodes can come out of order, so the feed records the state of the node
+ * read at the time of recording instead of the reported one: the last change of every node is recorded after
+ * its last modification, so applying the changes in the order of sequence numbers converges to the tree.
+ * A restore drops all recorded changes, so readers behind it have to read the entire tree again.
+ */
+public class ChangeFeed implements ChangeListener {
+    private final ConfigTree tree;
+    private final Change[] ring;
+    private long lastSequence = 0;
+    private long firstSequence = 1;
+
+    /**
+     * @param tree tree whose changes are recorded, the feed should be added to its change listeners
+     * @param capacity count of the last changes kept in the feed
+     */
+    public ChangeFeed(ConfigTree tree, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of the change feed should be greater than 0");
+        }
+        this.tree = tree;
+        this.ring = new Change[capacity];
+    }
+
+    /**
+     * @param sequence sequence number of the last applied change
+     * @param maxEvents maximal count of returned changes
+     * @return changes following the given sequence number, or a batch with resnapshot flag
+     * if some of them are not kept or the sequence number is unknown
+     */
+    public synchronized ChangeBatch getChangesSince(long sequence, int maxEvents) {
+        if (sequence < firstSequence - 1 || sequence > lastSequence) {
+            return new ChangeBatch(new ArrayList<Change>(), lastSequence, true);
+        }
+        final long to = Math.min(lastSequence, sequence + Math.max(maxEvents, 0));
+        List<Change> changes = new ArrayList<>((int) (to - sequence));
+        for (long current = sequence + 1; current <= to; ++current) {
+            changes.add(ring[indexOf(current)]);
+        }
+
+        return new ChangeBatch(changes, to, false);
+    }
+
+    @Override
+    public synchronized void nodeChanged(NodePath path, String value, long version) {
+        try {
+            append(ChangeType.CHANGED, path, tree.getValue(path));
+        } catch (UnknownKeyException ex) {
+            // the node was removed after the change, its removal is recorded separately
+        }
+    }
+
+    /**
+     * If the node was created again before the removal is recorded, its new subtree is recorded after the removal.
+     */
+    @Override
+    public synchronized void nodeRemoved(NodePath path, long version) {
+        append(ChangeType.REMOVED, path, null);
+        try {
+            appendSubtree(path, tree.getSubtree(path, -1));
+        } catch (UnknownKeyException ex) {
+            // the node doesn't exist, so the removal is the current state
+        }
+    }
+
+    @Override
+    public synchronized void treeRestored(long version) {
+        ++lastSequence;
+        firstSequence = lastSequence + 1;
+        Arrays.fill(ring, null);
+    }
+
+    private void appendSubtree(NodePath path, NodeDump dump) {
+        append(ChangeType.CHANGED, path, dump.getValue());
+        for (NodeDump child : dump.getChildren()) {
+            appendSubtree(path.getChildPath(child.getName()), child);
+        }
+    }
+
+    private void append(ChangeType type, NodePath path, String value) {
+        ++lastSequence;
+        Change change = new Change(lastSequence, type, path.toString());
+        if (value != null) {
+            change.setValue(value);
+        }
+        ring[indexOf(lastSequence)] = change;
+        if (lastSequence - firstSequence >= ring.length) {
+            firstSequence = lastSequence - ring.length + 1;
+        }
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+}
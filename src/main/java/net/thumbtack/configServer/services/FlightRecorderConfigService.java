@@ -0,0 +1,394 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.events.RpcEvent;
+import net.thumbtack.configServer.thrift.*;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FlightRecorderConfigService records every call of the service as a {@link RpcEvent} of JDK Flight Recorder,
+ * so latency spikes can be lined up with GC pauses, snapshots and expiry batches of the same recording.
+ * While the event is disabled a call only creates an event object which doesn't escape, depths of keys and sizes
+ * of values are computed only for committed events.
+ */
+public class FlightRecorderConfigService implements WatchableConfigService {
+    private final WatchableConfigService internalService;
+
+    public FlightRecorderConfigService(WatchableConfigService internalService) {
+        this.internalService = internalService;
+    }
+
+    @Override
+    public void create(String key) throws DuplicateKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.create(key);
+            completed(rpcEvent, "create", key, null, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "create", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createWithValue(String key, String value) throws DuplicateKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.createWithValue(key, value);
+            completed(rpcEvent, "createWithValue", key, value, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "createWithValue", key, value, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createTemporaryWithValue(String key, String value, long msTimeout) throws DuplicateKeyException, InvalidKeyException, InvalidTimeoutException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.createTemporaryWithValue(key, value, msTimeout);
+            completed(rpcEvent, "createTemporaryWithValue", key, value, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "createTemporaryWithValue", key, value, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public long grantLease(long msTtl) throws InvalidTimeoutException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            long leaseId = internalService.grantLease(msTtl);
+            completed(rpcEvent, "grantLease", null, null, 0);
+            return leaseId;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "grantLease", null, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createWithLease(String key, String value, long leaseId) throws DuplicateKeyException, InvalidKeyException, UnknownLeaseException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.createWithLease(key, value, leaseId);
+            completed(rpcEvent, "createWithLease", key, value, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "createWithLease", key, value, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void keepAlive(long leaseId) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.keepAlive(leaseId);
+            completed(rpcEvent, "keepAlive", null, null, 0);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "keepAlive", null, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void remove(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.remove(key);
+            completed(rpcEvent, "remove", key, null, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "remove", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            boolean exists = internalService.exists(key);
+            completed(rpcEvent, "exists", key, null, 1);
+            return exists;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "exists", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String getValue(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            String value = internalService.getValue(key);
+            completed(rpcEvent, "getValue", key, value, 1);
+            return value;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getValue", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void setValue(String key, String value) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.setValue(key, value);
+            completed(rpcEvent, "setValue", key, value, 1);
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "setValue", key, value, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<String> getChildren(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            List<String> children = internalService.getChildren(key);
+            completed(rpcEvent, "getChildren", key, null, children.size());
+            return children;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getChildren", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<String> getChildrenPage(String key, String afterName, int limit) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            List<String> children = internalService.getChildrenPage(key, afterName, limit);
+            completed(rpcEvent, "getChildrenPage", key, null, children.size());
+            return children;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getChildrenPage", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<SubtreeEntry> getSubtree(String key, int maxDepth) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            List<SubtreeEntry> subtree = internalService.getSubtree(key, maxDepth);
+            rpcEvent.end();
+            if (rpcEvent.shouldCommit()) {
+                rpcEvent.setCall("getSubtree", key, depthOf(key), sizeOfEntries(subtree), subtree.size());
+                rpcEvent.commit();
+            }
+            return subtree;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getSubtree", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<SubtreeEntry> removeRecursive(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            List<SubtreeEntry> removed = internalService.removeRecursive(key);
+            rpcEvent.end();
+            if (rpcEvent.shouldCommit()) {
+                rpcEvent.setCall("removeRecursive", key, depthOf(key), sizeOfEntries(removed), removed.size());
+                rpcEvent.commit();
+            }
+            return removed;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "removeRecursive", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Map<String, String> getValues(List<String> keys) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            Map<String, String> values = internalService.getValues(keys);
+            rpcEvent.end();
+            if (rpcEvent.shouldCommit()) {
+                int keyDepth = 0;
+                for (String key : keys) {
+                    keyDepth = Math.max(keyDepth, depthOf(key));
+                }
+                int valueSize = 0;
+                for (String value : values.values()) {
+                    valueSize += sizeOf(value);
+                }
+                rpcEvent.setCall("getValues", null, keyDepth, valueSize, keys.size());
+                rpcEvent.commit();
+            }
+            return values;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getValues", null, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<OpResult> multi(List<Op> ops) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            List<OpResult> results = internalService.multi(ops);
+            rpcEvent.end();
+            if (rpcEvent.shouldCommit()) {
+                int keyDepth = 0;
+                int valueSize = 0;
+                for (Op op : ops) {
+                    keyDepth = Math.max(keyDepth, depthOf(op.getKey()));
+                    valueSize += sizeOf(op.getValue());
+                }
+                rpcEvent.setCall("multi", null, keyDepth, valueSize, ops.size());
+                rpcEvent.commit();
+            }
+            return results;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "multi", null, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public WatchEvent watch(String key, boolean recursive, long sinceVersion) throws InvalidKeyException, TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            WatchEvent event = internalService.watch(key, recursive, sinceVersion);
+            watched(rpcEvent, key, event);
+            return event;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "watch", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void watch(final String key, boolean recursive, long sinceVersion,
+                      final AsyncMethodCallback<WatchEvent> resultHandler) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            internalService.watch(key, recursive, sinceVersion, new AsyncMethodCallback<WatchEvent>() {
+                @Override
+                public void onComplete(WatchEvent event) {
+                    watched(rpcEvent, key, event);
+                    resultHandler.onComplete(event);
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    threw(rpcEvent, "watch", key, null, ex);
+                    resultHandler.onError(ex);
+                }
+            });
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "watch", key, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public ChangeBatch getChangesSince(long sequence, int maxEvents) throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            ChangeBatch changes = internalService.getChangesSince(sequence, maxEvents);
+            completed(rpcEvent, "getChangesSince", null, null, changes.getChanges().size());
+            return changes;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getChangesSince", null, null, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public ServerStats getStats() throws TException {
+        final RpcEvent rpcEvent = new RpcEvent();
+        rpcEvent.begin();
+        try {
+            ServerStats stats = internalService.getStats();
+            completed(rpcEvent, "getStats", null, null, 0);
+            return stats;
+        } catch (TException | RuntimeException ex) {
+            threw(rpcEvent, "getStats", null, null, ex);
+            throw ex;
+        }
+    }
+
+    private static void completed(RpcEvent rpcEvent, String method, String key, String value, int items) {
+        rpcEvent.end();
+        if (rpcEvent.shouldCommit()) {
+            rpcEvent.setCall(method, key, depthOf(key), sizeOf(value), items);
+            rpcEvent.commit();
+        }
+    }
+
+    private static void watched(RpcEvent rpcEvent, String key, WatchEvent event) {
+        rpcEvent.end();
+        if (rpcEvent.shouldCommit()) {
+            rpcEvent.setCall("watch", key, depthOf(key), sizeOf(event.getValue()), 1);
+            rpcEvent.commit();
+        }
+    }
+
+    private static void threw(RpcEvent rpcEvent, String method, String key, String value, Exception ex) {
+        rpcEvent.end();
+        if (rpcEvent.shouldCommit()) {
+            rpcEvent.setCall(method, key, depthOf(key), sizeOf(value), key == null ? 0 : 1);
+            rpcEvent.setError(ex);
+            rpcEvent.commit();
+        }
+    }
+
+    /**
+     * @return count of non-empty levels of the key, it isn't validated, so invalid keys are recorded too
+     */
+    static int depthOf(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int depth = 0;
+        boolean inLevel = false;
+        for (int i = 0; i < key.length(); ++i) {
+            if (key.charAt(i) == '/') {
+                inLevel = false;
+            } else if (!inLevel) {
+                inLevel = true;
+                ++depth;
+            }
+        }
+        return depth;
+    }
+
+    private static int sizeOf(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static int sizeOfEntries(List<SubtreeEntry> entries) {
+        int size = 0;
+        for (SubtreeEntry entry : entries) {
+            size += sizeOf(entry.getValue());
+        }
+        return size;
+    }
+}
@@ -1,27 +1,88 @@
 package net.thumbtack.configServer.services;
 
+import com.google.common.util.concurrent.SettableFuture;
+import net.thumbtack.configServer.domain.ConfigTree;
+import net.thumbtack.configServer.domain.DumpHandler;
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.IndexedNodeTree;
+import net.thumbtack.configServer.domain.Lease;
 import net.thumbtack.configServer.domain.Node;
+import net.thumbtack.configServer.domain.NodeDelta;
 import net.thumbtack.configServer.domain.NodeDump;
 import net.thumbtack.configServer.domain.NodePath;
 import net.thumbtack.configServer.domain.Scheduler;
+import net.thumbtack.configServer.domain.TreeStats;
+import net.thumbtack.configServer.events.FlightEvents;
+import net.thumbtack.configServer.metrics.LatencyHistogram;
+import net.thumbtack.configServer.metrics.ServiceMetrics;
+import net.thumbtack.configServer.persistence.LogRecord;
+import net.thumbtack.configServer.persistence.OperationLog;
 import net.thumbtack.configServer.thrift.*;
 import org.apache.thrift.TException;
-import java.util.Collections;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a configuration service that stores data in memory.
  */
-public class InMemoryConfigService implements ConfigService.Iface {
-    private Node root;
-    private Scheduler scheduler = null;
+public class InMemoryConfigService implements WatchableConfigService {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(InMemoryConfigService.class);
+    public static final long DEFAULT_WATCH_MS_TIMEOUT = 30000;
+    public static final int DEFAULT_CHANGES_CAPACITY = 65536;
+    private ConfigTree tree;
+    private WatchRegistry watches = null;
+    private ChangeFeed changes = null;
+    private Scheduler<NodePath> scheduler = null;
+    private Scheduler<Long> leaseScheduler = null;
+    private final AtomicLong lastLeaseId = new AtomicLong();
+    private final ConcurrentHashMap<Long, Lease> leases = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<NodePath, Lease> leasedNodes = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private volatile OperationLog operationLog = null;
+    private volatile long snapshotSequence = 0;
+    private volatile long dumpVersion = 0;
+
+    /**
+     * @param tree storage of the nodes
+     * @param watchMsTimeout time after which a watch without changes returns an event of NONE type
+     * @param changesCapacity count of the last changes kept for {@link #getChangesSince}
+     */
+    public InMemoryConfigService(ConfigTree tree, long watchMsTimeout, int changesCapacity) {
+        this(tree, watchMsTimeout, changesCapacity, new Scheduler<NodePath>(), new Scheduler<Long>());
+    }
 
-    public InMemoryConfigService(Node treeRoot) {
-        this.root = treeRoot;
-        this.scheduler = new Scheduler();
+    /**
+     * @param scheduler scheduler removing temporary nodes
+     * @param leaseScheduler scheduler expiring leases
+     */
+    public InMemoryConfigService(ConfigTree tree, long watchMsTimeout, int changesCapacity,
+                                 Scheduler<NodePath> scheduler, Scheduler<Long> leaseScheduler) {
+        FlightEvents.register();
+        this.tree = tree;
+        this.scheduler = scheduler;
+        this.leaseScheduler = leaseScheduler;
+        this.watches = new WatchRegistry(tree, watchMsTimeout);
+        this.changes = new ChangeFeed(tree, changesCapacity);
+        tree.addChangeListener(watches);
+        tree.addChangeListener(changes);
     }
 
+    public InMemoryConfigService(ConfigTree tree) { this(tree, DEFAULT_WATCH_MS_TIMEOUT, DEFAULT_CHANGES_CAPACITY); }
+
+    public InMemoryConfigService(Node treeRoot) { this(new IndexedNodeTree(treeRoot)); }
+
     public InMemoryConfigService() { this(new Node("")); }
 
     @Override
@@ -32,88 +93,597 @@ public class InMemoryConfigService implements ConfigService.Iface {
     @Override
     public void createWithValue(final String key, final String value) throws DuplicateKeyException, InvalidKeyException, TException {
         NodePath path = new NodePath(key);
-        String nodeName = path.getLastLevel();
-        NodePath pathToParent = path.getPathExceptLastLevel();
-        Node node = new Node(nodeName, value);
 
-        root.insert(pathToParent, node);
+        createNode(path, value, LogRecord.set(path.toString(), value));
     }
 
     @Override
     public void createTemporaryWithValue(String key, String value, long msTimeout) throws DuplicateKeyException, InvalidKeyException, InvalidTimeoutException, TException {
-        createWithValue(key, value);
-        scheduleItemRemoving(key, msTimeout);
+        NodePath path = new NodePath(key);
+
+        createNode(path, value, LogRecord.setTemporary(path.toString(), value, msTimeout));
+        scheduler.schedule(path, new RemoveItemWithPathTask(path), msTimeout);
+    }
+
+    @Override
+    public long grantLease(long msTtl) throws InvalidTimeoutException, TException {
+        Lease lease = new Lease(lastLeaseId.incrementAndGet(), msTtl);
+        leases.put(lease.getId(), lease);
+        try {
+            leaseScheduler.schedule(lease.getId(), new ExpireLeaseTask(lease), msTtl);
+        } catch (InvalidTimeoutException ex) {
+            leases.remove(lease.getId());
+            throw ex;
+        }
+
+        return lease.getId();
+    }
+
+    @Override
+    public void createWithLease(String key, String value, long leaseId) throws DuplicateKeyException, InvalidKeyException, UnknownLeaseException, TException {
+        NodePath path = new NodePath(key);
+        Lease lease = leases.get(leaseId);
+        if (lease == null || !lease.attach(path)) {
+            throw new UnknownLeaseException(String.format("Lease %d doesn't exist", leaseId));
+        }
+        try {
+            // after a restart the lease is unknown, so the node is restored as a temporary one
+            createNode(path, value, LogRecord.setTemporary(path.toString(), value, lease.getMsTtl()));
+        } catch (DuplicateKeyException ex) {
+            lease.detach(path);
+            throw ex;
+        }
+        leasedNodes.put(path, lease);
+        if (lease.isExpired()) {
+            // the lease has expired before the node was created, so nobody else will remove it
+            removeLeasedNode(path, lease);
+            throw new UnknownLeaseException(String.format("Lease %d has expired", leaseId));
+        }
+    }
+
+    @Override
+    public void keepAlive(long leaseId) throws TException {
+        leaseScheduler.reschedule(leaseId);
     }
 
     @Override
     public void remove(final String key) throws UnknownKeyException, InvalidKeyException, TException {
         NodePath path = new NodePath(key);
-        root.remove(path);
+        NodeDump removed = removeNode(path, true);
+        release(path, removed);
     }
 
     @Override
     public boolean exists(final String key) throws TException {
         NodePath path = new NodePath(key);
 
-        return root.exists(path);
+        return tree.exists(path);
     }
 
     @Override
     public String getValue(final String key) throws UnknownKeyException, InvalidKeyException, TException {
-        Node found = findNode(key);
-
-        return found.getValue();
+        return tree.getValue(new NodePath(key));
     }
 
     @Override
     public void setValue(final String key, final String value) throws UnknownKeyException, InvalidKeyException, TException {
-        Node found = findNode(key);
+        NodePath path = new NodePath(key);
 
-        found.setValue(value);
-        scheduler.reschedule(key);
+        setNodeValue(path, value);
+        scheduler.reschedule(path);
     }
 
     @Override
     public List<String> getChildren(final String key) throws UnknownKeyException, InvalidKeyException, TException {
-        Node found = findNode(key);
-        List<String> childrenNames = found.getChildrenNames();
-        Collections.sort(childrenNames);
+        return tree.getChildrenNames(new NodePath(key));
+    }
 
-        return childrenNames;
+    @Override
+    public List<String> getChildrenPage(final String key, final String afterName, final int limit) throws UnknownKeyException, InvalidKeyException, TException {
+        final String pageStart = afterName == null || afterName.isEmpty() ? null : afterName;
+
+        return tree.getChildrenNames(new NodePath(key), pageStart, limit);
     }
 
-    public NodeDump getDump() {
-        return root.createDump();
+    @Override
+    public List<SubtreeEntry> getSubtree(final String key, final int maxDepth) throws UnknownKeyException, InvalidKeyException, TException {
+        NodeDump subtree = tree.getSubtree(new NodePath(key), maxDepth);
+
+        return toSubtreeEntries(subtree);
     }
 
-    public void restore(NodeDump dump) {
-        root.restoreFromDump(dump);
+    @Override
+    public List<SubtreeEntry> removeRecursive(final String key) throws UnknownKeyException, InvalidKeyException, TException {
+        NodePath path = new NodePath(key);
+        NodeDump removed = removeNode(path, true);
+        release(path, removed);
+
+        return toSubtreeEntries(removed);
     }
 
-    private void scheduleItemRemoving(String key, long msTimeout) throws InvalidTimeoutException {
-        scheduler.schedule(key, new RemoveItemWithKeyTask(key), msTimeout);
+    @Override
+    public Map<String, String> getValues(final List<String> keys) throws TException {
+        List<String> validKeys = new ArrayList<>(keys.size());
+        List<NodePath> paths = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            try {
+                paths.add(new NodePath(key));
+                validKeys.add(key);
+            } catch (InvalidKeyException ex) {
+                // invalid keys are reported as absent
+            }
+        }
+        List<String> values = tree.getValues(paths);
+        Map<String, String> result = new HashMap<>(values.size());
+        for (int i = 0; i < values.size(); ++i) {
+            if (values.get(i) != null) {
+                result.put(validKeys.get(i), values.get(i));
+            }
+        }
+
+        return result;
     }
 
-    private Node findNode(String key) throws InvalidKeyException, UnknownKeyException {
-        NodePath path = new NodePath(key);
-        return root.findNode(path);
+    @Override
+    public List<OpResult> multi(final List<Op> ops) throws TException {
+        List<OpResult> results = new ArrayList<>(ops.size());
+        for (Op op : ops) {
+            results.add(execute(op));
+        }
+
+        return results;
     }
 
-    private class RemoveItemWithKeyTask implements Runnable {
-        private String key = null;
+    /**
+     * Blocks the calling thread until the watch is completed,
+     * non-blocking servers should use {@link #watch(String, boolean, long, AsyncMethodCallback)} instead.
+     */
+    @Override
+    public WatchEvent watch(final String key, final boolean recursive, final long sinceVersion) throws InvalidKeyException, TException {
+        final SettableFuture<WatchEvent> event = SettableFuture.create();
+        watch(key, recursive, sinceVersion, new AsyncMethodCallback<WatchEvent>() {
+            @Override
+            public void onComplete(WatchEvent response) {
+                event.set(response);
+            }
 
-        public RemoveItemWithKeyTask(String key) {
-            this.key = key;
+            @Override
+            public void onError(Exception exception) {
+                event.setException(exception);
+            }
+        });
+        try {
+            return event.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TException(ex);
+        } catch (ExecutionException ex) {
+            throw new TException(ex.getCause());
+        }
+    }
+
+    @Override
+    public void watch(final String key, final boolean recursive, final long sinceVersion, AsyncMethodCallback<WatchEvent> resultHandler) throws InvalidKeyException {
+        watches.watch(new NodePath(key), recursive, sinceVersion, resultHandler);
+    }
+
+    @Override
+    public ChangeBatch getChangesSince(final long sequence, final int maxEvents) throws TException {
+        return changes.getChangesSince(sequence, maxEvents);
+    }
+
+    /**
+     * Counts of nodes are computed by walking the whole tree, so the call takes time proportional to its size.
+     */
+    @Override
+    public ServerStats getStats() {
+        TreeStats treeStats = tree.getStats();
+        LatencyHistogram expiryBatches = new LatencyHistogram();
+        expiryBatches.add(scheduler.getExpiryBatches());
+        expiryBatches.add(leaseScheduler.getExpiryBatches());
+        return new ServerStats(metrics.getUptimeMs(), metrics.getOperationStats(),
+                treeStats.getNodes(), treeStats.getApproximateBytes(),
+                scheduler.getPendingCount() + leaseScheduler.getPendingCount(),
+                scheduler.getExecutedCount() + leaseScheduler.getExecutedCount(),
+                expiryBatches.toStats(), metrics.getSnapshots().toStats());
+    }
+
+    /**
+     * @return metrics reported by {@link #getStats}, they are recorded by {@link MetricsConfigService}
+     * and {@link SnapshotScheduler}
+     */
+    public ServiceMetrics getMetrics() { return metrics; }
+
+    /**
+     * Replay the operation log and write all following changes to it.
+     * It should be called after the last snapshot is restored and before the service is used.
+     */
+    public void recover(OperationLog log) throws IOException {
+        log.recover(new OperationLog.RecordHandler() {
+            @Override
+            public void apply(LogRecord record) {
+                replay(record);
+            }
+        });
+        operationLog = log;
+    }
+
+    /**
+     * When the operation log is used, it is rolled over together with the dump,
+     * so all records following the dump are in the new segments.
+     * @return a dump of the entire tree
+     */
+    public NodeDump getDump() throws IOException {
+        final OperationLog log = operationLog;
+        if (log == null) {
+            // the version is read first, so changes made during the dump are counted as following it
+            dumpVersion = tree.getVersion();
+            return tree.createDump();
+        }
+        synchronized (writeLock) {
+            dumpVersion = tree.getVersion();
+            NodeDump dump = tree.createDump();
+            snapshotSequence = log.rollover();
+            return dump;
+        }
+    }
+
+    /**
+     * The delta is taken under the write lock, so all changes preceding it have raised the subtree versions
+     * of their ancestors. Without the operation log changes don't take the lock, so deltas are not supported.
+     * @return changes of the tree made after the last dump, delta or restore,
+     * or null if the operation log is disabled
+     */
+    public NodeDelta getDelta() throws IOException {
+        final OperationLog log = operationLog;
+        if (log == null) {
+            return null;
+        }
+        synchronized (writeLock) {
+            NodeDelta delta = tree.createDelta(dumpVersion);
+            dumpVersion = tree.getVersion();
+            snapshotSequence = log.rollover();
+            return delta;
+        }
+    }
+
+    /**
+     * @return count of changes of the tree made after the last dump, delta or restore
+     */
+    public long getChangesSinceDump() {
+        return tree.getVersion() - dumpVersion;
+    }
+
+    /**
+     * Remove the records of the operation log preceding the last dump, it should be called after the dump is saved.
+     */
+    public void compactLog() throws IOException {
+        final OperationLog log = operationLog;
+        if (log != null) {
+            log.truncateBefore(snapshotSequence);
+        }
+    }
+
+    /**
+     * Replace the tree with the dump. The dump is treated as a snapshot, so the operation log is compacted.
+     * The dump is read node by node, so a dump read from a file is never kept in memory as a whole.
+     */
+    public void restore(DumpSource dump) throws IOException {
+        final OperationLog log = operationLog;
+        if (log == null) {
+            tree.restore(dump);
+            dumpVersion = tree.getVersion();
+            return;
+        }
+        synchronized (writeLock) {
+            tree.restore(dump);
+            dumpVersion = tree.getVersion();
+            snapshotSequence = log.rollover();
+        }
+        log.truncateBefore(snapshotSequence);
+    }
+
+    /**
+     * Replace the subtree with its source, see {@link IndexedNodeTree#unload(NodePath, long, DumpSource)}.
+     * Only subtrees saved by the last dump or delta are unloaded, so the next delta doesn't read them back.
+     * The subtree is unloaded under the write lock, so changes are not supported without the operation log.
+     * @param subtreeVersion subtree version of the node when its source was written
+     * @return false if the subtree was changed or it is already unloaded
+     */
+    public boolean unload(NodePath path, long subtreeVersion, DumpSource source) {
+        if (operationLog == null) {
+            throw new IllegalStateException("Subtrees are unloaded only with the operation log");
+        }
+        if (!(tree instanceof IndexedNodeTree)) {
+            throw new UnsupportedOperationException("Subtrees are unloaded only from the indexed tree");
+        }
+        synchronized (writeLock) {
+            return subtreeVersion <= dumpVersion && ((IndexedNodeTree) tree).unload(path, subtreeVersion, source);
+        }
+    }
+
+    private void removeLeasedNode(NodePath path, Lease lease) {
+        if (leasedNodes.remove(path, lease)) {
+            try {
+                releaseDescendants(path, removeNode(path, false));
+            } catch (TException e) {
+                // the node can be already removed together with its parent.
+            }
+        }
+    }
+
+    /**
+     * Cancels the timer and detaches the lease of every removed node, so they don't remove a node
+     * created later with the same path.
+     */
+    private void release(NodePath path, NodeDump removed) {
+        release(path, removed, true);
+    }
+
+    /**
+     * The removed node itself is released by its expiring timer or lease.
+     */
+    private void releaseDescendants(NodePath path, NodeDump removed) {
+        release(path, removed, false);
+    }
+
+    /**
+     * The removed subtree is walked by a handler, so an unloaded subtree is streamed from its source
+     * instead of being read into memory.
+     */
+    private void release(final NodePath path, NodeDump removed, final boolean includingRoot) {
+        try {
+            removed.readTo(new DumpHandler() {
+                private NodePath current = null;
+
+                @Override
+                public void startNode(String name, String value) {
+                    if (current == null) {
+                        current = path;
+                        if (!includingRoot) {
+                            return;
+                        }
+                    } else {
+                        current = current.getChildPath(name);
+                    }
+                    scheduler.cancel(current);
+                    Lease lease = leasedNodes.remove(current);
+                    if (lease != null) {
+                        lease.detach(current);
+                    }
+                }
+
+                @Override
+                public void endNode() {
+                    current = current.getPathExceptLastLevel();
+                }
+            });
+        } catch (IOException ex) {
+            throw new IllegalStateException(String.format("Removed subtree %s can't be read", path), ex);
+        }
+    }
+
+    private void createNode(final NodePath path, final String value, LogRecord record) throws TException {
+        applyLogged(new TreeChange<Void>() {
+            @Override
+            public void check() throws TException {
+                if (tree.exists(path)) {
+                    throw new DuplicateKeyException("Node with given path already exists.");
+                }
+            }
+
+            @Override
+            public Void apply() throws TException {
+                tree.create(path, value);
+                return null;
+            }
+        }, record, true);
+    }
+
+    private void setNodeValue(final NodePath path, final String value) throws TException {
+        applyLogged(new TreeChange<Void>() {
+            @Override
+            public void check() throws TException {
+                ensureExists(path);
+            }
+
+            @Override
+            public Void apply() throws TException {
+                tree.setValue(path, value);
+                return null;
+            }
+        }, LogRecord.set(path.toString(), value), true);
+    }
+
+    /**
+     * @param waitForCommit false to return before the removal is durable, expired nodes are removed this way
+     */
+    private NodeDump removeNode(final NodePath path, boolean waitForCommit) throws TException {
+        return applyLogged(new TreeChange<NodeDump>() {
+            @Override
+            public void check() throws TException {
+                if (path.isEmpty()) {
+                    throw new InvalidKeyException("Can't delete root");
+                }
+                ensureExists(path);
+            }
+
+            @Override
+            public NodeDump apply() throws TException {
+                return tree.remove(path);
+            }
+        }, LogRecord.remove(path.toString()), waitForCommit);
+    }
+
+    private void ensureExists(NodePath path) throws UnknownKeyException {
+        if (!tree.exists(path)) {
+            throw new UnknownKeyException(String.format("There is no node with key %s", path));
+        }
+    }
+
+    /**
+     * Changes are checked, logged and applied under the write lock, so the log keeps them in the order
+     * of application, and a change is applied only if its record is appended. The commit is awaited out
+     * of the lock, so concurrent writers share it.
+     */
+    private <T> T applyLogged(TreeChange<T> change, LogRecord record, boolean waitForCommit) throws TException {
+        final OperationLog log = operationLog;
+        if (log == null) {
+            return change.apply();
+        }
+        final T result;
+        final long sequence;
+        try {
+            synchronized (writeLock) {
+                change.check();
+                sequence = log.append(record);
+                result = change.apply();
+            }
+            if (waitForCommit) {
+                log.sync(sequence);
+            }
+        } catch (IOException ex) {
+            throw new TException("Failed to write the operation log", ex);
+        }
+
+        return result;
+    }
+
+    private void replay(LogRecord record) {
+        try {
+            final NodePath path = new NodePath(record.getKey());
+            switch (record.getType()) {
+                case SET:
+                    replaySet(path, record.getValue());
+                    scheduler.reschedule(path);
+                    break;
+                case SET_TEMPORARY:
+                    replaySet(path, record.getValue());
+                    scheduler.schedule(path, new RemoveItemWithPathTask(path), record.getMsTimeout());
+                    break;
+                case REMOVE:
+                    if (tree.exists(path)) {
+                        releaseDescendants(path, tree.remove(path));
+                    }
+                    scheduler.cancel(path);
+                    break;
+            }
+        } catch (TException ex) {
+            LOG.warn("Failed to replay {}", record, ex);
+        }
+    }
+
+    private void replaySet(NodePath path, String value) throws TException {
+        if (tree.exists(path)) {
+            tree.setValue(path, value);
+        } else {
+            tree.create(path, value);
+        }
+    }
+
+    private OpResult execute(Op op) throws TException {
+        OpResult result = new OpResult();
+        final String key = op.getKey();
+        final String value = op.isSetValue() ? op.getValue() : "";
+        try {
+            if (op.getType() == null) {
+                return result.setError(ErrorCode.UNKNOWN_OPERATION).setErrorMessage("Operation type is not set");
+            }
+            switch (op.getType()) {
+                case CREATE:
+                    createWithValue(key, value);
+                    break;
+                case CREATE_TEMPORARY:
+                    createTemporaryWithValue(key, value, op.getMsTimeout());
+                    break;
+                case REMOVE:
+                    remove(key);
+                    break;
+                case EXISTS:
+                    result.setExists(exists(key));
+                    break;
+                case GET_VALUE:
+                    result.setValue(getValue(key));
+                    break;
+                case SET_VALUE:
+                    setValue(key, value);
+                    break;
+                case GET_CHILDREN:
+                    result.setChildren(getChildren(key));
+                    break;
+                default:
+                    result.setError(ErrorCode.UNKNOWN_OPERATION).setErrorMessage(String.format("Unknown operation %s", op.getType()));
+                    break;
+            }
+        } catch (DuplicateKeyException ex) {
+            result.setError(ErrorCode.DUPLICATE_KEY).setErrorMessage(ex.getMessage());
+        } catch (UnknownKeyException ex) {
+            result.setError(ErrorCode.UNKNOWN_KEY).setErrorMessage(ex.getMessage());
+        } catch (InvalidKeyException ex) {
+            result.setError(ErrorCode.INVALID_KEY).setErrorMessage(ex.getMessage());
+        } catch (InvalidTimeoutException ex) {
+            result.setError(ErrorCode.INVALID_TIMEOUT).setErrorMessage(ex.getMessage());
+        }
+
+        return result;
+    }
+
+    private static List<SubtreeEntry> toSubtreeEntries(NodeDump subtree) {
+        List<SubtreeEntry> entries = new ArrayList<>();
+        addSubtreeEntries(subtree, 0, entries);
+
+        return entries;
+    }
+
+    private static void addSubtreeEntries(NodeDump dump, int depth, List<SubtreeEntry> entries) {
+        entries.add(new SubtreeEntry(depth, dump.getName(), dump.getValue()));
+        for (NodeDump child : dump.getChildren()) {
+            addSubtreeEntries(child, depth + 1, entries);
+        }
+    }
+
+    private class RemoveItemWithPathTask implements Runnable {
+        private NodePath path = null;
+
+        public RemoveItemWithPathTask(NodePath path) {
+            this.path = path;
         }
 
         @Override
         public void run() {
             try {
-                remove(key);
+                releaseDescendants(path, removeNode(path, false));
             } catch (TException e) {
                 // other threads can already remove the given item.
             }
         }
     }
-}
 
+    private class ExpireLeaseTask implements Runnable {
+        private Lease lease = null;
+
+        public ExpireLeaseTask(Lease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            leases.remove(lease.getId());
+            for (NodePath path : lease.expire()) {
+                removeLeasedNode(path, lease);
+            }
+        }
+    }
+
+    /**
+     * A change of the tree which is written to the operation log.
+     */
+    private interface TreeChange<T> {
+        /**
+         * Throws the exception the change would fail with, so a failing change is not logged.
+         */
+        void check() throws TException;
+
+        T apply() throws TException;
+    }
+}
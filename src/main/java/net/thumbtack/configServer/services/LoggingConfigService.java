@@ -2,136 +2,472 @@ package net.thumbtack.configServer.services;
 
 import net.thumbtack.configServer.thrift.*;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-public class LoggingConfigService implements ConfigService.Iface {
-    private ConfigService.Iface internalService;
-    private static final XLogger LOG = XLoggerFactory.getXLogger(InMemoryConfigService.class);
+/**
+ * LoggingConfigService traces a sample of the calls of the service, every traced call is logged by a single line
+ * with its arguments, its result or exception and its duration.
+ * Calls which are not sampled go straight to the service. Arguments and results of a traced call are formatted
+ * by the calling thread, even with an asynchronous appender, which prepares the line before queueing it,
+ * so they are truncated to keep both the cost of a call and the log small.
+ */
+public class LoggingConfigService implements WatchableConfigService {
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 64;
 
-    public LoggingConfigService(ConfigService.Iface internalService) {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(LoggingConfigService.class);
+
+    private final WatchableConfigService internalService;
+    private final double sampleRate;
+    private final int maxValueLength;
+
+    /**
+     * @param sampleRate share of traced calls, from 0 to trace none of them to 1 to trace all of them
+     * @param maxValueLength count of characters of an argument or a result after which it is truncated
+     */
+    public LoggingConfigService(WatchableConfigService internalService, double sampleRate, int maxValueLength) {
+        if (maxValueLength <= 0) {
+            throw new IllegalArgumentException("Length of traced values should be greater than 0");
+        }
         this.internalService = internalService;
+        this.sampleRate = sampleRate;
+        this.maxValueLength = maxValueLength;
+    }
+
+    public LoggingConfigService(WatchableConfigService internalService) {
+        this(internalService, 1, DEFAULT_MAX_VALUE_LENGTH);
     }
 
     @Override
     public void create(String key) throws DuplicateKeyException, InvalidKeyException, TException {
-        LOG.entry(key);
-        internalService.create(key);
-        LOG.exit();
+        if (!isSampled()) {
+            internalService.create(key);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.create(key);
+            completed("create", start, key);
+        } catch (TException | RuntimeException ex) {
+            threw("create", start, ex, key);
+            throw ex;
+        }
     }
 
     @Override
-    public void createWithValue(final String key, final String value) throws DuplicateKeyException, InvalidKeyException, TException {
-        LOG.entry(key, value);
-        logPossibleExceptions(new ThriftExceptionThrowingAction() {
-            @Override
-            public void run() throws TException {
-                internalService.createWithValue(key, value);
-            }
-        });
-        LOG.exit();
+    public void createWithValue(String key, String value) throws DuplicateKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            internalService.createWithValue(key, value);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.createWithValue(key, value);
+            completed("createWithValue", start, key, value);
+        } catch (TException | RuntimeException ex) {
+            threw("createWithValue", start, ex, key, value);
+            throw ex;
+        }
     }
 
     @Override
-    public void createTemporaryWithValue(final String key, final String value, final long msTimeout) throws DuplicateKeyException, InvalidKeyException, InvalidTimeoutException, TException {
-        LOG.entry(key, value, msTimeout);
-        logPossibleExceptions(new ThriftExceptionThrowingAction() {
-            @Override
-            public void run() throws TException {
-                internalService.createTemporaryWithValue(key, value, msTimeout);
-            }
-        });
-        LOG.exit();
+    public void createTemporaryWithValue(String key, String value, long msTimeout) throws DuplicateKeyException, InvalidKeyException, InvalidTimeoutException, TException {
+        if (!isSampled()) {
+            internalService.createTemporaryWithValue(key, value, msTimeout);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.createTemporaryWithValue(key, value, msTimeout);
+            completed("createTemporaryWithValue", start, key, value, msTimeout);
+        } catch (TException | RuntimeException ex) {
+            threw("createTemporaryWithValue", start, ex, key, value, msTimeout);
+            throw ex;
+        }
     }
 
     @Override
-    public void remove(final String key) throws UnknownKeyException, InvalidKeyException, TException {
-        LOG.entry(key);
-        logPossibleExceptions(new ThriftExceptionThrowingAction() {
-            @Override
-            public void run() throws TException {
-                internalService.remove(key);
-            }
-        });
-        LOG.exit();
+    public long grantLease(long msTtl) throws InvalidTimeoutException, TException {
+        if (!isSampled()) {
+            return internalService.grantLease(msTtl);
+        }
+        final long start = System.nanoTime();
+        try {
+            long leaseId = internalService.grantLease(msTtl);
+            returned("grantLease", start, leaseId, msTtl);
+            return leaseId;
+        } catch (TException | RuntimeException ex) {
+            threw("grantLease", start, ex, msTtl);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createWithLease(String key, String value, long leaseId) throws DuplicateKeyException, InvalidKeyException, UnknownLeaseException, TException {
+        if (!isSampled()) {
+            internalService.createWithLease(key, value, leaseId);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.createWithLease(key, value, leaseId);
+            completed("createWithLease", start, key, value, leaseId);
+        } catch (TException | RuntimeException ex) {
+            threw("createWithLease", start, ex, key, value, leaseId);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void keepAlive(long leaseId) throws TException {
+        if (!isSampled()) {
+            internalService.keepAlive(leaseId);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.keepAlive(leaseId);
+            completed("keepAlive", start, leaseId);
+        } catch (TException | RuntimeException ex) {
+            threw("keepAlive", start, ex, leaseId);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void remove(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            internalService.remove(key);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.remove(key);
+            completed("remove", start, key);
+        } catch (TException | RuntimeException ex) {
+            threw("remove", start, ex, key);
+            throw ex;
+        }
     }
 
     @Override
     public boolean exists(String key) throws TException {
-        LOG.entry(key);
-        boolean exists = internalService.exists(key);
-        LOG.exit(exists);
-        return exists;
+        if (!isSampled()) {
+            return internalService.exists(key);
+        }
+        final long start = System.nanoTime();
+        try {
+            boolean exists = internalService.exists(key);
+            returned("exists", start, exists, key);
+            return exists;
+        } catch (TException | RuntimeException ex) {
+            threw("exists", start, ex, key);
+            throw ex;
+        }
     }
 
     @Override
-    public String getValue(final String key) throws UnknownKeyException, InvalidKeyException, TException {
-        LOG.entry(key);
-        String value = logPossibleExceptions(new ThriftExceptionThrowingFunction<String>() {
-            @Override
-            public String call() throws TException {
-                return internalService.getValue(key);
-            }
-        });
-        LOG.exit(value);
-        return value;
+    public String getValue(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.getValue(key);
+        }
+        final long start = System.nanoTime();
+        try {
+            String value = internalService.getValue(key);
+            returned("getValue", start, value, key);
+            return value;
+        } catch (TException | RuntimeException ex) {
+            threw("getValue", start, ex, key);
+            throw ex;
+        }
     }
 
     @Override
-    public void setValue(final String key, final String value) throws UnknownKeyException, InvalidKeyException, TException {
-        LOG.entry(key, value);
-        logPossibleExceptions(new ThriftExceptionThrowingAction() {
-            @Override
-            public void run() throws TException {
-                internalService.setValue(key, value);
-            }
-        });
-        LOG.exit();
+    public void setValue(String key, String value) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            internalService.setValue(key, value);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.setValue(key, value);
+            completed("setValue", start, key, value);
+        } catch (TException | RuntimeException ex) {
+            threw("setValue", start, ex, key, value);
+            throw ex;
+        }
     }
 
     @Override
-    public List<String> getChildren(final String key) throws UnknownKeyException, InvalidKeyException, TException {
-        LOG.entry(key);
-        List<String> children = logPossibleExceptions(new ThriftExceptionThrowingFunction<List<String>>() {
-            @Override
-            public List<String> call() throws TException {
-                return internalService.getChildren(key);
-            }
-        });
-        LOG.exit(children);
-        return children;
+    public List<String> getChildren(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.getChildren(key);
+        }
+        final long start = System.nanoTime();
+        try {
+            List<String> children = internalService.getChildren(key);
+            returned("getChildren", start, children, key);
+            return children;
+        } catch (TException | RuntimeException ex) {
+            threw("getChildren", start, ex, key);
+            throw ex;
+        }
     }
 
-    private interface ThriftExceptionThrowingFunction<TResult> {
-        TResult call() throws TException;
+    @Override
+    public List<String> getChildrenPage(String key, String afterName, int limit) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.getChildrenPage(key, afterName, limit);
+        }
+        final long start = System.nanoTime();
+        try {
+            List<String> children = internalService.getChildrenPage(key, afterName, limit);
+            returned("getChildrenPage", start, children, key, afterName, limit);
+            return children;
+        } catch (TException | RuntimeException ex) {
+            threw("getChildrenPage", start, ex, key, afterName, limit);
+            throw ex;
+        }
     }
 
-    private interface ThriftExceptionThrowingAction {
-        void run() throws TException;
+    @Override
+    public List<SubtreeEntry> getSubtree(String key, int maxDepth) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.getSubtree(key, maxDepth);
+        }
+        final long start = System.nanoTime();
+        try {
+            List<SubtreeEntry> subtree = internalService.getSubtree(key, maxDepth);
+            returned("getSubtree", start, subtree, key, maxDepth);
+            return subtree;
+        } catch (TException | RuntimeException ex) {
+            threw("getSubtree", start, ex, key, maxDepth);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<SubtreeEntry> removeRecursive(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.removeRecursive(key);
+        }
+        final long start = System.nanoTime();
+        try {
+            List<SubtreeEntry> removed = internalService.removeRecursive(key);
+            returned("removeRecursive", start, removed, key);
+            return removed;
+        } catch (TException | RuntimeException ex) {
+            threw("removeRecursive", start, ex, key);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Map<String, String> getValues(List<String> keys) throws TException {
+        if (!isSampled()) {
+            return internalService.getValues(keys);
+        }
+        final long start = System.nanoTime();
+        try {
+            Map<String, String> values = internalService.getValues(keys);
+            returned("getValues", start, values, keys);
+            return values;
+        } catch (TException | RuntimeException ex) {
+            threw("getValues", start, ex, keys);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<OpResult> multi(List<Op> ops) throws TException {
+        if (!isSampled()) {
+            return internalService.multi(ops);
+        }
+        final long start = System.nanoTime();
+        try {
+            List<OpResult> results = internalService.multi(ops);
+            returned("multi", start, results, ops);
+            return results;
+        } catch (TException | RuntimeException ex) {
+            threw("multi", start, ex, ops);
+            throw ex;
+        }
+    }
+
+    @Override
+    public WatchEvent watch(String key, boolean recursive, long sinceVersion) throws InvalidKeyException, TException {
+        if (!isSampled()) {
+            return internalService.watch(key, recursive, sinceVersion);
+        }
+        final long start = System.nanoTime();
+        try {
+            WatchEvent event = internalService.watch(key, recursive, sinceVersion);
+            returned("watch", start, event, key, recursive, sinceVersion);
+            return event;
+        } catch (TException | RuntimeException ex) {
+            threw("watch", start, ex, key, recursive, sinceVersion);
+            throw ex;
+        }
+    }
+
+    /**
+     * The watch is traced when its handler is completed.
+     */
+    @Override
+    public void watch(final String key, final boolean recursive, final long sinceVersion,
+                      final AsyncMethodCallback<WatchEvent> resultHandler) throws TException {
+        if (!isSampled()) {
+            internalService.watch(key, recursive, sinceVersion, resultHandler);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            internalService.watch(key, recursive, sinceVersion, new AsyncMethodCallback<WatchEvent>() {
+                @Override
+                public void onComplete(WatchEvent event) {
+                    returned("watch", start, event, key, recursive, sinceVersion);
+                    resultHandler.onComplete(event);
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    threw("watch", start, ex, key, recursive, sinceVersion);
+                    resultHandler.onError(ex);
+                }
+            });
+        } catch (TException | RuntimeException ex) {
+            threw("watch", start, ex, key, recursive, sinceVersion);
+            throw ex;
+        }
     }
 
-    private void logPossibleExceptions(ThriftExceptionThrowingAction delegate) throws TException {
+    @Override
+    public ChangeBatch getChangesSince(long sequence, int maxEvents) throws TException {
+        if (!isSampled()) {
+            return internalService.getChangesSince(sequence, maxEvents);
+        }
+        final long start = System.nanoTime();
         try {
-            delegate.run();
-        } catch (TException ex) {
-            rethrowException(ex);
+            ChangeBatch changes = internalService.getChangesSince(sequence, maxEvents);
+            returned("getChangesSince", start, changes, sequence, maxEvents);
+            return changes;
+        } catch (TException | RuntimeException ex) {
+            threw("getChangesSince", start, ex, sequence, maxEvents);
+            throw ex;
         }
     }
 
-    private <TResult> TResult logPossibleExceptions(ThriftExceptionThrowingFunction<TResult> function) throws TException {
+    @Override
+    public ServerStats getStats() throws TException {
+        if (!isSampled()) {
+            return internalService.getStats();
+        }
+        final long start = System.nanoTime();
         try {
-            TResult result = function.call();
-            return result;
-        } catch (TException ex) {
-            return rethrowException(ex);
+            ServerStats stats = internalService.getStats();
+            returned("getStats", start, stats);
+            return stats;
+        } catch (TException | RuntimeException ex) {
+            threw("getStats", start, ex);
+            throw ex;
         }
     }
 
-    private <TResult> TResult rethrowException(TException ex) throws TException {
-        LOG.warn("throwing {}", ex.getClass().getSimpleName());
-        throw ex;
+    /**
+     * The random number is taken only for a partial rate, so disabled and full tracing don't touch it.
+     */
+    private boolean isSampled() {
+        return sampleRate > 0
+                && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)
+                && LOG.isInfoEnabled();
+    }
+
+    private void returned(String method, long start, Object result, Object... arguments) {
+        LOG.info("{}({}) returned {} in {} us", method, new Truncated(arguments, maxValueLength),
+                new Truncated(result, maxValueLength), microsSince(start));
+    }
+
+    private void completed(String method, long start, Object... arguments) {
+        LOG.info("{}({}) completed in {} us", method, new Truncated(arguments, maxValueLength), microsSince(start));
+    }
+
+    private void threw(String method, long start, Exception ex, Object... arguments) {
+        LOG.info("{}({}) threw {} in {} us", method, new Truncated(arguments, maxValueLength),
+                ex.getClass().getSimpleName(), microsSince(start));
+    }
+
+    private static long microsSince(long start) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+
+    /**
+     * Truncated formats the value when the logger formats the line, that is skipped if the level is off or
+     * the line is dropped by a full asynchronous appender. Every string is truncated on its own,
+     * collections, maps and arrays of arguments are cut after the limit, so only their first items are formatted.
+     */
+    static final class Truncated {
+        private final Object value;
+        private final int maxLength;
+
+        Truncated(Object value, int maxLength) {
+            this.value = value;
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            if (value instanceof Object[]) {
+                appendItems(builder, Arrays.asList((Object[]) value).iterator(), ((Object[]) value).length);
+            } else {
+                append(builder, value);
+            }
+            return builder.toString();
+        }
+
+        private void append(StringBuilder builder, Object item) {
+            if (item instanceof Collection) {
+                final Collection<?> collection = (Collection<?>) item;
+                builder.append('[');
+                appendItems(builder, collection.iterator(), collection.size());
+                builder.append(']');
+            } else if (item instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) item;
+                builder.append('{');
+                appendItems(builder, map.entrySet().iterator(), map.size());
+                builder.append('}');
+            } else {
+                final String string = String.valueOf(item);
+                if (string.length() <= maxLength) {
+                    builder.append(string);
+                } else {
+                    builder.append(string, 0, maxLength).append("...(").append(string.length()).append(" chars)");
+                }
+            }
+        }
+
+        private void appendItems(StringBuilder builder, Iterator<?> items, int size) {
+            final int start = builder.length();
+            int count = 0;
+            while (items.hasNext()) {
+                if (builder.length() - start >= maxLength) {
+                    builder.append("...(").append(size).append(" items)");
+                    return;
+                }
+                if (count++ > 0) {
+                    builder.append(", ");
+                }
+                append(builder, items.next());
+            }
+        }
     }
 }
@@ -0,0 +1,325 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.metrics.OperationMetrics;
+import net.thumbtack.configServer.metrics.ServiceMetrics;
+import net.thumbtack.configServer.thrift.*;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MetricsConfigService records the latency and the errors of every call of the service.
+ * Metrics of the methods are looked up once by the constructor, so a call only updates their counters.
+ * Watches are measured until they return, so their latency includes waiting for a change.
+ */
+public class MetricsConfigService implements WatchableConfigService {
+    private final WatchableConfigService internalService;
+    private final OperationMetrics createCalls;
+    private final OperationMetrics createWithValueCalls;
+    private final OperationMetrics createTemporaryWithValueCalls;
+    private final OperationMetrics grantLeaseCalls;
+    private final OperationMetrics createWithLeaseCalls;
+    private final OperationMetrics keepAliveCalls;
+    private final OperationMetrics removeCalls;
+    private final OperationMetrics existsCalls;
+    private final OperationMetrics getValueCalls;
+    private final OperationMetrics setValueCalls;
+    private final OperationMetrics getChildrenCalls;
+    private final OperationMetrics getChildrenPageCalls;
+    private final OperationMetrics getSubtreeCalls;
+    private final OperationMetrics removeRecursiveCalls;
+    private final OperationMetrics getValuesCalls;
+    private final OperationMetrics multiCalls;
+    private final OperationMetrics watchCalls;
+    private final OperationMetrics getChangesSinceCalls;
+    private final OperationMetrics getStatsCalls;
+
+    public MetricsConfigService(WatchableConfigService internalService, ServiceMetrics metrics) {
+        this.internalService = internalService;
+        this.createCalls = metrics.getOperation("create");
+        this.createWithValueCalls = metrics.getOperation("createWithValue");
+        this.createTemporaryWithValueCalls = metrics.getOperation("createTemporaryWithValue");
+        this.grantLeaseCalls = metrics.getOperation("grantLease");
+        this.createWithLeaseCalls = metrics.getOperation("createWithLease");
+        this.keepAliveCalls = metrics.getOperation("keepAlive");
+        this.removeCalls = metrics.getOperation("remove");
+        this.existsCalls = metrics.getOperation("exists");
+        this.getValueCalls = metrics.getOperation("getValue");
+        this.setValueCalls = metrics.getOperation("setValue");
+        this.getChildrenCalls = metrics.getOperation("getChildren");
+        this.getChildrenPageCalls = metrics.getOperation("getChildrenPage");
+        this.getSubtreeCalls = metrics.getOperation("getSubtree");
+        this.removeRecursiveCalls = metrics.getOperation("removeRecursive");
+        this.getValuesCalls = metrics.getOperation("getValues");
+        this.multiCalls = metrics.getOperation("multi");
+        this.watchCalls = metrics.getOperation("watch");
+        this.getChangesSinceCalls = metrics.getOperation("getChangesSince");
+        this.getStatsCalls = metrics.getOperation("getStats");
+    }
+
+    @Override
+    public void create(String key) throws DuplicateKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.create(key);
+            createCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            createCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createWithValue(String key, String value) throws DuplicateKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.createWithValue(key, value);
+            createWithValueCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            createWithValueCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createTemporaryWithValue(String key, String value, long msTimeout) throws DuplicateKeyException, InvalidKeyException, InvalidTimeoutException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.createTemporaryWithValue(key, value, msTimeout);
+            createTemporaryWithValueCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            createTemporaryWithValueCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public long grantLease(long msTtl) throws InvalidTimeoutException, TException {
+        final long start = System.nanoTime();
+        try {
+            long leaseId = internalService.grantLease(msTtl);
+            grantLeaseCalls.recordSuccess(start);
+            return leaseId;
+        } catch (TException | RuntimeException ex) {
+            grantLeaseCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createWithLease(String key, String value, long leaseId) throws DuplicateKeyException, InvalidKeyException, UnknownLeaseException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.createWithLease(key, value, leaseId);
+            createWithLeaseCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            createWithLeaseCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void keepAlive(long leaseId) throws TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.keepAlive(leaseId);
+            keepAliveCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            keepAliveCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void remove(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.remove(key);
+            removeCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            removeCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws TException {
+        final long start = System.nanoTime();
+        try {
+            boolean exists = internalService.exists(key);
+            existsCalls.recordSuccess(start);
+            return exists;
+        } catch (TException | RuntimeException ex) {
+            existsCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public String getValue(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            String value = internalService.getValue(key);
+            getValueCalls.recordSuccess(start);
+            return value;
+        } catch (TException | RuntimeException ex) {
+            getValueCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void setValue(String key, String value) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.setValue(key, value);
+            setValueCalls.recordSuccess(start);
+        } catch (TException | RuntimeException ex) {
+            setValueCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<String> getChildren(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            List<String> children = internalService.getChildren(key);
+            getChildrenCalls.recordSuccess(start);
+            return children;
+        } catch (TException | RuntimeException ex) {
+            getChildrenCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<String> getChildrenPage(String key, String afterName, int limit) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            List<String> children = internalService.getChildrenPage(key, afterName, limit);
+            getChildrenPageCalls.recordSuccess(start);
+            return children;
+        } catch (TException | RuntimeException ex) {
+            getChildrenPageCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<SubtreeEntry> getSubtree(String key, int maxDepth) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            List<SubtreeEntry> subtree = internalService.getSubtree(key, maxDepth);
+            getSubtreeCalls.recordSuccess(start);
+            return subtree;
+        } catch (TException | RuntimeException ex) {
+            getSubtreeCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<SubtreeEntry> removeRecursive(String key) throws UnknownKeyException, InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            List<SubtreeEntry> removed = internalService.removeRecursive(key);
+            removeRecursiveCalls.recordSuccess(start);
+            return removed;
+        } catch (TException | RuntimeException ex) {
+            removeRecursiveCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Map<String, String> getValues(List<String> keys) throws TException {
+        final long start = System.nanoTime();
+        try {
+            Map<String, String> values = internalService.getValues(keys);
+            getValuesCalls.recordSuccess(start);
+            return values;
+        } catch (TException | RuntimeException ex) {
+            getValuesCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<OpResult> multi(List<Op> ops) throws TException {
+        final long start = System.nanoTime();
+        try {
+            List<OpResult> results = internalService.multi(ops);
+            multiCalls.recordSuccess(start);
+            return results;
+        } catch (TException | RuntimeException ex) {
+            multiCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public WatchEvent watch(String key, boolean recursive, long sinceVersion) throws InvalidKeyException, TException {
+        final long start = System.nanoTime();
+        try {
+            WatchEvent event = internalService.watch(key, recursive, sinceVersion);
+            watchCalls.recordSuccess(start);
+            return event;
+        } catch (TException | RuntimeException ex) {
+            watchCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void watch(String key, boolean recursive, long sinceVersion,
+                      final AsyncMethodCallback<WatchEvent> resultHandler) throws TException {
+        final long start = System.nanoTime();
+        try {
+            internalService.watch(key, recursive, sinceVersion, new AsyncMethodCallback<WatchEvent>() {
+                @Override
+                public void onComplete(WatchEvent event) {
+                    watchCalls.recordSuccess(start);
+                    resultHandler.onComplete(event);
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    watchCalls.recordError(start, ex);
+                    resultHandler.onError(ex);
+                }
+            });
+        } catch (TException | RuntimeException ex) {
+            watchCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public ChangeBatch getChangesSince(long sequence, int maxEvents) throws TException {
+        final long start = System.nanoTime();
+        try {
+            ChangeBatch changes = internalService.getChangesSince(sequence, maxEvents);
+            getChangesSinceCalls.recordSuccess(start);
+            return changes;
+        } catch (TException | RuntimeException ex) {
+            getChangesSinceCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public ServerStats getStats() throws TException {
+        final long start = System.nanoTime();
+        try {
+            ServerStats stats = internalService.getStats();
+            getStatsCalls.recordSuccess(start);
+            return stats;
+        } catch (TException | RuntimeException ex) {
+            getStatsCalls.recordError(start, ex);
+            throw ex;
+        }
+    }
+}
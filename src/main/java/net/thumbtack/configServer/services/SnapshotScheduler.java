@@ -0,0 +1,168 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.NodeDelta;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.events.SnapshotEvent;
+import net.thumbtack.configServer.persistence.SnapshotStore;
+import net.thumbtack.configServer.serialization.SerializationException;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotScheduler saves snapshots of the service in the background.
+ * A snapshot is taken when the interval has passed since the last one and the tree has changed,
+ * or as soon as the count of changes since the last one reaches the threshold.
+ * Snapshots are also taken on demand, they never run concurrently.
+ * When the store has a base, only the subtrees changed since the last snapshot are saved as a delta,
+ * and the deltas are merged into a full snapshot when their count reaches the limit.
+ */
+public class SnapshotScheduler {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(SnapshotScheduler.class);
+
+    private final InMemoryConfigService service;
+    private final SnapshotStore store;
+    private final long msInterval;
+    private final long changesThreshold;
+    private final long msCheckInterval;
+    private final int maxDeltas;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService executor = null;
+    private volatile long lastSnapshotNanos = System.nanoTime();
+
+    /**
+     * @param msInterval time after which a changed tree is saved, 0 to save only by the threshold
+     * @param changesThreshold count of changes after which the tree is saved, 0 to save only by the interval
+     * @param msCheckInterval period of checking the conditions above
+     * @param maxDeltas count of deltas after which they are merged into a full snapshot, 0 to save only full snapshots
+     */
+    public SnapshotScheduler(InMemoryConfigService service, SnapshotStore store,
+                             long msInterval, long changesThreshold, long msCheckInterval, int maxDeltas) {
+        if (msCheckInterval <= 0) {
+            throw new IllegalArgumentException("Check interval of snapshots should be greater than 0");
+        }
+        this.service = service;
+        this.store = store;
+        this.msInterval = msInterval;
+        this.changesThreshold = changesThreshold;
+        this.msCheckInterval = msCheckInterval;
+        this.maxDeltas = maxDeltas;
+    }
+
+    /**
+     * Start checking the conditions in the background, it does nothing if both of them are disabled.
+     */
+    public synchronized void start() {
+        if (executor != null || (msInterval <= 0 && changesThreshold <= 0)) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "snapshot-scheduler");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (isSnapshotDue()) {
+                        snapshot();
+                    }
+                } catch (IOException | SerializationException | RuntimeException ex) {
+                    LOG.error("Failed to save snapshot in the background", ex);
+                }
+            }
+        }, msCheckInterval, msCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop checking the conditions, a running snapshot is completed before it returns.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        executor = null;
+    }
+
+    /**
+     * Save the snapshot and remove the operation log preceding it.
+     */
+    public void snapshot() throws IOException, SerializationException {
+        synchronized (snapshotLock) {
+            final long changes = service.getChangesSinceDump();
+            final SnapshotEvent event = new SnapshotEvent();
+            event.begin();
+            final long start = System.nanoTime();
+            final NodeDelta delta = maxDeltas > 0 && store.hasBase() ? service.getDelta() : null;
+            if (delta != null) {
+                store.saveDelta(delta);
+            } else {
+                NodeDump dump = service.getDump();
+                store.save(dump);
+            }
+            service.compactLog();
+            lastSnapshotNanos = System.nanoTime();
+            commit(event, delta != null ? "saveDelta" : "save", changes);
+            service.getMetrics().getSnapshots().record(lastSnapshotNanos - start);
+            LOG.info("Saved {} with {} new changes in {} ms", delta != null ? "snapshot delta" : "full snapshot", changes,
+                    TimeUnit.NANOSECONDS.toMillis(lastSnapshotNanos - start));
+            if (delta != null && store.getDeltasCount() >= maxDeltas) {
+                final SnapshotEvent compactEvent = new SnapshotEvent();
+                compactEvent.begin();
+                store.compact();
+                commit(compactEvent, "compact", 0);
+                LOG.info("Merged deltas into a full snapshot in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSnapshotNanos));
+            }
+        }
+    }
+
+    /**
+     * Replace the tree of the service with the last snapshot, following deltas are relative to it.
+     * @return false if there is no snapshot
+     */
+    public boolean restore() throws IOException, SerializationException {
+        synchronized (snapshotLock) {
+            final SnapshotEvent event = new SnapshotEvent();
+            event.begin();
+            final DumpSource snapshot = store.load();
+            if (snapshot == null) {
+                return false;
+            }
+            service.restore(snapshot);
+            commit(event, "restore", 0);
+            return true;
+        }
+    }
+
+    private static void commit(SnapshotEvent event, String operation, long changes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.setSnapshot(operation, changes);
+            event.commit();
+        }
+    }
+
+    private boolean isSnapshotDue() {
+        final long changes = service.getChangesSinceDump();
+        if (changes <= 0) {
+            return false;
+        }
+        if (changesThreshold > 0 && changes >= changesThreshold) {
+            return true;
+        }
+        return msInterval > 0 && System.nanoTime() - lastSnapshotNanos >= TimeUnit.MILLISECONDS.toNanos(msInterval);
+    }
+}
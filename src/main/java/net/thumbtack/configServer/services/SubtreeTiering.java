@@ -0,0 +1,195 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.domain.IndexedNodeTree;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.SubtreeUsage;
+import net.thumbtack.configServer.serialization.BinaryNodeDumpSerializer;
+import net.thumbtack.configServer.serialization.SerializationException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SubtreeTiering keeps the count of nodes in memory within the budget by unloading cold subtrees to disk.
+ * Subtrees rooted at the given depth are checked in the background like pages by the CLOCK algorithm:
+ * a subtree accessed since the previous check gets another round, the hand unloads the rest of them
+ * until the budget is met. An unloaded subtree is written to a segment file in the binary format
+ * and read back when a request reaches it. The file is mapped and removed at once, so the data stays
+ * readable through the mapping and its space is freed when the subtree is read back or removed.
+ * Only subtrees saved by the last snapshot are unloaded, see {@link InMemoryConfigService#unload}.
+ */
+public class SubtreeTiering {
+    private static final XLogger LOG = XLoggerFactory.getXLogger(SubtreeTiering.class);
+    private static final String SEGMENT_PREFIX = "subtree-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final InMemoryConfigService service;
+    private final IndexedNodeTree tree;
+    private final File directory;
+    private final int depth;
+    private final long maxNodes;
+    private final long msCheckInterval;
+    private final BinaryNodeDumpSerializer serializer = new BinaryNodeDumpSerializer();
+    private final Object checkLock = new Object();
+    private ScheduledExecutorService executor = null;
+    private long lastSegment = 0;
+    private int hand = 0;
+
+    /**
+     * @param tree tree of the service
+     * @param directory directory of the segment files, it is cleaned on start
+     * @param depth depth of the unloaded subtrees, 1 for the top-level ones
+     * @param maxNodes count of nodes of the subtrees kept in memory, nodes above the depth are not counted
+     * @param msCheckInterval period of checking the count of nodes
+     */
+    public SubtreeTiering(InMemoryConfigService service, IndexedNodeTree tree, File directory,
+                          int depth, long maxNodes, long msCheckInterval) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Depth of unloaded subtrees should be greater than 0");
+        }
+        if (msCheckInterval <= 0) {
+            throw new IllegalArgumentException("Check interval of tiering should be greater than 0");
+        }
+        this.service = service;
+        this.tree = tree;
+        this.directory = directory;
+        this.depth = depth;
+        this.maxNodes = maxNodes;
+        this.msCheckInterval = msCheckInterval;
+    }
+
+    /**
+     * Start checking the count of nodes in the background.
+     */
+    public synchronized void start() throws IOException {
+        if (executor != null) {
+            return;
+        }
+        cleanDirectory();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "subtree-tiering");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (IOException | SerializationException | RuntimeException ex) {
+                    LOG.error("Failed to unload subtrees in the background", ex);
+                }
+            }
+        }, msCheckInterval, msCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop checking the count of nodes, a running check is completed before it returns.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        executor = null;
+    }
+
+    /**
+     * Unload subtrees which were not accessed since the previous check until the count of nodes fits into the budget.
+     * @return count of unloaded subtrees
+     */
+    public int check() throws IOException, SerializationException {
+        synchronized (checkLock) {
+            final List<SubtreeUsage> usages = tree.sweep(depth);
+            long nodes = 0;
+            for (SubtreeUsage usage : usages) {
+                nodes += usage.getNodes();
+            }
+            if (nodes <= maxNodes) {
+                return 0;
+            }
+
+            final long start = System.nanoTime();
+            final long loadedNodes = nodes;
+            int unloaded = 0;
+            int checked = 0;
+            while (nodes > maxNodes && checked < usages.size()) {
+                final SubtreeUsage usage = usages.get((hand + checked) % usages.size());
+                ++checked;
+                if (!usage.isReferenced() && unload(usage)) {
+                    nodes -= usage.getNodes();
+                    ++unloaded;
+                }
+            }
+            hand = (hand + checked) % usages.size();
+            LOG.info("Unloaded {} subtrees with {} of {} nodes in {} ms", unloaded, loadedNodes - nodes, loadedNodes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return unloaded;
+        }
+    }
+
+    /**
+     * The subtree is written without holding the service, it isn't unloaded if it was changed meanwhile.
+     */
+    private boolean unload(SubtreeUsage usage) throws IOException, SerializationException {
+        final long version = tree.getVersion(usage.getPath(), true);
+        final NodeDump dump;
+        try {
+            dump = tree.getSubtree(usage.getPath(), -1);
+        } catch (UnknownKeyException ex) {
+            // the subtree was removed concurrently
+            return false;
+        }
+        final File file = new File(directory, SEGMENT_PREFIX + (++lastSegment) + ".bin");
+        final File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        try {
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary))) {
+                serializer.serialize(dump, output);
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return service.unload(usage.getPath(), version, serializer.open(file));
+        } finally {
+            remove(temporary);
+            remove(file);
+        }
+    }
+
+    private static void remove(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to remove segment file {}", file);
+        }
+    }
+
+    private void cleanDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Failed to create directory %s", directory));
+        }
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException(String.format("Failed to list directory %s", directory));
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_PREFIX) && !file.delete()) {
+                throw new IOException(String.format("Failed to remove segment file %s", file));
+            }
+        }
+    }
+}
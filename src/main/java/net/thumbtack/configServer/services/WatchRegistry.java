@@ -0,0 +1,244 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.domain.ChangeListener;
+import net.thumbtack.configServer.domain.ConfigTree;
+import net.thumbtack.configServer.domain.NodePath;
+import net.thumbtack.configServer.domain.Scheduler;
+import net.thumbtack.configServer.thrift.InvalidTimeoutException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import net.thumbtack.configServer.thrift.WatchEvent;
+import net.thumbtack.configServer.thrift.WatchEventType;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WatchRegistry keeps watches waiting for changes of the tree and completes them when the tree reports a change.
+ * A watch is completed once: by the first matching change, immediately if the watcher is behind the tree,
+ * or by the timeout with an event of NONE type. Waiting watches hold no threads, only their handlers.
+ */
+public class WatchRegistry implements ChangeListener {
+    private final ConfigTree tree;
+    private final long msTimeout;
+    private final Scheduler<Watch> timeouts = new Scheduler<>();
+    private final NavigableMap<NodePath, List<Watch>> exactWatches = new TreeMap<>();
+    private final NavigableMap<NodePath, List<Watch>> recursiveWatches = new TreeMap<>();
+    private volatile int watchesCount = 0;
+
+    /**
+     * @param tree watched tree, the registry should be added to its change listeners
+     * @param msTimeout time after which a watch without changes is completed with an event of NONE type
+     */
+    public WatchRegistry(ConfigTree tree, long msTimeout) {
+        if (msTimeout <= 0) {
+            throw new IllegalArgumentException("Timeout of watches should be greater than 0");
+        }
+        this.tree = tree;
+        this.msTimeout = msTimeout;
+    }
+
+    /**
+     * Wait for a change of the node or its subtree newer than the given version.
+     * If the tree has already changed after that version, the handler is completed with the current state
+     * of the node before this method returns. The same is done if the version is newer than the tree,
+     * e.g. it was got from the server before its restart.
+     * @param path path to the watched node, it may not exist
+     * @param recursive true to watch the subtree of the node
+     * @param sinceVersion version of the last seen change
+     * @param handler handler to complete with the change
+     */
+    public void watch(NodePath path, boolean recursive, long sinceVersion, AsyncMethodCallback<WatchEvent> handler) {
+        Watch watch = new Watch(path, recursive, sinceVersion, handler);
+        synchronized (this) {
+            add(recursive ? recursiveWatches : exactWatches, path, watch);
+        }
+        try {
+            timeouts.schedule(watch, new WatchTimeoutTask(watch), msTimeout);
+        } catch (InvalidTimeoutException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        // the watch is registered before the check, so a change made after the check is reported by the tree
+        if (tree.getVersion(path, recursive) > sinceVersion || sinceVersion > tree.getVersion()) {
+            completeWithCurrentState(watch);
+        }
+    }
+
+    /**
+     * @return count of waiting watches
+     */
+    public int size() {
+        return watchesCount;
+    }
+
+    @Override
+    public void nodeChanged(NodePath path, String value, long version) {
+        if (watchesCount == 0) {
+            return;
+        }
+        final List<Watch> fired = new ArrayList<>();
+        synchronized (this) {
+            take(exactWatches, path, fired);
+            for (int size = 0; size <= path.size(); ++size) {
+                take(recursiveWatches, path.getPrefix(size), fired);
+            }
+        }
+        for (Watch watch : fired) {
+            complete(watch, new WatchEvent(WatchEventType.CHANGED, path.toString(), version).setValue(value));
+        }
+    }
+
+    /**
+     * Watched paths are ordered, so watches of the descendants of the removed node are found as a range
+     * following its path, without a scan over all watched paths.
+     */
+    @Override
+    public void nodeRemoved(NodePath path, long version) {
+        if (watchesCount == 0) {
+            return;
+        }
+        final List<Watch> fired = new ArrayList<>();
+        synchronized (this) {
+            for (int size = 0; size < path.size(); ++size) {
+                take(recursiveWatches, path.getPrefix(size), fired);
+            }
+            takeSubtree(exactWatches, path, fired);
+            takeSubtree(recursiveWatches, path, fired);
+        }
+        for (Watch watch : fired) {
+            final NodePath removed = watch.path.startsWith(path) ? watch.path : path;
+            complete(watch, new WatchEvent(WatchEventType.REMOVED, removed.toString(), version));
+        }
+    }
+
+    /**
+     * Every node could be changed by the restore, so all watches are completed with the current state.
+     */
+    @Override
+    public void treeRestored(long version) {
+        if (watchesCount == 0) {
+            return;
+        }
+        final List<Watch> fired = new ArrayList<>();
+        synchronized (this) {
+            takeAll(exactWatches, fired);
+            takeAll(recursiveWatches, fired);
+        }
+        for (Watch watch : fired) {
+            completeWithCurrentState(watch);
+        }
+    }
+
+    /**
+     * The version is read before the value, so the value can only be newer than the reported version
+     * and resuming from it does not miss changes.
+     */
+    private void completeWithCurrentState(Watch watch) {
+        final long version = tree.getVersion(watch.path, watch.recursive);
+        WatchEvent event;
+        try {
+            final String value = tree.getValue(watch.path);
+            event = new WatchEvent(WatchEventType.CHANGED, watch.path.toString(), version).setValue(value);
+        } catch (UnknownKeyException ex) {
+            event = new WatchEvent(WatchEventType.REMOVED, watch.path.toString(), version);
+        }
+        complete(watch, event);
+    }
+
+    private void complete(Watch watch, WatchEvent event) {
+        if (!watch.completed.compareAndSet(false, true)) {
+            return;
+        }
+        timeouts.cancel(watch);
+        synchronized (this) {
+            remove(watch.recursive ? recursiveWatches : exactWatches, watch);
+        }
+        watch.handler.onComplete(event);
+    }
+
+    private void add(Map<NodePath, List<Watch>> watches, NodePath path, Watch watch) {
+        List<Watch> pathWatches = watches.get(path);
+        if (pathWatches == null) {
+            pathWatches = new ArrayList<>(1);
+            watches.put(path, pathWatches);
+        }
+        pathWatches.add(watch);
+        ++watchesCount;
+    }
+
+    private void remove(Map<NodePath, List<Watch>> watches, Watch watch) {
+        List<Watch> pathWatches = watches.get(watch.path);
+        if (pathWatches != null && pathWatches.remove(watch)) {
+            --watchesCount;
+            if (pathWatches.isEmpty()) {
+                watches.remove(watch.path);
+            }
+        }
+    }
+
+    private void take(Map<NodePath, List<Watch>> watches, NodePath path, List<Watch> taken) {
+        List<Watch> pathWatches = watches.remove(path);
+        if (pathWatches != null) {
+            watchesCount -= pathWatches.size();
+            taken.addAll(pathWatches);
+        }
+    }
+
+    private void takeSubtree(NavigableMap<NodePath, List<Watch>> watches, NodePath path, List<Watch> taken) {
+        Iterator<Map.Entry<NodePath, List<Watch>>> iterator = watches.tailMap(path, true).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<NodePath, List<Watch>> entry = iterator.next();
+            if (!entry.getKey().startsWith(path)) {
+                break;
+            }
+            watchesCount -= entry.getValue().size();
+            taken.addAll(entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    private void takeAll(Map<NodePath, List<Watch>> watches, List<Watch> taken) {
+        for (List<Watch> pathWatches : watches.values()) {
+            watchesCount -= pathWatches.size();
+            taken.addAll(pathWatches);
+        }
+        watches.clear();
+    }
+
+    /**
+     * Watch is identified by the instance, so every call has its own one.
+     */
+    private static class Watch {
+        private final NodePath path;
+        private final boolean recursive;
+        private final long sinceVersion;
+        private final AsyncMethodCallback<WatchEvent> handler;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        public Watch(NodePath path, boolean recursive, long sinceVersion, AsyncMethodCallback<WatchEvent> handler) {
+            this.path = path;
+            this.recursive = recursive;
+            this.sinceVersion = sinceVersion;
+            this.handler = handler;
+        }
+    }
+
+    private class WatchTimeoutTask implements Runnable {
+        private Watch watch = null;
+
+        public WatchTimeoutTask(Watch watch) {
+            this.watch = watch;
+        }
+
+        @Override
+        public void run() {
+            complete(watch, new WatchEvent(WatchEventType.NONE, watch.path.toString(), watch.sinceVersion));
+        }
+    }
+}
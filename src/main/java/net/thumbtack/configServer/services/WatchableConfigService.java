@@ -0,0 +1,17 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.thrift.ConfigService;
+import net.thumbtack.configServer.thrift.WatchEvent;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+
+/**
+ * WatchableConfigService registers watches without blocking the calling thread, so non-blocking servers
+ * pass watches through the same decorators as the other calls.
+ */
+public interface WatchableConfigService extends ConfigService.Iface {
+    /**
+     * Registers the watch and returns at once, the handler is completed later by a change of the tree or the timeout.
+     */
+    void watch(String key, boolean recursive, long sinceVersion, AsyncMethodCallback<WatchEvent> resultHandler) throws TException;
+}
@@ -16,6 +16,159 @@ exception InvalidTimeoutException {
 	1: string message
 }
 
+exception UnknownLeaseException {
+	1: string message
+}
+
+/**
+ * A node of subtree. Subtree is represented as a list of its nodes in pre-order,
+ * the depth of the subtree root is 0, the depth of its children is 1 and so on.
+ */
+struct SubtreeEntry {
+	1: i32 depth
+	2: string name
+	3: string value
+}
+
+/**
+ * Type of operation in a batch.
+ */
+enum OpType {
+	CREATE = 1,
+	CREATE_TEMPORARY = 2,
+	REMOVE = 3,
+	EXISTS = 4,
+	GET_VALUE = 5,
+	SET_VALUE = 6,
+	GET_CHILDREN = 7
+}
+
+/**
+ * Operation in a batch. Value is used by CREATE, CREATE_TEMPORARY and SET_VALUE,
+ * msTimeout is used by CREATE_TEMPORARY only.
+ */
+struct Op {
+	1: OpType type
+	2: string key
+	3: optional string value
+	4: optional i64 msTimeout
+}
+
+/**
+ * Code of the error which occurred during the operation in a batch.
+ * The codes correspond to the exceptions thrown by the single operations.
+ */
+enum ErrorCode {
+	DUPLICATE_KEY = 1,
+	UNKNOWN_KEY = 2,
+	INVALID_KEY = 3,
+	INVALID_TIMEOUT = 4,
+	UNKNOWN_OPERATION = 5
+}
+
+/**
+ * Result of operation in a batch. Only the field corresponding to the operation type is set,
+ * error and errorMessage are set if the operation failed.
+ */
+struct OpResult {
+	1: optional string value
+	2: optional bool exists
+	3: optional list<string> children
+	4: optional ErrorCode error
+	5: optional string errorMessage
+}
+
+/**
+ * Type of change reported to a watch. NONE means that nothing changed before the watch timed out.
+ */
+enum WatchEventType {
+	CHANGED = 1,
+	REMOVED = 2,
+	NONE = 3
+}
+
+/**
+ * Change reported to a watch. Key is the key of the changed node, value is set for CHANGED only,
+ * version is the version of the change which should be passed to the next watch to resume from it.
+ * If the watch is behind the tree or the tree was restored, the current state of the watched node is reported.
+ */
+struct WatchEvent {
+	1: WatchEventType type
+	2: string key
+	3: optional string value
+	4: i64 version
+}
+
+/**
+ * Type of change in the change feed.
+ */
+enum ChangeType {
+	CHANGED = 1,
+	REMOVED = 2
+}
+
+/**
+ * Change in the change feed. CHANGED carries the value of the node at the time the change was recorded,
+ * it implies that all ancestors of the node exist. REMOVED means that the node was removed with its subtree.
+ */
+struct Change {
+	1: i64 sequence
+	2: ChangeType type
+	3: string key
+	4: optional string value
+}
+
+/**
+ * Changes following the requested sequence. If resnapshot is set, the requested changes are no longer kept,
+ * changes is empty and the client should read the entire tree again and continue from lastSequence.
+ */
+struct ChangeBatch {
+	1: list<Change> changes
+	2: i64 lastSequence
+	3: bool resnapshot
+}
+
+/**
+ * Distribution of durations in microseconds. Percentiles are upper bounds of histogram buckets,
+ * so they exceed the exact values by at most 1/16 of them.
+ */
+struct LatencyStats {
+	1: i64 count
+	2: i64 meanMicros
+	3: i64 p50Micros
+	4: i64 p90Micros
+	5: i64 p99Micros
+	6: i64 p999Micros
+	7: i64 maxMicros
+}
+
+/**
+ * Calls of a service method since the server start. Failed calls are counted in latency too,
+ * errorsByType maps simple names of the thrown exceptions to their counts.
+ */
+struct OperationStats {
+	1: string name
+	2: LatencyStats latency
+	3: i64 errors
+	4: map<string, i64> errorsByType
+}
+
+/**
+ * State and performance of the server. Nodes and approximateBytes are counted by a walk over the tree,
+ * unloaded subtrees are counted as single nodes. Timers are temporary nodes and leases waiting for expiry,
+ * expiryBatches are durations of the expiry of all timers due at the same tick.
+ */
+struct ServerStats {
+	1: i64 uptimeMs
+	2: list<OperationStats> operations
+	3: i64 nodes
+	4: i64 approximateBytes
+	5: i64 pendingTimers
+	6: i64 expiredTimers
+	7: LatencyStats expiryBatches
+	8: LatencyStats snapshots
+}
+
 service ConfigService {
 
 	/**
@@ -50,6 +203,32 @@ service ConfigService {
 	void createTemporaryWithValue(1: string key, 2: string value, 3: i64 msTimeout) throws (1: DuplicateKeyException ex,
 2: InvalidKeyException ex2, 3: InvalidTimeoutException ex3)
 
+	/**
+	 * Grant a lease. Nodes created with the lease are deleted all together when the lease expires.
+	 * @param msTtl timeout after which the lease expires if it is not kept alive
+	 * @return id of the granted lease
+	 * @throws InvalidTimeoutException if the timeout is not positive
+	 */
+	i64 grantLease(1: i64 msTtl) throws (1: InvalidTimeoutException ex)
+
+	/**
+	 * Create a node with specific key and value which will be deleted when the given lease expires.
+	 * @param key node key
+	 * @param value intial value to set
+	 * @param leaseId id of the lease to bind the node to
+	 * @throws DuplicateKeyException if node with specified key already exists
+	 * @throws InvalidKeyException if specified key is empty or contains restricted chars
+	 * @throws UnknownLeaseException if the lease doesn't exist or has already expired
+	 */
+	void createWithLease(1: string key, 2: string value, 3: i64 leaseId) throws (1: DuplicateKeyException ex,
+2: InvalidKeyException ex2, 3: UnknownLeaseException ex3)
+
+	/**
+	 * Prolong the lease by its initial timeout. Unknown and expired leases are ignored.
+	 * @param leaseId id of the lease
+	 */
+	oneway void keepAlive(1: i64 leaseId)
+
 	/**
 	 * Remove node by key
 	 * @param key key of node to remove
@@ -93,4 +272,82 @@ service ConfigService {
 	 */
 	list<string> getChildren(1: string key) throws (1: UnknownKeyException ex1,
 2: InvalidKeyException ex2)
+
+	/**
+	 * Get a page of children names for specific node.
+	 * Pages are read one after another passing the last name of the previous page as afterName.
+	 * @param key parent node key
+	 * @param afterName name after which the page starts, empty string to get the first page
+	 * @param limit maximal count of names in the page
+	 * @throws UnknownKeyException if node with specified key doesn't exist
+	 * @throws InvalidKeyException if specified key is empty or contains restricted chars
+	 * @return sorted list of at most limit children names following afterName, empty list after the last page
+	 */
+	list<string> getChildrenPage(1: string key, 2: string afterName, 3: i32 limit) throws (1: UnknownKeyException ex1,
+2: InvalidKeyException ex2)
+
+	/**
+	 * Get names and values of the node and its descendants in a single call
+	 * @param key key of the subtree root
+	 * @param maxDepth maximal depth of returned descendants, 0 to get only the node itself, negative to get all of them
+	 * @throws UnknownKeyException if node with specified key doesn't exist
+	 * @throws InvalidKeyException if specified key is empty or contains restricted chars
+	 * @return nodes of the subtree in pre-order, the first one is the subtree root
+	 */
+	list<SubtreeEntry> getSubtree(1: string key, 2: i32 maxDepth) throws (1: UnknownKeyException ex1,
+2: InvalidKeyException ex2)
+
+	/**
+	 * Remove node by key with all its descendants and return them
+	 * @param key key of node to remove
+	 * @throws UnknownKeyException if node with specified key doesn't exist
+	 * @throws InvalidKeyException if specified key is empty or contains restricted chars
+	 * @return removed nodes in pre-order, the first one is the removed node
+	 */
+	list<SubtreeEntry> removeRecursive(1: string key) throws (1: UnknownKeyException ex1, 2: InvalidKeyException ex2)
+
+	/**
+	 * Get values of many nodes in a single call
+	 * @param keys keys of nodes
+	 * @return map from key to the stored value, keys of not existing nodes and invalid keys are absent
+	 */
+	map<string, string> getValues(1: list<string> keys)
+
+	/**
+	 * Execute many operations in a single call.
+	 * Operations are executed one by one in the given order, the batch is not atomic:
+	 * a failed operation does not prevent the following ones from execution.
+	 * @param ops operations to execute
+	 * @return results in the order of the given operations
+	 */
+	list<OpResult> multi(1: list<Op> ops)
+
+	/**
+	 * Wait for a change of the node or, if recursive is set, of any node in its subtree.
+	 * Every change gets the next version, so passing the version of the last seen event
+	 * resumes watching without missing changes which occurred in between.
+	 * @param key key of node to watch, it may not exist yet
+	 * @param recursive true to watch the subtree of the node
+	 * @param sinceVersion version of the last seen change, 0 to take the current state
+	 * @throws InvalidKeyException if specified key is empty or contains restricted chars
+	 * @return the change newer than sinceVersion, or an event of NONE type if nothing changed before the timeout
+	 */
+	WatchEvent watch(1: string key, 2: bool recursive, 3: i64 sinceVersion) throws (1: InvalidKeyException ex)
+
+	/**
+	 * Get changes of the tree following the given sequence number, so a local copy of the tree can be kept
+	 * up to date at a cost proportional to the count of changes. Every change gets the next sequence number,
+	 * applying the changes in their order brings the copy to the state of the tree.
+	 * @param sequence sequence number of the last applied change, 0 to start from the empty tree
+	 * @param maxEvents maximal count of returned changes
+	 * @return changes in the order of sequence numbers and the sequence number to continue from
+	 */
+	ChangeBatch getChangesSince(1: i64 sequence, 2: i32 maxEvents)
+
+	/**
+	 * Get latency and error counts of every method, size of the tree, timers and durations of snapshots.
+	 * The tree is walked to count its nodes, so the call takes time proportional to the size of the tree.
+	 * @return statistics collected since the server start
+	 */
+	ServerStats getStats()
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package net.thumbtack.configServer;
+
+import net.thumbtack.configServer.domain.Node;
+import net.thumbtack.configServer.domain.NodePath;
+
+/**
+ * This is not a test - it measures how many heap bytes the tree takes per node.
+ * Run it with a fixed heap, e.g. java -Xmx4g -cp ... NodeMemoryBenchmark 100000 1000000
+ * Keys have the shape /application/environment/service/parameter, so most of nodes are leaves.
+ */
+public class NodeMemoryBenchmark {
+    private static final int PARAMETERS_PER_SERVICE = 4;
+    private static final int SERVICES_PER_ENVIRONMENT = 10;
+    private static final int ENVIRONMENTS_PER_APPLICATION = 5;
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length == 0 ? new String[] {"100000", "1000000"} : args;
+        for (String count : counts) {
+            measure(Integer.parseInt(count));
+        }
+    }
+
+    private static void measure(int keysCount) throws Exception {
+        long before = usedMemory();
+        Node root = new Node("");
+        for (int i = 0; i < keysCount; ++i) {
+            NodePath path = new NodePath(keyFor(i));
+            root.insert(path.getPathExceptLastLevel(), new Node(path.getLastLevel(), "value"));
+        }
+        long after = usedMemory();
+        int nodesCount = countNodes(root);
+
+        System.out.printf("keys: %d, nodes: %d, bytes per node: %.1f%n",
+                keysCount, nodesCount, (double) (after - before) / nodesCount);
+    }
+
+    private static String keyFor(int i) {
+        int service = i / PARAMETERS_PER_SERVICE;
+        int environment = service / SERVICES_PER_ENVIRONMENT;
+        int application = environment / ENVIRONMENTS_PER_APPLICATION;
+
+        return String.format("/application%d/environment%d/service%d/parameter%d",
+                application, environment % ENVIRONMENTS_PER_APPLICATION, service % SERVICES_PER_ENVIRONMENT, i % PARAMETERS_PER_SERVICE);
+    }
+
+    private static int countNodes(Node node) throws Exception {
+        int count = 1;
+        for (String name : node.getChildrenNames()) {
+            count += countNodes(node.findNode(new NodePath(name)));
+        }
+        return count;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
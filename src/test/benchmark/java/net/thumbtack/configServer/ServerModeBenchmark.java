@@ -0,0 +1,126 @@
+package net.thumbtack.configServer;
+
+import net.thumbtack.configServer.server.ConsoleServer;
+import net.thumbtack.configServer.services.InMemoryConfigService;
+import net.thumbtack.configServer.thrift.ConfigService;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This is not a test - it compares server modes under many concurrent clients.
+ * Every client opens its own connection and sends the same count of getValue requests.
+ * Clients run on virtual threads, so the client side itself does not need an OS thread per connection.
+ * Run it with a large limit of open files, e.g. ulimit -n 30000; java -cp ... ServerModeBenchmark threadPool virtual
+ */
+public class ServerModeBenchmark {
+    private static final int[] CLIENTS_COUNTS = {100, 1000, 10000};
+    private static final int REQUESTS_PER_CLIENT = 100;
+    private static final int SOCKET_TIMEOUT_MS = 120000;
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = args.length == 0 ? new String[] {"threadPool", "virtual"} : args;
+        for (String mode : modes) {
+            for (int clientsCount : CLIENTS_COUNTS) {
+                measure(mode, clientsCount);
+            }
+        }
+    }
+
+    private static void measure(String mode, int clientsCount) throws Exception {
+        final int port = findFreePort();
+        Properties config = new Properties();
+        config.setProperty("server.port", String.valueOf(port));
+        config.setProperty("server.mode", mode);
+        config.setProperty("server.minThreadsCount", "8");
+        config.setProperty("server.maxThreadsCount", "32");
+
+        InMemoryConfigService service = new InMemoryConfigService();
+        service.createWithValue("benchmark/key", "value");
+        final TServer server = ConsoleServer.configureServer(config, service);
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.serve();
+            }
+        });
+        serverThread.start();
+        while (!server.isServing()) {
+            Thread.sleep(10);
+        }
+
+        final AtomicLongArray latencies = new AtomicLongArray(clientsCount * REQUESTS_PER_CLIENT);
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failedClients = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(clientsCount);
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        final long start = System.nanoTime();
+        for (int i = 0; i < clientsCount; ++i) {
+            clients.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runClient(port, latencies, completed);
+                    } catch (Exception e) {
+                        failedClients.incrementAndGet();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        finished.await();
+        final long elapsed = System.nanoTime() - start;
+        clients.shutdown();
+        server.stop();
+        serverThread.join(TimeUnit.SECONDS.toMillis(10));
+
+        long[] sorted = new long[completed.get()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.printf("mode: %s, clients: %d, requests/s: %.0f, p50: %.2f ms, p99: %.2f ms, failed clients: %d%n",
+                mode, clientsCount, completed.get() / (elapsed / 1e9),
+                percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, failedClients.get());
+    }
+
+    private static void runClient(int port, AtomicLongArray latencies, AtomicInteger completed) throws Exception {
+        TTransport transport = new TSocket("localhost", port, SOCKET_TIMEOUT_MS);
+        try {
+            transport.open();
+            ConfigService.Client client = new ConfigService.Client(new TBinaryProtocol(transport));
+            for (int i = 0; i < REQUESTS_PER_CLIENT; ++i) {
+                final long requestStart = System.nanoTime();
+                client.getValue("benchmark/key");
+                latencies.set(completed.getAndIncrement(), System.nanoTime() - requestStart);
+            }
+        } finally {
+            transport.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)];
+    }
+
+    private static int findFreePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package net.thumbtack.configServer;
+
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.serialization.BlockCompression;
+import net.thumbtack.configServer.serialization.DumpFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is not a test - it compares size, write and load time of the dump formats and of compressed JSON.
+ * Run it with a large heap, e.g. java -Xmx8g -cp ... SnapshotFormatBenchmark 1000000 10000000
+ * Keys have the shape /application/environment/service/parameter like in {@link NodeMemoryBenchmark}.
+ */
+public class SnapshotFormatBenchmark {
+    private static final int PARAMETERS_PER_SERVICE = 4;
+    private static final int SERVICES_PER_ENVIRONMENT = 10;
+    private static final int ENVIRONMENTS_PER_APPLICATION = 5;
+    private static final String ENCODING = "UTF-8";
+
+    public static void main(String[] args) throws Exception {
+        String[] counts = args.length == 0 ? new String[] {"1000000", "10000000"} : args;
+        for (String count : counts) {
+            NodeDump dump = createDump(Integer.parseInt(count));
+            for (DumpFormat format : DumpFormat.values()) {
+                measure(format, null, dump, count);
+            }
+            measure(DumpFormat.JSON, new BlockCompression(BlockCompression.DEFAULT_BLOCK_BYTES, 1,
+                    Runtime.getRuntime().availableProcessors()), dump, count);
+        }
+    }
+
+    /**
+     * @param compression compression of the file, null to write it as it is
+     */
+    private static void measure(DumpFormat format, BlockCompression compression, NodeDump dump, String keysCount)
+            throws Exception {
+        File file = File.createTempFile("dump", "." + format.name().toLowerCase());
+        file.deleteOnExit();
+        try {
+            long start = System.nanoTime();
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+                format.createSerializer(ENCODING, compression).serialize(dump, output);
+            }
+            final long writeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            format.createDeserializer(ENCODING, compression).deserialize(file);
+            final long loadMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            System.out.printf("keys: %s, format: %s%s, bytes: %d, write: %d ms, load: %d ms%n",
+                    keysCount, format, compression != null ? " deflate" : "", file.length(), writeMs, loadMs);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static NodeDump createDump(int keysCount) {
+        NodeDump root = new NodeDump("", "");
+        NodeDump application = null;
+        NodeDump environment = null;
+        NodeDump service = null;
+        for (int i = 0; i < keysCount; ++i) {
+            if (i % PARAMETERS_PER_SERVICE == 0) {
+                int serviceIndex = i / PARAMETERS_PER_SERVICE;
+                int environmentIndex = serviceIndex / SERVICES_PER_ENVIRONMENT;
+                if (serviceIndex % SERVICES_PER_ENVIRONMENT == 0) {
+                    if (environmentIndex % ENVIRONMENTS_PER_APPLICATION == 0) {
+                        application = addChild(root, "application" + environmentIndex / ENVIRONMENTS_PER_APPLICATION);
+                    }
+                    environment = addChild(application, "environment" + environmentIndex % ENVIRONMENTS_PER_APPLICATION);
+                }
+                service = addChild(environment, "service" + serviceIndex % SERVICES_PER_ENVIRONMENT);
+            }
+            service.getChildren().add(new NodeDump("parameter" + i % PARAMETERS_PER_SERVICE, "value"));
+        }
+        return root;
+    }
+
+    private static NodeDump addChild(NodeDump parent, String name) {
+        NodeDump child = new NodeDump(name, "");
+        parent.getChildren().add(child);
+        return child;
+    }
+}
@@ -0,0 +1,45 @@
+package net.thumbtack.configServer;
+
+import net.thumbtack.configServer.services.FlightRecorderConfigService;
+import net.thumbtack.configServer.services.InMemoryConfigService;
+import net.thumbtack.configServer.services.LoggingConfigService;
+import net.thumbtack.configServer.thrift.ConfigService;
+
+/**
+ * This is not a test - it measures the overhead of tracing and of flight recorder events per getValue call
+ * without the network, events are measured while no recording enables them.
+ * Traced lines go to the console through the async appender of logback.xml, results are printed to stderr,
+ * so run it with stdout redirected, e.g. java -cp ... TracingBenchmark 1000000 > /dev/null
+ */
+public class TracingBenchmark {
+    private static final int ROUNDS = 5;
+    private static final String KEY = "application/environment/service/parameter";
+
+    public static void main(String[] args) throws Exception {
+        final int callsCount = args.length == 0 ? 1000000 : Integer.parseInt(args[0]);
+        InMemoryConfigService service = new InMemoryConfigService();
+        service.createWithValue(KEY, "value");
+
+        measure("no decorator", service, callsCount);
+        measure("tracing off", new LoggingConfigService(service, 0, LoggingConfigService.DEFAULT_MAX_VALUE_LENGTH), callsCount);
+        measure("sampled 1%", new LoggingConfigService(service, 0.01, LoggingConfigService.DEFAULT_MAX_VALUE_LENGTH), callsCount);
+        measure("full", new LoggingConfigService(service, 1, LoggingConfigService.DEFAULT_MAX_VALUE_LENGTH), callsCount);
+        measure("events off", new FlightRecorderConfigService(service), callsCount);
+    }
+
+    /**
+     * The first rounds warm up the code, the best round is reported.
+     */
+    private static void measure(String name, ConfigService.Iface service, int callsCount) throws Exception {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; ++round) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < callsCount; ++i) {
+                service.getValue(KEY);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+
+        System.err.printf("%-13s %8.1f ns per call%n", name, (double) bestNanos / callsCount);
+    }
+}
@@ -7,6 +7,7 @@ import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -40,6 +41,9 @@ public class ConfigurationServerTest {
         final XMLConfiguration config = new XMLConfiguration("test_client_config.xml");
 
         transport = new TSocket(config.getString("client.url"), config.getInt("client.port"));
+        if (config.getBoolean("client.framed", false)) {
+            transport = new TFramedTransport(transport);
+        }
         TBinaryProtocol protocol = new TBinaryProtocol(transport);
         client = new ConfigService.Client(protocol);
 
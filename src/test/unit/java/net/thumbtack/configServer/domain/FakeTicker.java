@@ -0,0 +1,21 @@
+package net.thumbtack.configServer.domain;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FakeTicker is a ticker which is moved only by tests.
+ */
+public class FakeTicker extends Ticker {
+    private volatile long nanos = 0;
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    public void advance(long duration, TimeUnit unit) {
+        nanos += unit.toNanos(duration);
+    }
+}
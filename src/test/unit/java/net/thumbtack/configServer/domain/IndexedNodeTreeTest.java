@@ -0,0 +1,376 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class IndexedNodeTreeTest {
+    private IndexedNodeTree tree;
+
+    @Before
+    public void setUp() {
+        tree = new IndexedNodeTree(new Node("", new Node("parent", new Node("child", "value"))));
+    }
+
+    @Test
+    public void whenTreeIsGivenToConstructor_FindNode_ShouldReturnItsNodes() throws InvalidKeyException, UnknownKeyException {
+        Node child = tree.findNode(new NodePath("parent/child"));
+
+        assertThat(child.getValue(), is("value"));
+    }
+
+    @Test
+    public void whenPathIsEmpty_FindNode_ShouldReturnTheRoot() throws InvalidKeyException, UnknownKeyException {
+        Node found = tree.findNode(new NodePath(""));
+
+        assertThat(found, is(tree.getRoot()));
+    }
+
+    @Test
+    public void whenNodeIsInsertedWithParents_FindNode_ShouldReturnAllOfThem() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        Node inserted = new Node("c", "inserted");
+
+        tree.insert(new NodePath("parent/a/b"), inserted);
+
+        assertThat(tree.findNode(new NodePath("parent/a/b/c")), is(inserted));
+        assertThat(tree.exists(new NodePath("parent/a")), is(true));
+        assertThat(tree.exists(new NodePath("/parent/a/b")), is(true));
+    }
+
+    @Test
+    public void whenSubtreeIsRemoved_Exists_ShouldReturnFalseForAllItsNodes() throws InvalidKeyException, UnknownKeyException {
+        tree.findNode(new NodePath("parent/child"));
+
+        tree.remove(new NodePath("parent"));
+
+        assertThat(tree.exists(new NodePath("parent")), is(false));
+        assertThat(tree.exists(new NodePath("parent/child")), is(false));
+    }
+
+    @Test(expected = UnknownKeyException.class)
+    public void whenSubtreeIsRemoved_FindNode_ShouldThrowUnknownKeyExceptionForItsChildren() throws InvalidKeyException, UnknownKeyException {
+        tree.remove(new NodePath("parent"));
+
+        tree.findNode(new NodePath("parent/child"));
+    }
+
+    @Test
+    public void whenRemovedNodeIsCreatedAgain_FindNode_ShouldReturnTheNewOne() throws InvalidKeyException, UnknownKeyException, DuplicateKeyException {
+        tree.remove(new NodePath("parent/child"));
+        Node created = new Node("child", "new value");
+
+        tree.insert(new NodePath("parent"), created);
+
+        assertThat(tree.findNode(new NodePath("parent/child")), is(created));
+    }
+
+    @Test
+    public void whenTreeIsRestored_OnlyNodesFromDumpShouldExist() throws InvalidKeyException, UnknownKeyException {
+        tree.restore(new NodeDump("", "", new NodeDump("restored", "value", new NodeDump("child", "restored value"))));
+
+        assertThat(tree.exists(new NodePath("parent/child")), is(false));
+        assertThat(tree.findNode(new NodePath("restored/child")).getValue(), is("restored value"));
+    }
+
+    @Test
+    public void whenNodeIsChanged_GetVersion_ShouldReturnNewVersionForNodeAndSubtreesOfItsAncestors() throws InvalidKeyException, UnknownKeyException {
+        tree.setValue(new NodePath("parent/child"), "new value");
+
+        final long version = tree.getVersion();
+        assertThat(version, is(1L));
+        assertThat(tree.getVersion(new NodePath("parent/child"), false), is(version));
+        assertThat(tree.getVersion(new NodePath("parent"), true), is(version));
+        assertThat(tree.getVersion(new NodePath("parent"), false), is(0L));
+    }
+
+    @Test
+    public void whenNodeIsRemoved_GetVersion_ShouldReturnVersionOfTheRemovalForIt() throws InvalidKeyException, UnknownKeyException {
+        tree.remove(new NodePath("parent/child"));
+
+        assertThat(tree.getVersion(new NodePath("parent/child"), false), is(tree.getVersion()));
+        assertThat(tree.getVersion(new NodePath("parent/child/grandchild"), true), is(tree.getVersion()));
+    }
+
+    @Test
+    public void whenTreeIsChanged_ChangeListener_ShouldBeNotifiedAboutEveryChange() throws InvalidKeyException, UnknownKeyException, DuplicateKeyException {
+        List<String> events = new ArrayList<>();
+        tree.addChangeListener(recordingListener(events));
+
+        tree.create(new NodePath("a/b"), "created");
+        tree.setValue(new NodePath("parent/child"), "changed");
+        tree.remove(new NodePath("a"));
+        tree.restore(new NodeDump("", ""));
+
+        assertThat(events, contains("changed a= 1", "changed a/b=created 1", "changed parent/child=changed 2",
+                "removed a 3", "restored 4"));
+    }
+
+    private static ChangeListener recordingListener(final List<String> events) {
+        return new ChangeListener() {
+            @Override
+            public void nodeChanged(NodePath path, String value, long version) {
+                events.add(String.format("changed %s=%s %d", path, value, version));
+            }
+
+            @Override
+            public void nodeRemoved(NodePath path, long version) {
+                events.add(String.format("removed %s %d", path, version));
+            }
+
+            @Override
+            public void treeRestored(long version) {
+                events.add(String.format("restored %d", version));
+            }
+        };
+    }
+
+    @Test
+    public void whenSubtreesAreChangedAfterVersion_CreateDelta_ShouldContainOnlyThem() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/x"), "1");
+        tree.create(new NodePath("b/y"), "2");
+        final long version = tree.getVersion();
+
+        tree.setValue(new NodePath("b/y"), "3");
+
+        NodeDelta delta = tree.createDelta(version);
+        assertThat(delta.isChanged(), is(true));
+        assertThat(findChild(delta, "a").isChanged(), is(false));
+        assertThat(findChild(delta, "b").isChanged(), is(true));
+        assertThat(tree.createDelta(tree.getVersion()).isChanged(), is(false));
+    }
+
+    @Test
+    public void whenDeltaIsAppliedToBaseDump_Dump_ShouldMatchTheTree() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/x"), "1");
+        tree.create(new NodePath("b/y"), "2");
+        tree.create(new NodePath("d/z"), "5");
+        // the dump is lazy, so the base is copied before the changes
+        final NodeDump base = new Node(tree.createDump()).createDump();
+        final long version = tree.getVersion();
+
+        tree.setValue(new NodePath("b/y"), "3");
+        tree.create(new NodePath("c"), "4");
+        tree.remove(new NodePath("d/z"));
+
+        ConfigTree restored = new IndexedNodeTree(new Node(""));
+        restored.restore(tree.createDelta(version).applyTo(base));
+        assertThat(restored.getValue(new NodePath("a/x")), is("1"));
+        assertThat(restored.getValue(new NodePath("b/y")), is("3"));
+        assertThat(restored.getValue(new NodePath("c")), is("4"));
+        assertThat(restored.exists(new NodePath("d/z")), is(false));
+        assertThat(restored.exists(new NodePath("d")), is(true));
+    }
+
+    @Test
+    public void whenSourceFailsWhileTreeIsRestored_Tree_ShouldNotChange() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a"), "1");
+        final long version = tree.getVersion();
+
+        try {
+            tree.restore(new DumpSource() {
+                @Override
+                public void readTo(DumpHandler handler) throws IOException {
+                    handler.startNode("", "");
+                    handler.startNode("b", "2");
+                    throw new IOException("The dump is truncated");
+                }
+            });
+        } catch (IOException ex) {
+            // the tree should be left as it was
+        }
+
+        assertThat(tree.getValue(new NodePath("a")), is("1"));
+        assertThat(tree.exists(new NodePath("b")), is(false));
+        assertThat(tree.getVersion(), is(version));
+    }
+
+    @Test
+    public void whenTreeIsRestoredOnPool_Tree_ShouldIndexAllSubtrees() throws IOException, InvalidKeyException, UnknownKeyException {
+        IndexedNodeTree restored = new IndexedNodeTree(new Node("", new Node("previous")), new ForkJoinPool(2));
+
+        restored.restore((DumpSource) new NodeDump("", "root", new NodeDump("a", "1", new NodeDump("x", "2")), new NodeDump("b", "3")));
+
+        assertThat(restored.findNode(new NodePath("a/x")).getValue(), is("2"));
+        assertThat(restored.findNode(new NodePath("b")).getValue(), is("3"));
+        assertThat(restored.getValue(new NodePath("")), is("root"));
+        assertThat(restored.exists(new NodePath("previous")), is(false));
+        assertThat(restored.getVersion(new NodePath("a/x"), false), is(restored.getVersion()));
+    }
+
+    @Test
+    public void whenTreeIsRestoredLazily_FindNode_ShouldReadOnlyReachedSubtrees() throws Exception {
+        List<Runnable> warmUp = new ArrayList<>();
+        IndexedNodeTree restored = new IndexedNodeTree(new Node(""), null, collect(warmUp));
+
+        restored.restore((DumpSource) new NodeDump("", "root", new NodeDump("a", "1", new NodeDump("x", "2")), new NodeDump("b", "3")));
+
+        assertThat(restored.getPendingCount(), is(2));
+        assertThat(restored.getValue(new NodePath("")), is("root"));
+        assertThat(restored.findNode(new NodePath("a/x")).getValue(), is("2"));
+        assertThat(restored.getPendingCount(), is(1));
+        assertThat(restored.getVersion(new NodePath("a/x"), false), is(restored.getVersion()));
+        for (Runnable task : warmUp) {
+            task.run();
+        }
+        assertThat(restored.getPendingCount(), is(0));
+        assertThat(restored.getValue(new NodePath("b")), is("3"));
+    }
+
+    @Test
+    public void whenPendingSubtreeIsRemoved_Exists_ShouldReturnFalseForItsNodes() throws Exception {
+        IndexedNodeTree restored = new IndexedNodeTree(new Node(""), null, collect(new ArrayList<Runnable>()));
+        restored.restore((DumpSource) new NodeDump("", "", new NodeDump("a", "1", new NodeDump("x", "2")), new NodeDump("b", "3")));
+
+        NodeDump removed = restored.remove(new NodePath("a"));
+
+        assertThat(copy(removed), is(new NodeDump("a", "1", new NodeDump("x", "2"))));
+        assertThat(restored.exists(new NodePath("a/x")), is(false));
+        assertThat(copy(restored.createDump()), is(new NodeDump("", "", new NodeDump("b", "3"))));
+    }
+
+    @Test
+    public void whenPendingSubtreeCantBeRead_GetValue_ShouldThrowUntilItIsRead() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(1);
+        Map<String, DumpSource> partitions = new LinkedHashMap<>();
+        partitions.put("a", new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("The snapshot can't be read");
+                }
+                new NodeDump("a", "1").readTo(handler);
+            }
+        });
+        IndexedNodeTree restored = new IndexedNodeTree(new Node(""), null, collect(new ArrayList<Runnable>()));
+        restored.restore(new PartitionedDump("", "", partitions));
+
+        try {
+            restored.getValue(new NodePath("a"));
+            throw new AssertionError("The subtree should not be read");
+        } catch (IllegalStateException ex) {
+            assertThat(restored.getPendingCount(), is(1));
+        }
+        assertThat(restored.getValue(new NodePath("a")), is("1"));
+    }
+
+    @Test
+    public void whenNodesAreAccessed_Sweep_ShouldReportTheirSubtreesOnce() throws Exception {
+        tree.create(new NodePath("other"), "1");
+        tree.sweep(1);
+
+        tree.getValue(new NodePath("parent/child"));
+        List<SubtreeUsage> usages = tree.sweep(1);
+
+        assertThat(usages.size(), is(2));
+        assertThat(usages.get(0).getPath(), is(new NodePath("other")));
+        assertThat(usages.get(0).getNodes(), is(1L));
+        assertThat(usages.get(0).isReferenced(), is(false));
+        assertThat(usages.get(1).getPath(), is(new NodePath("parent")));
+        assertThat(usages.get(1).getNodes(), is(2L));
+        assertThat(usages.get(1).isReferenced(), is(true));
+        assertThat(tree.sweep(1).get(1).isReferenced(), is(false));
+    }
+
+    @Test
+    public void whenSubtreeIsUnloaded_GetValue_ShouldReadItBack() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final NodePath path = new NodePath("parent");
+        final long version = tree.getVersion(path, true);
+        final NodeDump saved = copy(tree.getSubtree(path, -1));
+
+        assertThat(tree.unload(path, version, new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                reads.incrementAndGet();
+                saved.readTo(handler);
+            }
+        }), is(true));
+
+        assertThat(tree.sweep(1).isEmpty(), is(true));
+        assertThat(copy(tree.createDump()), is(new NodeDump("", "", new NodeDump("parent", "", new NodeDump("child", "value")))));
+        assertThat(reads.get(), is(1));
+        assertThat(tree.findNode(path).isPending(), is(true));
+        assertThat(tree.getValue(new NodePath("parent/child")), is("value"));
+        assertThat(reads.get(), is(2));
+        assertThat(tree.getVersion(new NodePath("parent/child"), true), is(version));
+    }
+
+    @Test
+    public void whenUnloadedSubtreeIsRemoved_Remove_ShouldStreamItFromItsSource() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final NodePath path = new NodePath("parent");
+        final NodeDump saved = copy(tree.getSubtree(path, -1));
+        tree.unload(path, tree.getVersion(path, true), new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                reads.incrementAndGet();
+                saved.readTo(handler);
+            }
+        });
+
+        NodeDump removed = tree.remove(path);
+
+        assertThat(reads.get(), is(0));
+        assertThat(copy(removed), is(saved));
+        assertThat(reads.get(), is(1));
+        assertThat(removed, is(saved));
+    }
+
+    @Test
+    public void whenSubtreeIsChangedAfterItIsSaved_Unload_ShouldReturnFalse() throws Exception {
+        final NodePath path = new NodePath("parent");
+        final long version = tree.getVersion(path, true);
+        final NodeDump saved = copy(tree.getSubtree(path, -1));
+
+        tree.setValue(new NodePath("parent/child"), "changed");
+
+        assertThat(tree.unload(path, version, saved), is(false));
+        assertThat(tree.findNode(path).isPending(), is(false));
+        assertThat(tree.getValue(new NodePath("parent/child")), is("changed"));
+    }
+
+    /**
+     * @return a copy of the lazy dump which can be compared
+     */
+    private static NodeDump copy(NodeDump dump) throws IOException {
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        dump.readTo(builder);
+        return builder.getRoot();
+    }
+
+    /**
+     * @return an executor which only collects the tasks, so the test decides when they run
+     */
+    private static Executor collect(final List<Runnable> tasks) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        };
+    }
+
+    private static NodeDelta findChild(NodeDelta delta, String name) {
+        for (NodeDelta child : delta.getChildren()) {
+            if (child.getName().equals(name)) {
+                return child;
+            }
+        }
+        throw new AssertionError(String.format("There is no child %s", name));
+    }
+}
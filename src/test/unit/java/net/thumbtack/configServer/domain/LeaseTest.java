@@ -0,0 +1,31 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+public class LeaseTest {
+    private final Lease lease = new Lease(1, 10);
+
+    @Test
+    public void whenNodesAreAttached_Expire_ShouldReturnOnlyNotDetachedOnes() throws InvalidKeyException {
+        lease.attach(new NodePath("first"));
+        lease.attach(new NodePath("second"));
+        lease.detach(new NodePath("first"));
+
+        assertThat(lease.expire(), contains(new NodePath("second")));
+        assertThat(lease.expire(), is(empty()));
+    }
+
+    @Test
+    public void whenLeaseHasExpired_Attach_ShouldReturnFalse() throws InvalidKeyException {
+        lease.expire();
+
+        assertThat(lease.attach(new NodePath("key")), is(false));
+        assertThat(lease.isExpired(), is(true));
+    }
+}
@@ -6,6 +6,10 @@ import net.thumbtack.configServer.thrift.InvalidKeyException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static junitparams.JUnitParamsRunner.$;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -38,7 +42,8 @@ public class NodePathTest {
     private Object getTestingDataForGetLevels() {
         return $(
                 $("a/b/c", new String[] {"a", "b", "c" }),
-                $("with space/another one", new String[] { "with space", "another one" })
+                $("with space/another one", new String[] { "with space", "another one" }),
+                $("/a//b/", new String[] { "a", "b" })
         );
     }
 
@@ -60,4 +65,50 @@ public class NodePathTest {
 
         assertThat(exceptLastLevelPath.toString(), is(expectedPath));
     }
-}
\ No newline at end of file
+
+    @Test
+    @Parameters({"a/b/c, /a/b/c", "a/b, a//b/", ", /"})
+    public void whenPathsHaveTheSameLevels_Equals_ShouldReturnTrue(String first, String second) throws InvalidKeyException {
+        final NodePath firstPath = new NodePath(first);
+        final NodePath secondPath = new NodePath(second);
+
+        assertThat(firstPath.equals(secondPath), is(true));
+        assertThat(firstPath.hashCode(), is(secondPath.hashCode()));
+    }
+
+    @Test
+    public void testEqualityOfParentPath() throws InvalidKeyException {
+        final NodePath parent = new NodePath("a/b/c").getPathExceptLastLevel();
+
+        assertThat(parent, is(new NodePath("a/b")));
+        assertThat(parent.size(), is(2));
+        assertThat(parent.getLastLevel(), is("b"));
+    }
+
+    @Test
+    public void testLevelsAreInterned() throws InvalidKeyException {
+        final NodePath first = new NodePath("parent/child");
+        final NodePath second = new NodePath("/another/" + new StringBuilder("chi").append("ld"));
+
+        assertThat(first.getLevel(1) == second.getLevel(1), is(true));
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void whenPathContainsNullCharacter_Constructor_ShouldThrowInvalidKeyException() throws InvalidKeyException {
+        new NodePath("a/\u0000/b");
+    }
+
+    @Test
+    public void whenPathsAreSorted_CompareTo_ShouldPlaceSubtreeAfterItsRoot() throws InvalidKeyException {
+        List<NodePath> paths = new ArrayList<>();
+        for (String path : new String[]{"ab", "a/c", "", "a-b", "a/b/c", "a", "a/b", "b"}) {
+            paths.add(new NodePath(path));
+        }
+
+        Collections.sort(paths);
+
+        assertThat(paths, contains(new NodePath(""), new NodePath("a"), new NodePath("a/b"), new NodePath("a/b/c"),
+                new NodePath("a/c"), new NodePath("a-b"), new NodePath("ab"), new NodePath("b")));
+        assertThat(new NodePath("a/b").compareTo(new NodePath("/a/b/")), is(0));
+    }
+}
@@ -140,6 +140,24 @@ public class NodeTest {
         assertThat(names, containsInAnyOrder("child1", "child2", "child3"));
     }
 
+    @Test
+    public void testGetChildrenNamesOrder() {
+        Node node = new Node("root", new Node("child1"), new Node("child3"), new Node("child2"));
+
+        List<String> names = node.getChildrenNames();
+
+        assertThat(names, is(Arrays.asList("child1", "child2", "child3")));
+    }
+
+    @Test
+    public void testGetChildrenNamesPage() {
+        Node node = new Node("root", new Node("a"), new Node("c"), new Node("b"), new Node("d"));
+
+        assertThat(node.getChildrenNames(null, 2), is(Arrays.asList("a", "b")));
+        assertThat(node.getChildrenNames("b", 2), is(Arrays.asList("c", "d")));
+        assertThat(node.getChildrenNames("d", 2).isEmpty(), is(true));
+    }
+
     @Test
     public void testCreateDump() {
         Node node = new Node("root", "value", new Node("child1"), new Node("child2"));
@@ -166,6 +184,63 @@ public class NodeTest {
         assertThat(node.getChildrenNames(), containsInAnyOrder("child1", "child2"));
     }
 
+    @Test
+    public void whenChildrenCountExceedsArrayCapacity_AllChildren_ShouldBeAccessible() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        Node root = new Node("root");
+        List<String> expectedNames = new ArrayList<>();
+        for (int i = 0; i <= NodeChildren.MAX_CHILDREN_IN_ARRAY * 2; ++i) {
+            expectedNames.add("child" + i);
+            root.insert(new NodePath(""), new Node("child" + i));
+        }
+
+        root.remove(new NodePath("child0"));
+        expectedNames.remove("child0");
+
+        assertThat(root.getChildrenNames(), containsInAnyOrder(expectedNames.toArray()));
+        assertNodesExistence(true, root, "child1", "child" + NodeChildren.MAX_CHILDREN_IN_ARRAY * 2);
+    }
+
+    @Test
+    public void whenChildrenAreRemoved_Remove_ShouldKeepOtherChildren() throws InvalidKeyException, UnknownKeyException {
+        Node root = new Node("root", new Node("c"), new Node("a"), new Node("b"));
+
+        root.remove(new NodePath("b"));
+
+        assertThat(root.getChildrenNames(), is(Arrays.asList("a", "c")));
+    }
+
+    @Test
+    public void whenChildrenAreInsertedConcurrently_Insert_ShouldKeepAllOfThem() throws InterruptedException, InvalidKeyException {
+        final Node root = new Node("root");
+        final int threadsCount = 4;
+        final int childrenPerThread = 50;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; ++i) {
+            final int threadNumber = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < childrenPerThread; ++j) {
+                        try {
+                            root.insert(new NodePath("parent"), new Node(threadNumber + "-" + j));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Node parent = root.getChildren().iterator().next();
+        assertThat(parent.getChildrenNames().size(), is(threadsCount * childrenPerThread));
+    }
+
     private void assertNodesExistence(boolean expected, Node root, String... paths) throws InvalidKeyException {
         for (String path : paths) {
             boolean exists = root.exists(new NodePath(path));
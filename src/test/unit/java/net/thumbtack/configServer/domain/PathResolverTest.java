@@ -0,0 +1,53 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PathResolverTest {
+    private Node root;
+
+    @Before
+    public void setUp() {
+        root = new Node("",
+                new Node("a", new Node("b", new Node("c", "abc")), new Node("d", "ad")),
+                new Node("e", "e"));
+    }
+
+    @Test
+    public void whenPathsAreNotSorted_FindAll_ShouldReturnNodesInGivenOrder() throws InvalidKeyException {
+        final List<Node> found = PathResolver.findAll(root, Arrays.asList(
+                new NodePath("e"), new NodePath("a/b/c"), new NodePath("a/d"), new NodePath("a")));
+
+        assertThat(found.get(0).getValue(), is("e"));
+        assertThat(found.get(1).getValue(), is("abc"));
+        assertThat(found.get(2).getValue(), is("ad"));
+        assertThat(found.get(3).getName(), is("a"));
+    }
+
+    @Test
+    public void whenSomePathsAreMissing_FindAll_ShouldReturnNullForThem() throws InvalidKeyException {
+        final List<Node> found = PathResolver.findAll(root, Arrays.asList(
+                new NodePath("a/x/c"), new NodePath("a/b/c"), new NodePath("a/b/c/d"), new NodePath("x")));
+
+        assertThat(found.get(0), is(nullValue()));
+        assertThat(found.get(1).getValue(), is("abc"));
+        assertThat(found.get(2), is(nullValue()));
+        assertThat(found.get(3), is(nullValue()));
+    }
+
+    @Test
+    public void whenPathIsEmpty_FindAll_ShouldReturnTheRoot() {
+        final List<Node> found = PathResolver.findAll(root, Collections.singletonList(NodePath.empty()));
+
+        assertThat(found.get(0), is(root));
+    }
+}
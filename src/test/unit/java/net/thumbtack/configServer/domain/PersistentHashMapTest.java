@@ -0,0 +1,89 @@
+package net.thumbtack.configServer.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void whenKeyIsAdded_Get_ShouldReturnItsValue() {
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("key", "value");
+
+        assertThat(map.get("key"), is("value"));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void whenKeyIsAdded_PreviousVersion_ShouldStayUnchanged() {
+        PersistentHashMap<String, String> previous = PersistentHashMap.<String, String>empty().plus("key", "value");
+
+        PersistentHashMap<String, String> current = previous.plus("key", "new value").plus("another", "value");
+
+        assertThat(previous.get("key"), is("value"));
+        assertThat(previous.get("another"), is(nullValue()));
+        assertThat(current.get("key"), is("new value"));
+        assertThat(current.size(), is(2));
+    }
+
+    @Test
+    public void whenKeysHaveEqualHashes_Map_ShouldKeepAllOfThem() {
+        // "Aa" and "BB" have the same hash code
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty()
+                .plus("Aa", "first")
+                .plus("BB", "second");
+
+        assertThat(map.get("Aa"), is("first"));
+        assertThat(map.get("BB"), is("second"));
+
+        map = map.minus("Aa");
+
+        assertThat(map.get("Aa"), is(nullValue()));
+        assertThat(map.get("BB"), is("second"));
+        assertThat(map.size(), is(1));
+    }
+
+    @Test
+    public void whenManyKeysAreAddedAndRemoved_Map_ShouldContainOnlyTheRestOfThem() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10000; ++i) {
+            map = map.plus("key" + i, i);
+        }
+        List<String> expectedKeys = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            if (i % 3 == 0) {
+                expectedKeys.add("key" + i);
+            } else {
+                map = map.minus("key" + i);
+            }
+        }
+
+        assertThat(map.size(), is(expectedKeys.size()));
+        assertThat(map.keys(), containsInAnyOrder(expectedKeys.toArray()));
+        assertThat(map.get("key3"), is(3));
+        assertThat(map.get("key4"), is(nullValue()));
+    }
+
+    @Test
+    public void whenKeyDoesNotExist_Minus_ShouldReturnTheSameMap() {
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("key", "value");
+
+        assertThat(map.minus("another") == map, is(true));
+    }
+
+    @Test
+    public void whenLastKeyIsRemoved_Map_ShouldBeEmpty() {
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String>empty().plus("key", "value");
+
+        map = map.minus("key");
+
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.get("key"), is(nullValue()));
+    }
+}
@@ -0,0 +1,328 @@
+package net.thumbtack.configServer.domain;
+
+import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.InvalidKeyException;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.apache.thrift.TException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+public class PersistentTreeTest {
+    private PersistentTree tree;
+
+    @Before
+    public void setUp() {
+        tree = new PersistentTree();
+    }
+
+    @Test
+    public void whenNodeIsCreatedWithParents_Exists_ShouldReturnTrueForAllOfThem() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/b/c"), "value");
+
+        assertThat(tree.exists(new NodePath("a")), is(true));
+        assertThat(tree.exists(new NodePath("a/b")), is(true));
+        assertThat(tree.getValue(new NodePath("a/b/c")), is("value"));
+        assertThat(tree.getValue(new NodePath("a/b")), is(""));
+    }
+
+    @Test(expected = DuplicateKeyException.class)
+    public void whenNodeExists_Create_ShouldThrowDuplicateKeyException() throws InvalidKeyException, DuplicateKeyException {
+        tree.create(new NodePath("a/b"), "value");
+
+        tree.create(new NodePath("a/b"), "another value");
+    }
+
+    @Test
+    public void whenSubtreeIsRemoved_Exists_ShouldReturnFalseForAllItsNodes() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/b/c"), "value");
+
+        tree.remove(new NodePath("a/b"));
+
+        assertThat(tree.exists(new NodePath("a/b")), is(false));
+        assertThat(tree.exists(new NodePath("a/b/c")), is(false));
+        assertThat(tree.exists(new NodePath("a")), is(true));
+    }
+
+    @Test(expected = UnknownKeyException.class)
+    public void whenNodeDoesNotExist_Remove_ShouldThrowUnknownKeyException() throws InvalidKeyException, UnknownKeyException {
+        tree.remove(new NodePath("a/b"));
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void whenPathIsEmpty_Remove_ShouldThrowInvalidKeyException() throws InvalidKeyException, UnknownKeyException {
+        tree.remove(new NodePath(""));
+    }
+
+    @Test(expected = UnknownKeyException.class)
+    public void whenNodeDoesNotExist_SetValue_ShouldThrowUnknownKeyException() throws InvalidKeyException, UnknownKeyException {
+        tree.setValue(new NodePath("a"), "value");
+    }
+
+    @Test
+    public void whenTreeIsChanged_Snapshot_ShouldStayUnchanged() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/b"), "value");
+        PersistentNode snapshot = tree.getSnapshot();
+
+        tree.setValue(new NodePath("a/b"), "new value");
+        tree.create(new NodePath("a/c"), "value");
+
+        assertThat(snapshot.find(new NodePath("a/b")).getValue(), is("value"));
+        assertThat(snapshot.find(new NodePath("a")).getChildren().keys(), containsInAnyOrder("b"));
+        assertThat(tree.getChildrenNames(new NodePath("a")), containsInAnyOrder("b", "c"));
+    }
+
+    @Test
+    public void testDumpAndRestore() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/b"), "value");
+        NodeDump dump = tree.createDump();
+        PersistentTree restored = new PersistentTree();
+
+        restored.restore(dump);
+
+        assertThat(restored.getValue(new NodePath("a/b")), is("value"));
+        assertThat(restored.getChildrenNames(new NodePath("")), containsInAnyOrder("a"));
+    }
+
+    @Test
+    public void whenNodesAreCreatedConcurrently_Tree_ShouldKeepAllOfThem() throws InterruptedException, InvalidKeyException, UnknownKeyException {
+        final int threadsCount = 4;
+        final int nodesPerThread = 100;
+        Thread[] threads = new Thread[threadsCount];
+        for (int i = 0; i < threadsCount; ++i) {
+            final int threadNumber = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < nodesPerThread; ++j) {
+                        try {
+                            tree.create(new NodePath("parent/" + threadNumber + "-" + j), "value");
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(tree.getChildrenNames(new NodePath("parent")).size(), is(threadsCount * nodesPerThread));
+    }
+
+    @Test
+    public void whenNodeIsChanged_GetVersion_ShouldReturnNewVersionForNodeAndSubtreesOfItsAncestors() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("parent/child"), "value");
+
+        tree.setValue(new NodePath("parent/child"), "new value");
+
+        assertThat(tree.getVersion(), is(2L));
+        assertThat(tree.getVersion(new NodePath("parent/child"), false), is(2L));
+        assertThat(tree.getVersion(new NodePath("parent"), true), is(2L));
+        assertThat(tree.getVersion(new NodePath("parent"), false), is(1L));
+    }
+
+    @Test
+    public void whenNodeIsRemoved_GetVersion_ShouldReturnVersionOfTheRemovalForIt() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("parent/child"), "value");
+
+        tree.remove(new NodePath("parent/child"));
+
+        assertThat(tree.getVersion(new NodePath("parent/child"), false), is(2L));
+        assertThat(tree.getVersion(new NodePath("parent/child/grandchild"), true), is(2L));
+    }
+
+    @Test
+    public void whenTreeIsChanged_ChangeListener_ShouldBeNotifiedAboutEveryChange() throws InvalidKeyException, UnknownKeyException, DuplicateKeyException {
+        List<String> events = new ArrayList<>();
+        tree.addChangeListener(recordingListener(events));
+
+        tree.create(new NodePath("a/b"), "created");
+        tree.setValue(new NodePath("a"), "changed");
+        tree.remove(new NodePath("a/b"));
+        tree.restore(new NodeDump("", ""));
+
+        assertThat(events, contains("changed a= 1", "changed a/b=created 1", "changed a=changed 2",
+                "removed a/b 3", "restored 4"));
+    }
+
+    private static ChangeListener recordingListener(final List<String> events) {
+        return new ChangeListener() {
+            @Override
+            public void nodeChanged(NodePath path, String value, long version) {
+                events.add(String.format("changed %s=%s %d", path, value, version));
+            }
+
+            @Override
+            public void nodeRemoved(NodePath path, long version) {
+                events.add(String.format("removed %s %d", path, version));
+            }
+
+            @Override
+            public void treeRestored(long version) {
+                events.add(String.format("restored %d", version));
+            }
+        };
+    }
+
+    @Test
+    public void whenSubtreesAreChangedAfterVersion_CreateDelta_ShouldContainOnlyThem() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/x"), "1");
+        tree.create(new NodePath("b/y"), "2");
+        final long version = tree.getVersion();
+
+        tree.setValue(new NodePath("b/y"), "3");
+
+        NodeDelta delta = tree.createDelta(version);
+        assertThat(delta.isChanged(), is(true));
+        assertThat(findChild(delta, "a").isChanged(), is(false));
+        assertThat(findChild(delta, "b").isChanged(), is(true));
+        assertThat(tree.createDelta(tree.getVersion()).isChanged(), is(false));
+    }
+
+    @Test
+    public void whenDeltaIsAppliedToBaseDump_Dump_ShouldMatchTheTree() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a/x"), "1");
+        tree.create(new NodePath("b/y"), "2");
+        tree.create(new NodePath("d/z"), "5");
+        // the dump is lazy, so the base is copied before the changes
+        final NodeDump base = new Node(tree.createDump()).createDump();
+        final long version = tree.getVersion();
+
+        tree.setValue(new NodePath("b/y"), "3");
+        tree.create(new NodePath("c"), "4");
+        tree.remove(new NodePath("d/z"));
+
+        ConfigTree restored = new PersistentTree();
+        restored.restore(tree.createDelta(version).applyTo(base));
+        assertThat(restored.getValue(new NodePath("a/x")), is("1"));
+        assertThat(restored.getValue(new NodePath("b/y")), is("3"));
+        assertThat(restored.getValue(new NodePath("c")), is("4"));
+        assertThat(restored.exists(new NodePath("d/z")), is(false));
+        assertThat(restored.exists(new NodePath("d")), is(true));
+    }
+
+    @Test
+    public void whenSourceFailsWhileTreeIsRestored_Tree_ShouldNotChange() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("a"), "1");
+        final long version = tree.getVersion();
+
+        try {
+            tree.restore(new DumpSource() {
+                @Override
+                public void readTo(DumpHandler handler) throws IOException {
+                    handler.startNode("", "");
+                    handler.startNode("b", "2");
+                    throw new IOException("The dump is truncated");
+                }
+            });
+        } catch (IOException ex) {
+            // the tree should be left as it was
+        }
+
+        assertThat(tree.getValue(new NodePath("a")), is("1"));
+        assertThat(tree.exists(new NodePath("b")), is(false));
+        assertThat(tree.getVersion(), is(version));
+    }
+
+    @Test
+    public void whenTreeChangesWhileSourceIsRead_Restore_ShouldUseTheNextVersion() throws IOException, InvalidKeyException, UnknownKeyException {
+        tree.restore(new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                try {
+                    tree.create(new NodePath("a"), "1");
+                } catch (TException ex) {
+                    throw new IOException(ex);
+                }
+                handler.startNode("", "");
+                handler.startNode("b", "2");
+                handler.endNode();
+                handler.endNode();
+            }
+        });
+
+        assertThat(tree.exists(new NodePath("a")), is(false));
+        assertThat(tree.getValue(new NodePath("b")), is("2"));
+        assertThat(tree.getVersion(), is(2L));
+        assertThat(tree.getVersion(new NodePath("b"), false), is(2L));
+    }
+
+    @Test
+    public void whenTreeIsRestoredOnPool_Tree_ShouldContainAllSubtrees() throws IOException, InvalidKeyException, UnknownKeyException {
+        PersistentTree restored = new PersistentTree(new ForkJoinPool(2));
+
+        restored.restore((DumpSource) new NodeDump("", "root", new NodeDump("a", "1", new NodeDump("x", "2")), new NodeDump("b", "3")));
+
+        assertThat(restored.getValue(new NodePath("a/x")), is("2"));
+        assertThat(restored.getChildrenNames(new NodePath("")), containsInAnyOrder("a", "b"));
+        assertThat(restored.getVersion(new NodePath("a/x"), false), is(1L));
+    }
+
+    @Test
+    public void whenPartitionFailsWhileTreeIsRestoredOnPool_Tree_ShouldNotChange() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        PersistentTree restored = new PersistentTree(new ForkJoinPool(2));
+        restored.create(new NodePath("a"), "1");
+        Map<String, DumpSource> partitions = new LinkedHashMap<>();
+        partitions.put("b", new NodeDump("b", "2"));
+        partitions.put("c", new DumpSource() {
+            @Override
+            public void readTo(DumpHandler handler) throws IOException {
+                throw new IOException("The partition is truncated");
+            }
+        });
+
+        try {
+            restored.restore(new PartitionedDump("", "", partitions));
+        } catch (IOException ex) {
+            // the tree should be left as it was
+        }
+
+        assertThat(restored.getValue(new NodePath("a")), is("1"));
+        assertThat(restored.exists(new NodePath("b")), is(false));
+    }
+
+    private static NodeDelta findChild(NodeDelta delta, String name) {
+        for (NodeDelta child : delta.getChildren()) {
+            if (child.getName().equals(name)) {
+                return child;
+            }
+        }
+        throw new AssertionError(String.format("There is no child %s", name));
+    }
+
+    @Test
+    public void whenChildrenAreChangedAfterListing_GetChildrenNames_ShouldReturnCurrentNames() throws InvalidKeyException, DuplicateKeyException, UnknownKeyException {
+        tree.create(new NodePath("b"), "value");
+        tree.create(new NodePath("d/x"), "value");
+        final NodePath root = new NodePath("");
+        assertThat(tree.getChildrenNames(root), contains("b", "d"));
+
+        tree.create(new NodePath("c"), "value");
+        tree.create(new NodePath("a"), "value");
+        tree.create(new NodePath("e"), "value");
+        assertThat(tree.getChildrenNames(root), contains("a", "b", "c", "d", "e"));
+
+        tree.setValue(new NodePath("b"), "new value");
+        tree.create(new NodePath("d/y"), "value");
+        tree.remove(new NodePath("c"));
+        tree.remove(new NodePath("e"));
+        tree.create(new NodePath("d/z/w"), "value");
+        assertThat(tree.getChildrenNames(root), contains("a", "b", "d"));
+        assertThat(tree.getChildrenNames(root, "a", 2), contains("b", "d"));
+        assertThat(tree.getChildrenNames(new NodePath("d")), contains("x", "y", "z"));
+    }
+}
@@ -3,46 +3,49 @@ package net.thumbtack.configServer.domain;
 import net.thumbtack.configServer.thrift.InvalidTimeoutException;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.Mock;
 import org.mockito.Mockito;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.Mockito.never;
 
 public class SchedulerTest {
-    private Scheduler scheduler = null;
+    private FakeTicker ticker = null;
+    private Scheduler<String> scheduler = null;
     private Runnable taskMock = null;
 
     @Before
     public void setUp() {
-        scheduler = new Scheduler();
+        ticker = new FakeTicker();
+        scheduler = new Scheduler<>(ticker, false);
         taskMock = Mockito.mock(Runnable.class);
     }
 
     @Test
-    public void whenThereIsNoScheduleWithTheGivenKey_Schedule_ShouldAddIt() throws InvalidTimeoutException, InterruptedException {
+    public void whenThereIsNoScheduleWithTheGivenKey_Schedule_ShouldAddIt() throws InvalidTimeoutException {
         schedule("key", 10);
 
-        Thread.sleep(11);
+        advance(11);
         Mockito.verify(taskMock).run();
     }
 
     @Test
-    public void whenThereIsScheduleWithTheGivenKey_Schedule_ShouldCancelIt() throws InvalidTimeoutException, InterruptedException {
+    public void whenThereIsScheduleWithTheGivenKey_Schedule_ShouldCancelIt() throws InvalidTimeoutException {
         schedule("key", 12);
 
         schedule("key", 60);
 
-        Thread.sleep(25);
+        advance(25);
         Mockito.verify(taskMock, never()).run();
     }
 
     @Test
-    public void whenThereIsScheduleWithTheGivenKey_Schedule_ShouldQueueNewSchedule() throws InvalidTimeoutException, InterruptedException {
+    public void whenThereIsScheduleWithTheGivenKey_Schedule_ShouldQueueNewSchedule() throws InvalidTimeoutException {
         schedule("key", 5);
 
         schedule("key", 10);
 
-        Thread.sleep(11);
+        advance(11);
         Mockito.verify(taskMock).run();
     }
 
@@ -52,27 +55,76 @@ public class SchedulerTest {
     }
 
     @Test
-    public void whenScheduleExists_Reschedule_ShouldCancelPreviousExecution() throws InvalidTimeoutException, InterruptedException {
+    public void whenScheduleExists_Reschedule_ShouldCancelPreviousExecution() throws InvalidTimeoutException {
         schedule("key", 5);
 
-        Thread.sleep(4);
+        advance(4);
         scheduler.reschedule("key");
 
-        Thread.sleep(4);
+        advance(4);
         Mockito.verify(taskMock, never()).run();
     }
 
     @Test
-    public void whenScheduleExists_Reschedule_ShouldPostponeExecutionOnTheScheduleTimeout() throws InvalidTimeoutException, InterruptedException {
+    public void whenScheduleExists_Reschedule_ShouldPostponeExecutionOnTheScheduleTimeout() throws InvalidTimeoutException {
         schedule("key", 5);
 
         scheduler.reschedule("key");
 
-        Thread.sleep(11);
+        advance(11);
         Mockito.verify(taskMock).run();
     }
 
+    @Test
+    public void whenScheduleExists_Cancel_ShouldPreventExecution() throws InvalidTimeoutException {
+        schedule("key", 5);
+
+        scheduler.cancel("key");
+
+        advance(11);
+        Mockito.verify(taskMock, never()).run();
+    }
+
+    @Test
+    public void whenManyTasksAreScheduled_Schedule_ShouldExecuteEachOfThem() throws InvalidTimeoutException {
+        for (int i = 0; i < 100; ++i) {
+            schedule("key" + i, 1 + i % 10);
+        }
+
+        advance(30);
+        Mockito.verify(taskMock, Mockito.times(100)).run();
+    }
+
+    @Test
+    public void whenLaterTaskIsScheduled_Schedule_ShouldExecuteEarlierTaskInTime() throws InvalidTimeoutException {
+        schedule("later", 200);
+
+        schedule("earlier", 5);
+
+        advance(15);
+        Mockito.verify(taskMock).run();
+    }
+
+    @Test
+    public void whenWorkerIsStarted_Schedule_ShouldExecuteTheTask() throws InvalidTimeoutException {
+        Scheduler<String> workerScheduler = new Scheduler<>();
+
+        workerScheduler.schedule("key", taskMock, 5);
+
+        Mockito.verify(taskMock, Mockito.timeout(5000)).run();
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void whenWorkerIsStarted_RunDueTasks_ShouldThrow() {
+        new Scheduler<String>().runDueTasks();
+    }
+
     private void schedule(String key, long msTimeout) throws InvalidTimeoutException {
         scheduler.schedule(key, taskMock, msTimeout);
     }
+
+    private void advance(long ms) {
+        ticker.advance(ms, TimeUnit.MILLISECONDS);
+        scheduler.runDueTasks();
+    }
 }
@@ -0,0 +1,117 @@
+package net.thumbtack.configServer.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+
+public class TimingWheelTest {
+    private TimingWheel wheel;
+    private List<TimingWheel.Timeout> expired;
+
+    @Before
+    public void setUp() {
+        wheel = new TimingWheel(0, 1, 2, 3);
+        expired = new ArrayList<>();
+    }
+
+    @Test
+    public void whenDeadlineIsNotReached_Advance_ShouldNotExpireTimeout() {
+        wheel.add(new TestTimeout(10));
+
+        wheel.advance(9, expired);
+
+        assertThat(expired, is(empty()));
+        assertThat(wheel.size(), is(1));
+    }
+
+    @Test
+    public void whenDeadlineIsInHigherLevel_Advance_ShouldExpireTimeoutExactlyOnDeadline() {
+        for (long deadline : new long[] { 1, 3, 4, 5, 17, 63 }) {
+            TestTimeout timeout = new TestTimeout(deadline);
+            wheel.add(timeout);
+
+            wheel.advance(deadline - 1, expired);
+            assertThat(expired, is(empty()));
+            wheel.advance(deadline, expired);
+            assertThat(expired, contains((TimingWheel.Timeout) timeout));
+            expired.clear();
+        }
+    }
+
+    @Test
+    public void whenDeadlineIsOutOfWheel_Advance_ShouldExpireTimeoutOnDeadline() {
+        TestTimeout timeout = new TestTimeout(200);
+        wheel.add(timeout);
+
+        wheel.advance(199, expired);
+        assertThat(expired, is(empty()));
+        wheel.advance(200, expired);
+
+        assertThat(expired, contains((TimingWheel.Timeout) timeout));
+    }
+
+    @Test
+    public void whenDeadlineIsMovedLater_Advance_ShouldPutTimeoutBack() {
+        TestTimeout timeout = new TestTimeout(5);
+        wheel.add(timeout);
+
+        timeout.deadline = 30;
+        wheel.advance(29, expired);
+        assertThat(expired, is(empty()));
+        wheel.advance(30, expired);
+
+        assertThat(expired, contains((TimingWheel.Timeout) timeout));
+    }
+
+    @Test
+    public void whenTimeoutIsCancelled_Advance_ShouldDropIt() {
+        TestTimeout timeout = new TestTimeout(5);
+        wheel.add(timeout);
+
+        timeout.cancelled = true;
+        wheel.advance(5, expired);
+
+        assertThat(expired, is(empty()));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void whenDeadlineHasPassed_Add_ShouldExpireTimeoutOnNextTick() {
+        wheel.advance(10, expired);
+        TestTimeout timeout = new TestTimeout(3);
+
+        wheel.add(timeout);
+        wheel.advance(11, expired);
+
+        assertThat(expired, contains((TimingWheel.Timeout) timeout));
+    }
+
+    @Test
+    public void whenTimeoutIsInTheLowestLevel_GetNextEventTime_ShouldReturnItsDeadline() {
+        wheel.add(new TestTimeout(2));
+
+        assertThat(wheel.getNextEventTime(), is(2L));
+    }
+
+    private static class TestTimeout extends TimingWheel.Timeout {
+        private long deadline;
+        private boolean cancelled = false;
+
+        TestTimeout(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        long getDeadline() { return deadline; }
+
+        @Override
+        boolean isCancelled() { return cancelled; }
+    }
+}
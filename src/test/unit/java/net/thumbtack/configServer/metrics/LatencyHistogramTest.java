@@ -0,0 +1,66 @@
+package net.thumbtack.configServer.metrics;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@RunWith(JUnitParamsRunner.class)
+public class LatencyHistogramTest {
+    @Test
+    @Parameters({"0", "31", "32", "33", "1000", "123456789", "9223372036854775807"})
+    public void whenValueIsGiven_IndexOf_ShouldReturnBucketWithinSixteenthOfIt(long nanos) {
+        final int index = LatencyHistogram.indexOf(nanos);
+
+        assertThat(LatencyHistogram.upperBoundOf(index), greaterThanOrEqualTo(nanos));
+        assertThat(LatencyHistogram.upperBoundOf(index) - nanos, lessThanOrEqualTo(nanos / 16));
+        if (index > 0) {
+            assertThat(LatencyHistogram.upperBoundOf(index - 1), lessThanOrEqualTo(nanos - 1));
+        }
+    }
+
+    @Test
+    public void whenValuesAreRecorded_GetPercentileNanos_ShouldReturnBoundsOfTheirBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i * 1000);
+        }
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMeanNanos(), is(50500L));
+        assertThat(histogram.getMaxNanos(), is(100000L));
+        assertThat(histogram.getPercentileNanos(0.5), is(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(50000))));
+        assertThat(histogram.getPercentileNanos(0.9), is(LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(90000))));
+        assertThat(histogram.getPercentileNanos(0.99), is(100000L));
+    }
+
+    @Test
+    public void whenNothingIsRecorded_ToStats_ShouldReturnZeros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.toStats().getCount(), is(0L));
+        assertThat(histogram.toStats().getP99Micros(), is(0L));
+        assertThat(histogram.toStats().getMaxMicros(), is(0L));
+    }
+
+    @Test
+    public void whenHistogramsAreAdded_Add_ShouldMergeTheirValues() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(30);
+        second.record(20);
+
+        first.add(second);
+
+        assertThat(first.getCount(), is(3L));
+        assertThat(first.getMeanNanos(), is(20L));
+        assertThat(first.getMaxNanos(), is(30L));
+        assertThat(first.getPercentileNanos(0.5), is(20L));
+    }
+}
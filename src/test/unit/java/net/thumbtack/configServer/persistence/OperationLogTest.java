@@ -0,0 +1,144 @@
+package net.thumbtack.configServer.persistence;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class OperationLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("oplog");
+    }
+
+    @Test
+    public void whenRecordsAreAppended_Recover_ShouldReplayThemInOrder() throws IOException {
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        log.recover(new RecordingHandler());
+        log.sync(log.append(LogRecord.set("a/b", "value")));
+        log.sync(log.append(LogRecord.setTemporary("a/c", "temporary", 100)));
+        log.sync(log.append(LogRecord.remove("a/b")));
+        log.close();
+
+        List<String> replayed = recover();
+
+        assertThat(replayed, contains("SET a/b=value", "SET_TEMPORARY a/c=temporary", "REMOVE a/b=null"));
+    }
+
+    @Test
+    public void whenLastRecordIsTorn_Recover_ShouldDropItAndContinueAfterThePreviousOne() throws IOException {
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        log.recover(new RecordingHandler());
+        log.append(LogRecord.set("first", "1"));
+        log.append(LogRecord.set("second", "2"));
+        log.close();
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        OperationLog recovered = new OperationLog(directory, 1024 * 1024, 0);
+        RecordingHandler handler = new RecordingHandler();
+        recovered.recover(handler);
+        recovered.append(LogRecord.set("third", "3"));
+        recovered.close();
+
+        assertThat(handler.records, contains("SET first=1"));
+        assertThat(recover(), contains("SET first=1", "SET third=3"));
+    }
+
+    @Test
+    public void whenSegmentsPrecedeSequence_TruncateBefore_ShouldRemoveThem() throws IOException {
+        OperationLog log = new OperationLog(directory, 1, 0);
+        log.recover(new RecordingHandler());
+        for (int i = 1; i <= 5; ++i) {
+            log.append(LogRecord.set("key" + i, String.valueOf(i)));
+        }
+
+        log.truncateBefore(4);
+        log.close();
+
+        assertThat(recover(), contains("SET key4=4", "SET key5=5"));
+    }
+
+    @Test
+    public void whenRolledOver_Recover_ShouldReplayAllSegments() throws IOException {
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        log.recover(new RecordingHandler());
+        log.append(LogRecord.set("first", "1"));
+        final long nextSequence = log.rollover();
+        log.append(LogRecord.set("second", "2"));
+        log.close();
+
+        assertThat(nextSequence, is(2L));
+        assertThat(recover(), contains("SET first=1", "SET second=2"));
+    }
+
+    @Test
+    public void whenManyThreadsAppend_Sync_ShouldMakeAllRecordsDurable() throws Exception {
+        final OperationLog log = new OperationLog(directory, 1024 * 1024, 1);
+        log.recover(new RecordingHandler());
+        final int threadsCount = 8;
+        final int recordsPerThread = 50;
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; ++i) {
+            final int thread = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < recordsPerThread; ++j) {
+                            log.sync(log.append(LogRecord.set("key" + thread, String.valueOf(j))));
+                        }
+                    } catch (IOException ex) {
+                        errors.add(ex);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+
+        assertThat(errors.isEmpty(), is(true));
+        assertThat(recover().size(), is(threadsCount * recordsPerThread));
+    }
+
+    private List<String> recover() throws IOException {
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        RecordingHandler handler = new RecordingHandler();
+        log.recover(handler);
+        log.close();
+        return handler.records;
+    }
+
+    private static class RecordingHandler implements OperationLog.RecordHandler {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void apply(LogRecord record) {
+            records.add(record.toString());
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package net.thumbtack.configServer.persistence;
+
+import net.thumbtack.configServer.domain.DumpSource;
+import net.thumbtack.configServer.domain.NodeDelta;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodeDumpBuilder;
+import net.thumbtack.configServer.domain.PartitionedDumpSource;
+import net.thumbtack.configServer.serialization.BinaryNodeDumpSerializer;
+import net.thumbtack.configServer.serialization.BlockCompression;
+import net.thumbtack.configServer.serialization.CompressedStreamSerializer;
+import net.thumbtack.configServer.serialization.DumpFormat;
+import net.thumbtack.configServer.serialization.JsonNodeDeltaStreamSerializer;
+import net.thumbtack.configServer.serialization.JsonNodeDumpStreamSerializer;
+import net.thumbtack.configServer.serialization.SerializationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+public class SnapshotStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonNodeDumpStreamSerializer serializer = new JsonNodeDumpStreamSerializer("UTF-8");
+    private final JsonNodeDeltaStreamSerializer deltaSerializer = new JsonNodeDeltaStreamSerializer("UTF-8");
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.newFolder("snapshots"), "dump.json");
+    }
+
+    @Test
+    public void whenThereIsNoSnapshot_Load_ShouldReturnNull() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+
+        assertThat(store.load(), is(nullValue()));
+    }
+
+    @Test
+    public void whenSnapshotIsSaved_Load_ShouldReturnIt() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+        NodeDump dump = new NodeDump("", "", new NodeDump("key", "value"));
+
+        store.save(dump);
+
+        assertThat(read(store), is(dump));
+        assertThat(new File(file.getPath() + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void whenManySnapshotsAreSaved_Save_ShouldKeepOnlyGivenCountOfGenerations() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+
+        for (int i = 1; i <= 5; ++i) {
+            store.save(new NodeDump("", String.valueOf(i)));
+        }
+
+        assertThat(read(store).getValue(), is("5"));
+        assertThat(load(store.generation(1)).getValue(), is("4"));
+        assertThat(load(store.generation(2)).getValue(), is("3"));
+        assertThat(store.generation(3).exists(), is(false));
+    }
+
+    @Test
+    public void whenLastSnapshotIsMissing_Load_ShouldReturnPreviousGeneration() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 2, 0);
+        store.save(new NodeDump("", "previous"));
+        store.save(new NodeDump("", "last"));
+
+        assertThat(file.delete(), is(true));
+
+        assertThat(read(store).getValue(), is("previous"));
+    }
+
+    @Test
+    public void whenRateIsLimited_Save_ShouldNotWriteFaster() throws IOException, SerializationException {
+        final long bytesPerSecond = 64 * 1024;
+        SnapshotStore store = createStore(file, 1, bytesPerSecond);
+        NodeDump dump = new NodeDump("", "");
+        for (int i = 0; i < 1000; ++i) {
+            dump.getChildren().add(new NodeDump("key" + i, "value of the node number " + i));
+        }
+
+        final long start = System.nanoTime();
+        store.save(dump);
+        final long msElapsed = (System.nanoTime() - start) / 1000000;
+
+        assertThat(msElapsed >= file.length() * 1000 / bytesPerSecond - 100, is(true));
+    }
+
+    @Test
+    public void whenDeltasAreSaved_Load_ShouldApplyThemToSnapshot() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+        store.save(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("b", "2")));
+
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(NodeDelta.unchanged("a"), leaf("b", "3"), leaf("c", "4"))));
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(leaf("a", "5"), NodeDelta.unchanged("c"))));
+
+        SnapshotStore reopened = createStore(file, 3, 0);
+        NodeDump loaded = read(reopened);
+        assertThat(loaded, is(new NodeDump("", "", new NodeDump("a", "5"), new NodeDump("c", "4"))));
+        assertThat(reopened.getDeltasCount(), is(2));
+        assertThat(reopened.hasBase(), is(true));
+    }
+
+    @Test
+    public void whenSnapshotIsSavedAfterDeltas_Load_ShouldNotApplyThem() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+        store.save(new NodeDump("", "", new NodeDump("a", "1")));
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(leaf("a", "2"))));
+
+        store.save(new NodeDump("", "", new NodeDump("a", "1")));
+
+        assertThat(read(createStore(file, 3, 0)), is(new NodeDump("", "", new NodeDump("a", "1"))));
+    }
+
+    @Test
+    public void whenDeltasAreCompacted_Load_ShouldReturnTheSameStateFromFullSnapshot() throws IOException, SerializationException {
+        SnapshotStore store = createStore(file, 3, 0);
+        store.save(new NodeDump("", "", new NodeDump("a", "1")));
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(NodeDelta.unchanged("a"), leaf("b", "2"))));
+
+        store.compact();
+
+        assertThat(store.getDeltasCount(), is(0));
+        assertThat(file.getParentFile().list().length, is(2));
+        assertThat(read(createStore(file, 3, 0)), is(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("b", "2"))));
+    }
+
+    @Test
+    public void whenLoadedSnapshotIsNotRead_HasBase_ShouldReturnFalse() throws IOException, SerializationException {
+        createStore(file, 3, 0).save(new NodeDump("", "", new NodeDump("a", "1")));
+        SnapshotStore store = createStore(file, 3, 0);
+
+        store.load();
+
+        assertThat(store.hasBase(), is(false));
+    }
+
+    @Test
+    public void whenPartitionedSnapshotHasDeltas_Partitions_ShouldHaveThemApplied() throws IOException, SerializationException {
+        BinaryNodeDumpSerializer binarySerializer = new BinaryNodeDumpSerializer();
+        SnapshotStore store = new SnapshotStore(file, 3, 0, binarySerializer, binarySerializer, deltaSerializer, deltaSerializer);
+        store.save(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("b", "2"), new NodeDump("d", "5")));
+        store.saveDelta(new NodeDelta("", "root", Arrays.asList(NodeDelta.unchanged("a"), leaf("b", "3"), leaf("c", "4"))));
+
+        SnapshotStore reopened = new SnapshotStore(file, 3, 0, binarySerializer, binarySerializer, deltaSerializer, deltaSerializer);
+        PartitionedDumpSource loaded = (PartitionedDumpSource) reopened.load();
+
+        assertThat(loaded.getValue(), is("root"));
+        assertThat(loaded.getPartitions().keySet(), contains("a", "b", "c"));
+        List<NodeDump> partitions = new ArrayList<>();
+        for (DumpSource partition : loaded.getPartitions().values()) {
+            assertThat(reopened.hasBase(), is(false));
+            NodeDumpBuilder builder = new NodeDumpBuilder();
+            partition.readTo(builder);
+            partitions.add(builder.getRoot());
+        }
+        assertThat(partitions, contains(new NodeDump("a", "1"), new NodeDump("b", "3"), new NodeDump("c", "4")));
+        assertThat(reopened.hasBase(), is(true));
+    }
+
+    @Test
+    public void whenPartitionOfBinarySnapshotIsCorrupted_Load_ShouldNotReadItToFindDeltas() throws IOException, SerializationException {
+        BinaryNodeDumpSerializer binarySerializer = new BinaryNodeDumpSerializer();
+        SnapshotStore store = new SnapshotStore(file, 3, 0, binarySerializer, binarySerializer, deltaSerializer, deltaSerializer);
+        store.save(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("d", "corrupted")));
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(leaf("a", "2"), NodeDelta.unchanged("d"))));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        bytes[content.indexOf("corrupted")] ^= 1;
+        Files.write(file.toPath(), bytes);
+
+        SnapshotStore reopened = new SnapshotStore(file, 3, 0, binarySerializer, binarySerializer, deltaSerializer, deltaSerializer);
+        PartitionedDumpSource loaded = (PartitionedDumpSource) reopened.load();
+
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        loaded.getPartitions().get("a").readTo(builder);
+        assertThat(builder.getRoot(), is(new NodeDump("a", "2")));
+    }
+
+    @Test
+    public void whenSnapshotAndDeltasAreCompressed_Load_ShouldDecompressThem() throws IOException, SerializationException {
+        BlockCompression compression = new BlockCompression(64, 1, 2);
+        CompressedStreamSerializer<NodeDelta> compressedDeltas =
+                new CompressedStreamSerializer<>(deltaSerializer, deltaSerializer, compression);
+        SnapshotStore store = new SnapshotStore(file, 3, 0, DumpFormat.JSON.createSerializer("UTF-8", compression),
+                DumpFormat.JSON.createReader("UTF-8", compression), compressedDeltas, compressedDeltas);
+        store.save(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("b", "2")));
+        store.saveDelta(new NodeDelta("", "", Arrays.asList(NodeDelta.unchanged("a"), leaf("b", "3"))));
+
+        SnapshotStore reopened = new SnapshotStore(file, 3, 0, serializer,
+                DumpFormat.JSON.createReader("UTF-8", compression), compressedDeltas, compressedDeltas);
+
+        assertThat(read(reopened), is(new NodeDump("", "", new NodeDump("a", "1"), new NodeDump("b", "3"))));
+        assertThat(reopened.getDeltasCount(), is(1));
+    }
+
+    @Test
+    public void whenSnapshotIsNotCompressed_LoadWithCompression_ShouldReadItAsItIs() throws IOException, SerializationException {
+        NodeDump dump = new NodeDump("", "", new NodeDump("a", "1"));
+        createStore(file, 3, 0).save(dump);
+        BlockCompression compression = new BlockCompression(64, 1, 1);
+
+        SnapshotStore store = new SnapshotStore(file, 3, 0, serializer, DumpFormat.JSON.createReader("UTF-8", compression),
+                deltaSerializer, deltaSerializer);
+
+        assertThat(read(store), is(dump));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenThereIsNoSnapshot_SaveDelta_ShouldThrowException() throws IOException, SerializationException {
+        createStore(file, 3, 0).saveDelta(NodeDelta.unchanged(""));
+    }
+
+    private SnapshotStore createStore(File file, int generations, long bytesPerSecond) {
+        return new SnapshotStore(file, generations, bytesPerSecond, serializer, serializer, deltaSerializer, deltaSerializer);
+    }
+
+    private static NodeDelta leaf(String name, String value) {
+        return new NodeDelta(name, value, Collections.<NodeDelta>emptyList());
+    }
+
+    private NodeDump load(File generation) throws IOException, SerializationException {
+        return read(createStore(generation, 1, 0));
+    }
+
+    private static NodeDump read(SnapshotStore store) throws IOException, SerializationException {
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        store.load().readTo(builder);
+        return builder.getRoot();
+    }
+}
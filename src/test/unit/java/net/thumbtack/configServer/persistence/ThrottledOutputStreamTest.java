@@ -0,0 +1,49 @@
+package net.thumbtack.configServer.persistence;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnitParamsRunner.class)
+public class ThrottledOutputStreamTest {
+    @Test
+    @Parameters(method = "getNanosToWriteData")
+    public void whenBytesAreWritten_NanosToWrite_ShouldReturnTimeAtTheRate(long bytes, long bytesPerSecond,
+                                                                          long expectedNanos) {
+        assertThat(ThrottledOutputStream.nanosToWrite(bytes, bytesPerSecond), is(expectedNanos));
+    }
+
+    @Test
+    public void whenRateIsSet_Write_ShouldPassAllBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ThrottledOutputStream throttled = new ThrottledOutputStream(out, 1024 * 1024);
+        byte[] bytes = new byte[10000];
+        bytes[9999] = 1;
+
+        throttled.write(bytes);
+        throttled.write(2);
+        throttled.close();
+
+        assertThat(out.size(), is(10001));
+        assertThat(out.toByteArray()[9999], is((byte) 1));
+        assertThat(out.toByteArray()[10000], is((byte) 2));
+    }
+
+    private Object[] getNanosToWriteData() {
+        return new Object[]{
+                new Object[]{1000L, 1000L, 1000000000L},
+                new Object[]{1500L, 1000L, 1500000000L},
+                new Object[]{1L, 3L, 333333333L},
+                new Object[]{20000000000L, 1000000L, 20000000000000L},
+                new Object[]{(1L << 40) + (1L << 39), 1L << 40, 1500000000L},
+                new Object[]{15000000000L, 10000000000L, 1500000000L},
+        };
+    }
+}
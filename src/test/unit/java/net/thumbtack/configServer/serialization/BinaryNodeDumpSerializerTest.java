@@ -0,0 +1,261 @@
+package net.thumbtack.configServer.serialization;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodeDumpBuilder;
+import net.thumbtack.configServer.domain.PartitionedDumpSource;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static junitparams.JUnitParamsRunner.$;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnitParamsRunner.class)
+public class BinaryNodeDumpSerializerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("dump.bin");
+    }
+
+    private Object getTestData() {
+        return $(
+            $(new NodeDump("", "")),
+            $(new NodeDump("root", "value", new NodeDump("child", "значение"), new NodeDump("other", ""))),
+            $(new NodeDump("root", null, new NodeDump("child", null, new NodeDump("grandchild", null)))),
+            $(createDump(3, 4))
+        );
+    }
+
+    @Test
+    @Parameters(method = "getTestData")
+    public void whenDumpIsSerialized_Deserialize_ShouldReturnTheSameDump(NodeDump dump) throws IOException, SerializationException {
+        write(new BinaryNodeDumpSerializer(), dump);
+
+        assertThat(new BinaryNodeDumpSerializer().deserialize(file), is(dump));
+    }
+
+    @Test
+    public void whenWindowIsSmallerThanDump_Deserialize_ShouldMapNextWindows() throws IOException, SerializationException {
+        NodeDump dump = createDump(4, 5);
+        write(new BinaryNodeDumpSerializer(), dump);
+
+        assertThat(new BinaryNodeDumpSerializer(32).deserialize(file), is(dump));
+    }
+
+    @Test
+    public void whenNamesAreRepeated_Serialize_ShouldWriteThemOnce() throws IOException, SerializationException {
+        NodeDump dump = createDump(4, 5);
+        write(new BinaryNodeDumpSerializer(), dump);
+        File json = folder.newFile("dump.json");
+        try (OutputStream output = new FileOutputStream(json)) {
+            new JsonNodeDumpStreamSerializer("UTF-8").serialize(dump, output);
+        }
+
+        assertThat(file.length() * 2 < json.length(), is(true));
+    }
+
+    @Test(expected = SerializationException.class)
+    public void whenDumpIsCorrupted_Deserialize_ShouldThrowException() throws IOException, SerializationException {
+        write(new BinaryNodeDumpSerializer(), createDump(2, 3));
+        try (RandomAccessFile corrupted = new RandomAccessFile(file, "rw")) {
+            corrupted.seek(10);
+            corrupted.write(corrupted.read() ^ 1);
+        }
+
+        new BinaryNodeDumpSerializer().deserialize(file);
+    }
+
+    @Test
+    public void whenPartitionIsCorrupted_Open_ShouldThrowOnlyWhenItIsRead() throws IOException, SerializationException {
+        write(new BinaryNodeDumpSerializer(), createDump(2, 3));
+        final long offset = findOffset("level2child1");
+        try (RandomAccessFile corrupted = new RandomAccessFile(file, "rw")) {
+            corrupted.seek(offset + 5);
+            corrupted.write(corrupted.read() ^ 1);
+        }
+
+        PartitionedDumpSource source = new BinaryNodeDumpSerializer().open(file);
+
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        source.getPartitions().get("level2child0").readTo(builder);
+        assertThat(builder.getRoot(), is(createDump("level2child0", 1, 3)));
+        try {
+            source.getPartitions().get("level2child1").readTo(new NodeDumpBuilder());
+            fail("Expected an IOException to be thrown");
+        } catch (IOException ex) { }
+    }
+
+    @Test
+    public void whenDumpIsConvertedToBinaryAndBack_Converter_ShouldKeepIt() throws IOException, SerializationException {
+        NodeDump dump = createDump(3, 3);
+        File json = folder.newFile("dump.json");
+        try (OutputStream output = new FileOutputStream(json)) {
+            new JsonNodeDumpStreamSerializer("UTF-8").serialize(dump, output);
+        }
+        File converted = folder.newFile("converted.json");
+
+        DumpConverter.convert(DumpFormat.JSON, DumpFormat.BINARY, json, file, "UTF-8");
+        DumpConverter.convert(DumpFormat.BINARY, DumpFormat.JSON, file, converted, "UTF-8");
+
+        assertThat(new BinaryNodeDumpSerializer().deserialize(file), is(dump));
+        assertThat(DumpFormat.JSON.createDeserializer("UTF-8").deserialize(converted), is(dump));
+    }
+
+    @Test
+    public void whenDumpIsOpened_Partitions_ShouldReadChildrenOfTheRootIndependently() throws IOException, SerializationException {
+        NodeDump dump = createDump(3, 4);
+        write(new BinaryNodeDumpSerializer(), dump);
+
+        PartitionedDumpSource source = new BinaryNodeDumpSerializer(32).open(file);
+
+        assertThat(source.getValue(), is(dump.getValue()));
+        assertThat(source.getPartitions().keySet(), contains("level3child0", "level3child1", "level3child2", "level3child3"));
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        source.getPartitions().get("level3child2").readTo(builder);
+        assertThat(builder.getRoot(), is(createDump("level3child2", 2, 4)));
+    }
+
+    @Test
+    public void whenFileIsReplacedAfterItIsOpened_Partition_ShouldReadOpenedFile() throws IOException, SerializationException {
+        write(new BinaryNodeDumpSerializer(), createDump(2, 2));
+        PartitionedDumpSource source = new BinaryNodeDumpSerializer(32).open(file);
+        File replacement = folder.newFile("replacement.bin");
+        try (OutputStream output = new FileOutputStream(replacement)) {
+            new BinaryNodeDumpSerializer().serialize(createDump(2, 3), output);
+        }
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        source.getPartitions().get("level2child0").readTo(builder);
+        assertThat(builder.getRoot(), is(createDump("level2child0", 1, 2)));
+    }
+
+    @Test
+    public void whenValueIsNull_Partition_ShouldReadItAsNull() throws IOException, SerializationException {
+        NodeDump dump = new NodeDump("", "", new NodeDump("child", null, new NodeDump("empty", "")));
+        write(new BinaryNodeDumpSerializer(), dump);
+
+        NodeDumpBuilder builder = new NodeDumpBuilder();
+        new BinaryNodeDumpSerializer(32).open(file).getPartitions().get("child").readTo(builder);
+
+        assertThat(builder.getRoot(), is(dump.getChildren().iterator().next()));
+    }
+
+    /**
+     * Version 2 wrote value lengths without the shift reserving 0 for null values.
+     */
+    @Test
+    public void whenDumpHasVersion2_Deserialize_ShouldReadIt() throws IOException, SerializationException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x434e4431);
+        output.writeByte(2);
+        // the root named "" with the value "v" and the child named "c" with the value ""
+        output.write(new byte[] {1, 1, 'v', 2, 0, 0, 0});
+        final long namesOffset = output.size();
+        output.write(new byte[] {2, 0, 1, 'c'});
+        final long partitionsOffset = output.size();
+        output.write(new byte[] {1, 1});
+        output.writeLong(8);
+        output.writeLong(namesOffset);
+        output.writeLong(partitionsOffset);
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        output.writeInt((int) checksum.getValue());
+        Files.write(file.toPath(), bytes.toByteArray());
+
+        assertThat(new BinaryNodeDumpSerializer().deserialize(file), is(new NodeDump("", "v", new NodeDump("c", ""))));
+    }
+
+    @Test
+    public void whenDumpHasVersion3_Deserialize_ShouldCheckItAsAWhole() throws IOException, SerializationException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0x434e4431);
+        output.writeByte(3);
+        // the root named "" with the value "v" and the child named "c" with the null value
+        output.write(new byte[] {1, 2, 'v', 2, 0, 0, 0});
+        final long namesOffset = output.size();
+        output.write(new byte[] {2, 0, 1, 'c'});
+        final long partitionsOffset = output.size();
+        output.write(new byte[] {1, 1});
+        output.writeLong(8);
+        output.writeLong(namesOffset);
+        output.writeLong(partitionsOffset);
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        output.writeInt((int) checksum.getValue());
+        Files.write(file.toPath(), bytes.toByteArray());
+
+        assertThat(new BinaryNodeDumpSerializer().deserialize(file), is(new NodeDump("", "v", new NodeDump("c", null))));
+        try (RandomAccessFile corrupted = new RandomAccessFile(file, "rw")) {
+            corrupted.seek(10);
+            corrupted.write(corrupted.read() ^ 1);
+        }
+        try {
+            new BinaryNodeDumpSerializer().open(file);
+            fail("Expected an IOException to be thrown");
+        } catch (IOException ex) { }
+    }
+
+    /**
+     * @return offset of the first occurrence of the value of the child of the root with the given name
+     */
+    private long findOffset(String name) throws IOException {
+        final byte[] content = Files.readAllBytes(file.toPath());
+        final byte[] value = ("value of " + name).getBytes("UTF-8");
+        for (int offset = 0; offset + value.length <= content.length; ++offset) {
+            if (Arrays.equals(Arrays.copyOfRange(content, offset, offset + value.length), value)) {
+                return offset;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private void write(BinaryNodeDumpSerializer serializer, NodeDump dump) throws IOException, SerializationException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            serializer.serialize(dump, output);
+        }
+    }
+
+    /**
+     * Children of every level have the same names, like environments of different applications.
+     */
+    private static NodeDump createDump(int depth, int width) {
+        return createDump("", depth, width);
+    }
+
+    private static NodeDump createDump(String name, int depth, int width) {
+        NodeDump dump = new NodeDump(name, "value of " + name + depth);
+        if (depth > 0) {
+            for (int i = 0; i < width; ++i) {
+                dump.getChildren().add(createDump("level" + depth + "child" + i, depth - 1, width));
+            }
+        }
+        return dump;
+    }
+}
@@ -0,0 +1,137 @@
+package net.thumbtack.configServer.serialization;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junitparams.JUnitParamsRunner.$;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnitParamsRunner.class)
+public class BlockCompressionTest {
+    private Object getCompressions() {
+        return $(
+            $(new BlockCompression(1000, 1, 1)),
+            $(new BlockCompression(1000, 9, 4)),
+            $(new BlockCompression(1, 1, 2))
+        );
+    }
+
+    @Test
+    @Parameters(method = "getCompressions")
+    public void whenDataIsCompressed_Decompress_ShouldReturnTheSameData(BlockCompression compression) throws IOException {
+        byte[] data = createText(20000);
+
+        byte[] compressed = compress(compression, data);
+
+        assertThat(decompress(compression, compressed), is(data));
+    }
+
+    @Test
+    public void whenDataIsRepetitive_Compress_ShouldMakeItSmaller() throws IOException {
+        byte[] data = createText(100000);
+
+        byte[] compressed = compress(new BlockCompression(10000, 1, 2), data);
+
+        assertThat(compressed.length, lessThan(data.length / 4));
+    }
+
+    @Test
+    public void whenDataIsRandom_Compress_ShouldStoreItAsItIs() throws IOException {
+        BlockCompression compression = new BlockCompression(1000, 9, 1);
+        byte[] data = new byte[5000];
+        new Random(1).nextBytes(data);
+
+        byte[] compressed = compress(compression, data);
+
+        assertThat(compressed.length, lessThan(data.length + 100));
+        assertThat(decompress(compression, compressed), is(data));
+    }
+
+    @Test
+    public void whenDataIsEmpty_Decompress_ShouldReturnNothing() throws IOException {
+        BlockCompression compression = new BlockCompression(1000, 1, 1);
+
+        assertThat(decompress(compression, compress(compression, new byte[0])), is(new byte[0]));
+    }
+
+    @Test
+    public void whenDataIsNotCompressed_Decompress_ShouldReturnItAsItIs() throws IOException {
+        byte[] data = createText(100);
+
+        assertThat(decompress(new BlockCompression(1000, 1, 1), data), is(data));
+    }
+
+    @Test
+    public void whenBlockIsCorrupted_Decompress_ShouldReportIt() throws IOException {
+        BlockCompression compression = new BlockCompression(1000, 1, 1);
+        byte[] data = new byte[3000];
+        new Random(1).nextBytes(data);
+        byte[] compressed = compress(compression, data);
+        // header of the stream, the first block, the header of the second one and some of its data
+        compressed[5 + 13 + 1000 + 13 + 10] ^= 1;
+
+        try {
+            decompress(compression, compressed);
+            fail();
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), containsString("Block 1 at offset 1018"));
+        }
+    }
+
+    @Test
+    public void whenStreamIsTruncated_Decompress_ShouldThrowException() throws IOException {
+        BlockCompression compression = new BlockCompression(1000, 1, 1);
+        byte[] compressed = compress(compression, createText(3000));
+
+        try {
+            decompress(compression, Arrays.copyOf(compressed, compressed.length - 4));
+            fail();
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), containsString("truncated"));
+        }
+    }
+
+    private static byte[] createText(int size) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < size; ++i) {
+            text.append("{\"name\":\"node").append(i % 100).append("\",\"value\":\"").append(i).append("\"}");
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    private static byte[] compress(BlockCompression compression, byte[] data) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStream output = compression.compress(stream)) {
+            output.write(data, 0, data.length / 2);
+            for (int i = data.length / 2; i < data.length; ++i) {
+                output.write(data[i]);
+            }
+        }
+        return stream.toByteArray();
+    }
+
+    private static byte[] decompress(BlockCompression compression, byte[] compressed) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (InputStream input = compression.decompress(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[333];
+            for (int count = input.read(buffer); count >= 0; count = input.read(buffer)) {
+                stream.write(buffer, 0, count);
+            }
+        }
+        return stream.toByteArray();
+    }
+}
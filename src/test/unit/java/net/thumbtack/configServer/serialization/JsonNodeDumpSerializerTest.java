@@ -74,4 +74,30 @@ public class JsonNodeDumpSerializerTest {
 
         assertThat(actualDump, is(expectedDump));
     }
+
+    @Test
+    public void whenNodeHasUnknownFields_StreamDeserialization_ShouldSkipThem() throws SerializationException, UnsupportedEncodingException {
+        String json = "{\"name\":\"root\",\"version\":5,\"value\":\"value\",\"children\":[],\"extra\":{\"a\":[1]}}";
+
+        NodeDump actualDump = streamSerializer.deserialize(new ByteArrayInputStream(json.getBytes(encoding)));
+
+        assertThat(actualDump, is(new NodeDump("root", "value")));
+    }
+
+    @Test
+    public void whenChildrenPrecedeNameAndValue_StreamDeserialization_ShouldReadThem() throws SerializationException, UnsupportedEncodingException {
+        String json = "{\"children\":[{\"children\":[],\"value\":\"a\",\"name\":\"a\"},"
+                + "{\"name\":\"b\",\"children\":[{\"name\":\"c\",\"value\":\"c\"}],\"value\":\"b\"}],"
+                + "\"name\":\"root\",\"value\":\"value\"}";
+        NodeDump expectedDump = new NodeDump("root", "value", new NodeDump("a", "a"),
+                new NodeDump("b", "b", new NodeDump("c", "c")));
+
+        NodeDump actualDump = streamSerializer.deserialize(new ByteArrayInputStream(json.getBytes(encoding)));
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        streamSerializer.serialize(actualDump, stream);
+        NodeDump roundTripDump = streamSerializer.deserialize(new ByteArrayInputStream(stream.toByteArray()));
+
+        assertThat(actualDump, is(expectedDump));
+        assertThat(roundTripDump, is(expectedDump));
+    }
 }
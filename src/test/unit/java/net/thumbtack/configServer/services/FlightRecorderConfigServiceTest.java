@@ -0,0 +1,87 @@
+package net.thumbtack.configServer.services;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.apache.thrift.TException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnitParamsRunner.class)
+public class FlightRecorderConfigServiceTest {
+    private static final String RPC_EVENT = "net.thumbtack.configServer.Rpc";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    @Parameters({",0", "a,1", "a/bc/d,3", "/a//b/,2"})
+    public void whenKeyIsGiven_DepthOf_ShouldCountItsLevels(String key, int expectedDepth) {
+        assertThat(FlightRecorderConfigService.depthOf(key), is(expectedDepth));
+    }
+
+    @Test
+    public void whenEventIsEnabled_Service_ShouldRecordCalls() throws TException, IOException {
+        FlightRecorderConfigService service = new FlightRecorderConfigService(new InMemoryConfigService());
+        service.createWithValue("a/b", "value");
+
+        List<RecordedEvent> events = record(service);
+
+        assertThat(events.size(), is(2));
+        RecordedEvent found = events.get(0);
+        assertThat(found.getString("method"), is("getValue"));
+        assertThat(found.getString("key"), is("a/b"));
+        assertThat(found.getInt("keyDepth"), is(2));
+        assertThat(found.getInt("valueSize"), is(5));
+        assertThat(found.getString("error"), is(nullValue()));
+        RecordedEvent failed = events.get(1);
+        assertThat(failed.getString("key"), is("unknown"));
+        assertThat(failed.getString("error"), is("UnknownKeyException"));
+    }
+
+    @Test
+    public void whenEventIsDisabled_Service_ShouldReturnResultsOfInternalService() throws TException {
+        FlightRecorderConfigService service = new FlightRecorderConfigService(new InMemoryConfigService());
+
+        service.createWithValue("a/b", "value");
+
+        assertThat(service.getValue("a/b"), is("value"));
+    }
+
+    private List<RecordedEvent> record(FlightRecorderConfigService service) throws TException, IOException {
+        final Path file = folder.newFile("calls.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable(RPC_EVENT).withoutThreshold();
+            recording.start();
+            service.getValue("a/b");
+            try {
+                service.getValue("unknown");
+            } catch (UnknownKeyException ex) {
+                // expected
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals(RPC_EVENT)) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -2,17 +2,45 @@ package net.thumbtack.configServer.services;
 
 import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
+import net.thumbtack.configServer.domain.FakeTicker;
+import net.thumbtack.configServer.domain.IndexedNodeTree;
+import net.thumbtack.configServer.domain.Node;
+import net.thumbtack.configServer.domain.NodeDump;
+import net.thumbtack.configServer.domain.NodePath;
+import net.thumbtack.configServer.domain.Scheduler;
+import net.thumbtack.configServer.persistence.OperationLog;
+import net.thumbtack.configServer.thrift.Change;
+import net.thumbtack.configServer.thrift.ChangeBatch;
+import net.thumbtack.configServer.thrift.ChangeType;
 import net.thumbtack.configServer.thrift.DuplicateKeyException;
+import net.thumbtack.configServer.thrift.ErrorCode;
 import net.thumbtack.configServer.thrift.InvalidKeyException;
 import net.thumbtack.configServer.thrift.InvalidTimeoutException;
+import net.thumbtack.configServer.thrift.Op;
+import net.thumbtack.configServer.thrift.OpResult;
+import net.thumbtack.configServer.thrift.OpType;
+import net.thumbtack.configServer.thrift.ServerStats;
+import net.thumbtack.configServer.thrift.SubtreeEntry;
 import net.thumbtack.configServer.thrift.UnknownKeyException;
+import net.thumbtack.configServer.thrift.UnknownLeaseException;
+import net.thumbtack.configServer.thrift.WatchEvent;
+import net.thumbtack.configServer.thrift.WatchEventType;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.empty;
@@ -22,11 +50,24 @@ import static org.junit.Assert.fail;
 @RunWith(JUnitParamsRunner.class)
 public class InMemoryConfigServiceTest {
 
+    private static final long WATCH_MS_TIMEOUT = 200;
+    private static final int CHANGES_CAPACITY = 8;
+
+    private FakeTicker ticker;
+    private Scheduler<NodePath> scheduler;
+    private Scheduler<Long> leaseScheduler;
     private InMemoryConfigService service;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void setUp() {
-        service = new InMemoryConfigService();
+        ticker = new FakeTicker();
+        scheduler = new Scheduler<>(ticker, false);
+        leaseScheduler = new Scheduler<>(ticker, false);
+        service = new InMemoryConfigService(new IndexedNodeTree(new Node("")), WATCH_MS_TIMEOUT, CHANGES_CAPACITY,
+                scheduler, leaseScheduler);
     }
 
     @Test
@@ -155,44 +196,604 @@ public class InMemoryConfigServiceTest {
         assertThat(children, is(empty()));
     }
 
+    @Test
+    @Parameters({", 2, child00 child01", "child01, 2, child02 child03", "child015, 1, child02", "child19, 5, ", "child00, 0, "})
+    public void testGetChildrenPage(String afterName, int limit, String expectedNames) throws TException {
+        for (int i = 19; i >= 0; --i) {
+            service.create(String.format("parent/child%02d", i));
+        }
+
+        final List<String> page = service.getChildrenPage("parent", afterName, limit);
+
+        final List<String> expected = expectedNames.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(expectedNames.split(" "));
+        assertThat(page, is(expected));
+    }
+
+    @Test (expected = UnknownKeyException.class)
+    public void whenNodeIsNotExists_GetChildrenPage_ShouldThrowUnknownKeyException() throws TException {
+        service.getChildrenPage("parent", "", 10);
+    }
+
+    @Test
+    @Parameters({"-1, 4", "0, 1", "1, 3"})
+    public void testGetSubtree(int maxDepth, int expectedSize) throws TException {
+        service.createWithValue("parent/child1/grandchild", "grandchild value");
+        service.createWithValue("parent/child2", "child value");
+
+        final List<SubtreeEntry> subtree = service.getSubtree("parent", maxDepth);
+
+        assertThat(subtree.size(), is(expectedSize));
+        assertThat(subtree.get(0).getName(), is("parent"));
+        assertThat(subtree.get(0).getDepth(), is(0));
+    }
+
+    @Test
+    public void whenSubtreeIsRequested_GetSubtree_ShouldReturnValuesWithDepths() throws TException {
+        service.createWithValue("parent/child/grandchild", "value");
+
+        final List<SubtreeEntry> subtree = service.getSubtree("parent/child", -1);
+
+        assertThat(subtree.get(1).getName(), is("grandchild"));
+        assertThat(subtree.get(1).getValue(), is("value"));
+        assertThat(subtree.get(1).getDepth(), is(1));
+    }
+
+    @Test
+    public void whenNodeHasDescendants_RemoveRecursive_ShouldRemoveAndReturnThem() throws TException {
+        service.create("parent/child1/grandchild");
+        service.create("parent/child2");
+
+        final List<SubtreeEntry> removed = service.removeRecursive("parent");
+
+        assertThat(removed.size(), is(4));
+        checkExistence("parent", false);
+        checkExistence("parent/child1/grandchild", false);
+    }
+
+    @Test (expected = UnknownKeyException.class)
+    public void whenNodeIsNotExists_RemoveRecursive_ShouldThrowUnknownKeyException() throws TException {
+        service.removeRecursive("parent");
+    }
+
+    @Test
+    public void whenSomeNodesAreMissing_GetValues_ShouldReturnOnlyExistingOnes() throws TException {
+        service.createWithValue("parent/first", "1");
+        service.createWithValue("parent/second", "2");
+        service.createWithValue("other", "3");
+
+        final Map<String, String> values = service.getValues(Arrays.asList("parent/second", "missing", "other", "parent/first", "parent/missing"));
+
+        assertThat(values.size(), is(3));
+        assertThat(values.get("parent/first"), is("1"));
+        assertThat(values.get("parent/second"), is("2"));
+        assertThat(values.get("other"), is("3"));
+    }
+
+    @Test
+    public void whenOperationsAreGiven_Multi_ShouldExecuteThemInOrder() throws TException {
+        final List<OpResult> results = service.multi(Arrays.asList(
+                new Op(OpType.CREATE, "parent/child").setValue("value"),
+                new Op(OpType.SET_VALUE, "parent/child").setValue("changed"),
+                new Op(OpType.GET_VALUE, "parent/child"),
+                new Op(OpType.GET_CHILDREN, "parent"),
+                new Op(OpType.REMOVE, "parent/child"),
+                new Op(OpType.EXISTS, "parent/child")));
+
+        assertThat(results.size(), is(6));
+        assertThat(results.get(2).getValue(), is("changed"));
+        assertThat(results.get(3).getChildren(), is(Collections.singletonList("child")));
+        assertThat(results.get(5).isExists(), is(false));
+    }
+
+    @Test
+    public void whenOperationFails_Multi_ShouldReturnErrorAndContinue() throws TException {
+        service.create("key");
+
+        final List<OpResult> results = service.multi(Arrays.asList(
+                new Op(OpType.CREATE, "key"),
+                new Op(OpType.GET_VALUE, "missing"),
+                new Op(OpType.CREATE_TEMPORARY, "temporary").setMsTimeout(-1),
+                new Op(null, "key"),
+                new Op(OpType.CREATE, "other")));
+
+        assertThat(results.get(0).getError(), is(ErrorCode.DUPLICATE_KEY));
+        assertThat(results.get(1).getError(), is(ErrorCode.UNKNOWN_KEY));
+        assertThat(results.get(2).getError(), is(ErrorCode.INVALID_TIMEOUT));
+        assertThat(results.get(3).getError(), is(ErrorCode.UNKNOWN_OPERATION));
+        assertThat(results.get(4).isSetError(), is(false));
+        checkExistence("other", true);
+    }
+
     @Test
     @Parameters({"10, 5, true", "5, 10, false"})
-    public void testCreateTemporaryWithValue(long timeout, long timeToSleep, boolean expectedExistence) throws TException, InterruptedException {
+    public void testCreateTemporaryWithValue(long timeout, long timeToPass, boolean expectedExistence) throws TException {
         service.createTemporaryWithValue("key", "value", timeout);
 
-        Thread.sleep(timeToSleep);
+        advance(timeToPass);
 
         checkExistence("key", expectedExistence);
     }
 
     @Test
-    public void whenTemporaryValueIsCreated_SetValue_ShouldProlongItsLifetime() throws TException, InterruptedException {
+    public void whenTemporaryValueIsCreated_SetValue_ShouldProlongItsLifetime() throws TException {
         service.createTemporaryWithValue("key", "value", 10);
 
-        Thread.sleep(5);
+        advance(5);
         service.setValue("key", "new value");
 
-        Thread.sleep(6);
+        advance(6);
         checkExistence("key", true);
     }
 
     @Test
-    public void whenTemporaryValueIsCreated_AndTimeoutIsExpiredAfterSetValue_TheNodeShouldBeRemoved() throws TException, InterruptedException {
+    public void whenTemporaryValueIsCreated_AndTimeoutIsExpiredAfterSetValue_TheNodeShouldBeRemoved() throws TException {
         service.createTemporaryWithValue("key", "value", 5);
 
         service.setValue("key", "new value");
 
-        Thread.sleep(11);
+        advance(11);
         checkExistence("key", false);
     }
 
+    @Test
+    public void whenLeaseExpires_AllNodesCreatedWithIt_ShouldBeRemoved() throws TException {
+        final long leaseId = service.grantLease(10);
+        service.createWithLease("first", "1", leaseId);
+        service.createWithLease("parent/second", "2", leaseId);
+        service.create("permanent");
+
+        advance(30);
+
+        checkExistence("first", false);
+        checkExistence("parent/second", false);
+        checkExistence("parent", true);
+        checkExistence("permanent", true);
+    }
+
+    @Test
+    public void whenLeaseIsKeptAlive_ItsNodes_ShouldNotBeRemoved() throws TException {
+        final long leaseId = service.grantLease(20);
+        service.createWithLease("key", "value", leaseId);
+
+        for (int i = 0; i < 4; ++i) {
+            advance(10);
+            service.keepAlive(leaseId);
+        }
+
+        checkExistence("key", true);
+    }
+
+    @Test
+    public void whenLeasedNodeIsRemovedAndCreatedAgain_LeaseExpiration_ShouldNotRemoveIt() throws TException {
+        final long leaseId = service.grantLease(10);
+        service.createWithLease("key", "value", leaseId);
+
+        service.remove("key");
+        service.create("key");
+        advance(30);
+
+        checkExistence("key", true);
+    }
+
+    @Test
+    public void whenTemporaryNodeIsRemovedRecursivelyAndCreatedAgain_Timeout_ShouldNotRemoveIt() throws TException {
+        service.createTemporaryWithValue("a", "value", 10);
+
+        service.removeRecursive("a");
+        service.create("a");
+        advance(20);
+
+        checkExistence("a", true);
+    }
+
+    @Test
+    public void whenParentOfTemporaryNodeIsRemovedAndNodeIsCreatedAgain_Timeout_ShouldNotRemoveIt() throws TException {
+        service.createTemporaryWithValue("p/c", "value", 10);
+
+        service.remove("p");
+        service.create("p/c");
+        advance(20);
+
+        checkExistence("p/c", true);
+        assertThat(service.getStats().getPendingTimers(), is(0L));
+    }
+
+    @Test
+    public void whenLeasedNodeIsRemovedRecursivelyAndCreatedAgain_LeaseExpiration_ShouldNotRemoveIt() throws TException {
+        final long leaseId = service.grantLease(10);
+        service.createWithLease("l", "value", leaseId);
+
+        service.removeRecursive("l");
+        service.create("l");
+        advance(30);
+
+        checkExistence("l", true);
+    }
+
+    @Test
+    public void whenParentOfLeasedNodeIsRemovedAndNodeIsCreatedAgain_LeaseExpiration_ShouldNotRemoveIt() throws TException {
+        final long leaseId = service.grantLease(10);
+        service.createWithLease("p/l", "value", leaseId);
+
+        service.remove("p");
+        service.create("p/l");
+        advance(30);
+
+        checkExistence("p/l", true);
+    }
+
+    @Test (expected = UnknownLeaseException.class)
+    public void whenLeaseIsNotGranted_CreateWithLease_ShouldThrowUnknownLeaseException() throws TException {
+        service.createWithLease("key", "value", 42);
+    }
+
+    @Test (expected = UnknownLeaseException.class)
+    public void whenLeaseHasExpired_CreateWithLease_ShouldThrowUnknownLeaseException() throws TException {
+        final long leaseId = service.grantLease(5);
+        advance(20);
+
+        service.createWithLease("key", "value", leaseId);
+    }
+
+    @Test (expected = InvalidTimeoutException.class)
+    public void whenTtlIsNotPositive_GrantLease_ShouldThrowInvalidTimeoutException() throws TException {
+        service.grantLease(0);
+    }
+
     @Test(expected = InvalidTimeoutException.class)
     public void testCreateTemporaryWithValue_whenTimeoutIsInvalid() throws TException {
         service.createTemporaryWithValue("key", "value", -10);
     }
 
+    @Test
+    public void whenNodeIsCreatedAfterWatch_Watch_ShouldReturnTheChange() throws TException {
+        RecordingHandler handler = new RecordingHandler();
+        service.watch("key", false, 0, handler);
+
+        service.createWithValue("key", "value");
+
+        assertThat(handler.events.size(), is(1));
+        checkEvent(handler.events.get(0), WatchEventType.CHANGED, "key", "value");
+        assertThat(handler.events.get(0).getVersion(), is(1L));
+    }
+
+    @Test
+    public void whenNodeHasChangedAfterVersion_Watch_ShouldReturnItsCurrentStateImmediately() throws TException {
+        service.createWithValue("key", "value");
+        service.setValue("key", "new value");
+
+        WatchEvent event = service.watch("key", false, 1);
+
+        checkEvent(event, WatchEventType.CHANGED, "key", "new value");
+        assertThat(event.getVersion(), is(2L));
+    }
+
+    @Test
+    public void whenNothingChanges_Watch_ShouldReturnNoneAfterTimeout() throws TException {
+        service.createWithValue("key", "value");
+
+        final long start = System.currentTimeMillis();
+        WatchEvent event = service.watch("key", true, 1);
+
+        assertThat(System.currentTimeMillis() - start >= WATCH_MS_TIMEOUT, is(true));
+        assertThat(event.getType(), is(WatchEventType.NONE));
+        assertThat(event.getVersion(), is(1L));
+    }
+
+    @Test
+    public void whenDescendantIsChanged_RecursiveWatch_ShouldReturnTheChange() throws TException {
+        service.create("parent");
+        RecordingHandler recursive = new RecordingHandler();
+        RecordingHandler exact = new RecordingHandler();
+        service.watch("parent", true, 1, recursive);
+        service.watch("parent", false, 1, exact);
+
+        service.createWithValue("parent/child", "value");
+
+        assertThat(recursive.events.size(), is(1));
+        checkEvent(recursive.events.get(0), WatchEventType.CHANGED, "parent/child", "value");
+        assertThat(exact.events, is(empty()));
+    }
+
+    @Test
+    public void whenAncestorIsRemoved_Watch_ShouldReturnRemovalOfTheWatchedNode() throws TException {
+        service.create("parent/child");
+        RecordingHandler handler = new RecordingHandler();
+        service.watch("parent/child", false, 1, handler);
+
+        service.remove("parent");
+
+        assertThat(handler.events.size(), is(1));
+        checkEvent(handler.events.get(0), WatchEventType.REMOVED, "parent/child", null);
+        assertThat(handler.events.get(0).getVersion(), is(2L));
+    }
+
+    @Test
+    public void whenNodeIsRemoved_Watch_ShouldReturnRemovalOnlyForItsSubtree() throws TException {
+        service.create("a/b/c");
+        service.create("a-b");
+        service.create("ab/c");
+        RecordingHandler descendant = new RecordingHandler();
+        RecordingHandler recursiveDescendant = new RecordingHandler();
+        RecordingHandler sibling = new RecordingHandler();
+        RecordingHandler recursiveSibling = new RecordingHandler();
+        service.watch("a/b/c", false, 3, descendant);
+        service.watch("a/b", true, 3, recursiveDescendant);
+        service.watch("a-b", false, 3, sibling);
+        service.watch("ab", true, 3, recursiveSibling);
+
+        service.remove("a");
+
+        assertThat(descendant.events.size(), is(1));
+        checkEvent(descendant.events.get(0), WatchEventType.REMOVED, "a/b/c", null);
+        assertThat(recursiveDescendant.events.size(), is(1));
+        checkEvent(recursiveDescendant.events.get(0), WatchEventType.REMOVED, "a/b", null);
+        assertThat(sibling.events.size(), is(0));
+        assertThat(recursiveSibling.events.size(), is(0));
+    }
+
+    @Test
+    public void whenTemporaryNodeExpires_Watch_ShouldReturnItsRemoval() throws TException {
+        service.createTemporaryWithValue("key", "value", 10);
+        RecordingHandler handler = new RecordingHandler();
+        service.watch("key", false, 1, handler);
+
+        advance(11);
+
+        assertThat(handler.events.size(), is(1));
+        checkEvent(handler.events.get(0), WatchEventType.REMOVED, "key", null);
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void whenKeyIsInvalid_Watch_ShouldThrowInvalidKeyException() throws TException {
+        service.watch("a\u0000b", false, 0);
+    }
+
+    @Test
+    public void whenTreeIsChanged_GetChangesSince_ShouldReturnChangesInOrder() throws TException {
+        service.createWithValue("a/b", "value");
+        service.setValue("a", "new value");
+        service.remove("a/b");
+
+        ChangeBatch batch = service.getChangesSince(0, 100);
+
+        assertThat(batch.isResnapshot(), is(false));
+        assertThat(batch.getLastSequence(), is(4L));
+        assertThat(batch.getChanges().size(), is(4));
+        checkChange(batch.getChanges().get(0), 1, ChangeType.CHANGED, "a", "");
+        checkChange(batch.getChanges().get(1), 2, ChangeType.CHANGED, "a/b", "value");
+        checkChange(batch.getChanges().get(2), 3, ChangeType.CHANGED, "a", "new value");
+        checkChange(batch.getChanges().get(3), 4, ChangeType.REMOVED, "a/b", null);
+    }
+
+    @Test
+    public void whenThereAreMoreChangesThanMaxEvents_GetChangesSince_ShouldReturnThemByParts() throws TException {
+        service.create("a");
+        service.create("b");
+        service.create("c");
+
+        ChangeBatch first = service.getChangesSince(0, 2);
+        ChangeBatch second = service.getChangesSince(first.getLastSequence(), 2);
+        ChangeBatch last = service.getChangesSince(second.getLastSequence(), 2);
+
+        assertThat(first.getChanges().size(), is(2));
+        assertThat(second.getChanges().size(), is(1));
+        checkChange(second.getChanges().get(0), 3, ChangeType.CHANGED, "c", "");
+        assertThat(last.getChanges(), is(empty()));
+        assertThat(last.getLastSequence(), is(3L));
+    }
+
+    @Test
+    public void whenChangesAreNotKept_GetChangesSince_ShouldRequestResnapshot() throws TException {
+        for (int i = 0; i < CHANGES_CAPACITY + 2; ++i) {
+            service.create("key" + i);
+        }
+
+        ChangeBatch tooOld = service.getChangesSince(1, 100);
+        ChangeBatch kept = service.getChangesSince(2, 100);
+
+        assertThat(tooOld.isResnapshot(), is(true));
+        assertThat(tooOld.getLastSequence(), is((long) CHANGES_CAPACITY + 2));
+        assertThat(kept.isResnapshot(), is(false));
+        assertThat(kept.getChanges().size(), is(CHANGES_CAPACITY));
+    }
+
+    @Test
+    public void whenTreeIsRestored_GetChangesSince_ShouldRequestResnapshotForPreviousChanges() throws TException, IOException {
+        service.create("key");
+
+        service.restore(new NodeDump("", "", new NodeDump("restored", "value")));
+        ChangeBatch beforeRestore = service.getChangesSince(1, 100);
+        ChangeBatch afterRestore = service.getChangesSince(beforeRestore.getLastSequence(), 100);
+
+        assertThat(beforeRestore.isResnapshot(), is(true));
+        assertThat(afterRestore.isResnapshot(), is(false));
+        assertThat(afterRestore.getChanges(), is(empty()));
+    }
+
+    @Test
+    public void whenSequenceIsUnknown_GetChangesSince_ShouldRequestResnapshot() throws TException {
+        service.create("key");
+
+        ChangeBatch batch = service.getChangesSince(42, 100);
+
+        assertThat(batch.isResnapshot(), is(true));
+        assertThat(batch.getLastSequence(), is(1L));
+    }
+
+    @Test
+    public void whenTemporaryNodeExpires_GetChangesSince_ShouldReturnItsRemoval() throws TException {
+        service.createTemporaryWithValue("key", "value", 5);
+
+        advance(50);
+        ChangeBatch batch = service.getChangesSince(1, 100);
+
+        assertThat(batch.getChanges().size(), is(1));
+        checkChange(batch.getChanges().get(0), 2, ChangeType.REMOVED, "key", null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenOperationLogIsDisabled_Unload_ShouldThrow() throws TException, IOException {
+        service.createWithValue("a", "value");
+        NodeDump dump = service.getDump();
+
+        service.unload(new NodePath("a"), 0, dump);
+    }
+
+    @Test
+    public void whenNodesAreCreated_GetStats_ShouldCountThemAndPendingTimers() throws TException {
+        service.createWithValue("a/b", "value");
+        service.createTemporaryWithValue("c", "value", 60000);
+
+        ServerStats stats = service.getStats();
+
+        assertThat(stats.getNodes(), is(4L));
+        assertThat(stats.getApproximateBytes() > 0, is(true));
+        assertThat(stats.getPendingTimers(), is(1L));
+        assertThat(stats.getExpiredTimers(), is(0L));
+    }
+
+    @Test
+    public void whenServiceIsRecovered_Tree_ShouldContainLoggedChanges() throws TException, IOException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        service.createWithValue("a/b", "value");
+        service.setValue("a", "new value");
+        service.create("removed/child");
+        service.remove("removed");
+        log.close();
+
+        InMemoryConfigService recovered = new InMemoryConfigService();
+        recovered.recover(new OperationLog(directory, 1024 * 1024, 0));
+
+        assertThat(recovered.getValue("a/b"), is("value"));
+        assertThat(recovered.getValue("a"), is("new value"));
+        assertThat(recovered.exists("removed"), is(false));
+    }
+
+    @Test
+    public void whenTemporaryNodeIsRecovered_ItShouldBeRemovedAfterTimeout() throws TException, IOException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        service.createTemporaryWithValue("key", "value", 20);
+        log.close();
+
+        Scheduler<NodePath> recoveredScheduler = new Scheduler<>(ticker, false);
+        InMemoryConfigService recovered = new InMemoryConfigService(new IndexedNodeTree(new Node("")), WATCH_MS_TIMEOUT,
+                CHANGES_CAPACITY, recoveredScheduler, new Scheduler<Long>(ticker, false));
+        recovered.recover(new OperationLog(directory, 1024 * 1024, 0));
+        final boolean existedAfterRecovery = recovered.exists("key");
+        ticker.advance(60, TimeUnit.MILLISECONDS);
+        recoveredScheduler.runDueTasks();
+
+        assertThat(existedAfterRecovery, is(true));
+        assertThat(recovered.exists("key"), is(false));
+    }
+
+    @Test
+    public void whenLogIsCompactedAfterDump_DumpAndLog_ShouldRestoreTheTree() throws TException, IOException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        service.createWithValue("before", "dump");
+        NodeDump dump = service.getDump();
+        service.createWithValue("after", "dump");
+        service.compactLog();
+        log.close();
+
+        InMemoryConfigService recovered = new InMemoryConfigService();
+        recovered.restore(dump);
+        recovered.recover(new OperationLog(directory, 1024 * 1024, 0));
+
+        assertThat(directory.listFiles().length, is(1));
+        assertThat(recovered.getValue("before"), is("dump"));
+        assertThat(recovered.getValue("after"), is("dump"));
+    }
+
+    @Test
+    public void whenLogAppendFails_Changes_ShouldNotBeApplied() throws TException, IOException {
+        OperationLog log = new OperationLog(folder.newFolder("oplog"), 1024 * 1024, 0);
+        service.createWithValue("existing", "value");
+        service.recover(log);
+        log.close();
+
+        try {
+            service.create("created");
+            fail("Expected a TException to be thrown");
+        } catch (TException ex) { }
+        try {
+            service.setValue("existing", "new value");
+            fail("Expected a TException to be thrown");
+        } catch (TException ex) { }
+        try {
+            service.remove("existing");
+            fail("Expected a TException to be thrown");
+        } catch (TException ex) { }
+
+        assertThat(service.exists("created"), is(false));
+        assertThat(service.getValue("existing"), is("value"));
+    }
+
+    @Test
+    public void whenChangeFails_Log_ShouldNotContainIt() throws TException, IOException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        service.createWithValue("existing", "value");
+        try {
+            service.createWithValue("existing", "duplicate");
+            fail("Expected an DuplicateKeyException to be thrown");
+        } catch (DuplicateKeyException ex) { }
+        try {
+            service.setValue("missing", "value");
+            fail("Expected an UnknownKeyException to be thrown");
+        } catch (UnknownKeyException ex) { }
+        log.close();
+
+        InMemoryConfigService recovered = new InMemoryConfigService();
+        recovered.recover(new OperationLog(directory, 1024 * 1024, 0));
+
+        assertThat(recovered.getValue("existing"), is("value"));
+        assertThat(recovered.exists("missing"), is(false));
+    }
+
+    private static void checkChange(Change change, long sequence, ChangeType type, String key, String value) {
+        assertThat(change.getSequence(), is(sequence));
+        assertThat(change.getType(), is(type));
+        assertThat(change.getKey(), is(key));
+        assertThat(change.getValue(), is(value));
+    }
+
+    private static void checkEvent(WatchEvent event, WatchEventType type, String key, String value) {
+        assertThat(event.getType(), is(type));
+        assertThat(event.getKey(), is(key));
+        assertThat(event.getValue(), is(value));
+    }
+
+    private void advance(long ms) {
+        ticker.advance(ms, TimeUnit.MILLISECONDS);
+        scheduler.runDueTasks();
+        leaseScheduler.runDueTasks();
+    }
+
     private void checkExistence(String key, boolean expectedExistence) throws TException {
         boolean exists = service.exists(key);
         assertThat(exists, is(expectedExistence));
     }
+
+    private static class RecordingHandler implements AsyncMethodCallback<WatchEvent> {
+        private final List<WatchEvent> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onComplete(WatchEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            throw new AssertionError(exception);
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package net.thumbtack.configServer.services;
+
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import org.apache.thrift.TException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(JUnitParamsRunner.class)
+public class LoggingConfigServiceTest {
+    @Test
+    @Parameters({"0", "0.5", "1"})
+    public void whenCallsAreSampled_Service_ShouldReturnResultsOfInternalService(double sampleRate) throws TException {
+        LoggingConfigService service = new LoggingConfigService(new InMemoryConfigService(), sampleRate, 8);
+
+        service.createWithValue("a/b", "value");
+
+        assertThat(service.getValue("a/b"), is("value"));
+        assertThat(service.getChildren("a"), is(Collections.singletonList("b")));
+    }
+
+    @Test(expected = UnknownKeyException.class)
+    @Parameters({"0", "1"})
+    public void whenInternalServiceThrows_Service_ShouldRethrowTheException(double sampleRate) throws TException {
+        LoggingConfigService service = new LoggingConfigService(new InMemoryConfigService(), sampleRate, 8);
+
+        service.getValue("unknown");
+    }
+
+    @Test
+    public void whenValueIsLong_Truncated_ShouldCutIt() {
+        LoggingConfigService.Truncated truncated = new LoggingConfigService.Truncated("0123456789", 4);
+
+        assertThat(truncated.toString(), is("0123...(10 chars)"));
+    }
+
+    @Test
+    public void whenCollectionIsLong_Truncated_ShouldFormatOnlyFirstItems() {
+        LoggingConfigService.Truncated truncated = new LoggingConfigService.Truncated(Arrays.asList("ab", "cd", "ef", "gh"), 5);
+
+        assertThat(truncated.toString(), is("[ab, cd...(4 items)]"));
+    }
+
+    @Test
+    public void whenArgumentsAreGiven_Truncated_ShouldJoinThem() {
+        LoggingConfigService.Truncated truncated = new LoggingConfigService.Truncated(new Object[] {"key", 5L, null}, 16);
+
+        assertThat(truncated.toString(), is("key, 5, null"));
+    }
+}
@@ -0,0 +1,86 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.metrics.ServiceMetrics;
+import net.thumbtack.configServer.thrift.OperationStats;
+import net.thumbtack.configServer.thrift.UnknownKeyException;
+import net.thumbtack.configServer.thrift.WatchEvent;
+import net.thumbtack.configServer.thrift.WatchEventType;
+import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MetricsConfigServiceTest {
+    private ServiceMetrics metrics = null;
+    private MetricsConfigService service = null;
+
+    @Before
+    public void setUp() {
+        metrics = new ServiceMetrics();
+        service = new MetricsConfigService(new InMemoryConfigService(), metrics);
+    }
+
+    @Test
+    public void whenCallsSucceed_Service_ShouldCountThem() throws TException {
+        service.createWithValue("a", "value");
+        service.getValue("a");
+        service.getValue("a");
+
+        assertThat(metrics.getOperation("createWithValue").getLatency().getCount(), is(1L));
+        assertThat(metrics.getOperation("getValue").getLatency().getCount(), is(2L));
+        assertThat(metrics.getOperation("getValue").getErrors(), is(0L));
+    }
+
+    @Test
+    public void whenCallsThrow_Service_ShouldCountErrorsByType() throws TException {
+        for (int i = 0; i < 2; ++i) {
+            try {
+                service.getValue("unknown");
+            } catch (UnknownKeyException ex) {
+                // expected
+            }
+        }
+
+        OperationStats stats = metrics.getOperation("getValue").toStats();
+        assertThat(stats.getLatency().getCount(), is(2L));
+        assertThat(stats.getErrors(), is(2L));
+        assertThat(stats.getErrorsByType(), is(Collections.singletonMap("UnknownKeyException", 2L)));
+    }
+
+    @Test
+    public void whenWatchIsCalledAsynchronously_Service_ShouldCountItWhenItCompletes() throws TException {
+        final List<WatchEvent> events = new ArrayList<>();
+        new AsyncConfigService(service).watch("a", false, 0, new AsyncMethodCallback<WatchEvent>() {
+            @Override
+            public void onComplete(WatchEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                throw new AssertionError(exception);
+            }
+        });
+        final long countBeforeChange = metrics.getOperation("watch").getLatency().getCount();
+
+        service.createWithValue("a", "value");
+
+        assertThat(countBeforeChange, is(0L));
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getType(), is(WatchEventType.CHANGED));
+        assertThat(metrics.getOperation("watch").getLatency().getCount(), is(1L));
+    }
+
+    @Test
+    public void whenServiceIsCreated_GetOperationStats_ShouldListAllMethodsByName() {
+        assertThat(metrics.getOperationStats().size(), is(19));
+        assertThat(metrics.getOperationStats().get(0).getName(), is("create"));
+    }
+}
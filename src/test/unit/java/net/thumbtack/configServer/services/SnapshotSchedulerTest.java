@@ -0,0 +1,154 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.persistence.OperationLog;
+import net.thumbtack.configServer.persistence.SnapshotStore;
+import net.thumbtack.configServer.serialization.JsonNodeDeltaStreamSerializer;
+import net.thumbtack.configServer.serialization.JsonNodeDumpStreamSerializer;
+import net.thumbtack.configServer.serialization.SerializationException;
+import org.apache.thrift.TException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SnapshotSchedulerTest {
+    private static final long MS_CHECK_INTERVAL = 10;
+    private static final long MS_WAIT_LIMIT = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final JsonNodeDumpStreamSerializer serializer = new JsonNodeDumpStreamSerializer("UTF-8");
+    private final JsonNodeDeltaStreamSerializer deltaSerializer = new JsonNodeDeltaStreamSerializer("UTF-8");
+    private InMemoryConfigService service;
+    private SnapshotStore store;
+    private File file;
+    private SnapshotScheduler scheduler = null;
+
+    @Before
+    public void setUp() throws IOException {
+        service = new InMemoryConfigService();
+        file = new File(folder.newFolder("snapshots"), "dump.json");
+        store = new SnapshotStore(file, 2, 0, serializer, serializer, deltaSerializer, deltaSerializer);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.stop();
+        }
+    }
+
+    @Test
+    public void whenChangesReachThreshold_Scheduler_ShouldSaveSnapshot() throws TException, InterruptedException, IOException, SerializationException {
+        scheduler = new SnapshotScheduler(service, store, 0, 3, MS_CHECK_INTERVAL, 0);
+        scheduler.start();
+
+        service.createWithValue("a", "1");
+        service.createWithValue("b", "2");
+        service.createWithValue("c", "3");
+
+        waitFor(file);
+        assertThat(service.getChangesSinceDump(), is(0L));
+        InMemoryConfigService restored = restoreSnapshot();
+        assertThat(restored.getValue("a"), is("1"));
+        assertThat(restored.getValue("c"), is("3"));
+    }
+
+    @Test
+    public void whenChangesAreBelowThreshold_Scheduler_ShouldNotSaveSnapshot() throws TException, InterruptedException {
+        scheduler = new SnapshotScheduler(service, store, 0, 3, MS_CHECK_INTERVAL, 0);
+        scheduler.start();
+
+        service.createWithValue("a", "1");
+        service.createWithValue("b", "2");
+
+        Thread.sleep(MS_CHECK_INTERVAL * 10);
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void whenIntervalPassesAfterChange_Scheduler_ShouldSaveSnapshot() throws TException, InterruptedException, IOException, SerializationException {
+        scheduler = new SnapshotScheduler(service, store, MS_CHECK_INTERVAL * 5, 0, MS_CHECK_INTERVAL, 0);
+        scheduler.start();
+
+        service.createWithValue("a", "1");
+
+        waitFor(file);
+        assertThat(restoreSnapshot().getValue("a"), is("1"));
+    }
+
+    @Test
+    public void whenThereAreNoChanges_Scheduler_ShouldNotSaveSnapshot() throws InterruptedException {
+        scheduler = new SnapshotScheduler(service, store, MS_CHECK_INTERVAL, 1, MS_CHECK_INTERVAL, 0);
+        scheduler.start();
+
+        Thread.sleep(MS_CHECK_INTERVAL * 10);
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void whenSnapshotIsSaved_Snapshot_ShouldCompactOperationLog() throws TException, IOException, SerializationException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        service.createWithValue("a", "1");
+        scheduler = new SnapshotScheduler(service, store, 0, 0, MS_CHECK_INTERVAL, 0);
+
+        scheduler.snapshot();
+        service.createWithValue("b", "2");
+        log.close();
+
+        InMemoryConfigService recovered = restoreSnapshot();
+        recovered.recover(new OperationLog(directory, 1024 * 1024, 0));
+        assertThat(directory.listFiles().length, is(1));
+        assertThat(recovered.getValue("a"), is("1"));
+        assertThat(recovered.getValue("b"), is("2"));
+    }
+
+    @Test
+    public void whenStoreHasBase_Snapshot_ShouldSaveDeltasAndMergeThemAtLimit() throws TException, IOException, SerializationException {
+        File directory = folder.newFolder("oplog");
+        OperationLog log = new OperationLog(directory, 1024 * 1024, 0);
+        service.recover(log);
+        scheduler = new SnapshotScheduler(service, store, 0, 0, MS_CHECK_INTERVAL, 2);
+        service.createWithValue("a", "1");
+        scheduler.snapshot();
+
+        service.createWithValue("b", "2");
+        scheduler.snapshot();
+        assertThat(store.getDeltasCount(), is(1));
+        service.setValue("a", "3");
+        service.remove("b");
+        scheduler.snapshot();
+        assertThat(store.getDeltasCount(), is(0));
+        service.createWithValue("c", "4");
+        scheduler.snapshot();
+        log.close();
+
+        InMemoryConfigService restored = restoreSnapshot();
+        assertThat(restored.getValue("a"), is("3"));
+        assertThat(restored.exists("b"), is(false));
+        assertThat(restored.getValue("c"), is("4"));
+    }
+
+    private InMemoryConfigService restoreSnapshot() throws IOException, SerializationException {
+        InMemoryConfigService restored = new InMemoryConfigService();
+        restored.restore(store.load());
+        return restored;
+    }
+
+    private static void waitFor(File file) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + MS_WAIT_LIMIT;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(MS_CHECK_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.thumbtack.configServer.services;
+
+import net.thumbtack.configServer.domain.IndexedNodeTree;
+import net.thumbtack.configServer.domain.Node;
+import net.thumbtack.configServer.domain.NodePath;
+import net.thumbtack.configServer.persistence.OperationLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SubtreeTieringTest {
+    private static final long MS_CHECK_INTERVAL = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IndexedNodeTree tree;
+    private InMemoryConfigService service;
+    private OperationLog log;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        tree = new IndexedNodeTree(new Node(""));
+        service = new InMemoryConfigService(tree);
+        log = new OperationLog(folder.newFolder("oplog"), 1024 * 1024, 0);
+        service.recover(log);
+        directory = folder.newFolder("tier");
+        service.createWithValue("a", "1");
+        service.createWithValue("a/x", "2");
+        service.createWithValue("a/y", "3");
+        service.createWithValue("b", "4");
+        service.createWithValue("b/z", "5");
+        service.getDump();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+    }
+
+    @Test
+    public void whenNodesExceedBudget_Check_ShouldUnloadSubtreesNotAccessedSinceLastCheck() throws Exception {
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 2, MS_CHECK_INTERVAL);
+        tree.sweep(1);
+        service.getValue("b/z");
+
+        assertThat(tiering.check(), is(1));
+        assertThat(tree.getPendingCount(), is(1));
+        assertThat(tree.sweep(1).get(0).getPath(), is(new NodePath("b")));
+        assertThat(directory.listFiles().length, is(0));
+        assertThat(service.getValue("a/y"), is("3"));
+        assertThat(tree.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void whenNodesFitIntoBudget_Check_ShouldNotUnloadSubtrees() throws Exception {
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 5, MS_CHECK_INTERVAL);
+        tree.sweep(1);
+
+        assertThat(tiering.check(), is(0));
+        assertThat(tree.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void whenSubtreeIsChangedAfterDump_Check_ShouldNotUnloadIt() throws Exception {
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 0, MS_CHECK_INTERVAL);
+        service.setValue("b/z", "6");
+        tree.sweep(1);
+
+        assertThat(tiering.check(), is(1));
+        assertThat(tree.getPendingCount(), is(1));
+        assertThat(tree.sweep(1).get(0).getPath(), is(new NodePath("b")));
+        assertThat(service.getValue("b/z"), is("6"));
+    }
+
+    @Test
+    public void whenSubtreeIsUnloaded_Dump_ShouldContainItWithoutReadingItBack() throws Exception {
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 0, MS_CHECK_INTERVAL);
+        tree.sweep(1);
+
+        assertThat(tiering.check(), is(2));
+        InMemoryConfigService restored = new InMemoryConfigService();
+        restored.restore(service.getDump());
+        assertThat(restored.getValue("a/x"), is("2"));
+        assertThat(restored.getValue("b/z"), is("5"));
+        assertThat(tree.getPendingCount(), is(2));
+    }
+
+    @Test
+    public void whenUnloadedSubtreeIsRemoved_Remove_ShouldCancelTimersOfItsNodes() throws Exception {
+        service.createTemporaryWithValue("b/temporary", "6", 60000);
+        service.getDump();
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 0, MS_CHECK_INTERVAL);
+        tree.sweep(1);
+        tiering.check();
+
+        service.remove("b");
+
+        assertThat(service.getStats().getPendingTimers(), is(0L));
+        assertThat(tree.getPendingCount(), is(1));
+    }
+
+    @Test
+    public void whenTieringIsStarted_Tiering_ShouldUnloadColdSubtreesInBackground() throws Exception {
+        SubtreeTiering tiering = new SubtreeTiering(service, tree, directory, 1, 0, MS_CHECK_INTERVAL);
+        tiering.start();
+        try {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (tree.getPendingCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(MS_CHECK_INTERVAL);
+            }
+        } finally {
+            tiering.stop();
+        }
+
+        assertThat(tree.getPendingCount(), is(2));
+        assertThat(service.getValue("a/x"), is("2"));
+    }
+}